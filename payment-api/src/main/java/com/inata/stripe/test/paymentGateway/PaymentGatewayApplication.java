@@ -1,23 +1,36 @@
 package com.inata.stripe.test.paymentGateway;
 
+import com.inata.stripe.test.paymentGateway.transactions.service.BalanceRebuildCommand;
+import com.inata.stripe.test.paymentGateway.webhook.EventReplayCommand;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @SpringBootApplication
+@EnableScheduling
 @EnableJpaRepositories(basePackages = {
-        "com.inata.stripe.test.paymentGateway.transactions.Repository",
+        "com.inata.stripe.test.paymentGateway.transactions.repository",
         "com.inata.stripe.test.paymentGateway.stripeusers.repository",
-        "com.inata.stripe.test.paymentGateway.webhook"})
+        "com.inata.stripe.test.paymentGateway.webhook",
+        "com.inata.stripe.test.paymentGateway.outbox"})
 
 
 public class PaymentGatewayApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(PaymentGatewayApplication.class, args);
+        SpringApplication application = new SpringApplication(PaymentGatewayApplication.class);
+        List<String> arguments = Arrays.asList(args);
+        if (arguments.contains("--" + EventReplayCommand.OPTION) || arguments.contains("--" + BalanceRebuildCommand.OPTION)) {
+            // CLI commands: no web server, the command exits once it is done
+            application.setWebApplicationType(WebApplicationType.NONE);
+        }
+        application.run(args);
     }
 
 
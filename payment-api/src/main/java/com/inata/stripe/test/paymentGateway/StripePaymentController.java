@@ -1,6 +1,6 @@
 package com.inata.stripe.test.paymentGateway;
 
-import com.stripe.Stripe;
+import com.stripe.StripeClient;
 import com.stripe.exception.StripeException;
 import com.stripe.model.checkout.Session;
 import com.stripe.param.checkout.SessionCreateParams;
@@ -16,13 +16,16 @@ import java.util.Map;
 @CrossOrigin(origins = "http://localhost:4200")
 public class StripePaymentController {
 
-    private static final String STRIPE_SECRET_KEY = "replace key here";
     private static final Logger log = LoggerFactory.getLogger(StripePaymentController.class);
 
+    private final StripeClient stripeClient;
+
+    public StripePaymentController(StripeClient stripeClient) {
+        this.stripeClient = stripeClient;
+    }
+
     @PostMapping("/create-checkout-session")
     public Map<String, Object> createCheckoutSession(@RequestBody RequestDTO request) throws StripeException {
-        Stripe.apiKey = STRIPE_SECRET_KEY;
-
         log.info("Creating Stripe Checkout Session for amount: {}", request.getAmount());
 
         SessionCreateParams params = SessionCreateParams.builder()
@@ -50,7 +53,7 @@ public class StripePaymentController {
                 .setCustomerEmail(request.getEmail()) // Automatically fills email in Stripe Checkout
                 .build();
 
-        Session session = Session.create(params);
+        Session session = stripeClient.checkout().sessions().create(params);
 
         Map<String, Object> response = new HashMap<>();
         response.put("sessionId", session.getId());
@@ -5,14 +5,15 @@ import com.stripe.StripeClient;
 import com.stripe.exception.StripeException;
 import com.stripe.model.v2.core.Account;
 import com.stripe.param.v2.core.AccountCreateParams;
-import org.springframework.beans.factory.annotation.Value;
 
 import java.util.Optional;
 
 public class AccountsV2 {
-    @Value("${stripe.api.key}")
-    private String secretKey;
-    StripeClient client = new StripeClient(secretKey);
+    private final StripeClient client;
+
+    public AccountsV2(StripeClient client) {
+        this.client = client;
+    }
 
 
     public Account createRecipient(Integer userId) throws StripeException {
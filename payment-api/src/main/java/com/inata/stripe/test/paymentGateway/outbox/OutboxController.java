@@ -0,0 +1,48 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/operations")
+public class OutboxController {
+
+    private final OutboxDispatcher outboxDispatcher;
+
+    public OutboxController(OutboxDispatcher outboxDispatcher) {
+        this.outboxDispatcher = outboxDispatcher;
+    }
+
+    /**
+     * State of an operation answered with 202 Accepted; {@code resultId} is set once it is done.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getOperation(@PathVariable String id) {
+        return outboxDispatcher.find(id)
+                .<ResponseEntity<?>>map(entry -> ResponseEntity.ok().body(entry))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("No operation with id " + id));
+    }
+
+    /**
+     * Retries an operation parked with an unknown outcome, once it has been checked on Stripe.
+     */
+    @PostMapping("/{id}/retry")
+    public ResponseEntity<?> retryParked(@PathVariable String id) {
+        if (!outboxDispatcher.retryParked(id)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Operation " + id + " is not parked");
+        }
+        return ResponseEntity.accepted().header("Location", "/api/operations/" + id).build();
+    }
+
+    /**
+     * The 202 answer for an operation whose outcome is not known yet.
+     */
+    public static ResponseEntity<?> accepted(OutboxPendingException e) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header("Location", "/api/operations/" + e.getOperationId())
+                .body(Map.of("operationId", e.getOperationId(), "status", "pending", "message", e.getMessage()));
+    }
+}
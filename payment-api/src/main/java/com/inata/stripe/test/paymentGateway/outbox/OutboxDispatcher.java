@@ -0,0 +1,431 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs Stripe operations without holding a database connection across the call.
+ * <p>
+ * {@link #execute} writes the {@link OutboxEntry} in a short transaction, makes the Stripe call on the
+ * caller's thread with no transaction open, then records the result and marks the entry done in a second
+ * short transaction. When the outcome is unknown (network error, 429 or 5xx from Stripe, or a failure while
+ * recording) the entry is left for the poller, which retries it with backoff and the same idempotency keys;
+ * entries abandoned by a crashed instance are taken over once their lease runs out. Only a refusal by Stripe
+ * fails an entry and runs its handler's compensation; an entry out of attempts with the outcome still unknown
+ * is {@link OutboxStatus#PARKED} instead, as the operation may well have happened.
+ * <p>
+ * Multi-step processes chain entries with {@link #enqueue}: recording one step adds the next one in the same
+ * transaction, and it runs in the background as soon as that transaction commits.
+ */
+@Slf4j
+@Component
+public class OutboxDispatcher {
+
+    // A client retry may take over an entry the poller would only pick up later, or one that failed before: it
+    // reuses the idempotency keys, so it settles an unknown outcome rather than repeating it. Not a parked entry,
+    // which waits for its outcome to be checked on Stripe (retryParked): Stripe forgets keys after 24 hours
+    private static final Set<OutboxStatus> CLAIMABLE_INLINE = EnumSet.of(OutboxStatus.PENDING, OutboxStatus.FAILED);
+
+    private static final Set<OutboxStatus> CLAIMABLE_BY_POLLER = EnumSet.of(OutboxStatus.PENDING);
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final OutboxRepository outboxRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<OutboxType, OutboxHandler<?>> handlers = new ConcurrentHashMap<>();
+
+    @Value("${stripe.outbox.lease:2m}")
+    private Duration lease;
+
+    @Value("${stripe.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${stripe.outbox.backoff-initial:1s}")
+    private Duration backoffInitial;
+
+    @Value("${stripe.outbox.backoff-max:5m}")
+    private Duration backoffMax;
+
+    @Value("${stripe.outbox.poll-batch-size:100}")
+    private int pollBatchSize;
+
+    // Entries dispatched in the background at once, by the poller and right after enqueue() together
+    private final Semaphore backgroundPermits;
+
+    private final ExecutorService backgroundExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public OutboxDispatcher(OutboxRepository outboxRepository, PlatformTransactionManager transactionManager,
+                            MeterRegistry meterRegistry,
+                            @Value("${stripe.outbox.background-concurrency:16}") int backgroundConcurrency) {
+        this.outboxRepository = outboxRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.backgroundPermits = new Semaphore(backgroundConcurrency);
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Entries still running are finished by the poller of this or another instance once their lease runs out
+        backgroundExecutor.shutdownNow();
+    }
+
+    /**
+     * Called by the service owning the operation type, once at startup.
+     */
+    public void register(OutboxType type, OutboxHandler<?> handler) {
+        if (handlers.putIfAbsent(type, handler) != null) {
+            throw new IllegalStateException("An outbox handler is already registered for " + type);
+        }
+    }
+
+    public Optional<OutboxEntry> find(String id) {
+        return outboxRepository.findById(id);
+    }
+
+    /**
+     * Retries a parked entry, once its outcome has been checked on Stripe: with the same idempotency keys, so
+     * an operation Stripe did perform is recorded rather than repeated (Stripe keeps keys for 24 hours).
+     *
+     * @return false if the entry is not parked
+     */
+    public boolean retryParked(String id) {
+        Integer updated = transactionTemplate.execute(status ->
+                outboxRepository.unpark(id, OutboxStatus.PARKED, OutboxStatus.PENDING, LocalDateTime.now()));
+        if (updated == null || updated == 0) {
+            return false;
+        }
+        dispatchInBackground(id);
+        return true;
+    }
+
+    /**
+     * Runs the operation described by {@code request} (type, user and parameters) and waits for it. With a
+     * request key, a request already submitted is not repeated: its result is returned, or it is resumed unless
+     * it is parked.
+     *
+     * @return the id of the Stripe object produced
+     * @throws StripeException         Stripe refused the operation; the entry is marked failed
+     * @throws OutboxPendingException  the outcome is not known yet: the poller will carry on, or the entry is (or
+     *                                 already was) parked
+     * @throws IllegalArgumentException the request key was already used for different parameters
+     */
+    public String execute(OutboxEntry request) throws StripeException, OutboxPendingException {
+        OutboxEntry entry = request.getRequestKey() != null
+                ? outboxRepository.findByRequestKey(request.getRequestKey()).orElse(null)
+                : null;
+        if (entry == null) {
+            entry = insert(request);
+        }
+        if (entry == request) {
+            return dispatch(entry);
+        }
+
+        if (!sameRequest(entry, request)) {
+            throw new IllegalArgumentException("Request key " + request.getRequestKey() + " was already used with different parameters");
+        }
+        if (entry.getStatus() == OutboxStatus.DONE) {
+            return entry.getResultId();
+        }
+        if (entry.getStatus() == OutboxStatus.PARKED) {
+            throw new OutboxPendingException(entry);
+        }
+        OutboxEntry claimed = claim(entry.getId(), CLAIMABLE_INLINE);
+        if (claimed == null) {
+            throw new OutboxPendingException(outboxRepository.findById(entry.getId()).orElse(entry));
+        }
+        return dispatch(claimed);
+    }
+
+    /**
+     * Adds an entry to be dispatched in the background, as part of the caller's transaction: it exists only
+     * if that transaction commits, and is dispatched right after the commit (or by the poller, when all
+     * background permits are taken). With a request key already used, the existing entry is returned instead.
+     */
+    public OutboxEntry enqueue(OutboxEntry entry) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("OutboxDispatcher.enqueue must be called inside a transaction");
+        }
+        if (entry.getRequestKey() != null) {
+            Optional<OutboxEntry> existing = outboxRepository.findByRequestKey(entry.getRequestKey());
+            if (existing.isPresent()) {
+                return existing.get();
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        entry.setId(UUID.randomUUID().toString());
+        entry.setStatus(OutboxStatus.PENDING);
+        entry.setAttempts(0);
+        entry.setNextAttemptAt(now);
+        entry.setCreatedAt(now);
+        entry.setUpdatedAt(now);
+        outboxRepository.save(entry);
+
+        String id = entry.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                dispatchInBackground(id);
+            }
+        });
+        return entry;
+    }
+
+    private void dispatchInBackground(String id) {
+        if (!backgroundPermits.tryAcquire()) {
+            return;
+        }
+        try {
+            backgroundExecutor.submit(() -> {
+                try {
+                    OutboxEntry entry = claim(id, CLAIMABLE_BY_POLLER);
+                    if (entry != null) {
+                        dispatch(entry);
+                    }
+                } catch (StripeException | OutboxPendingException e) {
+                    log.debug("Outbox entry {}: {}", id, e.getMessage());
+                } catch (RuntimeException e) {
+                    log.warn("Outbox entry {} could not be dispatched", id, e);
+                } finally {
+                    backgroundPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the poller picks the entry up
+            backgroundPermits.release();
+        }
+    }
+
+    /**
+     * Retries due entries and takes over entries whose dispatcher stopped before finishing them.
+     */
+    @Scheduled(fixedDelayString = "${stripe.outbox.poll-interval-ms:1000}")
+    public void dispatchDue() {
+        List<String> ids = outboxRepository.findDueIds(OutboxStatus.PENDING, OutboxStatus.SENDING, LocalDateTime.now(),
+                PageRequest.of(0, pollBatchSize));
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String id : ids) {
+                executor.submit(() -> {
+                    backgroundPermits.acquireUninterruptibly();
+                    try {
+                        OutboxEntry entry = claim(id, CLAIMABLE_BY_POLLER);
+                        if (entry != null) {
+                            dispatch(entry);
+                        }
+                    } catch (StripeException | OutboxPendingException e) {
+                        log.debug("Outbox entry {}: {}", id, e.getMessage());
+                    } catch (RuntimeException e) {
+                        log.warn("Outbox entry {} could not be dispatched", id, e);
+                    } finally {
+                        backgroundPermits.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private OutboxEntry insert(OutboxEntry request) {
+        LocalDateTime now = LocalDateTime.now();
+        request.setId(UUID.randomUUID().toString());
+        // Inserted already claimed, so the first attempt needs no extra round trip
+        request.setStatus(OutboxStatus.SENDING);
+        request.setAttempts(1);
+        request.setLeaseUntil(now.plus(lease));
+        request.setNextAttemptAt(now);
+        request.setCreatedAt(now);
+        request.setUpdatedAt(now);
+        try {
+            transactionTemplate.executeWithoutResult(status -> outboxRepository.save(request));
+            return request;
+        } catch (DataIntegrityViolationException e) {
+            // Lost the race for the request key against a concurrent submission
+            if (request.getRequestKey() == null) {
+                throw e;
+            }
+            return outboxRepository.findByRequestKey(request.getRequestKey()).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * @return the entry as claimed, or null if another dispatcher owns it or it is finished
+     */
+    private OutboxEntry claim(String id, Set<OutboxStatus> claimable) {
+        LocalDateTime now = LocalDateTime.now();
+        Integer claimed = transactionTemplate.execute(status ->
+                outboxRepository.claim(id, claimable, OutboxStatus.SENDING, now.plus(lease), now));
+        if (claimed == null || claimed == 0) {
+            return null;
+        }
+        return outboxRepository.findById(id).orElse(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private String dispatch(OutboxEntry entry) throws StripeException, OutboxPendingException {
+        OutboxHandler<Object> handler = (OutboxHandler<Object>) handlers.get(entry.getType());
+        if (handler == null) {
+            throw new IllegalStateException("No outbox handler registered for " + entry.getType());
+        }
+
+        Object result;
+        Timer.Sample send = Timer.start(meterRegistry);
+        try {
+            result = handler.send(entry);
+        } catch (StripeException e) {
+            if (isRetryable(e)) {
+                retryLater(entry, e.getMessage());
+                throw new OutboxPendingException(entry);
+            }
+            fail(entry, handler, e.getMessage());
+            throw e;
+        } catch (RuntimeException e) {
+            // Not a refusal: it may have been thrown after Stripe acted, e.g. while reading its answer
+            park(entry, String.valueOf(e.getMessage()));
+            throw e;
+        } finally {
+            send.stop(meterRegistry.timer("stripe.outbox.send", "type", entry.getType().name()));
+        }
+
+        Timer.Sample record = Timer.start(meterRegistry);
+        String resultId;
+        try {
+            resultId = transactionTemplate.execute(status -> {
+                String id = handler.record(entry, result);
+                LocalDateTime now = LocalDateTime.now();
+                if (outboxRepository.finish(entry.getId(), entry.getAttempts(), OutboxStatus.SENDING, OutboxStatus.DONE,
+                        id, null, now, now) == 0) {
+                    // Our lease ran out and another dispatcher took over; it records the same Stripe object
+                    status.setRollbackOnly();
+                    return null;
+                }
+                return id;
+            });
+        } catch (RuntimeException e) {
+            log.error("Could not record the result of outbox entry {} ({})", entry.getId(), entry.getType(), e);
+            retryLater(entry, "Recording the result failed: " + e.getMessage());
+            throw new OutboxPendingException(entry);
+        } finally {
+            record.stop(meterRegistry.timer("stripe.outbox.record", "type", entry.getType().name()));
+        }
+
+        if (resultId == null) {
+            count(entry, "taken_over");
+            throw new OutboxPendingException(entry);
+        }
+        entry.setStatus(OutboxStatus.DONE);
+        entry.setResultId(resultId);
+        count(entry, "done");
+        return resultId;
+    }
+
+    private void retryLater(OutboxEntry entry, String error) {
+        if (entry.getAttempts() >= maxAttempts) {
+            park(entry, error);
+            return;
+        }
+        finish(entry, OutboxStatus.PENDING, error, LocalDateTime.now().plus(backoff(entry.getAttempts())), null);
+    }
+
+    /**
+     * Gives up on an entry whose outcome is unknown, without compensating: Stripe may have performed it, and
+     * undoing the saga then (releasing funds, failing the transaction) would be wrong.
+     */
+    private void park(OutboxEntry entry, String error) {
+        log.error("Outbox entry {} ({}) parked after {} attempts, outcome unknown; check it on Stripe, then retry it: {}",
+                entry.getId(), entry.getType(), entry.getAttempts(), error);
+        finish(entry, OutboxStatus.PARKED, error, entry.getNextAttemptAt(), null);
+    }
+
+    private void fail(OutboxEntry entry, OutboxHandler<?> handler, String error) {
+        finish(entry, OutboxStatus.FAILED, error, entry.getNextAttemptAt(), handler);
+    }
+
+    /**
+     * @param handler told about the failure in the same transaction, when moving to FAILED
+     */
+    private void finish(OutboxEntry entry, OutboxStatus status, String error, LocalDateTime nextAttemptAt, OutboxHandler<?> handler) {
+        String lastError = error != null && error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                int updated = outboxRepository.finish(entry.getId(), entry.getAttempts(),
+                        OutboxStatus.SENDING, status, null, lastError, nextAttemptAt, LocalDateTime.now());
+                if (updated == 1 && handler != null) {
+                    handler.failed(entry, lastError);
+                }
+            });
+        } catch (RuntimeException e) {
+            // The entry stays SENDING and is taken over by the poller when its lease runs out
+            log.error("Could not update outbox entry {} to {}", entry.getId(), status, e);
+        }
+        entry.setStatus(status);
+        entry.setLastError(lastError);
+        entry.setNextAttemptAt(nextAttemptAt);
+        count(entry, status == OutboxStatus.PENDING ? "retry" : status.name().toLowerCase());
+    }
+
+    /**
+     * Exponential, with jitter so entries that failed together (a Stripe outage) do not come back together.
+     */
+    private Duration backoff(int attempts) {
+        long exponential = backoffInitial.toMillis() << Math.min(attempts - 1, 20);
+        long capped = Math.min(exponential, backoffMax.toMillis());
+        return Duration.ofMillis(capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+    }
+
+    /**
+     * Outcome unknown (no response, 5xx) or not applied (429, or 409 for a concurrent use of the same
+     * idempotency key). Retrying is safe because the retry reuses the idempotency keys. Connection failures
+     * carry status code 0 rather than null.
+     */
+    private static boolean isRetryable(StripeException e) {
+        Integer statusCode = e.getStatusCode();
+        return e instanceof ApiConnectionException || statusCode == null || statusCode == 0
+                || statusCode == 409 || statusCode == 429 || statusCode >= 500;
+    }
+
+    private static boolean sameRequest(OutboxEntry entry, OutboxEntry request) {
+        return entry.getType() == request.getType()
+                && Objects.equals(entry.getUserId(), request.getUserId())
+                && Objects.equals(entry.getAmount(), request.getAmount());
+    }
+
+    private void count(OutboxEntry entry, String result) {
+        meterRegistry.counter("stripe.outbox", "type", entry.getType().name(), "result", result).increment();
+    }
+}
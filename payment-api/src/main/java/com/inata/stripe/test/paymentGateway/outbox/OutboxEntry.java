@@ -0,0 +1,89 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One Stripe operation to perform, written before the call is made so it survives a crash between the
+ * call and the recording of its result. The entry id is the base of the Stripe idempotency keys of its
+ * calls, which makes every retry of the entry safe.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "stripe_outbox", indexes = {
+        // Poller: due PENDING entries and SENDING entries whose lease ran out
+        @Index(name = "idx_stripe_outbox_due", columnList = "status, next_attempt_at")
+})
+public class OutboxEntry {
+
+    @Id
+    @Column(name = "id", nullable = false, length = 36)
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", nullable = false, length = 32)
+    private OutboxType type;
+
+    // Deduplicates submissions of the same request (client Idempotency-Key, or one account per user).
+    @Column(name = "request_key", unique = true)
+    private String requestKey;
+
+    // Local record the operation works for, e.g. the withdrawal a saga step belongs to.
+    @Column(name = "reference_id")
+    private String referenceId;
+
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "amount")
+    private Long amount; // Cents, for money movements.
+
+    @Column(name = "payment_method_id")
+    private String paymentMethodId;
+
+    @Column(name = "connect_account_id")
+    private String connectAccountId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private OutboxStatus status;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+
+    @Column(name = "result_id")
+    private String resultId; // Id of the Stripe object the operation produced.
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public OutboxEntry(OutboxType type, Integer userId) {
+        this.type = type;
+        this.userId = userId;
+    }
+
+    /**
+     * Idempotency key for one of the entry's Stripe calls; each call needs its own.
+     */
+    public String idempotencyKey(String call) {
+        return id + ":" + call;
+    }
+}
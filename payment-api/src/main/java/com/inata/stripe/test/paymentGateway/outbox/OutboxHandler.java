@@ -0,0 +1,63 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+import com.stripe.exception.StripeException;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Performs one {@link OutboxType}: the Stripe call(s), made outside any database transaction, and the
+ * recording of their result, made in a short transaction that also marks the entry done.
+ * <p>
+ * Both halves may run more than once for the same entry (a retry after a timeout, or after a crash before
+ * the result was recorded): calls must use {@link OutboxEntry#idempotencyKey} and recording must accept a
+ * result it has already recorded.
+ *
+ * @param <R> what the Stripe call returns
+ */
+public interface OutboxHandler<R> {
+
+    R send(OutboxEntry entry) throws StripeException;
+
+    /**
+     * @return the id of the Stripe object the operation produced, stored as the entry's result
+     */
+    String record(OutboxEntry entry, R result);
+
+    /**
+     * Called when Stripe refused the operation and the entry is marked failed, in the same transaction; the
+     * place for compensation. Not called for an entry parked with an unknown outcome.
+     */
+    default void failed(OutboxEntry entry, String error) {
+    }
+
+    @FunctionalInterface
+    interface Sender<R> {
+        R send(OutboxEntry entry) throws StripeException;
+    }
+
+    static <R> OutboxHandler<R> of(Sender<R> sender, BiFunction<OutboxEntry, R, String> recorder) {
+        return of(sender, recorder, (entry, error) -> {
+        });
+    }
+
+    static <R> OutboxHandler<R> of(Sender<R> sender, BiFunction<OutboxEntry, R, String> recorder,
+                                   BiConsumer<OutboxEntry, String> onFailure) {
+        return new OutboxHandler<>() {
+            @Override
+            public R send(OutboxEntry entry) throws StripeException {
+                return sender.send(entry);
+            }
+
+            @Override
+            public String record(OutboxEntry entry, R result) {
+                return recorder.apply(entry, result);
+            }
+
+            @Override
+            public void failed(OutboxEntry entry, String error) {
+                onFailure.accept(entry, error);
+            }
+        };
+    }
+}
@@ -0,0 +1,21 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+/**
+ * The operation was accepted but its outcome is not known yet: Stripe could not be reached or answered
+ * with a server error, or another dispatcher is working on it. The dispatcher keeps retrying it, unless it is
+ * parked until someone checks it on Stripe; its state can be followed at {@code /api/operations/{id}}.
+ */
+public class OutboxPendingException extends Exception {
+
+    private final String operationId;
+
+    public OutboxPendingException(OutboxEntry entry) {
+        super("Operation " + entry.getId() + " is " + entry.getStatus().name().toLowerCase()
+                + (entry.getLastError() != null ? " (last error: " + entry.getLastError() + ")" : ""));
+        this.operationId = entry.getId();
+    }
+
+    public String getOperationId() {
+        return operationId;
+    }
+}
@@ -0,0 +1,60 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * State changes are conditional updates rather than save(), so two dispatchers racing for the same entry
+ * cannot both win: {@code attempts} is bumped by every claim and the later updates only apply to the
+ * attempt that made them.
+ */
+@Repository
+public interface OutboxRepository extends JpaRepository<OutboxEntry, String> {
+
+    Optional<OutboxEntry> findByRequestKey(String requestKey);
+
+    @Query("SELECT e.id FROM OutboxEntry e WHERE (e.status = :pending AND e.nextAttemptAt <= :now) "
+            + "OR (e.status = :sending AND e.leaseUntil < :now) ORDER BY e.nextAttemptAt")
+    List<String> findDueIds(@Param("pending") OutboxStatus pending, @Param("sending") OutboxStatus sending,
+                            @Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Takes the entry for one attempt if it is in one of {@code claimable} or its lease has run out.
+     *
+     * @return 1 if this caller now owns the entry; a findById afterwards sees the claimed state
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE OutboxEntry e SET e.status = :sending, e.attempts = e.attempts + 1, e.leaseUntil = :leaseUntil, "
+            + "e.updatedAt = :now WHERE e.id = :id AND (e.status IN :claimable OR (e.status = :sending AND e.leaseUntil < :now))")
+    int claim(@Param("id") String id, @Param("claimable") Collection<OutboxStatus> claimable, @Param("sending") OutboxStatus sending,
+              @Param("leaseUntil") LocalDateTime leaseUntil, @Param("now") LocalDateTime now);
+
+    /**
+     * Moves the entry out of SENDING, provided {@code attempt} is still the current one.
+     */
+    @Modifying
+    @Query("UPDATE OutboxEntry e SET e.status = :status, e.resultId = :resultId, e.lastError = :lastError, "
+            + "e.nextAttemptAt = :nextAttemptAt, e.leaseUntil = NULL, e.updatedAt = :now "
+            + "WHERE e.id = :id AND e.attempts = :attempt AND e.status = :sending")
+    int finish(@Param("id") String id, @Param("attempt") int attempt, @Param("sending") OutboxStatus sending,
+               @Param("status") OutboxStatus status, @Param("resultId") String resultId, @Param("lastError") String lastError,
+               @Param("nextAttemptAt") LocalDateTime nextAttemptAt, @Param("now") LocalDateTime now);
+
+    /**
+     * Gives a parked entry a new round of attempts.
+     */
+    @Modifying
+    @Query("UPDATE OutboxEntry e SET e.status = :pending, e.attempts = 0, e.nextAttemptAt = :now, e.updatedAt = :now "
+            + "WHERE e.id = :id AND e.status = :parked")
+    int unpark(@Param("id") String id, @Param("parked") OutboxStatus parked, @Param("pending") OutboxStatus pending,
+               @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,10 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+public enum OutboxStatus {
+    PENDING,  // Waiting for its (next) attempt at nextAttemptAt.
+    SENDING,  // Claimed by a dispatcher until leaseUntil.
+    DONE,     // Stripe call made and its result recorded; resultId is set.
+    FAILED,   // Refused by Stripe (a 4xx other than 409/429); compensation has run. lastError says why.
+    PARKED    // Out of attempts with the outcome unknown: Stripe may or may not have done it. Nothing was
+              // compensated; needs reconciliation against Stripe, then POST /api/operations/{id}/retry.
+}
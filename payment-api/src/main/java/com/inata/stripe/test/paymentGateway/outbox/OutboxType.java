@@ -0,0 +1,14 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+/**
+ * The Stripe operations that go through the outbox; each has one {@link OutboxHandler} registered by the
+ * service that owns it.
+ */
+public enum OutboxType {
+    ACH_DEBIT,
+    WITHDRAWAL_TRANSFER,
+    WITHDRAWAL_PAYOUT,
+    WITHDRAWAL_REVERSAL,
+    CONNECT_ACCOUNT,
+    CUSTOMER
+}
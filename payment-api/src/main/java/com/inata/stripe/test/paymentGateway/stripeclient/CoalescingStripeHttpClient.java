@@ -0,0 +1,204 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import com.stripe.net.StripeResponseStream;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets concurrent identical Stripe reads share one call: a GET for the same URL (resource type, id and query) on
+ * behalf of the same {@code Stripe-Account}, with the same API key and version, that arrives while one is in
+ * flight waits for that call and gets its response, or its exception. The shared response is the raw JSON, so
+ * every caller still gets its own objects.
+ * <p>
+ * With a {@code ttl}, a successful read is also answered from memory for that long (an LRU of
+ * {@code max-entries}). Any write through this client to a resource ({@code POST}/{@code DELETE} on
+ * {@code /v1/accounts/acct_1...}) drops what is kept of it, and a read that overlapped a write is not kept;
+ * changes made elsewhere (dashboard, Stripe itself) show after at most {@code ttl}, so keep it short.
+ * <p>
+ * Sits in front of {@link ResilientStripeHttpClient}, so a coalesced read takes no rate limiter token. Reads are
+ * counted as {@code stripe.api.reads}, by endpoint and outcome: sent, joined (shared an in-flight call) or cached.
+ */
+public class CoalescingStripeHttpClient extends com.stripe.net.HttpClient {
+
+    private final com.stripe.net.HttpClient delegate;
+
+    private final long ttl;
+
+    private final Map<Key, CompletableFuture<StripeResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<Key, Cached> cache;
+
+    private final ReentrantLock cacheLock = new ReentrantLock();
+
+    /**
+     * Bumped before and after every write, so a read that overlapped one can tell.
+     */
+    private final AtomicLong writes = new AtomicLong();
+
+    private final MeterRegistry meterRegistry;
+
+    private record Key(String path, String query, String stripeAccount, String authorization, String stripeVersion) {
+    }
+
+    private record Cached(StripeResponse response, long expiresAt) {
+    }
+
+    public CoalescingStripeHttpClient(com.stripe.net.HttpClient delegate, Duration ttl, int maxEntries, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.ttl = ttl.toNanos();
+        this.meterRegistry = meterRegistry;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws StripeException {
+        return delegate.request(request);
+    }
+
+    @Override
+    public StripeResponseStream requestStream(StripeRequest request) throws StripeException {
+        return delegate.requestStream(request);
+    }
+
+    @Override
+    public StripeResponseStream requestStreamWithRetries(StripeRequest request) throws StripeException {
+        return delegate.requestStreamWithRetries(request);
+    }
+
+    @Override
+    public StripeResponse requestWithRetries(StripeRequest request) throws StripeException {
+        if (request.method() != ApiResource.RequestMethod.GET) {
+            writes.incrementAndGet();
+            try {
+                return delegate.requestWithRetries(request);
+            } finally {
+                writes.incrementAndGet();
+                invalidate(request.url());
+            }
+        }
+
+        Key key = new Key(request.url().getPath(), request.url().getQuery(), header(request, "Stripe-Account"),
+                header(request, "Authorization"), header(request, "Stripe-Version"));
+        String endpoint = PooledStripeHttpClient.endpoint(request.url());
+        StripeResponse cached = cached(key);
+        if (cached != null) {
+            meterRegistry.counter("stripe.api.reads", "endpoint", endpoint, "outcome", "cached").increment();
+            return cached;
+        }
+
+        CompletableFuture<StripeResponse> call = new CompletableFuture<>();
+        CompletableFuture<StripeResponse> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            meterRegistry.counter("stripe.api.reads", "endpoint", endpoint, "outcome", "joined").increment();
+            return await(running);
+        }
+
+        meterRegistry.counter("stripe.api.reads", "endpoint", endpoint, "outcome", "sent").increment();
+        long writesBefore = writes.get();
+        StripeResponse response;
+        try {
+            response = delegate.requestWithRetries(request);
+        } catch (StripeException | RuntimeException e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+        if (ttl > 0 && response.code() == 200 && writes.get() == writesBefore) {
+            keep(key, response);
+        }
+        inFlight.remove(key, call);
+        call.complete(response);
+        return response;
+    }
+
+    private StripeResponse cached(Key key) {
+        if (ttl <= 0) {
+            return null;
+        }
+        cacheLock.lock();
+        try {
+            Cached cached = cache.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (System.nanoTime() - cached.expiresAt() >= 0) {
+                cache.remove(key);
+                return null;
+            }
+            return cached.response();
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private void keep(Key key, StripeResponse response) {
+        cacheLock.lock();
+        try {
+            cache.put(key, new Cached(response, System.nanoTime() + ttl));
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the kept reads of the written resource and of what hangs off it: a write to
+     * {@code /v1/accounts/acct_1/external_accounts} drops {@code /v1/accounts/acct_1} and its sub-resources.
+     */
+    private void invalidate(URL url) {
+        if (ttl <= 0) {
+            return;
+        }
+        String resource = resource(url.getPath());
+        cacheLock.lock();
+        try {
+            cache.keySet().removeIf(key -> key.path().equals(resource) || key.path().startsWith(resource + "/"));
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * {@code /v1/accounts/acct_1/external_accounts/ba_2} becomes {@code /v1/accounts/acct_1}.
+     */
+    private static String resource(String path) {
+        String[] segments = path.split("/", 5);
+        return segments.length == 5 ? String.join("/", segments[0], segments[1], segments[2], segments[3]) : path;
+    }
+
+    private static String header(StripeRequest request, String name) {
+        return request.headers().firstValue(name).orElse(null);
+    }
+
+    private static StripeResponse await(CompletableFuture<StripeResponse> call) throws StripeException {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StripeException stripeException) {
+                throw stripeException;
+            }
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for a Stripe call in flight", e);
+        }
+    }
+}
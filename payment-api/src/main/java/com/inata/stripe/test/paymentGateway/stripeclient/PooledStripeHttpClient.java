@@ -0,0 +1,160 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.HttpContent;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import com.stripe.net.StripeResponseStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * stripe-java transport on {@link java.net.http.HttpClient}, shared by the whole application.
+ * <p>
+ * stripe-java's default client goes through {@code HttpURLConnection}, whose keep-alive cache holds at most
+ * {@code http.maxConnections} (5) idle connections per host: with more calls in flight, every extra one opens a
+ * new TCP + TLS connection and closes it afterwards. This client keeps a pool of open connections (or one
+ * multiplexed HTTP/2 connection), reused for every call.
+ * <p>
+ * Every call is timed as {@code stripe.api.requests}, tagged with the method, the endpoint (path with
+ * object ids replaced by {@code {id}}) and the status code ({@code io_error} when there is none).
+ */
+public class PooledStripeHttpClient extends com.stripe.net.HttpClient {
+
+    /**
+     * Managed by the JDK client, which refuses them on a request; every other Stripe header is copied as is.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = caseInsensitive(Set.of("connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient httpClient;
+
+    private final MeterRegistry meterRegistry;
+
+    public PooledStripeHttpClient(HttpClient httpClient, MeterRegistry meterRegistry) {
+        this.httpClient = httpClient;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws StripeException {
+        long started = System.nanoTime();
+        String status = "io_error";
+        try {
+            HttpResponse<String> response = httpClient.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            status = Integer.toString(response.statusCode());
+            return new StripeResponse(response.statusCode(), HttpHeaders.of(response.headers().map()), response.body());
+        } catch (IOException e) {
+            throw connectionFailed(request, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw connectionFailed(request, e);
+        } finally {
+            record(request, status, System.nanoTime() - started);
+        }
+    }
+
+    @Override
+    public StripeResponseStream requestStream(StripeRequest request) throws StripeException {
+        long started = System.nanoTime();
+        String status = "io_error";
+        try {
+            HttpResponse<InputStream> response = httpClient.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofInputStream());
+            status = Integer.toString(response.statusCode());
+            return new StripeResponseStream(response.statusCode(), HttpHeaders.of(response.headers().map()), response.body());
+        } catch (IOException e) {
+            throw connectionFailed(request, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw connectionFailed(request, e);
+        } finally {
+            // Time to the response headers; the caller reads the body
+            record(request, status, System.nanoTime() - started);
+        }
+    }
+
+    private HttpRequest toHttpRequest(StripeRequest request) throws ApiConnectionException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(request.url().toURI());
+        } catch (URISyntaxException e) {
+            throw new ApiConnectionException("Invalid Stripe URL " + request.url(), e);
+        }
+        if (request.options().getReadTimeout() != null && request.options().getReadTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(request.options().getReadTimeout()));
+        }
+
+        HttpHeaders headers = request.headers()
+                .withAdditionalHeader("User-Agent", buildUserAgentString(request))
+                .withAdditionalHeader("X-Stripe-Client-User-Agent", buildXStripeClientUserAgentString());
+        for (Map.Entry<String, List<String>> header : headers.map().entrySet()) {
+            if (!RESTRICTED_HEADERS.contains(header.getKey())) {
+                header.getValue().forEach(value -> builder.header(header.getKey(), value));
+            }
+        }
+
+        HttpContent content = request.content();
+        HttpRequest.BodyPublisher body = content != null
+                ? HttpRequest.BodyPublishers.ofByteArray(content.byteArrayContent())
+                : HttpRequest.BodyPublishers.noBody();
+        if (content != null) {
+            builder.header("Content-Type", content.contentType());
+        }
+        return builder.method(request.method().name(), body).build();
+    }
+
+    private ApiConnectionException connectionFailed(StripeRequest request, Exception e) {
+        return new ApiConnectionException(String.format("IOException during API request to Stripe (%s %s): %s",
+                request.method(), request.url().getPath(), e.getMessage()), e);
+    }
+
+    private void record(StripeRequest request, String status, long nanos) {
+        Timer.builder("stripe.api.requests")
+                .tag("method", request.method().name())
+                .tag("endpoint", endpoint(request.url()))
+                .tag("status", status)
+                .register(meterRegistry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * {@code /v1/payment_intents/pi_123/confirm} becomes {@code /v1/payment_intents/{id}/confirm}, so the
+     * endpoint tag stays bounded. Stripe ids are a prefix, an underscore and an alphanumeric suffix.
+     */
+    static String endpoint(URL url) {
+        String[] segments = url.getPath().split("/");
+        StringBuilder endpoint = new StringBuilder();
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            endpoint.append('/').append(isObjectId(segment) ? "{id}" : segment);
+        }
+        return endpoint.isEmpty() ? "/" : endpoint.toString();
+    }
+
+    private static boolean isObjectId(String segment) {
+        return segment.indexOf('_') > 0 && segment.chars().anyMatch(Character::isDigit);
+    }
+
+    private static Set<String> caseInsensitive(Set<String> names) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(names);
+        return set;
+    }
+}
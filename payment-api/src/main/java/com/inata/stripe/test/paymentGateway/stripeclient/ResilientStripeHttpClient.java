@@ -0,0 +1,198 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import com.stripe.net.StripeResponseStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts the {@link StripeRateLimiter}, the {@link StripeCircuitBreaker} and retries in front of every Stripe call.
+ * stripe-java hands its calls to {@code requestWithRetries}, which this client takes over from stripe-java's own
+ * retry loop; each attempt goes through the limiter and the breaker, then the delegate transport.
+ * <p>
+ * A call is retried, up to its {@code max-network-retries}, on a connection failure or timeout, a 409, 429, 500,
+ * 502, 503 or 504, or when Stripe says so ({@code Stripe-Should-Retry}, which also vetoes). Only calls that are
+ * safe to send again are: GET and DELETE, and POSTs carrying an {@code Idempotency-Key}, which is resent
+ * unchanged so Stripe answers a retried create with the object of the first attempt. stripe-java adds a key to
+ * POSTs that have none while retries are enabled.
+ * <p>
+ * Retries wait {@code initial-backoff} doubling up to {@code max-backoff}, drawn at random between half and all of
+ * it so that callers turned away together do not come back together. A {@code Retry-After} longer than that is
+ * waited out, unless it exceeds {@code max-backoff}: then the answer goes back to the caller. Retries are counted
+ * as {@code stripe.api.retries}, by reason.
+ */
+@Slf4j
+public class ResilientStripeHttpClient extends com.stripe.net.HttpClient {
+
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(409, 429, 500, 502, 503, 504);
+
+    private final com.stripe.net.HttpClient delegate;
+
+    private final StripeRateLimiter rateLimiter;
+
+    private final StripeCircuitBreaker circuitBreaker;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final MeterRegistry meterRegistry;
+
+    private interface Attempt<T> {
+        Received<T> send(StripeRequest request) throws StripeException;
+    }
+
+    /**
+     * A response, plain or streamed (stripe-java's common base class is not public).
+     *
+     * @param body closed when the response is dropped for a retry; null if there is nothing to close
+     */
+    private record Received<T>(T response, int code, HttpHeaders headers, Closeable body) {
+    }
+
+    public ResilientStripeHttpClient(com.stripe.net.HttpClient delegate, StripeRateLimiter rateLimiter,
+                                     StripeCircuitBreaker circuitBreaker, Duration initialBackoff, Duration maxBackoff,
+                                     MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws StripeException {
+        return delegate.request(request);
+    }
+
+    @Override
+    public StripeResponseStream requestStream(StripeRequest request) throws StripeException {
+        return delegate.requestStream(request);
+    }
+
+    @Override
+    public StripeResponse requestWithRetries(StripeRequest request) throws StripeException {
+        return send(request, attempt -> {
+            StripeResponse response = delegate.request(attempt);
+            return new Received<>(response, response.code(), response.headers(), null);
+        });
+    }
+
+    @Override
+    public StripeResponseStream requestStreamWithRetries(StripeRequest request) throws StripeException {
+        return send(request, attempt -> {
+            StripeResponseStream response = delegate.requestStream(attempt);
+            return new Received<>(response, response.code(), response.headers(), response.body());
+        });
+    }
+
+    private <T> T send(StripeRequest request, Attempt<T> attempt) throws StripeException {
+        int maxRetries = request.options().getMaxNetworkRetries() != null ? request.options().getMaxNetworkRetries() : 0;
+        String stripeAccount = request.headers().firstValue("Stripe-Account").orElse(null);
+        for (int retry = 0; ; retry++) {
+            Received<T> response;
+            long permit = circuitBreaker.acquire();
+            try {
+                rateLimiter.acquire(stripeAccount);
+                response = attempt.send(request);
+            } catch (StripeUnavailableException e) {
+                circuitBreaker.cancel(permit);
+                throw e;
+            } catch (InterruptedException e) {
+                circuitBreaker.cancel(permit);
+                Thread.currentThread().interrupt();
+                throw new ApiConnectionException("Interrupted while waiting to call Stripe", e);
+            } catch (ApiConnectionException e) {
+                circuitBreaker.record(permit, true);
+                if (retry < maxRetries && replayable(request)) {
+                    backOff(request, retry, "connection", null, e.getMessage());
+                    continue;
+                }
+                throw e;
+            } catch (StripeException | RuntimeException e) {
+                circuitBreaker.record(permit, true);
+                throw e;
+            }
+
+            circuitBreaker.record(permit, response.code() >= 500);
+            if (retry < maxRetries && shouldRetry(request, response)) {
+                Duration retryAfter = retryAfter(response);
+                if (retryAfter == null || retryAfter.compareTo(maxBackoff) <= 0) {
+                    discard(response);
+                    backOff(request, retry, Integer.toString(response.code()), retryAfter, "status " + response.code());
+                    continue;
+                }
+            }
+            return response.response();
+        }
+    }
+
+    private static boolean shouldRetry(StripeRequest request, Received<?> response) {
+        if (!replayable(request)) {
+            return false;
+        }
+        String shouldRetry = response.headers().firstValue("Stripe-Should-Retry").orElse(null);
+        if (shouldRetry != null) {
+            return Boolean.parseBoolean(shouldRetry);
+        }
+        return RETRYABLE_STATUSES.contains(response.code());
+    }
+
+    private static boolean replayable(StripeRequest request) {
+        return request.method() != ApiResource.RequestMethod.POST
+                || request.headers().firstValue("Idempotency-Key").isPresent();
+    }
+
+    private void backOff(StripeRequest request, int retry, String reason, Duration retryAfter, String cause) throws ApiConnectionException {
+        long cap = Math.min(maxBackoff.toNanos(), initialBackoff.toNanos() << Math.min(retry, 20));
+        long wait = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        if (retryAfter != null) {
+            wait = Math.max(wait, retryAfter.toNanos());
+        }
+        meterRegistry.counter("stripe.api.retries", "reason", reason).increment();
+        log.debug("Retrying {} {} in {} ms ({}), retry {}", request.method(), request.url().getPath(),
+                TimeUnit.NANOSECONDS.toMillis(wait), cause, retry + 1);
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting to retry a Stripe call", e);
+        }
+    }
+
+    private static Duration retryAfter(Received<?> response) {
+        String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            // An HTTP date; Stripe sends seconds
+            return null;
+        }
+    }
+
+    private static void discard(Received<?> response) {
+        if (response.body() != null) {
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                // Nothing to do about a body we are throwing away
+            }
+        }
+    }
+}
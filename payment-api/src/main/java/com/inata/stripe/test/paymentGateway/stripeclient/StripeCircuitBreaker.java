@@ -0,0 +1,199 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fails Stripe calls fast while Stripe is degraded, instead of letting every request wait out its timeouts and
+ * retries.
+ * <p>
+ * The outcomes of the last {@code window} calls are kept; once at least {@code min-calls} of them are in and
+ * {@code failure-rate} of them failed (connection failure, timeout, 5xx), the breaker opens and calls are refused
+ * for {@code open-for}. Then {@code half-open-calls} calls are let through as probes: if they all succeed the
+ * breaker closes, if one fails it opens again. 4xx answers, 429 included, mean Stripe is up and count as
+ * successes; rate limiting is {@link StripeRateLimiter}'s concern.
+ * <p>
+ * {@code stripe.circuit_breaker.state} is 0 closed, 1 half open, 2 open; {@code stripe.circuit_breaker.transitions}
+ * counts the state changes and {@code stripe.circuit_breaker.rejected} the refused calls.
+ */
+@Slf4j
+@Component
+public class StripeCircuitBreaker {
+
+    enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final boolean[] outcomes;
+
+    private final int minCalls;
+
+    private final double failureRate;
+
+    private final Duration openFor;
+
+    private final int halfOpenCalls;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private State state = State.CLOSED;
+
+    /**
+     * Bumped on every state change, so outcomes of calls let through in an earlier state are ignored.
+     */
+    private long generation;
+
+    private int next;
+
+    private int calls;
+
+    private int failures;
+
+    private long openUntil;
+
+    private int probes;
+
+    private int probeSuccesses;
+
+    private final Counter rejected;
+
+    private final MeterRegistry meterRegistry;
+
+    public StripeCircuitBreaker(MeterRegistry meterRegistry,
+                                @Value("${stripe.client.circuit-breaker.window:50}") int window,
+                                @Value("${stripe.client.circuit-breaker.min-calls:20}") int minCalls,
+                                @Value("${stripe.client.circuit-breaker.failure-rate:0.5}") double failureRate,
+                                @Value("${stripe.client.circuit-breaker.open-for:30s}") Duration openFor,
+                                @Value("${stripe.client.circuit-breaker.half-open-calls:3}") int halfOpenCalls) {
+        this.outcomes = new boolean[window];
+        this.minCalls = minCalls;
+        this.failureRate = failureRate;
+        this.openFor = openFor;
+        this.halfOpenCalls = halfOpenCalls;
+        this.meterRegistry = meterRegistry;
+        this.rejected = Counter.builder("stripe.circuit_breaker.rejected").register(meterRegistry);
+    }
+
+    // Not in the constructor: the gauge holds on to this breaker
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("stripe.circuit_breaker.state", this, breaker -> breaker.state().ordinal())
+                .description("0 closed, 1 half open, 2 open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Lets a call through, or refuses it while the breaker is open (or all the half-open probes are out).
+     *
+     * @return the permit to report the call's outcome with
+     */
+    public long acquire() throws StripeUnavailableException {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (state == State.OPEN && now - openUntil >= 0) {
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.CLOSED) {
+                return generation;
+            }
+            if (state == State.HALF_OPEN && probes < halfOpenCalls) {
+                probes++;
+                return generation;
+            }
+            rejected.increment();
+            Duration retryAfter = state == State.OPEN ? Duration.ofNanos(openUntil - now) : Duration.ofSeconds(1);
+            throw new StripeUnavailableException("Stripe is failing, calls are suspended (circuit breaker " + state + ")", retryAfter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param permit  what {@link #acquire()} returned for the call
+     * @param failure whether Stripe failed the call (connection failure, timeout, 5xx)
+     */
+    public void record(long permit, boolean failure) {
+        lock.lock();
+        try {
+            if (permit != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (failure) {
+                    open("a probe call failed");
+                } else if (++probeSuccesses >= halfOpenCalls) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            if (calls == outcomes.length) {
+                failures -= outcomes[next] ? 1 : 0;
+            } else {
+                calls++;
+            }
+            outcomes[next] = failure;
+            failures += failure ? 1 : 0;
+            next = (next + 1) % outcomes.length;
+            if (calls >= minCalls && failures >= failureRate * calls) {
+                open(failures + " of the last " + calls + " calls failed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a permit whose call was not sent after all.
+     */
+    public void cancel(long permit) {
+        lock.lock();
+        try {
+            if (permit == generation && state == State.HALF_OPEN) {
+                probes--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open(String reason) {
+        log.warn("Stripe circuit breaker opened for {}: {}", openFor, reason);
+        openUntil = System.nanoTime() + openFor.toNanos();
+        transition(State.OPEN);
+    }
+
+    private void transition(State to) {
+        if (to == State.CLOSED) {
+            log.info("Stripe circuit breaker closed");
+        }
+        state = to;
+        generation++;
+        next = 0;
+        calls = 0;
+        failures = 0;
+        probes = 0;
+        probeSuccesses = 0;
+        meterRegistry.counter("stripe.circuit_breaker.transitions", "state", to.name().toLowerCase()).increment();
+    }
+}
@@ -0,0 +1,66 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.StripeClient;
+import com.stripe.net.LiveStripeResponseGetter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+/**
+ * The one {@link StripeClient} every service calls Stripe through, instead of setting the global
+ * {@code Stripe.apiKey} and going through the static resource methods.
+ * <p>
+ * Its transport is a {@link PooledStripeHttpClient}: connections to Stripe are opened once and kept alive for
+ * {@code keep-alive}, at most {@code max-idle-connections} of them idle (HTTP/1.1; HTTP/2 multiplexes calls over
+ * one). Connect and read timeouts apply to every call. In front of it, {@link ResilientStripeHttpClient} rate
+ * limits the calls, fails them fast while the circuit breaker is open and retries them up to
+ * {@code max-network-retries} times. In front of all of it, {@link CoalescingStripeHttpClient} has concurrent
+ * identical reads share one call and, with a {@code coalesce.ttl}, answers them from memory for that long.
+ */
+@Slf4j
+@Configuration
+public class StripeClientConfig {
+
+    @Bean
+    public StripeClient stripeClient(@Value("${stripe.api.key}") String apiKey,
+                                     @Value("${stripe.client.api-base:}") String apiBase,
+                                     @Value("${stripe.client.connect-timeout:5s}") Duration connectTimeout,
+                                     @Value("${stripe.client.read-timeout:30s}") Duration readTimeout,
+                                     @Value("${stripe.client.max-network-retries:2}") int maxNetworkRetries,
+                                     @Value("${stripe.client.keep-alive:5m}") Duration keepAlive,
+                                     @Value("${stripe.client.max-idle-connections:64}") int maxIdleConnections,
+                                     @Value("${stripe.client.http-version:HTTP_2}") HttpClient.Version httpVersion,
+                                     @Value("${stripe.client.retry.initial-backoff:500ms}") Duration initialBackoff,
+                                     @Value("${stripe.client.retry.max-backoff:5s}") Duration maxBackoff,
+                                     @Value("${stripe.client.coalesce.ttl:0s}") Duration coalesceTtl,
+                                     @Value("${stripe.client.coalesce.max-entries:10000}") int coalesceMaxEntries,
+                                     StripeRateLimiter rateLimiter, StripeCircuitBreaker circuitBreaker,
+                                     MeterRegistry meterRegistry) {
+        // The JDK client reads its pool settings once, when the first client is created; explicit -D flags win
+        System.setProperty("jdk.httpclient.keepalive.timeout",
+                System.getProperty("jdk.httpclient.keepalive.timeout", Long.toString(keepAlive.toSeconds())));
+        System.setProperty("jdk.httpclient.connectionPoolSize",
+                System.getProperty("jdk.httpclient.connectionPoolSize", Integer.toString(maxIdleConnections)));
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(httpVersion)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        StripeClientOptions options = new StripeClientOptions(apiKey, (int) connectTimeout.toMillis(),
+                (int) readTimeout.toMillis(), maxNetworkRetries, apiBase);
+        log.info("Stripe client: {} to {}, connect timeout {}, read timeout {}, keep-alive {}, {} retries",
+                httpVersion, options.getApiBase(), connectTimeout, readTimeout, keepAlive, maxNetworkRetries);
+        ResilientStripeHttpClient resilient = new ResilientStripeHttpClient(new PooledStripeHttpClient(httpClient, meterRegistry),
+                rateLimiter, circuitBreaker, initialBackoff, maxBackoff, meterRegistry);
+        CoalescingStripeHttpClient transport = new CoalescingStripeHttpClient(resilient, coalesceTtl, coalesceMaxEntries, meterRegistry);
+        return new StripeClient(new LiveStripeResponseGetter(options, transport));
+    }
+}
@@ -0,0 +1,60 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.Stripe;
+import com.stripe.net.Authenticator;
+import com.stripe.net.BearerTokenAuthenticator;
+import com.stripe.net.StripeResponseGetterOptions;
+import lombok.Getter;
+
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+
+/**
+ * Client-wide options of the {@link com.stripe.StripeClient} bean. Per-call {@code RequestOptions} (the
+ * connected account of a Connect call, an idempotency key) still apply on top.
+ */
+@Getter
+class StripeClientOptions extends StripeResponseGetterOptions {
+
+    private final Authenticator authenticator;
+
+    private final int connectTimeout;
+
+    private final int readTimeout;
+
+    private final int maxNetworkRetries;
+
+    private final String apiBase;
+
+    private final String filesBase;
+
+    private final String connectBase;
+
+    private final String meterEventsBase;
+
+    private final String clientId = null;
+
+    private final Proxy connectionProxy = null;
+
+    private final PasswordAuthentication proxyCredential = null;
+
+    private final String stripeAccount = null;
+
+    private final String stripeContext = null;
+
+    /**
+     * @param apiBase where every API call goes; blank for Stripe itself. Pointing it elsewhere (a local
+     *                stand-in) also sends files and Connect calls there.
+     */
+    StripeClientOptions(String apiKey, int connectTimeout, int readTimeout, int maxNetworkRetries, String apiBase) {
+        this.authenticator = new BearerTokenAuthenticator(apiKey);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxNetworkRetries = maxNetworkRetries;
+        boolean overridden = apiBase != null && !apiBase.isBlank();
+        this.apiBase = overridden ? apiBase : Stripe.LIVE_API_BASE;
+        this.filesBase = overridden ? apiBase : Stripe.UPLOAD_API_BASE;
+        this.connectBase = overridden ? apiBase : Stripe.CONNECT_API_BASE;
+        this.meterEventsBase = overridden ? apiBase : Stripe.METER_EVENTS_API_BASE;
+    }
+}
@@ -0,0 +1,38 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.StripeException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * How controllers answer a Stripe call that was throttled rather than failed.
+ */
+public final class StripeFailures {
+
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private StripeFailures() {
+    }
+
+    /**
+     * Whether the call hit a rate limit (Stripe's 429, which outlasted the retries) or was not sent at all
+     * ({@link StripeUnavailableException}): the request can be made again later as is.
+     */
+    public static boolean isThrottled(StripeException e) {
+        return e instanceof StripeUnavailableException || Integer.valueOf(429).equals(e.getStatusCode());
+    }
+
+    /**
+     * The 503 answer for a throttled call, with a {@code Retry-After} in whole seconds.
+     */
+    public static ResponseEntity<?> unavailable(StripeException e) {
+        Duration retryAfter = e instanceof StripeUnavailableException unavailable ? unavailable.getRetryAfter() : DEFAULT_RETRY_AFTER;
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", Long.toString(seconds))
+                .body(Map.of("status", "unavailable", "message", "Payments are busy, try again in " + seconds + "s"));
+    }
+}
@@ -0,0 +1,154 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token buckets in front of every Stripe call: one for the platform, refilling at {@code global-per-second} and
+ * holding {@code global-burst} tokens, and one per connected account ({@code Stripe-Account} calls) at
+ * {@code account-per-second} / {@code account-burst}, so a burst on one account cannot use up the platform's
+ * limit. A call takes a token from both; a call that would wait longer than {@code max-wait} for them is
+ * refused straight away, without taking any.
+ * <p>
+ * The buckets are kept as the time the next token is due (GCRA), so taking a token is a few arithmetic
+ * operations under one lock. Account buckets are kept in an LRU of {@code max-accounts}; an evicted account
+ * starts again with a full bucket.
+ * <p>
+ * {@code stripe.rate_limiter.wait} times how long calls waited ({@code scope} global or account: whichever
+ * bucket made them wait), {@code stripe.rate_limiter.rejected} counts the refused ones.
+ */
+@Component
+public class StripeRateLimiter {
+
+    private final Bucket global;
+
+    private final long accountInterval;
+
+    private final long accountTolerance;
+
+    private final long maxWait;
+
+    private final Map<String, Bucket> accounts;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Timer globalWait;
+
+    private final Timer accountWait;
+
+    private final Counter globalRejected;
+
+    private final Counter accountRejected;
+
+    /**
+     * @param interval  nanos between two tokens
+     * @param tolerance how far ahead of now the next token may be and still be taken at once (burst - 1 intervals)
+     */
+    private static final class Bucket {
+
+        private final long interval;
+
+        private final long tolerance;
+
+        private long dueAt;
+
+        private Bucket(long interval, long tolerance, long now) {
+            this.interval = interval;
+            this.tolerance = tolerance;
+            this.dueAt = now;
+        }
+
+        private long availableAt(long now) {
+            return Math.max(now, dueAt - tolerance);
+        }
+
+        private void take(long at) {
+            dueAt = Math.max(dueAt, at) + interval;
+        }
+    }
+
+    public StripeRateLimiter(MeterRegistry meterRegistry,
+                             @Value("${stripe.client.rate-limit.global-per-second:80}") double globalPerSecond,
+                             @Value("${stripe.client.rate-limit.global-burst:40}") int globalBurst,
+                             @Value("${stripe.client.rate-limit.account-per-second:20}") double accountPerSecond,
+                             @Value("${stripe.client.rate-limit.account-burst:10}") int accountBurst,
+                             @Value("${stripe.client.rate-limit.max-wait:2s}") Duration maxWait,
+                             @Value("${stripe.client.rate-limit.max-accounts:10000}") int maxAccounts) {
+        long globalInterval = interval(globalPerSecond);
+        this.global = new Bucket(globalInterval, (globalBurst - 1) * globalInterval, System.nanoTime());
+        this.accountInterval = interval(accountPerSecond);
+        this.accountTolerance = (accountBurst - 1) * accountInterval;
+        this.maxWait = maxWait.toNanos();
+        this.accounts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+                return size() > maxAccounts;
+            }
+        };
+
+        this.globalWait = waitTimer(meterRegistry, "global");
+        this.accountWait = waitTimer(meterRegistry, "account");
+        this.globalRejected = Counter.builder("stripe.rate_limiter.rejected").tag("scope", "global").register(meterRegistry);
+        this.accountRejected = Counter.builder("stripe.rate_limiter.rejected").tag("scope", "account").register(meterRegistry);
+    }
+
+    /**
+     * Waits for a token of the platform bucket and, for a Connect call, of the account's bucket.
+     *
+     * @param stripeAccount the call's {@code Stripe-Account}; null for a platform call
+     * @throws StripeUnavailableException if the tokens are further away than {@code max-wait}
+     */
+    public void acquire(String stripeAccount) throws StripeUnavailableException, InterruptedException {
+        long now = System.nanoTime();
+        long at;
+        boolean accountBound;
+        lock.lock();
+        try {
+            Bucket account = stripeAccount != null
+                    ? accounts.computeIfAbsent(stripeAccount, id -> new Bucket(accountInterval, accountTolerance, now))
+                    : null;
+            long globalAt = global.availableAt(now);
+            long accountAt = account != null ? account.availableAt(now) : now;
+            at = Math.max(globalAt, accountAt);
+            accountBound = accountAt > globalAt;
+            if (at - now > maxWait) {
+                (accountBound ? accountRejected : globalRejected).increment();
+                throw new StripeUnavailableException("Stripe rate limit of the " + (accountBound ? "connected account" : "platform")
+                        + " reached", Duration.ofNanos(at - now));
+            }
+            global.take(at);
+            if (account != null) {
+                account.take(at);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long wait = at - now;
+        (accountBound ? accountWait : globalWait).record(wait, TimeUnit.NANOSECONDS);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private static long interval(double perSecond) {
+        return (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    }
+
+    private static Timer waitTimer(MeterRegistry meterRegistry, String scope) {
+        return Timer.builder("stripe.rate_limiter.wait")
+                .description("Time Stripe calls waited for a rate limiter token")
+                .tag("scope", scope)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,27 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.ApiConnectionException;
+
+import java.time.Duration;
+
+/**
+ * A Stripe call that was not sent: the rate limiter would have made it wait longer than allowed, or the circuit
+ * breaker is open. Like a connection failure it has no status code, so callers that retry those (the outbox)
+ * retry it as well.
+ */
+public class StripeUnavailableException extends ApiConnectionException {
+
+    private final Duration retryAfter;
+
+    public StripeUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * When the call would have a chance to go through.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -1,5 +1,8 @@
 package com.inata.stripe.test.paymentGateway.stripeusers;
 
+import com.inata.stripe.test.paymentGateway.outbox.OutboxController;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxPendingException;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeFailures;
 import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
 import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
 import com.stripe.exception.StripeException;
@@ -38,7 +41,12 @@ public class StripeAPI {
             responseJson.put("accountId", accountId);
             return ResponseEntity.ok().body(responseJson);
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(500).body("Error creating Stripe account: " + e.getMessage());
+        } catch (OutboxPendingException e) {
+            return OutboxController.accepted(e);
         }
     }
 
@@ -50,6 +58,9 @@ public class StripeAPI {
             Account.Requirements requirements = connectAccountService.userOnboarding(requestBody);
             return ResponseEntity.ok().body("AccountOnboarded" + requirements);
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(500).body("Error OnBoarding User" + e.getStripeError() + e.getMessage());
         }
     }
@@ -80,6 +91,13 @@ public class StripeAPI {
         try {
             String customerId = connectAccountService.createStripeCustomer(userId, connectAccountId);
             return ResponseEntity.ok().body(Map.of("customer_id", customerId));
+        } catch (OutboxPendingException e) {
+            return OutboxController.accepted(e);
+        } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error: " + e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error: " + (e.getMessage() != null ? e.getMessage() : "Unknown error occurred"));
@@ -94,6 +112,9 @@ public class StripeAPI {
             return ResponseEntity.ok(Map.of("clientSecret", clientSecret));
 
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(500).body("Error creating a fca session" + e.getStripeError() + e.getMessage());
         }
     }
@@ -107,6 +128,9 @@ public class StripeAPI {
             Map<String, String> response = connectAccountService.attachPaymentMethodToCustomer(customerId, financialConnectionsAccountId);
             return ResponseEntity.ok().body(response);
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(500).body("Error creating a fca session" + e.getStripeError() + e.getMessage());
 
         }
@@ -125,6 +149,9 @@ public class StripeAPI {
             }
 
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "Stripe error: " + e.getMessage()));
         }
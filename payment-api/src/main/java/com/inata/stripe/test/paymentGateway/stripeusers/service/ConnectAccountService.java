@@ -1,20 +1,25 @@
 package com.inata.stripe.test.paymentGateway.stripeusers.service;
 
+import com.inata.stripe.test.paymentGateway.outbox.OutboxDispatcher;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxEntry;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxHandler;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxPendingException;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxType;
 import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
 import com.inata.stripe.test.paymentGateway.stripeusers.repository.StripeUserRepository;
-import com.stripe.Stripe;
+import com.stripe.StripeClient;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Account;
 import com.stripe.model.Customer;
 import com.stripe.model.PaymentMethod;
 import com.stripe.model.SetupIntent;
 import com.stripe.model.financialconnections.Session;
+import com.stripe.net.RequestOptions;
 import com.stripe.param.*;
 import com.stripe.param.financialconnections.SessionCreateParams;
-import jakarta.transaction.Transactional;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -26,54 +31,32 @@ import java.util.Optional;
 @Service
 public class ConnectAccountService {
 
-    @Value("${stripe.api.key}")
-    private String secretKey;
-
     private static final Logger log = LoggerFactory.getLogger(ConnectAccountService.class);
 
     private final StripeUserRepository stripeUserRepository;
 
-    public ConnectAccountService(StripeUserRepository stripeUserRepository) {
+    private final OutboxDispatcher outboxDispatcher;
+
+    private final StripeClient stripeClient;
+
+    public ConnectAccountService(StripeUserRepository stripeUserRepository, OutboxDispatcher outboxDispatcher, StripeClient stripeClient) {
         this.stripeUserRepository = stripeUserRepository;
+        this.outboxDispatcher = outboxDispatcher;
+        this.stripeClient = stripeClient;
     }
 
 
-    @Transactional
-    public String createStripeAccount(Integer userId) throws StripeException {
-        Stripe.apiKey = secretKey;
+    /**
+     * Creates the user's Custom connected account, once per user. The account is created through the
+     * outbox, so no database transaction is open during the Stripe call and concurrent or repeated requests
+     * for the same user share one account.
+     */
+    public String createStripeAccount(Integer userId) throws StripeException, OutboxPendingException {
         Optional<StripeUser> optionalUser = stripeUserRepository.findById(userId);
         if (optionalUser.isEmpty()) {
-            AccountCreateParams params =
-                    AccountCreateParams.builder()
-                            .setCountry("US")
-                            .setType(AccountCreateParams.Type.CUSTOM)
-                            .setBusinessType(
-                                    AccountCreateParams.BusinessType.INDIVIDUAL
-                            )
-                            .setCapabilities(
-                                    AccountCreateParams.Capabilities.builder()
-//                                            .setUsBankAccountAchPayments(
-//                                                    AccountCreateParams.Capabilities.UsBankAccountAchPayments.builder()
-//                                                            .setRequested(true)
-//                                                            .build()
-//                                            )
-                                            .setTransfers(
-                                                    AccountCreateParams.Capabilities.Transfers.builder()
-                                                            .setRequested(true)
-                                                            .build()
-                                            )
-                                            .build()
-                            )
-
-                            .build();
-
-            Account stripeAccount = Account.create(params);
-            log.info("Account Created:{}{}", stripeAccount.getId(), stripeAccount.getRequirements().getCurrentlyDue());
-            StripeUser user = new StripeUser();
-            user.setId(userId);
-            user.setConnectAccountId(stripeAccount.getId());
-            stripeUserRepository.save(user);
-            return stripeAccount.getId();
+            OutboxEntry entry = new OutboxEntry(OutboxType.CONNECT_ACCOUNT, userId);
+            entry.setRequestKey("account:" + userId);
+            return outboxDispatcher.execute(entry);
 
         } else {
             StripeUser user = optionalUser.get();
@@ -85,6 +68,50 @@ public class ConnectAccountService {
 
     }
 
+    @PostConstruct
+    void registerOutboxHandlers() {
+        outboxDispatcher.register(OutboxType.CONNECT_ACCOUNT, OutboxHandler.of(this::sendConnectAccount, this::recordConnectAccount));
+        outboxDispatcher.register(OutboxType.CUSTOMER, OutboxHandler.of(this::sendCustomer, this::recordCustomer));
+    }
+
+    private Account sendConnectAccount(OutboxEntry entry) throws StripeException {
+        AccountCreateParams params =
+                AccountCreateParams.builder()
+                        .setCountry("US")
+                        .setType(AccountCreateParams.Type.CUSTOM)
+                        .setBusinessType(
+                                AccountCreateParams.BusinessType.INDIVIDUAL
+                        )
+                        .setCapabilities(
+                                AccountCreateParams.Capabilities.builder()
+//                                        .setUsBankAccountAchPayments(
+//                                                AccountCreateParams.Capabilities.UsBankAccountAchPayments.builder()
+//                                                        .setRequested(true)
+//                                                        .build()
+//                                        )
+                                        .setTransfers(
+                                                AccountCreateParams.Capabilities.Transfers.builder()
+                                                        .setRequested(true)
+                                                        .build()
+                                        )
+                                        .build()
+                        )
+
+                        .build();
+
+        Account stripeAccount = stripeClient.accounts().create(params, RequestOptions.builder().setIdempotencyKey(entry.idempotencyKey("account")).build());
+        log.info("Account Created:{}{}", stripeAccount.getId(), stripeAccount.getRequirements().getCurrentlyDue());
+        return stripeAccount;
+    }
+
+    private String recordConnectAccount(OutboxEntry entry, Account stripeAccount) {
+        StripeUser user = stripeUserRepository.findById(entry.getUserId()).orElseGet(StripeUser::new);
+        user.setId(entry.getUserId());
+        user.setConnectAccountId(stripeAccount.getId());
+        stripeUserRepository.save(user);
+        return stripeAccount.getId();
+    }
+
     public Account.Requirements userOnboarding(Map<String, String> payload) throws StripeException {
         String ip = payload.get("ip");
         String firstName = payload.get("firstName");
@@ -146,16 +173,13 @@ public class ConnectAccountService {
                 )
                 .build();
 
-        Account updatedAccount = Account.retrieve(accountId);
-        updatedAccount.update(updateParams);
+        Account updatedAccount = stripeClient.accounts().update(accountId, updateParams);
 
         // Update local DB record if found
         Optional<StripeUser> optionalUser = stripeUserRepository.findByConnectAccountId(accountId);
         if (optionalUser.isPresent()) {
             StripeUser user = optionalUser.get();
-            Account acc = Account.retrieve(accountId);
-
-            user.setConnectAccountStatus(acc.getRequirements().getCurrentDeadline() != null ? "pending" : "verified");
+            user.setConnectAccountStatus(updatedAccount.getRequirements().getCurrentDeadline() != null ? "pending" : "verified");
             stripeUserRepository.save(user); // Persist changes
         } else {
             throw new RuntimeException("StripeUser not found for account ID: " + accountId);
@@ -164,16 +188,28 @@ public class ConnectAccountService {
         return updatedAccount.getRequirements();
     }
 
-    @Transactional
-    public String createStripeCustomer(Integer id, String connectAccountId) throws StripeException {
-        Stripe.apiKey = secretKey;
-
+    /**
+     * Creates the Stripe customer of the user's connected account, once per user, through the outbox
+     * (see {@link #createStripeAccount}).
+     */
+    public String createStripeCustomer(Integer id, String connectAccountId) throws StripeException, OutboxPendingException {
         // Check if user with the connectAccountId already exists and has a customer ID
         Optional<StripeUser> existingUser = stripeUserRepository.findByConnectAccountId(connectAccountId);
         if (existingUser.isPresent() && existingUser.get().getCustomerId() != null) {
             return existingUser.get().getCustomerId();
         }
-        Account account = Account.retrieve(connectAccountId);
+        if (!stripeUserRepository.existsById(id)) {
+            throw new IllegalStateException("User with ID " + id + " not found in local database.");
+        }
+
+        OutboxEntry entry = new OutboxEntry(OutboxType.CUSTOMER, id);
+        entry.setConnectAccountId(connectAccountId);
+        entry.setRequestKey("customer:" + id);
+        return outboxDispatcher.execute(entry);
+    }
+
+    private Customer sendCustomer(OutboxEntry entry) throws StripeException {
+        Account account = stripeClient.accounts().retrieve(entry.getConnectAccountId());
 
         // Create Stripe Customer
         CustomerCreateParams params = CustomerCreateParams.builder()
@@ -187,20 +223,18 @@ public class ConnectAccountService {
                         .setCountry(account.getIndividual().getAddress().getCountry())
                         .setPostalCode(account.getIndividual().getAddress().getPostalCode())
                         .build())
-                .setMetadata(Map.of("userId", String.valueOf(id), "connectId", connectAccountId))
+                .setMetadata(Map.of("userId", String.valueOf(entry.getUserId()), "connectId", entry.getConnectAccountId()))
                 .build();
-        Customer customer = Customer.create(params);
+        return stripeClient.customers().create(params, RequestOptions.builder().setIdempotencyKey(entry.idempotencyKey("customer")).build());
+    }
 
+    private String recordCustomer(OutboxEntry entry, Customer customer) {
         // Update user with the new customer ID
-        Optional<StripeUser> userOptional = stripeUserRepository.findById(id);
-        if (userOptional.isPresent()) {
-            StripeUser user = userOptional.get();
-            user.setCustomerId(customer.getId());
-            stripeUserRepository.save(user);
-            return customer.getId();
-        } else {
-            throw new IllegalStateException("User with ID " + id + " not found in local database.");
-        }
+        StripeUser user = stripeUserRepository.findById(entry.getUserId())
+                .orElseThrow(() -> new IllegalStateException("User with ID " + entry.getUserId() + " not found in local database."));
+        user.setCustomerId(customer.getId());
+        stripeUserRepository.save(user);
+        return customer.getId();
     }
 
 
@@ -220,12 +254,12 @@ public class ConnectAccountService {
                 .build();
 
 
-        Session session = Session.create(params);
+        Session session = stripeClient.financialConnections().sessions().create(params);
         return session.getClientSecret();
     }
 
     public Map<String, String> attachPaymentMethodToCustomer(String customerId, String financialConnectionsAccountId) throws StripeException {
-        Customer customer = Customer.retrieve(customerId);
+        Customer customer = stripeClient.customers().retrieve(customerId);
         Optional<StripeUser> optionalUser = stripeUserRepository.findByCustomerId(customerId);
         if (optionalUser.isPresent()) {
             // 1. Create a PaymentMethod
@@ -240,7 +274,7 @@ public class ConnectAccountService {
                                     .build()
                     )
                     .build();
-            PaymentMethod paymentMethod = PaymentMethod.create(params);
+            PaymentMethod paymentMethod = stripeClient.paymentMethods().create(params);
 
 //        PaymentMethodAttachParams params1=PaymentMethodAttachParams.builder()
 //                .setCustomer(customerId)
@@ -256,7 +290,7 @@ public class ConnectAccountService {
                     .build();
 
 
-            SetupIntent setupIntent = SetupIntent.create(setupIntentParams);
+            SetupIntent setupIntent = stripeClient.setupIntents().create(setupIntentParams);
             optionalUser.get().setFinancialConnectionId(financialConnectionsAccountId);
             optionalUser.get().setPaymentMethodId(paymentMethod.getId());
             stripeUserRepository.save(optionalUser.get());
@@ -283,11 +317,10 @@ public class ConnectAccountService {
     }
 
     public Boolean addExternalBankDetails(String accountId, String bankToken) throws StripeException {
-        Account account = Account.retrieve(accountId);
         AccountUpdateParams params = AccountUpdateParams.builder()
                 .setExternalAccount(bankToken)
                 .build();
-        Account updated = account.update(params);
+        Account updated = stripeClient.accounts().update(accountId, params);
         return updated != null;
     }
 
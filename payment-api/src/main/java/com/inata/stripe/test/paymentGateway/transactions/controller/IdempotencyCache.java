@@ -0,0 +1,168 @@
+package com.inata.stripe.test.paymentGateway.transactions.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Server side of the {@code Idempotency-Key} header for money-moving endpoints.
+ * <p>
+ * The first request with a key runs; its response is kept for {@code ttl} (bounded to {@code max-entries},
+ * oldest first) and returned to any retry with the same key, marked {@code Idempotent-Replayed: true}.
+ * Retries arriving while the first request is still running wait for its result instead of calling Stripe
+ * again (single flight). Server errors are not kept, so a retry after a 5xx runs again; neither is a 202, whose
+ * outcome was still pending, so a retry runs again and gets the current state (the endpoints find the operation
+ * the key started rather than starting another). Reusing a key with different parameters is refused with 422,
+ * as Stripe does.
+ * <p>
+ * The cache is per instance. Across instances the key is deduplicated by the database: it is stored as the
+ * {@code requestKey} of the operation it started ({@link com.inata.stripe.test.paymentGateway.outbox.OutboxEntry}
+ * or {@link com.inata.stripe.test.paymentGateway.transactions.entity.WithdrawalEntity}) under a unique index, so a
+ * retry on another instance finds that operation. The Idempotency-Key sent to Stripe is derived from the outbox
+ * entry id, not from the client's key.
+ */
+@Component
+public class IdempotencyCache {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Duration ttl;
+
+    private final long waitTimeoutMs;
+
+    private final Map<String, Entry> entries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Counter executed;
+
+    private final Counter replayed;
+
+    private final Counter coalesced;
+
+    private final Counter mismatched;
+
+    private record Entry(String fingerprint, CompletableFuture<ResponseEntity<?>> response, long createdAt) {
+    }
+
+    public IdempotencyCache(MeterRegistry meterRegistry,
+                            @Value("${stripe.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${stripe.idempotency.max-entries:100000}") int maxEntries,
+                            @Value("${stripe.idempotency.wait-timeout-ms:30000}") long waitTimeoutMs) {
+        this.ttl = ttl;
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.entries = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.executed = Counter.builder("stripe.idempotency").tag("result", "executed").register(meterRegistry);
+        this.replayed = Counter.builder("stripe.idempotency").tag("result", "replayed").register(meterRegistry);
+        this.coalesced = Counter.builder("stripe.idempotency").tag("result", "coalesced").register(meterRegistry);
+        this.mismatched = Counter.builder("stripe.idempotency").tag("result", "mismatch").register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code action} once per {@code scope} and key. Without a key the action simply runs.
+     *
+     * @param fingerprint the request parameters; a retry must send the same ones
+     */
+    public ResponseEntity<?> execute(String scope, String key, String fingerprint, Supplier<ResponseEntity<?>> action) {
+        if (key == null) {
+            return action.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body(HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String cacheKey = scope + ":" + key;
+        Entry entry;
+        boolean first = false;
+        lock.lock();
+        try {
+            entry = entries.get(cacheKey);
+            if (entry != null && System.nanoTime() - entry.createdAt() > ttl.toNanos()) {
+                entries.remove(cacheKey);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(fingerprint, new CompletableFuture<>(), System.nanoTime());
+                entries.put(cacheKey, entry);
+                first = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!entry.fingerprint().equals(fingerprint)) {
+            mismatched.increment();
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body(HEADER + " was already used with different parameters");
+        }
+        return first ? executeFirst(cacheKey, entry, action) : awaitFirst(entry);
+    }
+
+    private ResponseEntity<?> executeFirst(String cacheKey, Entry entry, Supplier<ResponseEntity<?>> action) {
+        executed.increment();
+        try {
+            ResponseEntity<?> response = action.get();
+            if (response.getStatusCode().is5xxServerError() || response.getStatusCode().isSameCodeAs(HttpStatus.ACCEPTED)) {
+                remove(cacheKey, entry);
+            }
+            entry.response().complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            remove(cacheKey, entry);
+            entry.response().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ResponseEntity<?> awaitFirst(Entry entry) {
+        if (entry.response().isDone()) {
+            replayed.increment();
+        } else {
+            coalesced.increment();
+        }
+        try {
+            ResponseEntity<?> response = entry.response().get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+            return ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .header("Idempotent-Replayed", "true")
+                    .body(response.getBody());
+        } catch (TimeoutException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("A request with this " + HEADER + " is still in progress");
+        } catch (ExecutionException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("The original request failed; retry with the same " + HEADER);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    private void remove(String cacheKey, Entry entry) {
+        lock.lock();
+        try {
+            entries.remove(cacheKey, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,13 +1,33 @@
 package com.inata.stripe.test.paymentGateway.transactions.controller;
 
+import com.inata.stripe.test.paymentGateway.outbox.OutboxController;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxPendingException;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeFailures;
+import com.inata.stripe.test.paymentGateway.transactions.dto.BulkDepositItem;
 import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import com.inata.stripe.test.paymentGateway.transactions.service.BulkDepositService;
+import com.inata.stripe.test.paymentGateway.transactions.service.ExternalAccountService;
+import com.inata.stripe.test.paymentGateway.transactions.service.PaymentMethodDataService;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionExportService;
 import com.inata.stripe.test.paymentGateway.transactions.service.TransactionService;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionStatusStream;
+import com.inata.stripe.test.paymentGateway.transactions.service.UserBalanceService;
+import com.inata.stripe.test.paymentGateway.transactions.service.WithdrawalService;
+import com.stripe.exception.ApiConnectionException;
 import com.stripe.exception.StripeException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -15,10 +35,43 @@ import java.util.Map;
 @CrossOrigin(origins = "http://localhost:4200")
 
 public class TransactionController {
+    private static final int MAX_HISTORY_PAGE_SIZE = 500;
+
     private final TransactionService transactionService;
 
-    public TransactionController(TransactionService transactionService) {
+    private final TransactionExportService transactionExportService;
+
+    private final UserBalanceService userBalanceService;
+
+    private final BulkDepositService bulkDepositService;
+
+    private final IdempotencyCache idempotencyCache;
+
+    private final WithdrawalService withdrawalService;
+
+    private final PaymentMethodDataService paymentMethodDataService;
+
+    private final ExternalAccountService externalAccountService;
+
+    private final TransactionStatusStream transactionStatusStream;
+
+    @Value("${stripe.bulk-deposit.max-items:5000}")
+    private int maxBulkDepositItems;
+
+    public TransactionController(TransactionService transactionService, TransactionExportService transactionExportService,
+                                 UserBalanceService userBalanceService, BulkDepositService bulkDepositService,
+                                 IdempotencyCache idempotencyCache, WithdrawalService withdrawalService,
+                                 PaymentMethodDataService paymentMethodDataService, ExternalAccountService externalAccountService,
+                                 TransactionStatusStream transactionStatusStream) {
         this.transactionService = transactionService;
+        this.transactionExportService = transactionExportService;
+        this.userBalanceService = userBalanceService;
+        this.bulkDepositService = bulkDepositService;
+        this.idempotencyCache = idempotencyCache;
+        this.withdrawalService = withdrawalService;
+        this.paymentMethodDataService = paymentMethodDataService;
+        this.externalAccountService = externalAccountService;
+        this.transactionStatusStream = transactionStatusStream;
     }
 
     /**
@@ -28,8 +81,11 @@ public class TransactionController {
     public ResponseEntity<?> getPaymentMethodDetails(@RequestParam Integer userId) {
         try {
 
-            return ResponseEntity.ok().body(transactionService.getPaymentMethodData(userId));
+            return ResponseEntity.ok().body(paymentMethodDataService.getPaymentMethodData(userId));
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Failed to get method details: " + e.getMessage());
 
         }
@@ -39,38 +95,154 @@ public class TransactionController {
     public ResponseEntity<?> getPayoutMethodDetails(@RequestParam Integer userId) {
         try {
 
-            return ResponseEntity.ok().body(transactionService.getExternalBankDetails(userId));
+            return ResponseEntity.ok().body(externalAccountService.getExternalBankDetails(userId));
         } catch (StripeException e) {
+            if (StripeFailures.isThrottled(e)) {
+                return StripeFailures.unavailable(e);
+            }
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Failed to get method details: " + e.getMessage());
 
         }
     }
 
+    /**
+     * With an {@code Idempotency-Key} header, retries of the same request return the first response
+     * (see {@link IdempotencyCache}), also across instances and restarts through the outbox.
+     * Answers 202 with an operation id when Stripe's outcome is not known yet.
+     */
     @PostMapping("/deposit")
-    public ResponseEntity<?> createDeposit(@RequestParam Integer userId, @RequestParam Long amount) {
-        try {
-            TransactionEntity transaction = transactionService.createAchDebit(userId, amount);
-            return ResponseEntity.status(HttpStatus.CREATED).body(transaction);
-        } catch (StripeException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Failed to create deposit: " + e.getMessage());
+    public ResponseEntity<?> createDeposit(@RequestParam Integer userId, @RequestParam Long amount,
+                                           @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey) {
+        return idempotencyCache.execute("deposit", idempotencyKey, userId + ":" + amount, () -> {
+            try {
+                TransactionEntity transaction = transactionService.createAchDebit(userId, amount, idempotencyKey);
+                return ResponseEntity.status(HttpStatus.CREATED).body(transaction);
+            } catch (StripeException e) {
+                return stripeFailure("Failed to create deposit: ", e);
+            } catch (OutboxPendingException e) {
+                return OutboxController.accepted(e);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Initiates many ACH debits at once. Always 200 with one result per item, in request order;
+     * items that could not be created carry an error instead of a transaction id, and items whose outcome
+     * is not known yet an operation id. Resending the request with the same Idempotency-Key debits no item twice.
+     */
+    @PostMapping("/deposit/bulk")
+    public ResponseEntity<?> createBulkDeposit(@RequestBody List<BulkDepositItem> items,
+                                               @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey) {
+        if (items.isEmpty() || items.size() > maxBulkDepositItems) {
+            return ResponseEntity.badRequest().body("A bulk deposit takes between 1 and " + maxBulkDepositItems + " items");
         }
+        return ResponseEntity.ok().body(bulkDepositService.createDeposits(items, idempotencyKey));
     }
 
     /**
-     * Initiates an ACH Withdrawal (send funds to the user’s bank).
+     * Initiates an ACH Withdrawal (send funds to the user’s bank). Answers 202 with the pending transaction
+     * at once; the transfer and payout run in the background (see {@link WithdrawalService}).
      */
     @PostMapping("/withdraw")
-    public ResponseEntity<?> createWithdrawal(@RequestParam Integer userId, @RequestParam Long amount) {
+    public ResponseEntity<?> createWithdrawal(@RequestParam Integer userId, @RequestParam Long amount,
+                                              @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey) {
+        return idempotencyCache.execute("withdraw", idempotencyKey, userId + ":" + amount, () -> {
+            try {
+                TransactionEntity transaction = withdrawalService.startWithdrawal(userId, amount, idempotencyKey);
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .header(HttpHeaders.LOCATION, "/api/transactions/withdrawals/" + transaction.getTransactionId())
+                        .body(transaction);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Progress of a withdrawal saga: current step, and the Stripe transfer, payout and reversal ids.
+     */
+    @GetMapping("/withdrawals/{id}")
+    public ResponseEntity<?> getWithdrawal(@PathVariable String id) {
+        return withdrawalService.getWithdrawal(id)
+                .<ResponseEntity<?>>map(withdrawal -> ResponseEntity.ok().body(withdrawal))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("No withdrawal with id " + id));
+    }
+
+    /**
+     * The user's running totals (settled, pending, counts and available amount), read from user_balances.
+     */
+    @GetMapping("/balance")
+    public ResponseEntity<?> getBalance(@RequestParam Integer userId) {
+        return ResponseEntity.ok().body(userBalanceService.getBalance(userId));
+    }
+
+    /**
+     * Streams all matching transactions (every filter optional) as NDJSON or CSV, for reconciliation.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(@RequestParam(required = false) Integer userId,
+                                                                    @RequestParam(required = false) String status,
+                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                                    @RequestParam(defaultValue = "ndjson") String format) {
+        TransactionExportService.Format exportFormat;
         try {
-            TransactionEntity transaction = transactionService.createAchWithdrawal(userId, amount);
-            return ResponseEntity.status(HttpStatus.CREATED).body(transaction.getPaymentMethodId());
-        } catch (StripeException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Failed to create withdrawal: " + e.getMessage());
+            exportFormat = TransactionExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         }
+
+        StreamingResponseBody body = out -> transactionExportService.export(userId, status, from, to, exportFormat, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"transactions." + exportFormat.getExtension() + "\"")
+                .body(body);
     }
 
+    /**
+     * A page of the user's transactions, newest first. Follow {@code nextCursor} for older ones.
+     */
     @GetMapping("/trans-history")
-    public ResponseEntity<?> getTransactionHistory(@RequestParam Integer userId) {
-        return ResponseEntity.ok().body(transactionService.getTransactionsByUserId(userId));
+    public ResponseEntity<?> getTransactionHistory(@RequestParam Integer userId,
+                                                   @RequestParam(required = false) String status,
+                                                   @RequestParam(required = false) String type,
+                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_HISTORY_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body("limit must be between 1 and " + MAX_HISTORY_PAGE_SIZE);
+        }
+        try {
+            return ResponseEntity.ok().body(transactionService.getTransactionHistory(userId, status, type, from, to, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid cursor");
+        }
+    }
+
+    /**
+     * Server-sent events of the user's status transitions, instead of polling the history while transactions are
+     * pending. {@code EventSource} resends the last event id on reconnect and is sent what it missed.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTransactions(@RequestParam Integer userId,
+                                                         @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        // X-Accel-Buffering: events must not wait in a reverse proxy's buffer
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .body(transactionStatusStream.subscribe(userId, lastEventId));
+    }
+
+    // Stripe-side failures are 502 rather than 400, so they are not kept as the idempotent result; throttled calls
+    // are 503 with a Retry-After, also not kept. A connection error carries status 0, not null
+    private static ResponseEntity<?> stripeFailure(String message, StripeException e) {
+        if (StripeFailures.isThrottled(e)) {
+            return StripeFailures.unavailable(e);
+        }
+        HttpStatus status = e instanceof ApiConnectionException || e.getStatusCode() == null || e.getStatusCode() >= 500
+                ? HttpStatus.BAD_GATEWAY : HttpStatus.BAD_REQUEST;
+        return ResponseEntity.status(status).body(message + e.getMessage());
     }
 }
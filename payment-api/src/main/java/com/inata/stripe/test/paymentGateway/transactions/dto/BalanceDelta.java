@@ -0,0 +1,70 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+
+import java.math.BigDecimal;
+
+/**
+ * Change to a user's {@code user_balances} row caused by one transaction being created or changing status.
+ * Must agree with the aggregate in {@code UserBalanceRepository.rebuildAll}.
+ */
+public record BalanceDelta(BigDecimal deposited,
+                           BigDecimal paidOut,
+                           BigDecimal pendingDeposit,
+                           BigDecimal pendingWithdrawal,
+                           int depositCount,
+                           int withdrawalCount,
+                           int failedCount) {
+
+    public static final String DEPOSIT = "deposit";
+
+    public static final String WITHDRAW = "withdraw";
+
+    /**
+     * A new transaction, always created as pending.
+     */
+    public static BalanceDelta created(String transactionType, BigDecimal amount) {
+        BalanceDelta count = DEPOSIT.equals(transactionType)
+                ? new BalanceDelta(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, 1, 0, 0)
+                : new BalanceDelta(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, 0, 1, 0);
+        return count.plus(in(transactionType, amount, TransactionStatus.PENDING));
+    }
+
+    /**
+     * A pending transaction reaching a final state.
+     */
+    public static BalanceDelta transitioned(String transactionType, BigDecimal amount, TransactionStatus status) {
+        return transitioned(transactionType, amount, TransactionStatus.PENDING, status);
+    }
+
+    public static BalanceDelta transitioned(String transactionType, BigDecimal amount, TransactionStatus from, TransactionStatus to) {
+        return in(transactionType, amount, to).minus(in(transactionType, amount, from));
+    }
+
+    /**
+     * The amounts and failures one transaction in {@code status} adds to its user's row.
+     */
+    private static BalanceDelta in(String transactionType, BigDecimal amount, TransactionStatus status) {
+        BigDecimal zero = BigDecimal.ZERO;
+        boolean deposit = DEPOSIT.equals(transactionType);
+        BigDecimal settled = (deposit && status == TransactionStatus.DEPOSITED) || (!deposit && status == TransactionStatus.PAID)
+                ? amount : zero;
+        BigDecimal pending = status == TransactionStatus.PENDING ? amount : zero;
+        int failed = status == TransactionStatus.FAILED ? 1 : 0;
+        return deposit
+                ? new BalanceDelta(settled, zero, pending, zero, 0, 0, failed)
+                : new BalanceDelta(zero, settled, zero, pending, 0, 0, failed);
+    }
+
+    public BalanceDelta plus(BalanceDelta other) {
+        return new BalanceDelta(deposited.add(other.deposited), paidOut.add(other.paidOut),
+                pendingDeposit.add(other.pendingDeposit), pendingWithdrawal.add(other.pendingWithdrawal),
+                depositCount + other.depositCount, withdrawalCount + other.withdrawalCount, failedCount + other.failedCount);
+    }
+
+    public BalanceDelta minus(BalanceDelta other) {
+        return new BalanceDelta(deposited.subtract(other.deposited), paidOut.subtract(other.paidOut),
+                pendingDeposit.subtract(other.pendingDeposit), pendingWithdrawal.subtract(other.pendingWithdrawal),
+                depositCount - other.depositCount, withdrawalCount - other.withdrawalCount, failedCount - other.failedCount);
+    }
+}
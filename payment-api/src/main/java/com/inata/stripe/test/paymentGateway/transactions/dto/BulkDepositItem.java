@@ -0,0 +1,7 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+/**
+ * One ACH debit of a bulk request; amount in cents, as for {@code POST /api/transactions/deposit}.
+ */
+public record BulkDepositItem(Integer userId, Long amount) {
+}
@@ -0,0 +1,6 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+import java.util.List;
+
+public record BulkDepositResponse(int created, int pending, int failed, long elapsedMillis, List<BulkDepositResult> items) {
+}
@@ -0,0 +1,22 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+/**
+ * Outcome of one item, in request order. {@code transactionId} is set when the PaymentIntent was created;
+ * {@code operationId} when its outcome is not known yet and the outbox carries on with it (see
+ * {@code /api/operations/{id}}); {@code error} otherwise.
+ */
+public record BulkDepositResult(int index, Integer userId, Long amount, String transactionId, String operationId,
+                                String error) {
+
+    public static BulkDepositResult created(int index, BulkDepositItem item, String transactionId) {
+        return new BulkDepositResult(index, item.userId(), item.amount(), transactionId, null, null);
+    }
+
+    public static BulkDepositResult pending(int index, BulkDepositItem item, String operationId, String message) {
+        return new BulkDepositResult(index, item.userId(), item.amount(), null, operationId, message);
+    }
+
+    public static BulkDepositResult failed(int index, BulkDepositItem item, String error) {
+        return new BulkDepositResult(index, item.userId(), item.amount(), null, null, error);
+    }
+}
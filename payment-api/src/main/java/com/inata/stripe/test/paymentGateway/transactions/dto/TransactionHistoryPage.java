@@ -0,0 +1,9 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+import java.util.List;
+
+/**
+ * One page of history, newest first. {@code nextCursor} is null on the last page.
+ */
+public record TransactionHistoryPage(List<TransactionSummary> items, String nextCursor) {
+}
@@ -0,0 +1,17 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A status transition pushed to the user's {@code /api/transactions/stream} subscribers, as the {@code data}
+ * of a {@code status} event.
+ */
+public record TransactionStatusEvent(String transactionId,
+                                     Integer userId,
+                                     String transactionType,
+                                     BigDecimal amount,
+                                     String status,
+                                     String comments,
+                                     LocalDateTime updatedAt) {
+}
@@ -0,0 +1,18 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Read-only transaction row for history pages and exports, selected directly by JPQL (no managed entity).
+ */
+public record TransactionSummary(String transactionId,
+                                 Integer userId,
+                                 String transactionType,
+                                 BigDecimal amount,
+                                 String status,
+                                 String paymentMethodId,
+                                 String comments,
+                                 LocalDateTime createdAt,
+                                 LocalDateTime updatedAt) {
+}
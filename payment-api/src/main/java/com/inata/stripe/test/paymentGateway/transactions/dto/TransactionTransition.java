@@ -0,0 +1,18 @@
+package com.inata.stripe.test.paymentGateway.transactions.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * What a status transition needs to know about the transaction it was applied to, returned by the
+ * {@code UPDATE ... RETURNING} that applied it. None of these ever change after the transaction is created.
+ */
+public interface TransactionTransition {
+
+    String getTransactionId();
+
+    Integer getUserId();
+
+    String getTransactionType();
+
+    BigDecimal getAmount();
+}
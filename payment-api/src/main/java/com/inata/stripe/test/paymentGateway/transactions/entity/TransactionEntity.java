@@ -2,6 +2,7 @@ package com.inata.stripe.test.paymentGateway.transactions.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -11,7 +12,10 @@ import java.time.LocalDateTime;
 @Getter
 @AllArgsConstructor
 @NoArgsConstructor
-@Table(name = "stripe_transactions")
+@Table(name = "stripe_transactions", indexes = {
+        // Keyset pagination of a user's history (TransactionRepository.findHistoryAfter)
+        @Index(name = "idx_stripe_transactions_user_history", columnList = "user_id, created_at DESC, trans_id DESC")
+})
 public class TransactionEntity {
 
     @Id
@@ -32,7 +36,7 @@ public class TransactionEntity {
     private BigDecimal amount; // Transaction amount.
 
     @Column(name = "status", nullable = false)
-    private String status; // "pending", "succeeded", "failed", "refunded".
+    private String status; // See TransactionStatus: "pending", "deposited", "paid", "failed", "canceled".
 
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt; // Timestamp of transaction.
@@ -41,4 +45,9 @@ public class TransactionEntity {
     private LocalDateTime updatedAt; // Timestamp of last status update.
     @Column(name = "comments")
     private String comments;
+
+    @Version
+    @ColumnDefault("0")
+    @Column(name = "version")
+    private Long version; // Bumped by every update, including TransactionService.transitionStatus.
 }
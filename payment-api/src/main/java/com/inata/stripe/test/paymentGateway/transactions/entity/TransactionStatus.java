@@ -0,0 +1,44 @@
+package com.inata.stripe.test.paymentGateway.transactions.entity;
+
+import java.util.List;
+
+/**
+ * Lifecycle of a {@link TransactionEntity}. Stored as its lowercase value in {@code stripe_transactions.status}.
+ * <pre>
+ * pending ──► deposited   (ACH debit settled)
+ *         ├─► paid        (payout reached the bank)
+ *         ├─► failed
+ *         └─► canceled
+ * </pre>
+ * Every state other than {@code pending} is final, so a late or replayed webhook can never move a
+ * transaction backwards (e.g. a {@code payment_failed} arriving after {@code succeeded}). The one exception is
+ * applied explicitly, never through {@link #allowedFrom()}: a paid withdrawal whose payout the bank returns
+ * ({@code payout.failed} after {@code payout.paid}) goes on to failed or canceled.
+ */
+public enum TransactionStatus {
+    PENDING("pending"),
+    DEPOSITED("deposited"),
+    PAID("paid"),
+    FAILED("failed"),
+    CANCELED("canceled");
+
+    private final String value;
+
+    TransactionStatus(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * States a transaction may be in for a transition to this state to be applied.
+     */
+    public List<String> allowedFrom() {
+        return switch (this) {
+            case PENDING -> List.of();
+            case DEPOSITED, PAID, FAILED, CANCELED -> List.of(PENDING.value);
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package com.inata.stripe.test.paymentGateway.transactions.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Running totals of one user's transactions, kept in step with {@code stripe_transactions} by
+ * {@link com.inata.stripe.test.paymentGateway.transactions.service.UserBalanceService} in the same database
+ * transaction as every insert and status transition. Written only through atomic upserts, never via save().
+ */
+@Entity
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "user_balances")
+public class UserBalanceEntity {
+
+    @Id
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "deposited_amount", nullable = false, precision = 15, scale = 2)
+    private BigDecimal depositedAmount; // Deposits in status "deposited".
+
+    @Column(name = "paid_out_amount", nullable = false, precision = 15, scale = 2)
+    private BigDecimal paidOutAmount; // Withdrawals in status "paid".
+
+    @Column(name = "pending_deposit_amount", nullable = false, precision = 15, scale = 2)
+    private BigDecimal pendingDepositAmount;
+
+    @Column(name = "pending_withdrawal_amount", nullable = false, precision = 15, scale = 2)
+    private BigDecimal pendingWithdrawalAmount;
+
+    @Column(name = "deposit_count", nullable = false)
+    private Long depositCount; // All deposits, whatever their status.
+
+    @Column(name = "withdrawal_count", nullable = false)
+    private Long withdrawalCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private Long failedCount;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public static UserBalanceEntity empty(Integer userId) {
+        return new UserBalanceEntity(userId, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, 0L, 0L, 0L, null);
+    }
+
+    /**
+     * Settled deposits not yet paid out or committed to a pending withdrawal.
+     */
+    public BigDecimal getAvailableAmount() {
+        return depositedAmount.subtract(paidOutAmount).subtract(pendingWithdrawalAmount);
+    }
+}
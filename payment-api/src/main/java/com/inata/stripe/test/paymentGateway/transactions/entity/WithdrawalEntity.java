@@ -0,0 +1,67 @@
+package com.inata.stripe.test.paymentGateway.transactions.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * State of one ACH withdrawal saga (transfer to the connected account, then payout to the bank, reversing
+ * the transfer if the payout does not go through). Its id is also the id of the withdrawal's row in
+ * {@code stripe_transactions}, which exists from the start.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "withdrawals", indexes = {
+        // payout.* webhooks of payouts created without our metadata
+        @Index(name = "idx_withdrawals_payout", columnList = "payout_id")
+})
+public class WithdrawalEntity {
+
+    @Id
+    @Column(name = "id", nullable = false, length = 40)
+    private String id;
+
+    @Column(name = "request_key", unique = true)
+    private String requestKey; // Client Idempotency-Key, if one was sent.
+
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "amount", nullable = false)
+    private Long amount; // Cents.
+
+    @Column(name = "connect_account_id", nullable = false)
+    private String connectAccountId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "step", nullable = false, length = 32)
+    private WithdrawalStep step;
+
+    @Column(name = "transfer_id")
+    private String transferId;
+
+    @Column(name = "payout_id")
+    private String payoutId;
+
+    @Column(name = "reversal_id")
+    private String reversalId;
+
+    @Column(name = "failure_reason", length = 1000)
+    private String failureReason;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    // Step records and payout webhooks may race; the loser retries on fresh state
+    @Version
+    @Column(name = "version")
+    private Long version;
+}
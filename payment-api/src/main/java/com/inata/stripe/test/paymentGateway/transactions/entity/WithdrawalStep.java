@@ -0,0 +1,30 @@
+package com.inata.stripe.test.paymentGateway.transactions.entity;
+
+import java.util.Set;
+
+/**
+ * Progress of a {@link WithdrawalEntity}. Each Stripe call is an outbox step; payout webhooks move it on.
+ * <pre>
+ * TRANSFER ──► PAYOUT ──► PAYOUT_SUBMITTED ──► PAID                  (payout.paid)
+ *    │           │               │               │
+ *    ▼           └───────────────┴───────────────┴──► REVERSING ──► REVERSED     (payout refused, failed or canceled)
+ *  FAILED                                                  └──► REVERSAL_FAILED  (needs a manual fix)
+ * </pre>
+ * PAID is not final: the bank may still return the payout ({@code payout.failed} after {@code payout.paid}).
+ */
+public enum WithdrawalStep {
+    TRANSFER,          // Moving the amount from the platform to the connected account.
+    PAYOUT,            // Paying it out from the connected account to the bank.
+    PAYOUT_SUBMITTED,  // Payout created; waiting for its webhook.
+    PAID,
+    FAILED,            // Transfer refused; nothing to undo.
+    REVERSING,         // Taking the transfer back to the platform.
+    REVERSED,
+    REVERSAL_FAILED;
+
+    /**
+     * Steps in which a payout may exist and its webhooks apply. PAYOUT is included because a fast payout's
+     * webhook can arrive before its creation has been recorded.
+     */
+    public static final Set<WithdrawalStep> AWAITING_PAYOUT = Set.of(PAYOUT, PAYOUT_SUBMITTED);
+}
@@ -1,15 +1,102 @@
 package com.inata.stripe.test.paymentGateway.transactions.repository;
 
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionSummary;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionTransition;
 import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface TransactionRepository extends JpaRepository<TransactionEntity, String> {
-    List<TransactionEntity> findByUserId(Integer userId);
+
+    String SUMMARY_SELECT = "SELECT new com.inata.stripe.test.paymentGateway.transactions.dto.TransactionSummary("
+            + "t.transactionId, t.userId, t.transactionType, t.amount, t.status, t.paymentMethodId, t.comments, t.createdAt, t.updatedAt) "
+            + "FROM TransactionEntity t ";
+
+    // The casts give Postgres a type for a null bound; a bare "? IS NULL" on a timestamp cannot be planned
+    String HISTORY_SELECT = SUMMARY_SELECT + "WHERE t.userId = :userId "
+            + "AND (:status IS NULL OR t.status = :status) AND (:type IS NULL OR t.transactionType = :type) "
+            + "AND (CAST(:from AS LocalDateTime) IS NULL OR t.createdAt >= :from) "
+            + "AND (CAST(:to AS LocalDateTime) IS NULL OR t.createdAt < :to) ";
+
+    String HISTORY_ORDER = "ORDER BY t.createdAt DESC, t.transactionId DESC";
+
+    /**
+     * First page of a user's history, newest first; walks the {@code (user_id, created_at, trans_id)} index.
+     * Pass an unsorted {@link Pageable} for the page size only.
+     */
+    @Query(HISTORY_SELECT + HISTORY_ORDER)
+    List<TransactionSummary> findHistory(@Param("userId") Integer userId,
+                                         @Param("status") String status,
+                                         @Param("type") String type,
+                                         @Param("from") LocalDateTime from,
+                                         @Param("to") LocalDateTime to,
+                                         Pageable page);
+
+    /**
+     * The page after {@code (afterCreatedAt, afterTransactionId)}: a keyset seek, so its cost does not grow
+     * with how deep into the history the client is.
+     */
+    @Query(HISTORY_SELECT
+            + "AND t.createdAt <= :afterCreatedAt AND (t.createdAt < :afterCreatedAt OR t.transactionId < :afterTransactionId) "
+            + HISTORY_ORDER)
+    List<TransactionSummary> findHistoryAfter(@Param("userId") Integer userId,
+                                              @Param("status") String status,
+                                              @Param("type") String type,
+                                              @Param("from") LocalDateTime from,
+                                              @Param("to") LocalDateTime to,
+                                              @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                                              @Param("afterTransactionId") String afterTransactionId,
+                                              Pageable page);
+
+    /**
+     * Every transaction matching the (optional) filters, oldest first, for exports. Must be consumed inside a
+     * transaction; rows are fetched from the server in chunks of 5000 rather than all at once.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "5000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query(SUMMARY_SELECT + "WHERE (:userId IS NULL OR t.userId = :userId) AND (:status IS NULL OR t.status = :status) "
+            + "AND (CAST(:from AS LocalDateTime) IS NULL OR t.createdAt >= :from) "
+            + "AND (CAST(:to AS LocalDateTime) IS NULL OR t.createdAt < :to) "
+            + "ORDER BY t.createdAt, t.transactionId")
+    Stream<TransactionSummary> streamForExport(@Param("userId") Integer userId,
+                                               @Param("status") String status,
+                                               @Param("from") LocalDateTime from,
+                                               @Param("to") LocalDateTime to);
 
     Optional<TransactionEntity> findByPaymentMethodId(String paymentMethodId);
+
+    /**
+     * Moves a transaction to {@code status} only if it is currently in one of {@code allowedStatuses},
+     * in a single statement that also returns what the balance and the stream need, so applying a
+     * transition takes one round trip. Native for {@code RETURNING}, hence not {@code @Modifying}: nothing clears
+     * the persistence context afterwards, so a {@link TransactionEntity} already loaded keeps its old status and
+     * version. Go through {@code TransactionService.transitionStatus}, which detaches it.
+     *
+     * @return empty if the transaction does not exist or was not in an allowed status
+     */
+    @Query(value = "UPDATE stripe_transactions SET status = :status, comments = :comments, updated_at = :updatedAt, "
+            + "version = version + 1 WHERE trans_id = :transactionId AND status IN (:allowedStatuses) "
+            + "RETURNING trans_id AS \"transactionId\", user_id AS \"userId\", transaction_type AS \"transactionType\", "
+            + "amount AS \"amount\"",
+            nativeQuery = true)
+    Optional<TransactionTransition> transitionStatus(@Param("transactionId") String transactionId,
+                                                     @Param("allowedStatuses") Collection<String> allowedStatuses,
+                                                     @Param("status") String status,
+                                                     @Param("comments") String comments,
+                                                     @Param("updatedAt") LocalDateTime updatedAt);
 }
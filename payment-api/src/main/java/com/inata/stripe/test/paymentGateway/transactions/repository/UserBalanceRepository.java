@@ -0,0 +1,66 @@
+package com.inata.stripe.test.paymentGateway.transactions.repository;
+
+import com.inata.stripe.test.paymentGateway.transactions.dto.BalanceDelta;
+import com.inata.stripe.test.paymentGateway.transactions.entity.UserBalanceEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface UserBalanceRepository extends JpaRepository<UserBalanceEntity, Integer> {
+
+    /**
+     * Adds the delta to the user's row, creating it on first use. A single upsert, so concurrent
+     * transactions of the same user serialize on the row lock instead of losing updates.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO user_balances (user_id, deposited_amount, paid_out_amount, pending_deposit_amount, "
+            + "pending_withdrawal_amount, deposit_count, withdrawal_count, failed_count, updated_at) "
+            + "VALUES (:userId, :#{#delta.deposited()}, :#{#delta.paidOut()}, :#{#delta.pendingDeposit()}, "
+            + ":#{#delta.pendingWithdrawal()}, :#{#delta.depositCount()}, :#{#delta.withdrawalCount()}, :#{#delta.failedCount()}, :updatedAt) "
+            + "ON CONFLICT (user_id) DO UPDATE SET "
+            + "deposited_amount = user_balances.deposited_amount + EXCLUDED.deposited_amount, "
+            + "paid_out_amount = user_balances.paid_out_amount + EXCLUDED.paid_out_amount, "
+            + "pending_deposit_amount = user_balances.pending_deposit_amount + EXCLUDED.pending_deposit_amount, "
+            + "pending_withdrawal_amount = user_balances.pending_withdrawal_amount + EXCLUDED.pending_withdrawal_amount, "
+            + "deposit_count = user_balances.deposit_count + EXCLUDED.deposit_count, "
+            + "withdrawal_count = user_balances.withdrawal_count + EXCLUDED.withdrawal_count, "
+            + "failed_count = user_balances.failed_count + EXCLUDED.failed_count, "
+            + "updated_at = EXCLUDED.updated_at",
+            nativeQuery = true)
+    int apply(@Param("userId") Integer userId, @Param("delta") BalanceDelta delta, @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * Blocks incremental updates until the surrounding transaction ends.
+     */
+    @Modifying
+    @Query(value = "LOCK TABLE user_balances IN EXCLUSIVE MODE", nativeQuery = true)
+    void lockForRebuild();
+
+    @Modifying
+    @Query(value = "DELETE FROM user_balances", nativeQuery = true)
+    int deleteAllRows();
+
+    /**
+     * Recomputes every row from {@code stripe_transactions}, with the same rules as {@link BalanceDelta}.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO user_balances (user_id, deposited_amount, paid_out_amount, pending_deposit_amount, "
+            + "pending_withdrawal_amount, deposit_count, withdrawal_count, failed_count, updated_at) "
+            + "SELECT user_id, "
+            + "COALESCE(SUM(amount) FILTER (WHERE transaction_type = 'deposit' AND status = 'deposited'), 0), "
+            + "COALESCE(SUM(amount) FILTER (WHERE transaction_type <> 'deposit' AND status = 'paid'), 0), "
+            + "COALESCE(SUM(amount) FILTER (WHERE transaction_type = 'deposit' AND status = 'pending'), 0), "
+            + "COALESCE(SUM(amount) FILTER (WHERE transaction_type <> 'deposit' AND status = 'pending'), 0), "
+            + "COUNT(*) FILTER (WHERE transaction_type = 'deposit'), "
+            + "COUNT(*) FILTER (WHERE transaction_type <> 'deposit'), "
+            + "COUNT(*) FILTER (WHERE status = 'failed'), "
+            + ":updatedAt "
+            + "FROM stripe_transactions GROUP BY user_id",
+            nativeQuery = true)
+    int rebuildAll(@Param("updatedAt") LocalDateTime updatedAt);
+}
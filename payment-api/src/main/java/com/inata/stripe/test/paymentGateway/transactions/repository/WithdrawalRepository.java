@@ -0,0 +1,15 @@
+package com.inata.stripe.test.paymentGateway.transactions.repository;
+
+import com.inata.stripe.test.paymentGateway.transactions.entity.WithdrawalEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface WithdrawalRepository extends JpaRepository<WithdrawalEntity, String> {
+
+    Optional<WithdrawalEntity> findByRequestKey(String requestKey);
+
+    Optional<WithdrawalEntity> findByPayoutId(String payoutId);
+}
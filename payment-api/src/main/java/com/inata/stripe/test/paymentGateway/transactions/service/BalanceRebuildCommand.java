@@ -0,0 +1,45 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * CLI mode: {@code java -jar paymentGateway.jar --rebuild-balances} recomputes {@code user_balances} from
+ * {@code stripe_transactions}, then exits. See {@link com.inata.stripe.test.paymentGateway.PaymentGatewayApplication}.
+ */
+@Slf4j
+@Component
+public class BalanceRebuildCommand implements ApplicationRunner {
+
+    public static final String OPTION = "rebuild-balances";
+
+    private final UserBalanceService userBalanceService;
+
+    private final ApplicationContext applicationContext;
+
+    public BalanceRebuildCommand(UserBalanceService userBalanceService, ApplicationContext applicationContext) {
+        this.userBalanceService = userBalanceService;
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(OPTION)) {
+            return;
+        }
+
+        int exitCode = 0;
+        try {
+            userBalanceService.rebuild();
+        } catch (RuntimeException e) {
+            log.error("Balance rebuild failed", e);
+            exitCode = 1;
+        }
+        int status = exitCode;
+        System.exit(SpringApplication.exit(applicationContext, () -> status));
+    }
+}
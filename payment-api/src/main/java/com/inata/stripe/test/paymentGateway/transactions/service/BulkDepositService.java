@@ -0,0 +1,149 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.inata.stripe.test.paymentGateway.outbox.OutboxPendingException;
+import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
+import com.inata.stripe.test.paymentGateway.stripeusers.repository.StripeUserRepository;
+import com.inata.stripe.test.paymentGateway.transactions.dto.BulkDepositItem;
+import com.inata.stripe.test.paymentGateway.transactions.dto.BulkDepositResponse;
+import com.inata.stripe.test.paymentGateway.transactions.dto.BulkDepositResult;
+import com.stripe.exception.StripeException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Initiates many ACH debits in one call.
+ * <p>
+ * Users are loaded with one query and their payment methods resolved once per user. The debits then run
+ * concurrently, one virtual thread per item with at most {@code concurrency} Stripe calls in flight, each
+ * through the outbox as a single deposit does ({@link TransactionService#submitAchDebit}): the item is written
+ * before its PaymentIntent is created, with an idempotency key derived from its entry, and its pending row is
+ * saved as soon as the intent exists. A request that dies half way therefore leaves no intent unrecorded, and
+ * an item whose outcome is unknown is finished by the outbox. A failing item never fails the others.
+ * <p>
+ * With a request key, each item is deduplicated under that key and its index, so resending the same request
+ * does not debit again.
+ */
+@Slf4j
+@Service
+public class BulkDepositService {
+
+    @Value("${stripe.bulk-deposit.concurrency:32}")
+    private int concurrency;
+
+    private final TransactionService transactionService;
+
+    private final StripeUserRepository stripeUserRepository;
+
+    public BulkDepositService(TransactionService transactionService, StripeUserRepository stripeUserRepository) {
+        this.transactionService = transactionService;
+        this.stripeUserRepository = stripeUserRepository;
+    }
+
+    /**
+     * @param requestKey the client's idempotency key for the whole request; may be null
+     */
+    public BulkDepositResponse createDeposits(List<BulkDepositItem> items, String requestKey) {
+        long started = System.nanoTime();
+        BulkDepositResult[] results = new BulkDepositResult[items.size()];
+
+        Set<Integer> userIds = new HashSet<>();
+        for (BulkDepositItem item : items) {
+            if (item.userId() != null) {
+                userIds.add(item.userId());
+            }
+        }
+        Map<Integer, StripeUser> users = stripeUserRepository.findAllById(userIds).stream()
+                .collect(Collectors.toMap(StripeUser::getId, Function.identity()));
+        Map<Integer, String> paymentMethods = new ConcurrentHashMap<>();
+
+        Semaphore permits = new Semaphore(concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Payment methods first, once per user, so items of the same user do not race to look them up
+            for (StripeUser user : users.values()) {
+                executor.submit(() -> withPermit(permits, () -> {
+                    try {
+                        String paymentMethodId = transactionService.resolvePaymentMethodId(user);
+                        if (paymentMethodId != null) {
+                            paymentMethods.put(user.getId(), paymentMethodId);
+                        }
+                    } catch (StripeException | RuntimeException e) {
+                        log.warn("Could not resolve payment method for user {}: {}", user.getId(), e.getMessage());
+                    }
+                }));
+            }
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < items.size(); i++) {
+                int index = i;
+                BulkDepositItem item = items.get(i);
+                StripeUser user = item.userId() != null ? users.get(item.userId()) : null;
+                String paymentMethodId = user != null ? paymentMethods.get(user.getId()) : null;
+                if (item.amount() == null || item.amount() <= 0) {
+                    results[index] = BulkDepositResult.failed(index, item, "amount must be a positive number of cents");
+                } else if (user == null) {
+                    results[index] = BulkDepositResult.failed(index, item, "No Stripe details found for user");
+                } else if (paymentMethodId == null) {
+                    results[index] = BulkDepositResult.failed(index, item, "No US bank account payment method");
+                } else {
+                    String itemKey = requestKey != null ? "deposit:" + requestKey + ":" + index : null;
+                    executor.submit(() -> withPermit(permits, () -> {
+                        try {
+                            String transactionId = transactionService.submitAchDebit(user.getId(), paymentMethodId,
+                                    item.amount(), itemKey);
+                            results[index] = BulkDepositResult.created(index, item, transactionId);
+                        } catch (OutboxPendingException e) {
+                            results[index] = BulkDepositResult.pending(index, item, e.getOperationId(), e.getMessage());
+                        } catch (StripeException | RuntimeException e) {
+                            results[index] = BulkDepositResult.failed(index, item, e.getMessage());
+                        }
+                    }));
+                }
+            }
+        }
+
+        List<BulkDepositResult> itemResults = new ArrayList<>(results.length);
+        int created = 0;
+        int pending = 0;
+        for (int i = 0; i < results.length; i++) {
+            // Only when interrupted before the item got a permit
+            BulkDepositResult result = results[i] != null ? results[i] : BulkDepositResult.failed(i, items.get(i), "Not attempted");
+            if (result.transactionId() != null) {
+                created++;
+            } else if (result.operationId() != null) {
+                pending++;
+            }
+            itemResults.add(result);
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        log.info("Bulk deposit: {} of {} debits created, {} pending, in {} ms", created, items.size(), pending, elapsedMillis);
+        return new BulkDepositResponse(created, pending, items.size() - created - pending, elapsedMillis, itemResults);
+    }
+
+    private static void withPermit(Semaphore permits, Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
+import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.ExternalAccount;
+import com.stripe.param.AccountExternalAccountListParams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * External bank accounts of users' connected accounts ({@code GET /api/transactions/payout-acc}).
+ * <p>
+ * They rarely change, so the list is fetched on first read and kept per connected account in an LRU of
+ * {@code max-entries}. {@code account.external_account.*} and {@code account.updated} webhooks drop the
+ * account's entry and the next read fetches it again; entries are also refetched after {@code max-age} in case a
+ * webhook was missed. Stripe does not deliver events in order, so an event is never applied to the cached list:
+ * patching it could bring back an account that a later event deleted. A read that overlaps an invalidation
+ * answers what it fetched but does not cache it.
+ */
+@Slf4j
+@Service
+public class ExternalAccountService {
+
+    private static final AccountExternalAccountListParams BANK_ACCOUNTS =
+            AccountExternalAccountListParams.builder().setObject("bank_account").build();
+
+    private final ConnectAccountService connectAccountService;
+
+    private final StripeClient stripeClient;
+
+    private final Duration maxAge;
+
+    private final Map<String, Entry> entries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Bumped by every invalidation; a read caches its result only if this did not move while it was fetching.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter expired;
+
+    private final Timer age;
+
+    private final Timer invalidationLag;
+
+    private final MeterRegistry meterRegistry;
+
+    private record Entry(List<ExternalAccount> externalAccounts, long fetchedAt) {
+    }
+
+    public ExternalAccountService(ConnectAccountService connectAccountService, StripeClient stripeClient, MeterRegistry meterRegistry,
+                                  @Value("${stripe.external-accounts.cache.max-age:1h}") Duration maxAge,
+                                  @Value("${stripe.external-accounts.cache.max-entries:10000}") int maxEntries) {
+        this.connectAccountService = connectAccountService;
+        this.stripeClient = stripeClient;
+        this.maxAge = maxAge;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.hits = Counter.builder("stripe.external_accounts.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("stripe.external_accounts.cache").tag("result", "miss").register(meterRegistry);
+        this.expired = Counter.builder("stripe.external_accounts.cache").tag("result", "expired").register(meterRegistry);
+        this.meterRegistry = meterRegistry;
+        this.age = Timer.builder("stripe.external_accounts.cache.age")
+                .description("Time since the answered external accounts were fetched from Stripe")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.invalidationLag = Timer.builder("stripe.external_accounts.invalidation.lag")
+                .description("Time from a Stripe account change to the cache entry being dropped")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("stripe.external_accounts.cache.hit_ratio", this, ExternalAccountService::hitRatio)
+                .description("Reads answered from the cache since start")
+                .register(meterRegistry);
+        Gauge.builder("stripe.external_accounts.cache.size", this, service -> service.size())
+                .register(meterRegistry);
+    }
+
+    public Map<String, Object> getExternalBankDetails(Integer userId) throws StripeException {
+        Optional<StripeUser> optionalUser = connectAccountService.getStripeDetails(userId);
+        if (optionalUser.isEmpty()) {
+            log.warn("No Stripe account found for userID: {}", userId);
+            return null;
+        }
+        return Map.of("external_acc", getExternalAccounts(optionalUser.get().getConnectAccountId()));
+    }
+
+    public List<ExternalAccount> getExternalAccounts(String connectAccountId) throws StripeException {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Entry entry = entries.get(connectAccountId);
+            if (entry != null && now - entry.fetchedAt() <= maxAge.toNanos()) {
+                hits.increment();
+                age.record(now - entry.fetchedAt(), TimeUnit.NANOSECONDS);
+                return entry.externalAccounts();
+            }
+            if (entry != null) {
+                expired.increment();
+                entries.remove(connectAccountId);
+            } else {
+                misses.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long generation = invalidations.get();
+        List<ExternalAccount> externalAccounts = List.copyOf(fetch(connectAccountId));
+        lock.lock();
+        try {
+            if (invalidations.get() == generation) {
+                entries.put(connectAccountId, new Entry(externalAccounts, now));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return externalAccounts;
+    }
+
+    /**
+     * Drops the cached external accounts of the connected account an {@code account.updated} or
+     * {@code account.external_account.*} event is about.
+     *
+     * @param eventAccount the event's {@code account} (set on Connect events)
+     * @param object       the event's {@code data.object}: the Account, or the external account
+     * @param created      when the event happened (epoch seconds), for the lag metric; null if unknown
+     * @return whether an entry was cached
+     */
+    public boolean externalAccountsChanged(String eventAccount, JsonNode object, Long created) {
+        String connectAccountId = eventAccount;
+        if (connectAccountId == null) {
+            connectAccountId = "account".equals(object.path("object").asText())
+                    ? object.path("id").asText(null) : object.path("account").asText(null);
+        }
+        if (connectAccountId == null) {
+            log.warn("Cannot tell which connected account {} {} belongs to", object.path("object").asText(), object.path("id").asText());
+            return false;
+        }
+
+        Entry removed;
+        lock.lock();
+        try {
+            invalidations.incrementAndGet();
+            removed = entries.remove(connectAccountId);
+        } finally {
+            lock.unlock();
+        }
+        if (created != null) {
+            invalidationLag.record(Math.max(0, System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(created)), TimeUnit.MILLISECONDS);
+        }
+        log.debug("External accounts of {} changed ({} {}), cached: {}", connectAccountId,
+                object.path("object").asText(), object.path("id").asText(), removed != null);
+        return removed != null;
+    }
+
+    private List<ExternalAccount> fetch(String connectAccountId) throws StripeException {
+        // The list is addressed by account id alone; no need to retrieve the account first
+        return stripeClient.accounts().externalAccounts().list(connectAccountId, BANK_ACCOUNTS).getData();
+    }
+
+    private double hitRatio() {
+        double reads = hits.count() + misses.count() + expired.count();
+        return reads == 0 ? 0 : hits.count() / reads;
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
+import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.financialconnections.Account;
+import com.stripe.param.financialconnections.AccountRefreshParams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bank details and available balance of a user's linked bank account ({@code GET /api/transactions/data}).
+ * <p>
+ * The bank details of a payment method (bank name, last4, routing number, account type) never change, so they
+ * are fetched once and kept in an LRU of {@code max-entries} payment methods. The balance is refreshed on
+ * Stripe concurrently with that lookup, with one refresh in flight per Financial Connections account however
+ * many requests ask for it. A balance younger than {@code fresh-for} is served without a call. Once the
+ * refresh has taken longer than {@code budget}, the last known balance is answered instead if it is at most
+ * {@code max-stale} old (stale-while-revalidate); the refresh carries on and updates it for the next request.
+ * Without such a balance the request waits for the refresh.
+ */
+@Slf4j
+@Service
+public class PaymentMethodDataService {
+
+    private static final AccountRefreshParams REFRESH_BALANCE = AccountRefreshParams.builder()
+            .addFeature(AccountRefreshParams.Feature.BALANCE)
+            .build();
+
+    private final ConnectAccountService connectAccountService;
+
+    private final StripeClient stripeClient;
+
+    private final Duration budget;
+
+    private final Duration freshFor;
+
+    private final Duration maxStale;
+
+    private final Map<String, Map<String, String>> bankDetails;
+
+    private final ReentrantLock bankDetailsLock = new ReentrantLock();
+
+    private final Map<String, CachedBalance> balances = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<CachedBalance>> refreshing = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Counter bankDetailsHits;
+
+    private final Counter bankDetailsMisses;
+
+    private final Counter balanceFresh;
+
+    private final Counter balanceRefreshed;
+
+    private final Counter balanceStale;
+
+    /**
+     * @param asOf when Stripe last refreshed the balance, or when it was read if Stripe does not say
+     */
+    private record CachedBalance(Long available, Instant asOf, long fetchedAt) {
+    }
+
+    public PaymentMethodDataService(ConnectAccountService connectAccountService, StripeClient stripeClient, MeterRegistry meterRegistry,
+                                    @Value("${stripe.payment-method-data.budget:300ms}") Duration budget,
+                                    @Value("${stripe.payment-method-data.balance.fresh-for:10s}") Duration freshFor,
+                                    @Value("${stripe.payment-method-data.balance.max-stale:10m}") Duration maxStale,
+                                    @Value("${stripe.payment-method-data.bank-details.max-entries:100000}") int maxEntries) {
+        this.connectAccountService = connectAccountService;
+        this.stripeClient = stripeClient;
+        this.budget = budget;
+        this.freshFor = freshFor;
+        this.maxStale = maxStale;
+        this.bankDetails = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.bankDetailsHits = Counter.builder("stripe.payment_method_data.bank_details").tag("result", "hit").register(meterRegistry);
+        this.bankDetailsMisses = Counter.builder("stripe.payment_method_data.bank_details").tag("result", "miss").register(meterRegistry);
+        this.balanceFresh = Counter.builder("stripe.payment_method_data.balance").tag("result", "fresh").register(meterRegistry);
+        this.balanceRefreshed = Counter.builder("stripe.payment_method_data.balance").tag("result", "refreshed").register(meterRegistry);
+        this.balanceStale = Counter.builder("stripe.payment_method_data.balance").tag("result", "stale").register(meterRegistry);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    public Map<String, Object> getPaymentMethodData(Integer userId) throws StripeException {
+        Optional<StripeUser> optionalUser = connectAccountService.getStripeDetails(userId);
+        if (optionalUser.isEmpty()) {
+            log.warn("No Stripe details found for userID: {}", userId);
+            return null;
+        }
+        return getPaymentMethodData(optionalUser.get());
+    }
+
+    /**
+     * @return {@code paymentMethod} (the bank details), {@code balance} (available USD cents) and
+     * {@code balance_as_of}
+     */
+    public Map<String, Object> getPaymentMethodData(StripeUser user) throws StripeException {
+        // Start the balance first: it is the slow call, and the bank details are usually cached
+        CompletableFuture<CachedBalance> balance = balance(user.getFinancialConnectionId());
+        Map<String, String> details = bankDetails(user.getPaymentMethodId());
+        CachedBalance available = await(user.getFinancialConnectionId(), balance);
+        log.debug("balance:{} as of {}", available.available(), available.asOf());
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("paymentMethod", details);
+        data.put("balance", available.available());
+        data.put("balance_as_of", available.asOf());
+        return data;
+    }
+
+    private Map<String, String> bankDetails(String paymentMethodId) throws StripeException {
+        bankDetailsLock.lock();
+        try {
+            Map<String, String> cached = bankDetails.get(paymentMethodId);
+            if (cached != null) {
+                bankDetailsHits.increment();
+                return cached;
+            }
+        } finally {
+            bankDetailsLock.unlock();
+        }
+
+        bankDetailsMisses.increment();
+        PaymentMethod paymentMethod = stripeClient.paymentMethods().retrieve(paymentMethodId);
+        log.debug("Caching bank details of payment method {}", paymentMethodId);
+        PaymentMethod.UsBankAccount bankAccount = paymentMethod.getUsBankAccount();
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("bank_name", bankAccount.getBankName());
+        details.put("last4", bankAccount.getLast4());
+        details.put("account_type", bankAccount.getAccountType());
+        details.put("routing_no", bankAccount.getRoutingNumber());
+        Map<String, String> immutable = Collections.unmodifiableMap(details);
+
+        bankDetailsLock.lock();
+        try {
+            bankDetails.put(paymentMethodId, immutable);
+        } finally {
+            bankDetailsLock.unlock();
+        }
+        return immutable;
+    }
+
+    private CompletableFuture<CachedBalance> balance(String financialConnectionId) {
+        CachedBalance cached = balances.get(financialConnectionId);
+        if (cached != null && System.nanoTime() - cached.fetchedAt() < freshFor.toNanos()) {
+            balanceFresh.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        return refreshing.computeIfAbsent(financialConnectionId, id -> {
+            CompletableFuture<CachedBalance> refresh = CompletableFuture.supplyAsync(() -> refreshBalance(id), executor);
+            refresh.whenComplete((result, error) -> {
+                refreshing.remove(id, refresh);
+                if (error != null) {
+                    log.debug("Balance refresh of {} failed: {}", id, error.getMessage());
+                }
+            });
+            return refresh;
+        });
+    }
+
+    private CachedBalance refreshBalance(String financialConnectionId) {
+        try {
+            // refresh is addressed by id alone; no need to retrieve the account first
+            Account refreshed = stripeClient.financialConnections().accounts().refresh(financialConnectionId, REFRESH_BALANCE);
+            Account.Balance balance = refreshed.getBalance();
+            Instant asOf = balance != null && balance.getAsOf() != null ? Instant.ofEpochSecond(balance.getAsOf()) : Instant.now();
+            Long available = balance != null && balance.getCash() != null && balance.getCash().getAvailable() != null
+                    ? balance.getCash().getAvailable().get("usd") : null;
+            CachedBalance result = new CachedBalance(available, asOf, System.nanoTime());
+            balances.put(financialConnectionId, result);
+            return result;
+        } catch (StripeException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private CachedBalance await(String financialConnectionId, CompletableFuture<CachedBalance> refresh) throws StripeException {
+        CachedBalance stale = balances.get(financialConnectionId);
+        boolean fallback = !refresh.isDone() && stale != null && System.nanoTime() - stale.fetchedAt() <= maxStale.toNanos();
+        try {
+            CachedBalance result = fallback ? refresh.get(budget.toNanos(), TimeUnit.NANOSECONDS) : refresh.get();
+            if (result != stale) {
+                balanceRefreshed.increment();
+            }
+            return result;
+        } catch (TimeoutException e) {
+            balanceStale.increment();
+            log.debug("Balance refresh of {} is over budget, answering the balance as of {}", financialConnectionId, stale.asOf());
+            return stale;
+        } catch (ExecutionException e) {
+            if (fallback) {
+                balanceStale.increment();
+                log.warn("Balance refresh of {} failed, answering the balance as of {}: {}",
+                        financialConnectionId, stale.asOf(), e.getCause().getMessage());
+                return stale;
+            }
+            if (e.getCause() instanceof StripeException stripeException) {
+                throw stripeException;
+            }
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while refreshing the balance", e);
+        }
+    }
+}
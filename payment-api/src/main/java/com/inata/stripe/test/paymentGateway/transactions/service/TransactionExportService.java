@@ -0,0 +1,159 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionSummary;
+import com.inata.stripe.test.paymentGateway.transactions.repository.TransactionRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Streams {@code stripe_transactions} as NDJSON or CSV for reconciliation. Rows come from a server-side
+ * cursor as read-only projections and are written as they arrive, so memory use does not depend on how
+ * many rows are exported.
+ */
+@Service
+public class TransactionExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson"),
+        CSV("text/csv");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final String CSV_HEADER = "trans_id,user_id,transaction_type,amount,status,payment_method_id,comments,created_at,updated_at\n";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TransactionRepository transactionRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final TransactionTemplate readOnlyTransaction;
+
+    public TransactionExportService(TransactionRepository transactionRepository, ObjectMapper objectMapper,
+                                    PlatformTransactionManager transactionManager) {
+        this.transactionRepository = transactionRepository;
+        this.objectMapper = objectMapper;
+        // The stream is consumed after the controller returned, so the transaction is opened here
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Writes every matching transaction (all filters optional, {@code to} exclusive) to {@code out}.
+     *
+     * @return the number of rows written
+     */
+    public long export(Integer userId, String status, LocalDateTime from, LocalDateTime to, Format format, OutputStream out) {
+        Long written = readOnlyTransaction.execute(tx -> {
+            try (Stream<TransactionSummary> rows = transactionRepository.streamForExport(userId, status, from, to)) {
+                return write(rows, format, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return written != null ? written : 0;
+    }
+
+    public long write(Stream<TransactionSummary> rows, Format format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        long count = format == Format.CSV ? writeCsv(rows.iterator(), writer) : writeNdjson(rows.iterator(), writer);
+        writer.flush();
+        return count;
+    }
+
+    private long writeNdjson(Iterator<TransactionSummary> rows, Writer writer) throws IOException {
+        long count = 0;
+        // Jackson must neither flush the response after every row nor close it at the end
+        try (SequenceWriter sequence = objectMapper.writerFor(TransactionSummary.class)
+                .withRootValueSeparator("\n")
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValues(writer)) {
+            while (rows.hasNext()) {
+                sequence.write(rows.next());
+                count++;
+            }
+        }
+        if (count > 0) {
+            writer.write('\n');
+        }
+        return count;
+    }
+
+    private long writeCsv(Iterator<TransactionSummary> rows, Writer writer) throws IOException {
+        writer.write(CSV_HEADER);
+        long count = 0;
+        while (rows.hasNext()) {
+            TransactionSummary row = rows.next();
+            writeCsvField(writer, row.transactionId());
+            writer.write(',');
+            writer.write(String.valueOf(row.userId()));
+            writer.write(',');
+            writeCsvField(writer, row.transactionType());
+            writer.write(',');
+            writer.write(row.amount() != null ? row.amount().toPlainString() : "");
+            writer.write(',');
+            writeCsvField(writer, row.status());
+            writer.write(',');
+            writeCsvField(writer, row.paymentMethodId());
+            writer.write(',');
+            writeCsvField(writer, row.comments());
+            writer.write(',');
+            writer.write(row.createdAt() != null ? row.createdAt().toString() : "");
+            writer.write(',');
+            writer.write(row.updatedAt() != null ? row.updatedAt().toString() : "");
+            writer.write('\n');
+            count++;
+        }
+        return count;
+    }
+
+    // RFC 4180: quote fields containing a separator, quote or line break, doubling embedded quotes
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+}
@@ -1,28 +1,40 @@
 package com.inata.stripe.test.paymentGateway.transactions.service;
 
+import com.inata.stripe.test.paymentGateway.outbox.OutboxDispatcher;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxEntry;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxHandler;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxPendingException;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxType;
 import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
 import com.inata.stripe.test.paymentGateway.stripeusers.repository.StripeUserRepository;
 import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionCursor;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionHistoryPage;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionSummary;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionTransition;
 import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
 import com.inata.stripe.test.paymentGateway.transactions.repository.TransactionRepository;
+import com.stripe.StripeClient;
 import com.stripe.exception.StripeException;
 import com.stripe.model.*;
-import com.stripe.model.financialconnections.Account;
 import com.stripe.net.RequestOptions;
 import com.stripe.param.*;
-import com.stripe.param.financialconnections.AccountRefreshParams;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDateTime;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
@@ -30,129 +42,158 @@ import java.util.Optional;
 public class TransactionService {
     @Autowired
     private StripeUserRepository stripeUserRepository;
-    @Value("${stripe.api.key}")
-    private String stripeApiKey;
+    @Autowired
+    private StripeClient stripeClient;
 
     @Autowired
     private TransactionRepository transactionRepository;
     @Autowired
     private ConnectAccountService connectAccountService;
+    @Autowired
+    private UserBalanceService userBalanceService;
+    @Autowired
+    private OutboxDispatcher outboxDispatcher;
+    @Autowired
+    private TransactionStatusStream transactionStatusStream;
+    @PersistenceContext
+    private EntityManager entityManager;
 
     /**
      * Creates an ACH Debit (Pulling funds from the user's bank).
      */
-    @Transactional
-    public TransactionEntity createAchDebit(Integer userId, Long amount) throws StripeException {
+    public TransactionEntity createAchDebit(Integer userId, Long amount) throws StripeException, OutboxPendingException {
+        return createAchDebit(userId, amount, null);
+    }
+
+    /**
+     * Same as {@link #createAchDebit(Integer, Long)}; with the client's idempotency key a repeated request
+     * returns the transaction created the first time instead of debiting again.
+     * <p>
+     * No database transaction is held while Stripe is called: the debit is written to the outbox first, and
+     * the pending row is saved with the outbox update once the PaymentIntent exists ({@link OutboxDispatcher}).
+     *
+     * @throws OutboxPendingException Stripe's answer is not known yet; the outbox retries the debit
+     */
+    public TransactionEntity createAchDebit(Integer userId, Long amount, String idempotencyKey) throws StripeException, OutboxPendingException {
         // Step 1: Get Stripe user info
         Optional<StripeUser> optionalUser = connectAccountService.getStripeDetails(userId);
         if (optionalUser.isEmpty()) {
             log.warn("No Stripe details found for user ID: {}", userId);
             return null;
         }
-        String paymentMethodId;
-
         StripeUser user = optionalUser.get();
-        if (user.getPaymentMethodId().isEmpty()) {
-            PaymentMethodListParams listParams = PaymentMethodListParams.builder()
-                    .setCustomer(user.getCustomerId())
-                    .setType(PaymentMethodListParams.Type.US_BANK_ACCOUNT)
-                    .build();
-
-            PaymentMethodCollection paymentMethods = PaymentMethod.list(listParams);
-            List<PaymentMethod> methods = paymentMethods.getData();
-
-            if (methods.isEmpty()) {
-                log.info("No US bank account payment methods found for user ID: {}", userId);
-                return null;
-            }
-
-            // Use the first available payment method
-            PaymentMethod selectedMethod = methods.getFirst();
-            paymentMethodId = selectedMethod.getId();
-            user.setPaymentMethodId(paymentMethodId);
-            stripeUserRepository.save(user);
-        } else {
-            paymentMethodId = user.getPaymentMethodId();
+        String paymentMethodId = resolvePaymentMethodId(user);
+        if (paymentMethodId == null) {
+            log.info("No US bank account payment methods found for user ID: {}", userId);
+            return null;
         }
 
+        // Step 2: Create the PaymentIntent and save the transaction (sendAchDebit, recordAchDebit)
+        String transactionId = submitAchDebit(userId, paymentMethodId, amount,
+                idempotencyKey != null ? "deposit:" + idempotencyKey : null);
+        return transactionRepository.findById(transactionId).orElseThrow();
+    }
 
-        // Step 2: Get user's US bank account payment methods
-
-
-        // Step 3: Create PaymentIntent
-        PaymentIntentCreateParams params = PaymentIntentCreateParams.builder()
-                .setAmount(amount) // Stripe expects amount in cents
-                .setCurrency("usd")
-                .setCustomer(user.getCustomerId())
-                .addPaymentMethodType("us_bank_account")
-                .setPaymentMethod(paymentMethodId)
-                .setConfirm(true)
-                .setDescription("ACH Debit Payment for User ID: " + userId)
-                .build();
+    /**
+     * Runs one ACH debit through the outbox, for a user whose payment method is already resolved: the PaymentIntent
+     * is created with an idempotency key derived from the outbox entry, and its pending row is saved with the
+     * entry's update.
+     *
+     * @param requestKey deduplicates repeated submissions of the same debit; may be null
+     * @return the id of the transaction (the PaymentIntent)
+     * @throws OutboxPendingException Stripe's answer is not known yet; the outbox retries the debit
+     */
+    public String submitAchDebit(Integer userId, String paymentMethodId, Long amount, String requestKey)
+            throws StripeException, OutboxPendingException {
+        OutboxEntry entry = new OutboxEntry(OutboxType.ACH_DEBIT, userId);
+        entry.setAmount(amount);
+        entry.setPaymentMethodId(paymentMethodId);
+        entry.setRequestKey(requestKey);
+        return outboxDispatcher.execute(entry);
+    }
 
-        PaymentIntent intent = PaymentIntent.create(params);
-//        log.info("PaymentIntent created: {}", intent.toJson());
+    @PostConstruct
+    void registerOutboxHandlers() {
+        outboxDispatcher.register(OutboxType.ACH_DEBIT, OutboxHandler.of(this::sendAchDebit, this::recordAchDebit));
+    }
 
-        // Step 4: Save transaction to DB
-        TransactionEntity transaction = new TransactionEntity();
-        transaction.setTransactionId(intent.getId());
-        transaction.setUserId(userId);
-        transaction.setPaymentMethodId(paymentMethodId);
-        transaction.setTransactionType("deposit");
-        transaction.setAmount(convertLongtoBigDec(amount));
-        transaction.setStatus("pending"); // Will need webhook to update status later
-        transaction.setCreatedAt(LocalDateTime.now());
-        transaction.setUpdatedAt(LocalDateTime.now());
+    private PaymentIntent sendAchDebit(OutboxEntry entry) throws StripeException {
+        StripeUser user = connectAccountService.getStripeDetails(entry.getUserId()).orElseThrow();
+        return createDebitIntent(user, entry.getPaymentMethodId(), entry.getAmount(), entry.idempotencyKey("payment_intent"));
+    }
 
-        return transactionRepository.save(transaction);
+    private String recordAchDebit(OutboxEntry entry, PaymentIntent intent) {
+        // Already there if an earlier attempt saved it but could not mark the entry done
+        if (!transactionRepository.existsById(intent.getId())) {
+            TransactionEntity saved = transactionRepository.save(
+                    newPendingDeposit(intent, entry.getUserId(), entry.getPaymentMethodId(), entry.getAmount()));
+            userBalanceService.recordCreated(saved);
+        }
+        return intent.getId();
     }
 
     /**
-     * Creates an ACH Withdrawal (sending funds to the user's bank).
+     * The user's saved US bank account payment method, looked up on Stripe (and saved) the first time.
+     *
+     * @return null if the customer has no US bank account payment method
      */
-    @Transactional
-    public TransactionEntity createAchWithdrawal(Integer userId, Long amount) throws StripeException {
-
-        // Step 1: Transfer money to the connected account (Stripe balance)
-        StripeUser user = connectAccountService.getStripeDetails(userId).get();
+    public String resolvePaymentMethodId(StripeUser user) throws StripeException {
+        if (user.getPaymentMethodId() != null && !user.getPaymentMethodId().isEmpty()) {
+            return user.getPaymentMethodId();
+        }
 
-        TransferCreateParams transferParams = TransferCreateParams.builder()
-                .setAmount(amount) // cents
-                .setCurrency("usd")
-                .setDestination(user.getConnectAccountId()) // The Connected Account ID
+        PaymentMethodListParams listParams = PaymentMethodListParams.builder()
+                .setCustomer(user.getCustomerId())
+                .setType(PaymentMethodListParams.Type.US_BANK_ACCOUNT)
                 .build();
 
-        Transfer transfer = Transfer.create(transferParams);
+        List<PaymentMethod> methods = stripeClient.paymentMethods().list(listParams).getData();
+        if (methods.isEmpty()) {
+            return null;
+        }
 
-        // Step 2: Now create a payout from the connected account's balance to their bank
-        RequestOptions connectedAccountOptions = RequestOptions.builder()
-                .setStripeAccount(user.getConnectAccountId()) // Context: the connected account
-                .build();
+        // Use the first available payment method
+        String paymentMethodId = methods.getFirst().getId();
+        user.setPaymentMethodId(paymentMethodId);
+        stripeUserRepository.save(user);
+        return paymentMethodId;
+    }
 
-        PayoutCreateParams payoutParams = PayoutCreateParams.builder()
-                .setAmount(amount)
+    /**
+     * Creates and confirms the ACH debit PaymentIntent; amount in cents.
+     */
+    private PaymentIntent createDebitIntent(StripeUser user, String paymentMethodId, Long amount,
+                                            String idempotencyKey) throws StripeException {
+        PaymentIntentCreateParams params = PaymentIntentCreateParams.builder()
+                .setAmount(amount) // Stripe expects amount in cents
                 .setCurrency("usd")
-                .setMethod(PayoutCreateParams.Method.INSTANT) // Or INSTANT (if supported)
+                .setCustomer(user.getCustomerId())
+                .addPaymentMethodType("us_bank_account")
+                .setPaymentMethod(paymentMethodId)
+                .setConfirm(true)
+                .setDescription("ACH Debit Payment for User ID: " + user.getId())
                 .build();
 
-        Payout payout = Payout.create(payoutParams, connectedAccountOptions);
-
-        // Round to 2 decimal places
+        RequestOptions options = RequestOptions.builder().setIdempotencyKey(idempotencyKey).build();
+        return stripeClient.paymentIntents().create(params, options);
+    }
 
+    /**
+     * The pending deposit row for a PaymentIntent (not saved yet); the webhook settles it later.
+     */
+    private TransactionEntity newPendingDeposit(PaymentIntent intent, Integer userId, String paymentMethodId, Long amount) {
         TransactionEntity transaction = new TransactionEntity();
-        transaction.setTransactionId(payout.getId());
+        transaction.setTransactionId(intent.getId());
         transaction.setUserId(userId);
-        transaction.setTransactionType("withdraw");
+        transaction.setPaymentMethodId(paymentMethodId);
+        transaction.setTransactionType("deposit");
         transaction.setAmount(convertLongtoBigDec(amount));
-        transaction.setStatus("pending");
-        transaction.setPaymentMethodId(payout.getDestination());
+        transaction.setStatus(TransactionStatus.PENDING.getValue());
         transaction.setCreatedAt(LocalDateTime.now());
         transaction.setUpdatedAt(LocalDateTime.now());
-
-        return transactionRepository.save(transaction);
+        return transaction;
     }
 
-
     /**
      * Updates the status of a transaction (based on Stripe Webhook events).
      */
@@ -181,52 +222,6 @@ public class TransactionService {
         });
     }
 
-    public Map<String, Object> getPaymentMethodData(Integer userId) throws StripeException {
-        Optional<StripeUser> optionalUser = connectAccountService.getStripeDetails(userId);
-        if (optionalUser.isEmpty()) {
-            log.warn("No Stripe details found for userID: {}", userId);
-            return null;
-        }
-        StripeUser user = optionalUser.get();
-        com.stripe.model.financialconnections.Account resource = com.stripe.model.financialconnections.Account.retrieve(user.getFinancialConnectionId());
-        AccountRefreshParams refreshParams =
-                AccountRefreshParams.builder()
-                        .addFeature(AccountRefreshParams.Feature.BALANCE)
-                        .build();
-        Account account = resource.refresh(refreshParams);
-        PaymentMethod paymentMethod = PaymentMethod.retrieve(user.getPaymentMethodId());
-        log.info("paymentMethod:{}", paymentMethod.toJson());
-        log.info("balance:{}", account.getBalance().getCash().getAvailable());
-        Map<String, String> paymentMethodData = new HashMap<>();
-        paymentMethodData.put("bank_name", paymentMethod.getUsBankAccount().getBankName());
-        paymentMethodData.put("last4", paymentMethod.getUsBankAccount().getLast4());
-        paymentMethodData.put("account_type", paymentMethod.getUsBankAccount().getAccountType());
-        paymentMethodData.put("routing_no", paymentMethod.getUsBankAccount().getRoutingNumber());
-
-
-        return Map.of("paymentMethod", paymentMethodData,
-                "balance", account.getBalance().getCash().getAvailable().get("usd"));
-    }
-
-    public Map<String, Object> getExternalBankDetails(Integer userId) throws StripeException {
-        Optional<StripeUser> optionalUser = connectAccountService.getStripeDetails(userId);
-        if (optionalUser.isEmpty()) {
-            log.warn("No Stripe account found for userID: {}", userId);
-            return null;
-        }
-        StripeUser user = optionalUser.get();
-
-        com.stripe.model.Account account = com.stripe.model.Account.retrieve(user.getConnectAccountId());
-//        ExternalAccount externalAccount =
-//                account.getExternalAccounts().retrieve("ba_1NAinX2eZvKYlo2CpFGcuuEG");
-        ExternalAccountCollectionListParams params =
-                ExternalAccountCollectionListParams.builder().setObject("bank_account").build();
-        ExternalAccountCollection externalAccounts =
-                account.getExternalAccounts().list(params);
-
-        return Map.of("external_acc", externalAccounts.getData());
-    }
-
     /**
      * Retrieves a transaction by its ID.
      */
@@ -238,15 +233,82 @@ public class TransactionService {
         transactionRepository.save(transactionEntity);
     }
 
+    /**
+     * Applies a status transition (from webhook events) with one conditional UPDATE instead of read-modify-write,
+     * so concurrent or out-of-order events cannot overwrite each other. The user's balance is adjusted in the
+     * same transaction, and only when the transition was applied; the transition is then pushed to the user's
+     * open streams once committed.
+     *
+     * @return false if the transaction does not exist or its current status does not allow the transition
+     */
+    @Transactional
+    public boolean transitionStatus(String transactionId, TransactionStatus status, String comments) {
+        Optional<TransactionTransition> applied = transactionRepository.transitionStatus(
+                transactionId, status.allowedFrom(), status.getValue(), comments, LocalDateTime.now());
+        if (applied.isEmpty()) {
+            return false;
+        }
+        detach(transactionId);
+        userBalanceService.recordTransition(applied.get(), status);
+        transactionStatusStream.publish(applied.get(), status, comments);
+        return true;
+    }
+
+    /**
+     * Applies a transition only from {@code from}, which may be a final state: for an outcome Stripe reverses
+     * after the fact, such as a payout that fails after it was paid (the bank returned it). Otherwise as
+     * {@link #transitionStatus(String, TransactionStatus, String)}.
+     *
+     * @return false if the transaction does not exist or is not in {@code from}
+     */
+    @Transactional
+    public boolean transitionStatus(String transactionId, TransactionStatus from, TransactionStatus to, String comments) {
+        Optional<TransactionTransition> applied = transactionRepository.transitionStatus(
+                transactionId, List.of(from.getValue()), to.getValue(), comments, LocalDateTime.now());
+        if (applied.isEmpty()) {
+            return false;
+        }
+        detach(transactionId);
+        userBalanceService.recordTransition(applied.get(), from, to);
+        transactionStatusStream.publish(applied.get(), to, comments);
+        return true;
+    }
+
+    /**
+     * The native UPDATE bypasses the persistence context, so an entity loaded earlier in the transaction would
+     * keep the old status and version (and fail the next save with an optimistic lock error). Takes it out, as
+     * {@code @Modifying(clearAutomatically = true)} did, but without clearing the caller's other entities;
+     * getReference does not query, and a later findById reads the updated row.
+     */
+    private void detach(String transactionId) {
+        entityManager.detach(entityManager.getReference(TransactionEntity.class, transactionId));
+    }
+
 
     /**
-     * Retrieves all transactions for a user.
+     * One page of a user's history, newest first, optionally filtered by status, type and creation time
+     * ({@code from} inclusive, {@code to} exclusive). Pass the previous page's {@code nextCursor} to continue.
      */
-    public List<TransactionEntity> getTransactionsByUserId(Integer userId) {
-        return transactionRepository.findByUserId(userId);
+    public TransactionHistoryPage getTransactionHistory(Integer userId, String status, String type,
+                                                        LocalDateTime from, LocalDateTime to, String cursor, int limit) {
+        // One extra row tells whether there is a next page without a count query
+        Pageable page = PageRequest.of(0, limit + 1);
+        List<TransactionSummary> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = transactionRepository.findHistory(userId, status, type, from, to, page);
+        } else {
+            TransactionCursor after = TransactionCursor.decode(cursor);
+            rows = transactionRepository.findHistoryAfter(userId, status, type, from, to, after.createdAt(), after.transactionId(), page);
+        }
+
+        if (rows.size() <= limit) {
+            return new TransactionHistoryPage(rows, null);
+        }
+        List<TransactionSummary> items = rows.subList(0, limit);
+        return new TransactionHistoryPage(items, TransactionCursor.after(items.getLast()).encode());
     }
 
-    private BigDecimal convertLongtoBigDec(Long amount) {
+    static BigDecimal convertLongtoBigDec(Long amount) {
         BigDecimal amountInCents = new BigDecimal(amount);  // Convert Long to BigDecimal
         BigDecimal divisor = new BigDecimal(100);  // The divisor (100 for cents to dollars)
 
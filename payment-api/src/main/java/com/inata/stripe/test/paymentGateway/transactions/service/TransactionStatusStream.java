@@ -0,0 +1,350 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionStatusEvent;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionTransition;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes a user's transaction status transitions to their open {@code GET /api/transactions/stream} connections
+ * (server-sent events), so clients no longer poll the history to see a deposit or withdrawal settle.
+ * <p>
+ * Transitions are published once the transaction that applied them commits. Every connection has a bounded
+ * queue of {@code buffer-size} events, drained by its own virtual thread, which also writes a heartbeat comment
+ * after {@code heartbeat} without events. The container holds no thread for a connection and a parked virtual
+ * thread takes little memory, so idle connections are cheap. A client too slow to keep up is disconnected
+ * instead of delaying the others, and resumes where it left off when it reconnects.
+ * <p>
+ * The last {@code replay-size} events of the last {@code replay-users} active users are kept per instance.
+ * A reconnecting client sends the id of the last event it saw ({@code Last-Event-ID}, set by
+ * {@code EventSource}) and is sent what it missed. If that is no longer known (a restart, another instance,
+ * events evicted), it gets a {@code reset} event telling it to reload the history once. The first frame of
+ * every stream carries an id, so a client that reconnects before receiving any event resumes too.
+ */
+@Slf4j
+@Service
+public class TransactionStatusStream {
+
+    public static final String STATUS_EVENT = "status";
+
+    public static final String RESET_EVENT = "reset";
+
+    private static final long RECONNECT_MILLIS = 3000;
+
+    /**
+     * Event ids are {@code <boot>-<sequence>}; ids of an earlier run (or another instance) are not resumable.
+     */
+    private final String boot = Long.toString(System.currentTimeMillis(), 36);
+
+    private final int bufferSize;
+
+    private final int replaySize;
+
+    private final Duration heartbeat;
+
+    private final Duration timeout;
+
+    private final int maxConnections;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<Integer, ReplayBuffer> replayBuffers;
+
+    private final Map<Integer, Set<Subscriber>> subscribers = new HashMap<>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private long sequence;
+
+    /**
+     * Highest sequence of a replay buffer evicted as a whole; resuming from before it may have missed events.
+     */
+    private long evictedUpTo;
+
+    private final Counter resumed;
+
+    private final Counter reset;
+
+    private final Counter overflowed;
+
+    private record Sequenced(long sequence, TransactionStatusEvent event) {
+    }
+
+    private static final class ReplayBuffer {
+
+        private final ArrayDeque<Sequenced> events = new ArrayDeque<>();
+
+        /**
+         * Sequence of the last event dropped from this buffer.
+         */
+        private long droppedUpTo;
+    }
+
+    public TransactionStatusStream(MeterRegistry meterRegistry,
+                                   @Value("${stripe.transaction-stream.buffer-size:64}") int bufferSize,
+                                   @Value("${stripe.transaction-stream.replay-size:100}") int replaySize,
+                                   @Value("${stripe.transaction-stream.replay-users:100000}") int replayUsers,
+                                   @Value("${stripe.transaction-stream.heartbeat:15s}") Duration heartbeat,
+                                   @Value("${stripe.transaction-stream.timeout:30m}") Duration timeout,
+                                   @Value("${stripe.transaction-stream.max-connections:50000}") int maxConnections) {
+        this.bufferSize = bufferSize;
+        this.replaySize = replaySize;
+        this.heartbeat = heartbeat;
+        this.timeout = timeout;
+        this.maxConnections = maxConnections;
+        this.replayBuffers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ReplayBuffer> eldest) {
+                if (size() <= replayUsers) {
+                    return false;
+                }
+                evictedUpTo = Math.max(evictedUpTo, eldest.getValue().events.getLast().sequence());
+                return true;
+            }
+        };
+
+        Gauge.builder("stripe.transaction_stream.connections", connections, AtomicInteger::get).register(meterRegistry);
+        this.resumed = Counter.builder("stripe.transaction_stream.resume").tag("result", "replayed").register(meterRegistry);
+        this.reset = Counter.builder("stripe.transaction_stream.resume").tag("result", "reset").register(meterRegistry);
+        this.overflowed = Counter.builder("stripe.transaction_stream.overflow").register(meterRegistry);
+    }
+
+    /**
+     * Publishes a transition applied to {@code transaction}; when called inside a database transaction,
+     * only once it commits.
+     */
+    public void publish(TransactionTransition transaction, TransactionStatus status, String comments) {
+        TransactionStatusEvent event = new TransactionStatusEvent(transaction.getTransactionId(), transaction.getUserId(),
+                transaction.getTransactionType(), transaction.getAmount(), status.getValue(), comments, LocalDateTime.now());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(event);
+            }
+        });
+    }
+
+    private void publish(TransactionStatusEvent event) {
+        lock.lock();
+        try {
+            Sequenced sequenced = new Sequenced(++sequence, event);
+            ReplayBuffer buffer = replayBuffers.computeIfAbsent(event.userId(), userId -> new ReplayBuffer());
+            buffer.events.addLast(sequenced);
+            if (buffer.events.size() > replaySize) {
+                buffer.droppedUpTo = buffer.events.removeFirst().sequence();
+            }
+            for (Subscriber subscriber : subscribers.getOrDefault(event.userId(), Set.of())) {
+                subscriber.offer(sequenced);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a stream of the user's transitions.
+     *
+     * @param lastEventId the {@code Last-Event-ID} of a reconnecting client, or null
+     * @throws ResponseStatusException 503 once {@code max-connections} streams are open on this instance
+     */
+    public SseEmitter subscribe(Integer userId, String lastEventId) {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many open streams, retry later");
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(userId, emitter);
+        lock.lock();
+        try {
+            // Replay and registration happen under the publish lock, so no event is missed or sent twice
+            subscriber.startSequence = sequence;
+            if (lastEventId != null) {
+                Long last = parseEventId(lastEventId);
+                List<Sequenced> missed = last != null ? missedSince(userId, last) : null;
+                if (missed == null || missed.size() > bufferSize) {
+                    reset.increment();
+                    subscriber.reset = true;
+                } else {
+                    resumed.increment();
+                    subscriber.startSequence = last;
+                    missed.forEach(subscriber::offer);
+                }
+            }
+            subscribers.computeIfAbsent(userId, id -> new HashSet<>()).add(subscriber);
+        } finally {
+            lock.unlock();
+        }
+
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(error -> subscriber.close());
+        subscriber.thread = Thread.ofVirtual().name("transaction-stream-" + userId).start(subscriber::run);
+        return emitter;
+    }
+
+    /**
+     * @return the sequence of one of this run's event ids, or null
+     */
+    private Long parseEventId(String eventId) {
+        int dash = eventId.lastIndexOf('-');
+        if (dash < 0 || !boot.equals(eventId.substring(0, dash))) {
+            return null;
+        }
+        try {
+            long last = Long.parseLong(eventId.substring(dash + 1));
+            return last >= 0 && last <= sequence ? last : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the user's events after sequence {@code last}, or null if some of them are no longer known
+     */
+    private List<Sequenced> missedSince(Integer userId, long last) {
+        ReplayBuffer buffer = replayBuffers.get(userId);
+        if (buffer == null) {
+            return last >= evictedUpTo ? List.of() : null;
+        }
+        if (last < buffer.droppedUpTo) {
+            return null;
+        }
+        List<Sequenced> missed = new ArrayList<>();
+        for (Sequenced sequenced : buffer.events) {
+            if (sequenced.sequence() > last) {
+                missed.add(sequenced);
+            }
+        }
+        return missed;
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        lock.lock();
+        try {
+            Set<Subscriber> userSubscribers = subscribers.get(subscriber.userId);
+            if (userSubscribers != null && userSubscribers.remove(subscriber) && userSubscribers.isEmpty()) {
+                subscribers.remove(subscriber.userId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String eventId(long sequence) {
+        return boot + "-" + sequence;
+    }
+
+    private final class Subscriber {
+
+        private final Integer userId;
+
+        private final SseEmitter emitter;
+
+        private final BlockingQueue<Sequenced> queue = new ArrayBlockingQueue<>(bufferSize);
+
+        /**
+         * Sent as the id of the first frame, so a client that reconnects before any event still resumes
+         */
+        private volatile long startSequence;
+
+        private volatile boolean reset;
+
+        private volatile boolean overflow;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private volatile Thread thread;
+
+        private Subscriber(Integer userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Called under the publish lock; never blocks.
+         */
+        private void offer(Sequenced sequenced) {
+            // A full queue is being drained, so the sender notices the overflow at its next poll
+            if (!overflow && !queue.offer(sequenced)) {
+                overflow = true;
+                overflowed.increment();
+            }
+        }
+
+        private void run() {
+            try {
+                emitter.send(SseEmitter.event().id(eventId(startSequence)).comment("connected").reconnectTime(RECONNECT_MILLIS));
+                if (reset) {
+                    emitter.send(SseEmitter.event().name(RESET_EVENT).data("{}", MediaType.APPLICATION_JSON));
+                }
+                while (!closed.get() && !overflow) {
+                    Sequenced next = queue.poll(heartbeat.toNanos(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    } else if (!overflow) {
+                        emitter.send(SseEmitter.event().id(eventId(next.sequence())).name(STATUS_EVENT)
+                                .data(next.event(), MediaType.APPLICATION_JSON));
+                    }
+                }
+                if (overflow) {
+                    // The client reconnects with the last id it received and is sent the rest from the replay buffer
+                    log.debug("Closing the stream of user {}: it fell {} events behind", userId, bufferSize);
+                    emitter.complete();
+                }
+            } catch (InterruptedException e) {
+                // closed by the container
+            } catch (IOException | IllegalStateException e) {
+                // Client gone; the container completes the emitter
+                log.debug("Stream of user {} closed: {}", userId, e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            connections.decrementAndGet();
+            unsubscribe(this);
+            Thread sender = thread;
+            if (sender != null && sender != Thread.currentThread()) {
+                sender.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.inata.stripe.test.paymentGateway.transactions.dto.BalanceDelta;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionTransition;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.entity.UserBalanceEntity;
+import com.inata.stripe.test.paymentGateway.transactions.repository.UserBalanceRepository;
+import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+
+/**
+ * Maintains {@code user_balances}. The record* methods join the caller's transaction, so a balance change
+ * commits or rolls back together with the transaction row it comes from.
+ */
+@Slf4j
+@Service
+public class UserBalanceService {
+
+    private final UserBalanceRepository userBalanceRepository;
+
+    public UserBalanceService(UserBalanceRepository userBalanceRepository) {
+        this.userBalanceRepository = userBalanceRepository;
+    }
+
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordCreated(TransactionEntity transaction) {
+        userBalanceRepository.apply(transaction.getUserId(),
+                BalanceDelta.created(transaction.getTransactionType(), transaction.getAmount()), LocalDateTime.now());
+    }
+
+    /**
+     * Call only for a transition that was actually applied (pending to {@code status}).
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordTransition(TransactionTransition transaction, TransactionStatus status) {
+        userBalanceRepository.apply(transaction.getUserId(),
+                BalanceDelta.transitioned(transaction.getTransactionType(), transaction.getAmount(), status), LocalDateTime.now());
+    }
+
+    /**
+     * Call only for a transition that was actually applied ({@code from} to {@code to}).
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void recordTransition(TransactionTransition transaction, TransactionStatus from, TransactionStatus to) {
+        userBalanceRepository.apply(transaction.getUserId(),
+                BalanceDelta.transitioned(transaction.getTransactionType(), transaction.getAmount(), from, to), LocalDateTime.now());
+    }
+
+    /**
+     * A single primary-key read; users without transactions get an all-zero balance.
+     */
+    public UserBalanceEntity getBalance(Integer userId) {
+        return userBalanceRepository.findById(userId).orElseGet(() -> UserBalanceEntity.empty(userId));
+    }
+
+    /**
+     * Recomputes every balance from {@code stripe_transactions}. New transactions and status changes wait
+     * for the rebuild to commit and are then applied on top of it.
+     *
+     * @return the number of users with a balance
+     */
+    @Transactional
+    public int rebuild() {
+        userBalanceRepository.lockForRebuild();
+        userBalanceRepository.deleteAllRows();
+        int users = userBalanceRepository.rebuildAll(LocalDateTime.now());
+        log.info("Rebuilt balances of {} users", users);
+        return users;
+    }
+}
@@ -0,0 +1,357 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxDispatcher;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxEntry;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxHandler;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxType;
+import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
+import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.entity.WithdrawalEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.WithdrawalStep;
+import com.inata.stripe.test.paymentGateway.transactions.repository.TransactionRepository;
+import com.inata.stripe.test.paymentGateway.transactions.repository.WithdrawalRepository;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Payout;
+import com.stripe.model.Transfer;
+import com.stripe.model.TransferReversal;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.PayoutCreateParams;
+import com.stripe.param.TransferCreateParams;
+import com.stripe.param.TransferReversalCreateParams;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * ACH withdrawals as a persisted saga (see {@link WithdrawalStep}).
+ * <p>
+ * The request only writes the pending transaction, the saga and its first outbox step, then returns. The
+ * transfer and the payout run in the background through the {@link OutboxDispatcher}, with retries under
+ * the same idempotency keys; recording one step enqueues the next. A payout that is refused, or later fails
+ * or is canceled ({@code payout.*} webhooks), is compensated by reversing the transfer; so is one that fails
+ * after {@code payout.paid}, when the bank returns it and its transaction goes from paid to failed. A step whose outcome
+ * stays unknown after all its attempts is parked in the outbox without compensation: the saga stays at that
+ * step, so a late webhook still applies, until the step is retried.
+ */
+@Slf4j
+@Service
+public class WithdrawalService {
+
+    // Set on the transfer and the payout, so their webhooks find the saga before the payout id is recorded
+    public static final String METADATA_KEY = "withdrawal_id";
+
+    private final WithdrawalRepository withdrawalRepository;
+
+    private final TransactionRepository transactionRepository;
+
+    private final TransactionService transactionService;
+
+    private final UserBalanceService userBalanceService;
+
+    private final ConnectAccountService connectAccountService;
+
+    private final OutboxDispatcher outboxDispatcher;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final StripeClient stripeClient;
+
+    public WithdrawalService(WithdrawalRepository withdrawalRepository, TransactionRepository transactionRepository,
+                             TransactionService transactionService, UserBalanceService userBalanceService,
+                             ConnectAccountService connectAccountService, OutboxDispatcher outboxDispatcher,
+                             PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                             StripeClient stripeClient) {
+        this.withdrawalRepository = withdrawalRepository;
+        this.transactionRepository = transactionRepository;
+        this.transactionService = transactionService;
+        this.userBalanceService = userBalanceService;
+        this.connectAccountService = connectAccountService;
+        this.outboxDispatcher = outboxDispatcher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.stripeClient = stripeClient;
+    }
+
+    @PostConstruct
+    void registerOutboxHandlers() {
+        outboxDispatcher.register(OutboxType.WITHDRAWAL_TRANSFER,
+                OutboxHandler.of(this::sendTransfer, this::recordTransfer, this::transferFailed));
+        outboxDispatcher.register(OutboxType.WITHDRAWAL_PAYOUT,
+                OutboxHandler.of(this::sendPayout, this::recordPayout, this::payoutRefused));
+        outboxDispatcher.register(OutboxType.WITHDRAWAL_REVERSAL,
+                OutboxHandler.of(this::sendReversal, this::recordReversal, this::reversalFailed));
+    }
+
+    /**
+     * Starts an ACH Withdrawal (sending funds to the user's bank) and returns its pending transaction at once.
+     * With the client's idempotency key, a repeated request returns the withdrawal started the first time.
+     *
+     * @throws IllegalArgumentException the idempotency key was already used for a different withdrawal
+     */
+    public TransactionEntity startWithdrawal(Integer userId, Long amount, String idempotencyKey) {
+        String requestKey = idempotencyKey != null ? "withdraw:" + idempotencyKey : null;
+        if (requestKey != null) {
+            Optional<TransactionEntity> existing = findByRequestKey(requestKey, userId, amount);
+            if (existing.isPresent()) {
+                return existing.get();
+            }
+        }
+
+        StripeUser user = connectAccountService.getStripeDetails(userId).get();
+        try {
+            return transactionTemplate.execute(status -> begin(user, amount, requestKey));
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent request with the same key won
+            if (requestKey == null) {
+                throw e;
+            }
+            return findByRequestKey(requestKey, userId, amount).orElseThrow(() -> e);
+        }
+    }
+
+    public Optional<WithdrawalEntity> getWithdrawal(String id) {
+        return withdrawalRepository.findById(id);
+    }
+
+    private TransactionEntity begin(StripeUser user, Long amount, String requestKey) {
+        LocalDateTime now = LocalDateTime.now();
+        WithdrawalEntity withdrawal = new WithdrawalEntity();
+        withdrawal.setId("wd_" + UUID.randomUUID());
+        withdrawal.setRequestKey(requestKey);
+        withdrawal.setUserId(user.getId());
+        withdrawal.setAmount(amount);
+        withdrawal.setConnectAccountId(user.getConnectAccountId());
+        withdrawal.setCreatedAt(now);
+        moveTo(withdrawal, WithdrawalStep.TRANSFER);
+        withdrawalRepository.save(withdrawal);
+
+        TransactionEntity transaction = new TransactionEntity();
+        transaction.setTransactionId(withdrawal.getId());
+        transaction.setUserId(user.getId());
+        transaction.setTransactionType("withdraw");
+        transaction.setAmount(TransactionService.convertLongtoBigDec(amount));
+        transaction.setStatus(TransactionStatus.PENDING.getValue());
+        transaction.setCreatedAt(now);
+        transaction.setUpdatedAt(now);
+        TransactionEntity saved = transactionRepository.save(transaction);
+        userBalanceService.recordCreated(saved);
+
+        enqueueStep(OutboxType.WITHDRAWAL_TRANSFER, withdrawal);
+        return saved;
+    }
+
+    private Optional<TransactionEntity> findByRequestKey(String requestKey, Integer userId, Long amount) {
+        Optional<WithdrawalEntity> existing = withdrawalRepository.findByRequestKey(requestKey);
+        if (existing.isEmpty()) {
+            return Optional.empty();
+        }
+        WithdrawalEntity withdrawal = existing.get();
+        if (!Objects.equals(withdrawal.getUserId(), userId) || !Objects.equals(withdrawal.getAmount(), amount)) {
+            throw new IllegalArgumentException("Idempotency-Key was already used with different parameters");
+        }
+        return transactionRepository.findById(withdrawal.getId());
+    }
+
+    // Step 1: Transfer money to the connected account (Stripe balance)
+
+    private Transfer sendTransfer(OutboxEntry entry) throws StripeException {
+        TransferCreateParams transferParams = TransferCreateParams.builder()
+                .setAmount(entry.getAmount()) // cents
+                .setCurrency("usd")
+                .setDestination(entry.getConnectAccountId()) // The Connected Account ID
+                .setTransferGroup(entry.getReferenceId())
+                .putMetadata(METADATA_KEY, entry.getReferenceId())
+                .build();
+        return stripeClient.transfers().create(transferParams, RequestOptions.builder().setIdempotencyKey(entry.idempotencyKey("transfer")).build());
+    }
+
+    private String recordTransfer(OutboxEntry entry, Transfer transfer) {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        withdrawal.setTransferId(transfer.getId());
+        if (withdrawal.getStep() == WithdrawalStep.TRANSFER) {
+            moveTo(withdrawal, WithdrawalStep.PAYOUT);
+            enqueueStep(OutboxType.WITHDRAWAL_PAYOUT, withdrawal);
+        }
+        withdrawalRepository.save(withdrawal);
+        return transfer.getId();
+    }
+
+    private void transferFailed(OutboxEntry entry, String error) {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        if (withdrawal.getStep() != WithdrawalStep.TRANSFER) {
+            return;
+        }
+        withdrawal.setFailureReason(error);
+        moveTo(withdrawal, WithdrawalStep.FAILED);
+        withdrawalRepository.save(withdrawal);
+        transactionService.transitionStatus(withdrawal.getId(), TransactionStatus.FAILED, "Transfer failed");
+    }
+
+    // Step 2: Create a payout from the connected account's balance to their bank
+
+    private Payout sendPayout(OutboxEntry entry) throws StripeException {
+        RequestOptions connectedAccountOptions = RequestOptions.builder()
+                .setStripeAccount(entry.getConnectAccountId()) // Context: the connected account
+                .setIdempotencyKey(entry.idempotencyKey("payout"))
+                .build();
+
+        PayoutCreateParams payoutParams = PayoutCreateParams.builder()
+                .setAmount(entry.getAmount())
+                .setCurrency("usd")
+                .setMethod(PayoutCreateParams.Method.INSTANT) // Or INSTANT (if supported)
+                .putMetadata(METADATA_KEY, entry.getReferenceId())
+                .build();
+
+        return stripeClient.payouts().create(payoutParams, connectedAccountOptions);
+    }
+
+    private String recordPayout(OutboxEntry entry, Payout payout) {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        withdrawal.setPayoutId(payout.getId());
+        // Otherwise its webhook got here first
+        if (withdrawal.getStep() == WithdrawalStep.PAYOUT) {
+            moveTo(withdrawal, WithdrawalStep.PAYOUT_SUBMITTED);
+        }
+        withdrawalRepository.save(withdrawal);
+
+        transactionRepository.findById(withdrawal.getId()).ifPresent(transaction -> {
+            transaction.setPaymentMethodId(payout.getDestination());
+            transactionRepository.save(transaction);
+        });
+        return payout.getId();
+    }
+
+    private void payoutRefused(OutboxEntry entry, String error) {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        if (withdrawal.getStep() != WithdrawalStep.PAYOUT) {
+            return;
+        }
+        compensate(withdrawal, TransactionStatus.PENDING, TransactionStatus.FAILED, "Payout failed", error);
+    }
+
+    /**
+     * Applies a {@code payout.paid}, {@code payout.failed} or {@code payout.canceled} webhook.
+     *
+     * @return false if no pending withdrawal matches the payout (or its outcome was already applied)
+     */
+    public boolean payoutSettled(JsonNode payout, TransactionStatus status, String comments) {
+        String payoutId = payout.get("id").asText();
+        String withdrawalId = payout.path("metadata").path(METADATA_KEY).asText(null);
+        Boolean applied = transactionTemplate.execute(tx -> {
+            Optional<WithdrawalEntity> found = withdrawalId != null
+                    ? withdrawalRepository.findById(withdrawalId)
+                    : withdrawalRepository.findByPayoutId(payoutId);
+            if (found.isEmpty()) {
+                // Withdrawals made before the saga: their transaction id is the payout id
+                if (transactionService.transitionStatus(payoutId, status, comments)) {
+                    return true;
+                }
+                if (status != TransactionStatus.PAID && transactionService.transitionStatus(payoutId, TransactionStatus.PAID, status, comments)) {
+                    meterRegistry.counter("stripe.withdrawal.returned").increment();
+                    log.error("Payout {} {} after it was paid; its funds are back on the connected account and no transfer "
+                            + "is known to reverse, reverse it by hand", payoutId, status.getValue());
+                    return true;
+                }
+                return false;
+            }
+
+            WithdrawalEntity withdrawal = found.get();
+            if (withdrawal.getStep() == WithdrawalStep.PAID && status != TransactionStatus.PAID) {
+                // Returned by the bank after payout.paid: the funds are back on the connected account
+                meterRegistry.counter("stripe.withdrawal.returned").increment();
+                log.warn("Payout {} of withdrawal {} {} after it was paid, reversing transfer {}",
+                        payoutId, withdrawal.getId(), status.getValue(), withdrawal.getTransferId());
+                compensate(withdrawal, TransactionStatus.PAID, status, comments, comments);
+                return true;
+            }
+            if (!WithdrawalStep.AWAITING_PAYOUT.contains(withdrawal.getStep())) {
+                return false;
+            }
+            withdrawal.setPayoutId(payoutId);
+            if (status == TransactionStatus.PAID) {
+                moveTo(withdrawal, WithdrawalStep.PAID);
+                withdrawalRepository.save(withdrawal);
+                return transactionService.transitionStatus(withdrawal.getId(), status, comments);
+            }
+            // A failed or canceled payout returns the funds to the connected account's balance
+            compensate(withdrawal, TransactionStatus.PENDING, status, comments, comments);
+            return true;
+        });
+        return Boolean.TRUE.equals(applied);
+    }
+
+    private void compensate(WithdrawalEntity withdrawal, TransactionStatus from, TransactionStatus status, String comments, String reason) {
+        withdrawal.setFailureReason(reason);
+        moveTo(withdrawal, WithdrawalStep.REVERSING);
+        withdrawalRepository.save(withdrawal);
+        enqueueStep(OutboxType.WITHDRAWAL_REVERSAL, withdrawal);
+        transactionService.transitionStatus(withdrawal.getId(), from, status, comments);
+    }
+
+    // Compensation: take the transfer back to the platform
+
+    private TransferReversal sendReversal(OutboxEntry entry) throws StripeException {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        TransferReversalCreateParams params = TransferReversalCreateParams.builder()
+                .putMetadata(METADATA_KEY, withdrawal.getId())
+                .build();
+        // Addressed by transfer id; no need to retrieve the transfer first
+        return stripeClient.transfers().reversals()
+                .create(withdrawal.getTransferId(), params, RequestOptions.builder().setIdempotencyKey(entry.idempotencyKey("reversal")).build());
+    }
+
+    private String recordReversal(OutboxEntry entry, TransferReversal reversal) {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        withdrawal.setReversalId(reversal.getId());
+        if (withdrawal.getStep() == WithdrawalStep.REVERSING) {
+            moveTo(withdrawal, WithdrawalStep.REVERSED);
+        }
+        withdrawalRepository.save(withdrawal);
+        return reversal.getId();
+    }
+
+    private void reversalFailed(OutboxEntry entry, String error) {
+        WithdrawalEntity withdrawal = withdrawal(entry);
+        log.error("Could not reverse transfer {} of withdrawal {}; the funds stay on connected account {}: {}",
+                withdrawal.getTransferId(), withdrawal.getId(), withdrawal.getConnectAccountId(), error);
+        withdrawal.setFailureReason(withdrawal.getFailureReason() + "; reversal failed: " + error);
+        moveTo(withdrawal, WithdrawalStep.REVERSAL_FAILED);
+        withdrawalRepository.save(withdrawal);
+    }
+
+    private WithdrawalEntity withdrawal(OutboxEntry entry) {
+        return withdrawalRepository.findById(entry.getReferenceId())
+                .orElseThrow(() -> new IllegalStateException("No withdrawal " + entry.getReferenceId() + " for outbox entry " + entry.getId()));
+    }
+
+    private void enqueueStep(OutboxType type, WithdrawalEntity withdrawal) {
+        OutboxEntry entry = new OutboxEntry(type, withdrawal.getUserId());
+        entry.setReferenceId(withdrawal.getId());
+        entry.setAmount(withdrawal.getAmount());
+        entry.setConnectAccountId(withdrawal.getConnectAccountId());
+        // One entry per step, however often a webhook asks for it
+        entry.setRequestKey(type.name().toLowerCase() + ":" + withdrawal.getId());
+        outboxDispatcher.enqueue(entry);
+    }
+
+    private void moveTo(WithdrawalEntity withdrawal, WithdrawalStep step) {
+        withdrawal.setStep(step);
+        withdrawal.setUpdatedAt(LocalDateTime.now());
+        meterRegistry.counter("stripe.withdrawal.step", "step", step.name()).increment();
+    }
+}
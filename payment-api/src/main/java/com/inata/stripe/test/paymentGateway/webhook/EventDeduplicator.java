@@ -0,0 +1,169 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recognises Stripe retries of events we already took on.
+ * <p>
+ * The recent event ids are kept in a bounded in-memory window so most retries are answered without a
+ * database round trip. The unique index on {@code eventId} in the {@code logs} collection is the source of
+ * truth: an insert that collides with it is a redelivery that fell out of (or never reached) the window.
+ * <p>
+ * Only settled events enter the window: applied, or durably queued for a worker (see {@link #isSettled}). An
+ * event that was logged but not applied yet is not a duplicate; its redelivery applies it (again).
+ */
+@Component
+public class EventDeduplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(EventDeduplicator.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Map<String, Boolean> recentEventIds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Counter memoryHits;
+
+    private final Counter indexHits;
+
+    private final Counter misses;
+
+    private final Counter reapplied;
+
+    private final MeterRegistry meterRegistry;
+
+    public EventDeduplicator(MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+                             @Value("${stripe.webhook.dedup.cache-size:100000}") int cacheSize) {
+        this.mongoTemplate = mongoTemplate;
+        // Insertion order: the oldest accepted event is the first to leave the window
+        this.recentEventIds = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        this.memoryHits = Counter.builder("stripe.webhook.dedup").tag("result", "memory_hit").register(meterRegistry);
+        this.indexHits = Counter.builder("stripe.webhook.dedup").tag("result", "index_hit").register(meterRegistry);
+        this.misses = Counter.builder("stripe.webhook.dedup").tag("result", "miss").register(meterRegistry);
+        this.reapplied = Counter.builder("stripe.webhook.dedup").tag("result", "reapplied").register(meterRegistry);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("stripe.webhook.dedup.cache.size", this, EventDeduplicator::cacheSize).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void ensureIndex() {
+        try {
+            mongoTemplate.indexOps(EventEntity.class)
+                    .ensureIndex(new Index("eventId", Sort.Direction.ASC).unique().named("eventId_unique"));
+        } catch (Exception e) {
+            // Usually pre-existing duplicates in the log; dedup then only relies on the in-memory window
+            log.warn("Could not create unique index on logs.eventId", e);
+        }
+    }
+
+    /**
+     * Fast path, checked before anything is written.
+     */
+    public boolean isRecentDuplicate(String eventId) {
+        lock.lock();
+        try {
+            if (recentEventIds.containsKey(eventId)) {
+                memoryHits.increment();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a logged event needs nothing more from a redelivery: it was applied ({@code processed}, or no
+     * status from before statuses were kept) or is queued for a worker. {@code received} (logged, not applied:
+     * the process died first, or applying it failed or is still running) and {@code failed} are not.
+     */
+    public static boolean isSettled(EventEntity entity) {
+        String status = entity.getStatus();
+        return status == null || "processed".equals(status) || "queued".equals(status);
+    }
+
+    /**
+     * Records an event whose log insert succeeded. It enters the window once it is settled, through {@link #settled}.
+     */
+    public void accepted(String eventId) {
+        misses.increment();
+    }
+
+    /**
+     * Records a delivery whose log insert hit the unique index of a settled entry.
+     */
+    public void rejectedByIndex(String eventId) {
+        indexHits.increment();
+        remember(eventId);
+    }
+
+    /**
+     * Records a delivery whose log insert hit the unique index of an entry that is not settled, so the delivery
+     * applies it again. It enters the window once it is settled, through {@link #settled}.
+     */
+    public void reapplying(String eventId) {
+        reapplied.increment();
+    }
+
+    /**
+     * Records an event this delivery applied or queued, so its retries are acked from memory.
+     */
+    public void settled(String eventId) {
+        remember(eventId);
+    }
+
+    /**
+     * Drops an event that was settled but then could not be applied, so Stripe's retry is not taken for a duplicate.
+     */
+    public void forget(String eventId) {
+        lock.lock();
+        try {
+            recentEventIds.remove(eventId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int cacheSize() {
+        lock.lock();
+        try {
+            return recentEventIds.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remember(String eventId) {
+        lock.lock();
+        try {
+            recentEventIds.put(eventId, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
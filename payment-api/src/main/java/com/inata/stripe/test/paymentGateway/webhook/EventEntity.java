@@ -9,6 +9,8 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+
 @Document(collection = "logs")
 @Getter
 @Setter
@@ -17,7 +19,11 @@ import org.springframework.data.mongodb.core.mapping.Document;
 public class EventEntity {
     @Id
     private String id;
-    private String eventId;
+    private String eventId;                // unique index, see EventDeduplicator
     private String type;
     private org.bson.Document payload;     // Store the raw JSON payload as a JsonNode
+    private String objectId;               // data.object.id, used to keep per-object ordering
+    private Instant receivedAt;
+    private String status;                 // "received" (not applied yet), "queued", "processed" or "failed"; null before statuses were kept
+    private Instant processedAt;
 }
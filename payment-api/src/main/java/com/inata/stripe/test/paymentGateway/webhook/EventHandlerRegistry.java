@@ -0,0 +1,41 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.inata.stripe.test.paymentGateway.webhook.handler.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes verified events to the {@link EventHandler} registered for their type. Used inline by
+ * {@link StripeWebhookController} or from a {@link WebhookWorkerPool} worker when async processing is enabled.
+ */
+@Component
+public class EventHandlerRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(EventHandlerRegistry.class);
+
+    private final Map<String, EventHandler> handlers = new HashMap<>();
+
+    public EventHandlerRegistry(List<EventHandler> eventHandlers) {
+        for (EventHandler handler : eventHandlers) {
+            EventHandler existing = handlers.putIfAbsent(handler.eventType(), handler);
+            if (existing != null) {
+                throw new IllegalStateException("Both " + existing.getClass().getSimpleName() + " and "
+                        + handler.getClass().getSimpleName() + " handle " + handler.eventType());
+            }
+        }
+    }
+
+    public void dispatch(StripeEvent event) throws Exception {
+        EventHandler handler = handlers.get(event.type());
+        if (handler == null) {
+            log.info("Unhandled event type: {}", event.type());
+            return;
+        }
+        handler.handle(event);
+    }
+}
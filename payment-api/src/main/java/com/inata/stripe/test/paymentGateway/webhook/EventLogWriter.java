@@ -0,0 +1,269 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit writer for the {@code logs} collection.
+ * <p>
+ * Instead of one round trip per webhook, inserts from concurrent requests are buffered and written with a
+ * single unordered {@code insertMany} once {@code batch-size} events are waiting or the oldest has waited
+ * {@code max-delay-ms}. Each caller's future completes only after the batch holding its event is acknowledged;
+ * a collision with the unique {@code eventId} index fails just that caller's future with a
+ * {@link DuplicateKeyException}. With group commit disabled every insert goes straight to Mongo.
+ * <p>
+ * A write concern error means the documents were written on the primary but not confirmed as configured. They are
+ * reported as written (and counted): failing them would have Stripe retry an event whose log entry already
+ * exists, and the retry would be taken for a duplicate.
+ * <p>
+ * Both paths write with {@code stripe.webhook.log.write-concern}, on this collection only. Once the writer is
+ * stopped, inserts no longer wait for a batch that would never be flushed but go straight to Mongo as well.
+ */
+@Component
+public class EventLogWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(EventLogWriter.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final boolean groupCommit;
+
+    private final int batchSize;
+
+    private final long maxDelayNanos;
+
+    private final WriteConcern writeConcern;
+
+    private final BlockingQueue<PendingInsert> pending = new LinkedBlockingQueue<>();
+
+    private final DistributionSummary batchSizes;
+
+    private final Timer flushTimer;
+
+    private final Counter writeConcernErrors;
+
+    private Thread flusher;
+
+    private volatile boolean closed;
+
+    private record PendingInsert(EventEntity entity, CompletableFuture<EventEntity> future) {
+    }
+
+    public EventLogWriter(MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+                          @Value("${stripe.webhook.log.group-commit.enabled:false}") boolean groupCommit,
+                          @Value("${stripe.webhook.log.group-commit.batch-size:100}") int batchSize,
+                          @Value("${stripe.webhook.log.group-commit.max-delay-ms:5}") long maxDelayMs,
+                          @Value("${stripe.webhook.log.write-concern:ACKNOWLEDGED}") String writeConcern) {
+        this.mongoTemplate = mongoTemplate;
+        this.groupCommit = groupCommit;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.writeConcern = WriteConcern.valueOf(writeConcern);
+        if (this.writeConcern == null) {
+            throw new IllegalArgumentException("Unknown write concern: " + writeConcern);
+        }
+
+        this.batchSizes = DistributionSummary.builder("stripe.webhook.log.batch.size")
+                .description("Events written per insertMany")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("stripe.webhook.log.flush")
+                .description("Round trip of one batched insert")
+                .register(meterRegistry);
+        this.writeConcernErrors = Counter.builder("stripe.webhook.log.write_concern_errors")
+                .description("Inserts written but not confirmed with the configured write concern")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (groupCommit) {
+            flusher = Thread.ofVirtual().name("event-log-writer").start(this::runFlusher);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        closed = true;
+        if (flusher != null) {
+            // The flusher writes whatever is still buffered before it exits
+            flusher.interrupt();
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Queues the event for the next batch. The entity gets its id up front so callers can refer to it
+     * (update or delete it) as soon as the future completes.
+     */
+    public CompletableFuture<EventEntity> submit(EventEntity entity) {
+        if (entity.getId() == null) {
+            entity.setId(new ObjectId().toHexString());
+        }
+        if (!groupCommit || closed) {
+            return insertDirectly(entity);
+        }
+
+        PendingInsert insert = new PendingInsert(entity, new CompletableFuture<>());
+        pending.add(insert);
+        // Stopped meanwhile: unless the flusher took it on its way out, nobody will write it
+        if (closed && pending.remove(insert)) {
+            return insertDirectly(entity);
+        }
+        return insert.future();
+    }
+
+    /**
+     * Blocking form of {@link #submit(EventEntity)}, rethrowing the failure of the caller's own insert.
+     */
+    public EventEntity insert(EventEntity entity) {
+        try {
+            return submit(entity).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Moves a logged event to {@code status}, with the same write concern as the insert. A failure is logged
+     * rather than thrown; the entry then keeps its earlier status.
+     */
+    public void markStatus(EventEntity entity, String status) {
+        Document update = new Document("status", status);
+        if ("processed".equals(status) || "failed".equals(status)) {
+            update.append("processedAt", new Date());
+        }
+        try {
+            collection().updateOne(Filters.eq("_id", new ObjectId(entity.getId())), new Document("$set", update));
+            entity.setStatus(status);
+        } catch (RuntimeException e) {
+            log.error("Could not mark webhook event {} as {}", entity.getEventId(), status, e);
+        }
+    }
+
+    private CompletableFuture<EventEntity> insertDirectly(EventEntity entity) {
+        try {
+            collection().insertOne(toDocument(entity));
+            return CompletableFuture.completedFuture(entity);
+        } catch (MongoWriteConcernException e) {
+            log.warn("Webhook event {} written but not confirmed: {}", entity.getEventId(), e.getWriteConcernError().getMessage());
+            writeConcernErrors.increment();
+            return CompletableFuture.completedFuture(entity);
+        } catch (MongoWriteException e) {
+            return CompletableFuture.failedFuture(e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY
+                    ? new DuplicateKeyException(e.getError().getMessage(), e)
+                    : e);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void runFlusher() {
+        List<PendingInsert> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    PendingInsert next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                pending.drainTo(batch);
+                flush(batch);
+                return;
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingInsert> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (PendingInsert insert : batch) {
+            documents.add(toDocument(insert.entity()));
+        }
+
+        long started = System.nanoTime();
+        try {
+            collection().insertMany(documents, new InsertManyOptions().ordered(false));
+            batch.forEach(insert -> insert.future().complete(insert.entity()));
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null) {
+                int written = batch.size() - e.getWriteErrors().size();
+                log.warn("{} batched webhook events written but not confirmed: {}", written, e.getWriteConcernError().getMessage());
+                writeConcernErrors.increment(written);
+            }
+            // Unordered: every document without its own error was written, even under a write concern error
+            RuntimeException[] failures = new RuntimeException[batch.size()];
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failures[error.getIndex()] = ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY
+                        ? new DuplicateKeyException(error.getMessage())
+                        : e;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                PendingInsert insert = batch.get(i);
+                if (failures[i] != null) {
+                    insert.future().completeExceptionally(failures[i]);
+                } else {
+                    insert.future().complete(insert.entity());
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Batched insert of {} webhook events failed", batch.size(), e);
+            batch.forEach(insert -> insert.future().completeExceptionally(e));
+        } finally {
+            flushTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            batchSizes.record(batch.size());
+        }
+    }
+
+    private Document toDocument(EventEntity entity) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        return document;
+    }
+
+    private MongoCollection<Document> collection() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(EventEntity.class)).withWriteConcern(writeConcern);
+    }
+}
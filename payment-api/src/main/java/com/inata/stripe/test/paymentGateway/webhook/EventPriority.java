@@ -0,0 +1,15 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+/**
+ * Processing lanes of the async webhook pipeline, highest first. Money-moving events go to {@link #HIGH},
+ * purely informational ones to {@link #LOW}; see {@code stripe.webhook.priority.*}.
+ */
+public enum EventPriority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
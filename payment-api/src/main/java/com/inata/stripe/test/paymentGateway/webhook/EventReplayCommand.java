@@ -0,0 +1,53 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CLI mode: {@code java -jar paymentGateway.jar --replay [--replay.from=2025-05-01T00:00:00Z] [--replay.to=...]
+ * [--replay.types=payment_intent.succeeded,payout.paid] [--replay.parallelism=16]} replays the matching events,
+ * then exits with 0 if every event was re-applied and 1 otherwise. See {@link com.inata.stripe.test.paymentGateway.PaymentGatewayApplication}.
+ */
+@Component
+public class EventReplayCommand implements ApplicationRunner {
+
+    public static final String OPTION = "replay";
+
+    private final EventReplayService eventReplayService;
+
+    private final ApplicationContext applicationContext;
+
+    public EventReplayCommand(EventReplayService eventReplayService, ApplicationContext applicationContext) {
+        this.eventReplayService = eventReplayService;
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(OPTION)) {
+            return;
+        }
+
+        ReplayJob job = eventReplayService.replay(
+                instant(args, "replay.from"),
+                instant(args, "replay.to"),
+                args.containsOption("replay.types")
+                        ? args.getOptionValues("replay.types").stream().flatMap(types -> Arrays.stream(types.split(","))).toList()
+                        : List.of(),
+                args.containsOption("replay.parallelism") ? Integer.parseInt(args.getOptionValues("replay.parallelism").getFirst()) : 16);
+
+        int exitCode = job.getState() == ReplayJob.State.COMPLETED && job.getFailed().get() == 0 ? 0 : 1;
+        System.exit(SpringApplication.exit(applicationContext, () -> exitCode));
+    }
+
+    private static Instant instant(ApplicationArguments args, String option) {
+        return args.containsOption(option) ? Instant.parse(args.getOptionValues(option).getFirst()) : null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/admin/replay")
+public class EventReplayController {
+
+    private final EventReplayService eventReplayService;
+
+    public EventReplayController(EventReplayService eventReplayService) {
+        this.eventReplayService = eventReplayService;
+    }
+
+    /**
+     * Re-applies logged webhook events, optionally limited to a time range and event types.
+     * Returns the job at once; poll {@code GET /admin/replay/{id}} for progress.
+     */
+    @PostMapping
+    public ResponseEntity<?> startReplay(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                                         @RequestParam(required = false) List<String> types,
+                                         @RequestParam(defaultValue = "16") int parallelism) {
+        if (parallelism < 1) {
+            return ResponseEntity.badRequest().body("parallelism must be at least 1");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(eventReplayService.start(from, to, types, parallelism));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getReplay(@PathVariable String id) {
+        return eventReplayService.getJob(id)
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok().body(job))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("No replay with id " + id));
+    }
+
+    @GetMapping
+    public ResponseEntity<?> listReplays() {
+        return ResponseEntity.ok().body(eventReplayService.getJobs());
+    }
+}
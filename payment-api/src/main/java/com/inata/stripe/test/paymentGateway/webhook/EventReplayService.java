@@ -0,0 +1,211 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inata.stripe.test.paymentGateway.webhook.archive.EventArchive;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Re-applies logged webhook events through the regular {@link EventHandlerRegistry}, e.g. to rebuild
+ * {@code stripe_transactions} after a bad deploy.
+ * <p>
+ * Events are streamed from the {@code logs} collection in insertion order ({@code _id}, which also carries the
+ * arrival time, so legacy entries without {@code receivedAt} are covered) with cursor batching. They are spread
+ * over {@code parallelism} virtual-thread lanes keyed by Stripe object id: different objects are replayed in
+ * parallel, events of one object stay in their original order. Lane queues are bounded, so a slow database
+ * slows the cursor down instead of filling the heap. Events already moved to the {@link EventArchive} are
+ * replayed first, since they are older than everything still in Mongo.
+ */
+@Service
+public class EventReplayService {
+
+    private static final Logger log = LoggerFactory.getLogger(EventReplayService.class);
+
+    private static final EventEntity END_OF_STREAM = new EventEntity();
+
+    @Value("${stripe.webhook.replay.cursor-batch-size:1000}")
+    private int cursorBatchSize;
+
+    @Value("${stripe.webhook.replay.lane-capacity:1000}")
+    private int laneCapacity;
+
+    @Value("${stripe.webhook.replay.progress-interval:50000}")
+    private long progressInterval;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final EventHandlerRegistry eventHandlerRegistry;
+
+    private final ObjectMapper objectMapper;
+
+    private final EventArchive eventArchive;
+
+    private final Map<String, ReplayJob> jobs = new ConcurrentHashMap<>();
+
+    public EventReplayService(MongoTemplate mongoTemplate, EventHandlerRegistry eventHandlerRegistry, ObjectMapper objectMapper,
+                              EventArchive eventArchive) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventHandlerRegistry = eventHandlerRegistry;
+        this.objectMapper = objectMapper;
+        this.eventArchive = eventArchive;
+    }
+
+    /**
+     * Starts a replay in the background and returns its job right away.
+     */
+    public ReplayJob start(Instant from, Instant to, List<String> types, int parallelism) {
+        ReplayJob job = new ReplayJob(from, to, types, parallelism);
+        jobs.put(job.getId(), job);
+        Thread.ofVirtual().name("event-replay-" + job.getId()).start(() -> run(job));
+        return job;
+    }
+
+    /**
+     * Runs a replay on the calling thread.
+     */
+    public ReplayJob replay(Instant from, Instant to, List<String> types, int parallelism) {
+        ReplayJob job = new ReplayJob(from, to, types, parallelism);
+        jobs.put(job.getId(), job);
+        run(job);
+        return job;
+    }
+
+    public Optional<ReplayJob> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public Collection<ReplayJob> getJobs() {
+        return jobs.values();
+    }
+
+    private void run(ReplayJob job) {
+        log.info("Replay {} started: from={}, to={}, types={}, parallelism={}",
+                job.getId(), job.getFrom(), job.getTo(), job.getTypes(), job.getParallelism());
+
+        Query query = buildQuery(job);
+        // The archive part is counted from its block index, so the total may overshoot slightly
+        job.setTotal(eventArchive.count(job.getFrom(), job.getTo()) + mongoTemplate.count(query, EventEntity.class));
+        query.with(Sort.by(Sort.Direction.ASC, "_id")).cursorBatchSize(cursorBatchSize).noCursorTimeout();
+
+        List<BlockingQueue<EventEntity>> lanes = new ArrayList<>(job.getParallelism());
+        List<Thread> workers = new ArrayList<>(job.getParallelism());
+        for (int i = 0; i < job.getParallelism(); i++) {
+            BlockingQueue<EventEntity> lane = new ArrayBlockingQueue<>(laneCapacity);
+            lanes.add(lane);
+            workers.add(Thread.ofVirtual().name("event-replay-" + job.getId() + "-" + i).start(() -> drain(job, lane)));
+        }
+
+        try {
+            try (Stream<EventEntity> events = Stream.concat(
+                    eventArchive.stream(job.getFrom(), job.getTo(), job.getTypes()),
+                    mongoTemplate.stream(query, EventEntity.class))) {
+                for (EventEntity entity : (Iterable<EventEntity>) events::iterator) {
+                    String key = objectIdOf(entity);
+                    lanes.get(Math.floorMod(key.hashCode(), lanes.size())).put(entity);
+                    job.getRead().incrementAndGet();
+                }
+            }
+            for (BlockingQueue<EventEntity> lane : lanes) {
+                lane.put(END_OF_STREAM);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            job.finish(ReplayJob.State.COMPLETED, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.forEach(Thread::interrupt);
+            job.finish(ReplayJob.State.FAILED, "Interrupted");
+        } catch (Exception e) {
+            log.error("Replay {} aborted", job.getId(), e);
+            workers.forEach(Thread::interrupt);
+            job.finish(ReplayJob.State.FAILED, e.getMessage());
+        }
+
+        log.info("Replay {} {}: {} processed, {} failed, {} events/s",
+                job.getId(), job.getState(), job.getProcessed().get(), job.getFailed().get(), Math.round(job.getEventsPerSecond()));
+    }
+
+    private void drain(ReplayJob job, BlockingQueue<EventEntity> lane) {
+        while (true) {
+            EventEntity entity;
+            try {
+                entity = lane.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (entity == END_OF_STREAM) {
+                return;
+            }
+
+            try {
+                eventHandlerRegistry.dispatch(StripeEvent.fromLog(entity, objectMapper));
+                job.getProcessed().incrementAndGet();
+            } catch (Exception e) {
+                log.error("Replay {}: error re-applying event {}", job.getId(), entity.getEventId(), e);
+                job.getFailed().incrementAndGet();
+            }
+
+            long done = job.getProcessed().get() + job.getFailed().get();
+            if (done % progressInterval == 0) {
+                log.info("Replay {}: {}/{} events ({}%), {} events/s",
+                        job.getId(), done, job.getTotal(), Math.round(job.getPercentComplete()), Math.round(job.getEventsPerSecond()));
+            }
+        }
+    }
+
+    private Query buildQuery(ReplayJob job) {
+        Criteria criteria = new Criteria();
+        if (job.getFrom() != null || job.getTo() != null) {
+            Criteria id = Criteria.where("_id");
+            if (job.getFrom() != null) {
+                id.gte(objectIdAt(job.getFrom()));
+            }
+            if (job.getTo() != null) {
+                id.lt(objectIdAt(job.getTo()));
+            }
+            criteria = id;
+        }
+        if (job.getTypes() != null && !job.getTypes().isEmpty()) {
+            criteria = new Criteria().andOperator(criteria, Criteria.where("type").in(job.getTypes()));
+        }
+        return Query.query(criteria);
+    }
+
+    /**
+     * Smallest ObjectId generated at the given second.
+     */
+    private static ObjectId objectIdAt(Instant instant) {
+        return new ObjectId(String.format("%08x", instant.getEpochSecond()) + "0000000000000000");
+    }
+
+    private String objectIdOf(EventEntity entity) {
+        if (entity.getObjectId() != null) {
+            return entity.getObjectId();
+        }
+        // Logged before objectId was stored
+        Object object = entity.getPayload() != null ? entity.getPayload().get("object") : null;
+        if (object instanceof Map<?, ?> data && data.get("id") instanceof String id) {
+            return id;
+        }
+        return entity.getEventId() != null ? entity.getEventId() : "";
+    }
+}
@@ -3,6 +3,9 @@ package com.inata.stripe.test.paymentGateway.webhook;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface EventRepo extends MongoRepository<EventEntity,Integer> {
+    Optional<EventEntity> findFirstByEventId(String eventId);
 }
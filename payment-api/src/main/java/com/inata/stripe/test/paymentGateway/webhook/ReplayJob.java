@@ -0,0 +1,60 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one replay run, shared between the replay threads and whoever asks for its status.
+ */
+@Getter
+public class ReplayJob {
+
+    public enum State { RUNNING, COMPLETED, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final Instant from;
+    private final Instant to;
+    private final List<String> types;
+    private final int parallelism;
+    private final Instant startedAt = Instant.now();
+    private volatile Instant finishedAt;
+    private volatile State state = State.RUNNING;
+    private volatile long total = -1;       // -1 until counted
+    private volatile String error;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ReplayJob(Instant from, Instant to, List<String> types, int parallelism) {
+        this.from = from;
+        this.to = to;
+        this.types = types;
+        this.parallelism = parallelism;
+    }
+
+    void setTotal(long total) {
+        this.total = total;
+    }
+
+    void finish(State state, String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.state = state;
+    }
+
+    public double getEventsPerSecond() {
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(1, Duration.between(startedAt, end).toMillis());
+        return (processed.get() + failed.get()) * 1000.0 / millis;
+    }
+
+    public double getPercentComplete() {
+        return total > 0 ? (processed.get() + failed.get()) * 100.0 / total : 0;
+    }
+}
@@ -0,0 +1,46 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Read-only view of a verified Stripe event, built from a single parse of the webhook body
+ * (or from the "data" block we keep in the event log). Handlers read {@code data.object} from here
+ * instead of re-serializing and re-parsing the event.
+ */
+public record StripeEvent(String id, String type, Long created, String account, JsonNode data) {
+
+    public static StripeEvent from(JsonNode root) {
+        return new StripeEvent(
+                root.path("id").asText(null),
+                root.path("type").asText(null),
+                root.hasNonNull("created") ? root.get("created").asLong() : null,
+                root.path("account").asText(null),
+                root.path("data"));
+    }
+
+    /**
+     * Rebuilds the view from an event log entry, whose payload is the event's "data" block.
+     */
+    public static StripeEvent fromLog(EventEntity entity, ObjectMapper objectMapper) {
+        return new StripeEvent(entity.getEventId(), entity.getType(), null, null,
+                objectMapper.valueToTree(entity.getPayload()));
+    }
+
+    /**
+     * The Stripe object the event is about (PaymentIntent, Charge, Payout, ...).
+     */
+    public JsonNode object() {
+        return data.path("object");
+    }
+
+    public JsonNode previousAttributes() {
+        JsonNode previous = data.get("previous_attributes");
+        return previous != null ? previous : MissingNode.getInstance();
+    }
+
+    public String objectId() {
+        return object().path("id").asText(null);
+    }
+}
@@ -0,0 +1,106 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads webhook bodies once, as raw bytes, into buffers borrowed from a small pool. The same buffer is
+ * used for signature verification and for parsing; callers hand it back by closing the {@link Body}.
+ */
+@Component
+public class WebhookBodyReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // Larger buffers (rare, oversized events) are not kept, which bounds the pool's footprint
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private final int maxPayloadBytes;
+
+    private final BlockingQueue<byte[]> pool;
+
+    public WebhookBodyReader(@Value("${stripe.webhook.max-payload-bytes:524288}") int maxPayloadBytes,
+                             @Value("${stripe.webhook.buffer-pool-size:64}") int poolSize) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * A request body in a pooled buffer; only the first {@code length} bytes are valid.
+     */
+    public final class Body implements AutoCloseable {
+
+        private byte[] bytes;
+
+        private int length;
+
+        private Body(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void close() {
+            // Full queue: the buffer is simply left to the GC
+            if (bytes.length <= MAX_POOLED_BUFFER_SIZE) {
+                pool.offer(bytes);
+            }
+        }
+    }
+
+    /**
+     * @throws PayloadTooLargeException if the declared or actual size is above the configured maximum
+     */
+    public Body read(InputStream in, long contentLength) throws IOException {
+        if (contentLength > maxPayloadBytes) {
+            throw new PayloadTooLargeException(contentLength, maxPayloadBytes);
+        }
+
+        // One spare byte on a sized buffer so reaching the end of the stream does not force a copy
+        byte[] buffer = contentLength >= INITIAL_BUFFER_SIZE ? new byte[(int) contentLength + 1] : pool.poll();
+        if (buffer == null) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        Body body = new Body(buffer);
+        try {
+            int read;
+            while ((read = in.read(body.bytes, body.length, body.bytes.length - body.length)) != -1) {
+                body.length += read;
+                if (body.length == body.bytes.length) {
+                    if (body.length >= maxPayloadBytes + 1) {
+                        throw new PayloadTooLargeException(body.length, maxPayloadBytes);
+                    }
+                    body.bytes = Arrays.copyOf(body.bytes, Math.min(body.bytes.length * 2, maxPayloadBytes + 1));
+                }
+            }
+            if (body.length > maxPayloadBytes) {
+                throw new PayloadTooLargeException(body.length, maxPayloadBytes);
+            }
+            return body;
+        } catch (IOException | RuntimeException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    public static class PayloadTooLargeException extends IOException {
+
+        public PayloadTooLargeException(long size, int maxPayloadBytes) {
+            super("Webhook payload of " + size + " bytes exceeds the limit of " + maxPayloadBytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.net.Webhook;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Checks the {@code Stripe-Signature} header against the raw request bytes, the same way
+ * {@link Webhook.Signature#verifyHeader} does for a String payload: HMAC-SHA256 of {@code "<t>.<body>"}
+ * keyed with the endpoint secret, compared with every {@code v1} signature, and a timestamp tolerance.
+ * Working on bytes means the body is never decoded or re-joined before verification.
+ */
+@Component
+public class WebhookSignatureVerifier {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Mac prototype;
+
+    private final long toleranceSeconds;
+
+    public WebhookSignatureVerifier(@Value("${stripe.webhook.secret}") String webhookSecret,
+                                    @Value("${stripe.webhook.tolerance-seconds:" + Webhook.DEFAULT_TOLERANCE + "}") long toleranceSeconds) {
+        try {
+            this.prototype = Mac.getInstance("HmacSHA256");
+            this.prototype.init(new SecretKeySpec(webhookSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+        this.toleranceSeconds = toleranceSeconds;
+    }
+
+    public void verify(byte[] payload, int length, String sigHeader) throws SignatureVerificationException {
+        if (sigHeader == null) {
+            throw new SignatureVerificationException("Missing Stripe-Signature header", null);
+        }
+
+        String timestamp = null;
+        List<String> signatures = new ArrayList<>(2);
+        for (String item : sigHeader.split(",")) {
+            int separator = item.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String key = item.substring(0, separator).trim();
+            if (key.equals("t")) {
+                timestamp = item.substring(separator + 1).trim();
+            } else if (key.equals(Webhook.Signature.EXPECTED_SCHEME)) {
+                signatures.add(item.substring(separator + 1).trim());
+            }
+        }
+        if (timestamp == null || signatures.isEmpty()) {
+            throw new SignatureVerificationException("Unable to extract timestamp and signatures from header", sigHeader);
+        }
+
+        byte[] expected = sign(timestamp, payload, length);
+        for (String signature : signatures) {
+            if (matches(expected, signature)) {
+                checkTolerance(timestamp, sigHeader);
+                return;
+            }
+        }
+        throw new SignatureVerificationException("No signatures found matching the expected signature for payload", sigHeader);
+    }
+
+    private byte[] sign(String timestamp, byte[] payload, int length) throws SignatureVerificationException {
+        try {
+            Mac mac = (Mac) prototype.clone();
+            mac.update(timestamp.getBytes(StandardCharsets.US_ASCII));
+            mac.update((byte) '.');
+            mac.update(payload, 0, length);
+            return mac.doFinal();
+        } catch (CloneNotSupportedException e) {
+            throw new SignatureVerificationException("Unable to compute signature for payload", null);
+        }
+    }
+
+    private static boolean matches(byte[] expected, String signature) {
+        if (signature.length() != expected.length * 2) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(expected, HEX.parseHex(signature));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void checkTolerance(String timestamp, String sigHeader) throws SignatureVerificationException {
+        long signedAt;
+        try {
+            signedAt = Long.parseLong(timestamp);
+        } catch (NumberFormatException e) {
+            throw new SignatureVerificationException("Unable to extract timestamp and signatures from header", sigHeader);
+        }
+        if (toleranceSeconds > 0 && signedAt < Webhook.Util.getTimeNow() - toleranceSeconds) {
+            throw new SignatureVerificationException("Timestamp outside the tolerance zone", sigHeader);
+        }
+    }
+}
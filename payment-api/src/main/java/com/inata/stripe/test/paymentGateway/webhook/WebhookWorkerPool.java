@@ -0,0 +1,436 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of virtual-thread workers that apply webhook events after the controller has acked them.
+ * <p>
+ * Events are partitioned by their Stripe object id (PaymentIntent, Payout, ...) and every partition is
+ * drained by exactly one worker, so events for the same object are applied in the order they arrived.
+ * Each event is persisted with status {@code queued} before it is enqueued; anything still queued when
+ * the app stops is picked up again on the next start.
+ * <p>
+ * A failing event is retried in place, with exponential backoff, up to {@code max-attempts} times; its partition
+ * waits meanwhile, so later events of the same object are not applied ahead of it. After the last attempt it
+ * is marked {@code failed} and counted in {@code stripe.webhook.failed}; a replay, or Stripe's next delivery of it,
+ * re-applies it.
+ * <p>
+ * Within a partition events wait in one lane per {@link EventPriority}, and the worker always takes from the
+ * highest non-empty lane, so a backlog of informational events never delays money-moving ones. Low-priority
+ * events are shed (the controller answers 503 and Stripe retries later) as soon as the higher lanes of their
+ * partition hold {@code shed-low-above} events, instead of waiting for their own lane to fill up.
+ * All event types of one Stripe object should share a priority, otherwise their order is not kept.
+ */
+@Component
+public class WebhookWorkerPool {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookWorkerPool.class);
+
+    @Value("${stripe.webhook.async.enabled:false}")
+    private boolean enabled;
+
+    @Value("${stripe.webhook.async.partitions:8}")
+    private int partitions;
+
+    @Value("${stripe.webhook.async.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${stripe.webhook.async.offer-timeout-ms:50}")
+    private long offerTimeoutMs;
+
+    @Value("${stripe.webhook.async.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${stripe.webhook.async.retry-backoff-ms:200}")
+    private long retryBackoffMs;
+
+    @Value("${stripe.webhook.async.recovery-batch-size:500}")
+    private int recoveryBatchSize;
+
+    @Value("${stripe.webhook.priority.high:}")
+    private Set<String> highPriorityTypes;
+
+    @Value("${stripe.webhook.priority.low:}")
+    private Set<String> lowPriorityTypes;
+
+    @Value("${stripe.webhook.priority.shed-low-above:100}")
+    private int shedLowAbove;
+
+    private final EventHandlerRegistry eventHandlerRegistry;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final EventDeduplicator eventDeduplicator;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ObjectMapper objectMapper;
+
+    private final List<Partition> partitionQueues = new ArrayList<>();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+
+    private final Map<EventPriority, Timer> lagTimers = new EnumMap<>(EventPriority.class);
+
+    private final Map<EventPriority, Counter> rejectedCounters = new EnumMap<>(EventPriority.class);
+
+    private final Map<EventPriority, Counter> shedCounters = new EnumMap<>(EventPriority.class);
+
+    private Timer processingTimer;
+
+    private Counter retriedCounter;
+
+    private Counter failedCounter;
+
+    private record Task(EventEntity entity, StripeEvent event, EventPriority priority, long enqueuedAt) {
+    }
+
+    /**
+     * One partition's lanes, drained by a single worker. A lock and two conditions rather than one
+     * BlockingQueue per lane, so the worker can wait on all lanes at once.
+     */
+    private static final class Partition {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition notEmpty = lock.newCondition();
+
+        private final Condition notFull = lock.newCondition();
+
+        private final List<ArrayDeque<Task>> lanes = new ArrayList<>();
+
+        private final int capacity;
+
+        Partition(int capacity) {
+            this.capacity = capacity;
+            for (int i = 0; i < EventPriority.values().length; i++) {
+                lanes.add(new ArrayDeque<>());
+            }
+        }
+
+        boolean offer(Task task, long timeoutNanos) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                ArrayDeque<Task> lane = lanes.get(task.priority().ordinal());
+                while (lane.size() >= capacity) {
+                    if (timeoutNanos <= 0) {
+                        return false;
+                    }
+                    timeoutNanos = notFull.awaitNanos(timeoutNanos);
+                }
+                lane.addLast(task);
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Task take() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    for (ArrayDeque<Task> lane : lanes) {
+                        Task task = lane.pollFirst();
+                        if (task != null) {
+                            notFull.signalAll();
+                            return task;
+                        }
+                    }
+                    notEmpty.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Events waiting in the lanes served before {@code priority}.
+         */
+        int depthAhead(EventPriority priority) {
+            lock.lock();
+            try {
+                int depth = 0;
+                for (int i = 0; i < priority.ordinal(); i++) {
+                    depth += lanes.get(i).size();
+                }
+                return depth;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int depth(EventPriority priority) {
+            lock.lock();
+            try {
+                return lanes.get(priority.ordinal()).size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public WebhookWorkerPool(EventHandlerRegistry eventHandlerRegistry, MongoTemplate mongoTemplate, EventDeduplicator eventDeduplicator,
+                             MeterRegistry meterRegistry, ObjectMapper objectMapper) {
+        this.eventHandlerRegistry = eventHandlerRegistry;
+        this.mongoTemplate = mongoTemplate;
+        this.eventDeduplicator = eventDeduplicator;
+        this.meterRegistry = meterRegistry;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        for (int i = 0; i < partitions; i++) {
+            Partition partition = new Partition(queueCapacity);
+            partitionQueues.add(partition);
+            workers.add(Thread.ofVirtual().name("webhook-worker-" + i).start(() -> runWorker(partition)));
+        }
+
+        for (EventPriority priority : EventPriority.values()) {
+            lagTimers.put(priority, Timer.builder("stripe.webhook.queue.lag")
+                    .description("Time an event waits in the queue before a worker picks it up")
+                    .tag("lane", priority.tag())
+                    .register(meterRegistry));
+            rejectedCounters.put(priority, Counter.builder("stripe.webhook.queue.rejected")
+                    .description("Events refused because their lane stayed full")
+                    .tag("lane", priority.tag())
+                    .register(meterRegistry));
+            shedCounters.put(priority, Counter.builder("stripe.webhook.queue.shed")
+                    .description("Events refused early to keep higher lanes moving")
+                    .tag("lane", priority.tag())
+                    .register(meterRegistry));
+            Gauge.builder("stripe.webhook.queue.depth", this, pool -> pool.queueDepth(priority))
+                    .description("Events waiting in this lane across all partitions")
+                    .tag("lane", priority.tag())
+                    .register(meterRegistry);
+        }
+        processingTimer = Timer.builder("stripe.webhook.processing")
+                .description("Time spent applying a single event")
+                .register(meterRegistry);
+        retriedCounter = Counter.builder("stripe.webhook.retried")
+                .description("Attempts at a queued event that failed and were retried")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("stripe.webhook.failed")
+                .description("Queued events marked failed after their last attempt")
+                .register(meterRegistry);
+        Gauge.builder("stripe.webhook.workers.busy", busyWorkers, AtomicInteger::get)
+                .register(meterRegistry);
+        Gauge.builder("stripe.webhook.workers.utilization", this, pool -> (double) pool.busyWorkers.get() / pool.partitions)
+                .register(meterRegistry);
+
+        log.info("Async webhook processing enabled: {} partitions, capacity {} per lane and partition, high priority {}, low priority {}",
+                partitions, queueCapacity, highPriorityTypes, lowPriorityTypes);
+
+        // Runs before the web server starts accepting requests, so recovered events keep their order
+        recoverQueuedEvents();
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Whatever is still queued stays "queued" in Mongo and is recovered on the next start
+        workers.forEach(Thread::interrupt);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Hands an already persisted event to the worker owning its object id.
+     *
+     * @return false if the event was shed, or its lane stayed full for longer than the offer timeout
+     */
+    public boolean submit(EventEntity entity, StripeEvent event) {
+        EventPriority priority = priorityOf(event.type());
+        Partition partition = partitionFor(entity);
+        if (priority == EventPriority.LOW && partition.depthAhead(priority) >= shedLowAbove) {
+            shedCounters.get(priority).increment();
+            return false;
+        }
+
+        try {
+            // Low-priority events never hold a request thread waiting for room
+            long timeoutNanos = priority == EventPriority.LOW ? 0 : TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+            boolean accepted = partition.offer(new Task(entity, event, priority, System.nanoTime()), timeoutNanos);
+            if (!accepted) {
+                rejectedCounters.get(priority).increment();
+            }
+            return accepted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public EventPriority priorityOf(String eventType) {
+        if (highPriorityTypes.contains(eventType)) {
+            return EventPriority.HIGH;
+        }
+        if (lowPriorityTypes.contains(eventType)) {
+            return EventPriority.LOW;
+        }
+        return EventPriority.NORMAL;
+    }
+
+    public int queueDepth() {
+        int depth = 0;
+        for (EventPriority priority : EventPriority.values()) {
+            depth += queueDepth(priority);
+        }
+        return depth;
+    }
+
+    public int queueDepth(EventPriority priority) {
+        int depth = 0;
+        for (Partition partition : partitionQueues) {
+            depth += partition.depth(priority);
+        }
+        return depth;
+    }
+
+    private Partition partitionFor(EventEntity entity) {
+        String key = entity.getObjectId() != null ? entity.getObjectId() : entity.getEventId();
+        return partitionQueues.get(Math.floorMod(key.hashCode(), partitions));
+    }
+
+    private void runWorker(Partition partition) {
+        while (true) {
+            Task task;
+            try {
+                task = partition.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long started = System.nanoTime();
+            lagTimers.get(task.priority()).record(started - task.enqueuedAt(), TimeUnit.NANOSECONDS);
+            busyWorkers.incrementAndGet();
+            try {
+                if (apply(task)) {
+                    markEvent(task.entity(), "processed");
+                } else {
+                    failedCounter.increment();
+                    markEvent(task.entity(), "failed");
+                    // Acked as queued; no longer a duplicate now that it was not applied
+                    eventDeduplicator.forget(task.entity().getEventId());
+                }
+            } catch (InterruptedException e) {
+                // Stopped between attempts: the event is still "queued" and is recovered on the next start
+                return;
+            } finally {
+                busyWorkers.decrementAndGet();
+                processingTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Dispatches the event, retrying with exponential backoff. Handlers apply guarded transitions,
+     * so re-running one whose earlier attempt got partway is safe.
+     *
+     * @return false once {@code maxAttempts} attempts have failed
+     */
+    private boolean apply(Task task) throws InterruptedException {
+        long backoffMs = retryBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                eventHandlerRegistry.dispatch(task.event());
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    log.error("Giving up on queued webhook event {} after {} attempts", task.entity().getEventId(), attempt, e);
+                    return false;
+                }
+                log.warn("Attempt {} at queued webhook event {} failed, retrying in {} ms",
+                        attempt, task.entity().getEventId(), backoffMs, e);
+                retriedCounter.increment();
+                Thread.sleep(backoffMs);
+                backoffMs *= 2;
+            }
+        }
+    }
+
+    private void markEvent(EventEntity entity, String status) {
+        try {
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(entity.getId())),
+                    Update.update("status", status).set("processedAt", Instant.now()),
+                    EventEntity.class);
+        } catch (Exception e) {
+            log.error("Could not mark webhook event {} as {}", entity.getEventId(), status, e);
+        }
+    }
+
+    /**
+     * Re-queues the events left "queued" by the previous run, in arrival order ({@code _id}, as in a replay).
+     * They are read a page at a time, and an offer to a full lane blocks until its worker makes room, so
+     * a large backlog never sits in memory at once.
+     */
+    private void recoverQueuedEvents() {
+        int recovered = 0;
+        ObjectId after = null;
+        while (true) {
+            Criteria criteria = Criteria.where("status").is("queued");
+            if (after != null) {
+                criteria = criteria.and("_id").gt(after);
+            }
+            List<EventEntity> page = mongoTemplate.find(
+                    Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(recoveryBatchSize), EventEntity.class);
+
+            for (EventEntity entity : page) {
+                StripeEvent event = StripeEvent.fromLog(entity, objectMapper);
+                try {
+                    partitionFor(entity).offer(new Task(entity, event, priorityOf(entity.getType()), System.nanoTime()), Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            recovered += page.size();
+            if (page.size() < recoveryBatchSize) {
+                break;
+            }
+            after = new ObjectId(page.getLast().getId());
+        }
+
+        if (recovered > 0) {
+            log.info("Re-queued {} webhook events left over from the previous run", recovered);
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.inata.stripe.test.paymentGateway.webhook.archive;
+
+/**
+ * Fixed-size Bloom filter over event ids, one per archived block (about 1% false positives at 10 bits per id).
+ */
+final class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+
+    BloomFilter(long[] bits) {
+        this.bits = bits;
+    }
+
+    static BloomFilter forCapacity(int keys) {
+        return new BloomFilter(new long[Math.max(1, (keys * BITS_PER_KEY + 63) / 64)]);
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = bits.length * 64L;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = bits.length * 64L;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long[] bits() {
+        return bits;
+    }
+
+    // FNV-1a over the chars, finished with the MurmurHash3 mixer so both halves are usable
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
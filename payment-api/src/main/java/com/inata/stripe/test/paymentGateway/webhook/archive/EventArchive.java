@@ -0,0 +1,311 @@
+package com.inata.stripe.test.paymentGateway.webhook.archive;
+
+import com.inata.stripe.test.paymentGateway.webhook.EventEntity;
+import com.mongodb.MongoClientSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Cold tier of the webhook event log.
+ * <p>
+ * Events older than {@code after-days} are moved out of the {@code logs} collection into compressed,
+ * append-only {@link Segment} files under {@code dir}; Mongo keeps only the hot window. An event is removed
+ * from Mongo only after the segment holding it has been synced and indexed, and events still queued for
+ * processing are never archived. Archived events stay available for audit lookups by event id and for
+ * {@link com.inata.stripe.test.paymentGateway.webhook.EventReplayService replays}.
+ * <p>
+ * Retries of archived events are no longer caught by the unique index on {@code eventId}, so the hot window
+ * has to be longer than Stripe's retry period (three days).
+ */
+@Component
+public class EventArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(EventArchive.class);
+
+    private static final Codec<Document> DOCUMENT_CODEC = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    // Ids per deleteMany when removing archived events from Mongo
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Path directory;
+
+    private final Duration archiveAfter;
+
+    private final int blockEvents;
+
+    private final long segmentMaxBytes;
+
+    private final int compressionLevel;
+
+    @Value("${stripe.webhook.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${stripe.webhook.archive.cursor-batch-size:1000}")
+    private int cursorBatchSize;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock archiveLock = new ReentrantLock();
+
+    private final Counter archivedEvents;
+
+    public record Result(Instant cutoff, long events, List<String> segments) {
+    }
+
+    public EventArchive(MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+                        @Value("${stripe.webhook.archive.dir:event-archive}") String directory,
+                        @Value("${stripe.webhook.archive.after-days:30}") int afterDays,
+                        @Value("${stripe.webhook.archive.block-events:256}") int blockEvents,
+                        @Value("${stripe.webhook.archive.segment-max-bytes:268435456}") long segmentMaxBytes,
+                        @Value("${stripe.webhook.archive.compression-level:6}") int compressionLevel) {
+        if (afterDays <= 3) {
+            throw new IllegalArgumentException("stripe.webhook.archive.after-days must be more than 3 (Stripe retries events for up to three days)");
+        }
+        if (segmentMaxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("stripe.webhook.archive.segment-max-bytes must fit in one memory mapping (2 GB)");
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.directory = Path.of(directory);
+        this.archiveAfter = Duration.ofDays(afterDays);
+        this.blockEvents = blockEvents;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.compressionLevel = compressionLevel;
+
+        this.archivedEvents = Counter.builder("stripe.webhook.archive.events")
+                .description("Events moved from the logs collection to archive segments")
+                .register(meterRegistry);
+        Gauge.builder("stripe.webhook.archive.segments", segments, List::size).register(meterRegistry);
+        Gauge.builder("stripe.webhook.archive.bytes", segments,
+                list -> list.stream().mapToLong(segment -> segment.info().compressedBytes()).sum())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Segment> opened = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Segment.DATA_SUFFIX)) {
+            for (Path dataFile : files) {
+                String fileName = dataFile.getFileName().toString();
+                Path indexFile = dataFile.resolveSibling(fileName.substring(0, fileName.length() - Segment.DATA_SUFFIX.length()) + Segment.INDEX_SUFFIX);
+                if (Files.exists(indexFile)) {
+                    opened.add(Segment.open(dataFile, indexFile));
+                } else {
+                    // Interrupted before it was sealed; its events were never removed from Mongo
+                    log.warn("Deleting unsealed archive segment {}", dataFile);
+                    Files.delete(dataFile);
+                }
+            }
+        }
+        opened.sort(Comparator.comparing(Segment::name));
+        segments.addAll(opened);
+        log.info("Event archive {}: {} segments, {} events", directory.toAbsolutePath(), segments.size(),
+                segments.stream().mapToLong(Segment::events).sum());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    @Scheduled(cron = "${stripe.webhook.archive.cron:0 30 3 * * *}")
+    public void scheduledArchive() {
+        if (enabled) {
+            archive();
+        }
+    }
+
+    /**
+     * Moves every processed event older than the hot window to new segments. Runs one at a time.
+     */
+    public Result archive() {
+        Instant cutoff = Instant.now().minus(archiveAfter);
+        if (!archiveLock.tryLock()) {
+            return new Result(cutoff, 0, List.of());
+        }
+        try {
+            removeArchivedFromMongo(segments.isEmpty() ? null : segments.getLast());
+
+            Query query = Query.query(Criteria.where("_id").lt(objectIdAt(cutoff)).and("status").ne("queued"))
+                    .with(Sort.by(Sort.Direction.ASC, "_id"))
+                    .cursorBatchSize(cursorBatchSize)
+                    .noCursorTimeout();
+            String collection = mongoTemplate.getCollectionName(EventEntity.class);
+
+            long archived = 0;
+            List<String> written = new ArrayList<>();
+            SegmentWriter writer = null;
+            try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, collection)) {
+                for (Document document : (Iterable<Document>) documents::iterator) {
+                    ObjectId id = document.getObjectId("_id");
+                    if (writer == null) {
+                        writer = new SegmentWriter(directory, "events-" + id.toHexString(), blockEvents, compressionLevel);
+                    }
+                    writer.append(id, document.getString("eventId"), new RawBsonDocument(document, DOCUMENT_CODEC).getByteBuffer().asNIO());
+                    archived++;
+                    if (writer.size() >= segmentMaxBytes) {
+                        written.add(seal(writer).name());
+                        writer = null;
+                    }
+                }
+                if (writer != null) {
+                    written.add(seal(writer).name());
+                    writer = null;
+                }
+            } finally {
+                if (writer != null) {
+                    writer.abort();
+                }
+            }
+
+            log.info("Archived {} webhook events older than {} into {} segments", archived, cutoff, written.size());
+            return new Result(cutoff, archived, written);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Event archival failed", e);
+        } finally {
+            archiveLock.unlock();
+        }
+    }
+
+    /**
+     * Looks an event up in the archive, newest segment first.
+     */
+    public Optional<EventEntity> findByEventId(String eventId) {
+        for (Segment segment : segments.reversed()) {
+            for (Segment.Block block : segment.blocks()) {
+                if (!block.eventIds().mightContain(eventId)) {
+                    continue;
+                }
+                for (RawBsonDocument document : segment.read(block)) {
+                    if (eventId.equals(document.getString("eventId").getValue())) {
+                        return Optional.of(toEntity(document));
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Archived events in {@code [from, to)} (by arrival time, either bound may be null), in archive order.
+     * Blocks are inflated lazily, one at a time.
+     */
+    public Stream<EventEntity> stream(Instant from, Instant to, List<String> types) {
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        ObjectId fromId = from != null ? objectIdAt(from) : null;
+        ObjectId toId = to != null ? objectIdAt(to) : null;
+        boolean allTypes = types == null || types.isEmpty();
+
+        return List.copyOf(segments).stream()
+                .flatMap(segment -> segment.blocks().stream()
+                        .filter(block -> block.overlaps(fromMillis, toMillis))
+                        .flatMap(block -> segment.read(block).stream()))
+                .filter(document -> {
+                    ObjectId id = document.getObjectId("_id").getValue();
+                    return (fromId == null || id.compareTo(fromId) >= 0) && (toId == null || id.compareTo(toId) < 0);
+                })
+                .filter(document -> allTypes || (document.containsKey("type") && types.contains(document.getString("type").getValue())))
+                .map(this::toEntity);
+    }
+
+    /**
+     * Upper bound of the archived events in {@code [from, to)}, from the block index alone.
+     */
+    public long count(Instant from, Instant to) {
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        return segments.stream()
+                .flatMap(segment -> segment.blocks().stream())
+                .filter(block -> block.overlaps(fromMillis, toMillis))
+                .mapToLong(Segment.Block::count)
+                .sum();
+    }
+
+    public List<Segment.Info> getSegments() {
+        return segments.stream().map(Segment::info).toList();
+    }
+
+    private Segment seal(SegmentWriter writer) throws IOException {
+        Segment segment = writer.seal();
+        segments.add(segment);
+        removeArchivedFromMongo(segment);
+        archivedEvents.increment(segment.events());
+        return segment;
+    }
+
+    /**
+     * Deletes the segment's events from Mongo by id. Also run before each archival for the newest segment,
+     * in case the previous run stopped between sealing it and finishing the deletes.
+     */
+    private void removeArchivedFromMongo(Segment segment) {
+        if (segment == null) {
+            return;
+        }
+        Query range = Query.query(Criteria.where("_id").gte(segment.firstId()).lte(segment.lastId()));
+        if (!mongoTemplate.exists(range, EventEntity.class)) {
+            return;
+        }
+
+        List<ObjectId> ids = new ArrayList<>(DELETE_BATCH_SIZE);
+        for (Segment.Block block : segment.blocks()) {
+            for (RawBsonDocument document : segment.read(block)) {
+                ids.add(document.getObjectId("_id").getValue());
+                if (ids.size() == DELETE_BATCH_SIZE) {
+                    mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), EventEntity.class);
+                    ids.clear();
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), EventEntity.class);
+        }
+    }
+
+    private EventEntity toEntity(RawBsonDocument document) {
+        return mongoTemplate.getConverter().read(EventEntity.class, document.decode(DOCUMENT_CODEC));
+    }
+
+    /**
+     * Smallest ObjectId generated at the given second.
+     */
+    private static ObjectId objectIdAt(Instant instant) {
+        return new ObjectId(String.format("%08x", instant.getEpochSecond()) + "0000000000000000");
+    }
+}
@@ -0,0 +1,44 @@
+package com.inata.stripe.test.paymentGateway.webhook.archive;
+
+import com.inata.stripe.test.paymentGateway.webhook.EventRepo;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/admin/archive")
+public class EventArchiveController {
+
+    private final EventArchive eventArchive;
+
+    private final EventRepo eventRepo;
+
+    public EventArchiveController(EventArchive eventArchive, EventRepo eventRepo) {
+        this.eventArchive = eventArchive;
+        this.eventRepo = eventRepo;
+    }
+
+    /**
+     * Archives events older than the hot window now, instead of waiting for the nightly run.
+     */
+    @PostMapping
+    public ResponseEntity<?> archive() {
+        return ResponseEntity.ok().body(eventArchive.archive());
+    }
+
+    @GetMapping("/segments")
+    public ResponseEntity<?> listSegments() {
+        return ResponseEntity.ok().body(eventArchive.getSegments());
+    }
+
+    /**
+     * Audit lookup of a webhook event, in the hot log first and then in the archive.
+     */
+    @GetMapping("/events/{eventId}")
+    public ResponseEntity<?> getEvent(@PathVariable String eventId) {
+        return eventRepo.findFirstByEventId(eventId)
+                .or(() -> eventArchive.findByEventId(eventId))
+                .<ResponseEntity<?>>map(event -> ResponseEntity.ok().body(event))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("No event with id " + eventId));
+    }
+}
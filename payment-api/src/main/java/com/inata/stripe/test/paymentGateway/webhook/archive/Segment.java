@@ -0,0 +1,223 @@
+package com.inata.stripe.test.paymentGateway.webhook.archive;
+
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A sealed, read-only archive segment: a {@code .seg} data file of Deflate-compressed blocks of BSON event
+ * documents in {@code _id} order, and a {@code .idx} file with one entry per block (file offset, time range and a
+ * Bloom filter of its event ids). The index is kept in memory, the data file is memory-mapped, so a lookup only
+ * inflates the blocks that can contain the event.
+ */
+public final class Segment implements Closeable {
+
+    static final String DATA_SUFFIX = ".seg";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final int DATA_MAGIC = 0x45565347;     // "EVSG"
+
+    private static final int INDEX_MAGIC = 0x45564958;    // "EVIX"
+
+    private static final int VERSION = 1;
+
+    /**
+     * Sparse index entry for one compressed block.
+     */
+    record Block(long offset, int compressedLength, int uncompressedLength, int count,
+                 long minMillis, long maxMillis, BloomFilter eventIds) {
+
+        boolean overlaps(long fromMillis, long toMillis) {
+            return maxMillis >= fromMillis && minMillis < toMillis;
+        }
+    }
+
+    public record Info(String name, String firstId, String lastId, Instant from, Instant to,
+                       long events, int blocks, long compressedBytes, long uncompressedBytes) {
+    }
+
+    private final String name;
+
+    private final ObjectId firstId;
+
+    private final ObjectId lastId;
+
+    private final List<Block> blocks;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer data;
+
+    private Segment(String name, ObjectId firstId, ObjectId lastId, List<Block> blocks, FileChannel channel, MappedByteBuffer data) {
+        this.name = name;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.blocks = blocks;
+        this.channel = channel;
+        this.data = data;
+    }
+
+    static Segment open(Path dataFile, Path indexFile) throws IOException {
+        ObjectId firstId;
+        ObjectId lastId;
+        List<Block> blocks;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an event archive index: " + indexFile);
+            }
+            firstId = new ObjectId(in.readNBytes(12));
+            lastId = new ObjectId(in.readNBytes(12));
+            int blockCount = in.readInt();
+            blocks = new ArrayList<>(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                long offset = in.readLong();
+                int compressedLength = in.readInt();
+                int uncompressedLength = in.readInt();
+                int count = in.readInt();
+                long minMillis = in.readLong();
+                long maxMillis = in.readLong();
+                long[] bits = new long[in.readInt()];
+                for (int b = 0; b < bits.length; b++) {
+                    bits[b] = in.readLong();
+                }
+                blocks.add(new Block(offset, compressedLength, uncompressedLength, count, minMillis, maxMillis, new BloomFilter(bits)));
+            }
+        }
+
+        FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != DATA_MAGIC) {
+                throw new IOException("Not an event archive segment: " + dataFile);
+            }
+            String fileName = dataFile.getFileName().toString();
+            return new Segment(fileName.substring(0, fileName.length() - DATA_SUFFIX.length()), firstId, lastId, List.copyOf(blocks), channel, data);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the index next to a finished data file; it only appears under its final name once complete,
+     * so a data file without an index is an interrupted write.
+     */
+    static void writeIndex(Path indexFile, ObjectId firstId, ObjectId lastId, List<Block> blocks) throws IOException {
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.write(firstId.toByteArray());
+            out.write(lastId.toByteArray());
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.offset());
+                out.writeInt(block.compressedLength());
+                out.writeInt(block.uncompressedLength());
+                out.writeInt(block.count());
+                out.writeLong(block.minMillis());
+                out.writeLong(block.maxMillis());
+                long[] bits = block.eventIds().bits();
+                out.writeInt(bits.length);
+                for (long word : bits) {
+                    out.writeLong(word);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Inflates one block straight from the mapped file.
+     */
+    List<RawBsonDocument> read(Block block) {
+        byte[] bytes = new byte[block.uncompressedLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.slice((int) block.offset(), block.compressedLength()));
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, length, bytes.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != bytes.length) {
+                throw new UncheckedIOException(new IOException("Truncated block at offset " + block.offset() + " in segment " + name));
+            }
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt block at offset " + block.offset() + " in segment " + name, e));
+        } finally {
+            inflater.end();
+        }
+
+        // BSON documents are length-prefixed, so the block is just their concatenation
+        List<RawBsonDocument> documents = new ArrayList<>(block.count());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int position = 0; position < bytes.length; ) {
+            int length = buffer.getInt(position);
+            documents.add(new RawBsonDocument(bytes, position, length));
+            position += length;
+        }
+        return documents;
+    }
+
+    List<Block> blocks() {
+        return blocks;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public ObjectId firstId() {
+        return firstId;
+    }
+
+    public ObjectId lastId() {
+        return lastId;
+    }
+
+    public long events() {
+        return blocks.stream().mapToLong(Block::count).sum();
+    }
+
+    public Info info() {
+        return new Info(name, firstId.toHexString(), lastId.toHexString(),
+                Instant.ofEpochMilli(blocks.getFirst().minMillis()), Instant.ofEpochMilli(blocks.getLast().maxMillis()),
+                events(), blocks.size(),
+                blocks.stream().mapToLong(Block::compressedLength).sum(),
+                blocks.stream().mapToLong(Block::uncompressedLength).sum());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
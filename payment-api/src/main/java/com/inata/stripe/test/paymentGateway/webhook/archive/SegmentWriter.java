@@ -0,0 +1,151 @@
+package com.inata.stripe.test.paymentGateway.webhook.archive;
+
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Appends BSON event documents to a new segment, {@code blockEvents} documents per compressed block.
+ * Nothing is readable until {@link #seal()} has synced the data file and written the index.
+ */
+final class SegmentWriter {
+
+    private final Path dataFile;
+
+    private final Path indexFile;
+
+    private final FileChannel channel;
+
+    private final int blockEvents;
+
+    private final Deflater deflater;
+
+    private final List<Segment.Block> blocks = new ArrayList<>();
+
+    private byte[] block = new byte[64 * 1024];
+
+    private int blockLength;
+
+    private int blockCount;
+
+    private long blockMinMillis;
+
+    private long blockMaxMillis;
+
+    private BloomFilter blockEventIds;
+
+    private byte[] compressed = new byte[64 * 1024];
+
+    private long position;
+
+    private ObjectId firstId;
+
+    private ObjectId lastId;
+
+    SegmentWriter(Path directory, String name, int blockEvents, int compressionLevel) throws IOException {
+        this.dataFile = directory.resolve(name + Segment.DATA_SUFFIX);
+        this.indexFile = directory.resolve(name + Segment.INDEX_SUFFIX);
+        this.channel = FileChannel.open(dataFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.blockEvents = blockEvents;
+        this.deflater = new Deflater(compressionLevel);
+
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(Segment.DATA_MAGIC).putInt(1).flip();
+        write(header);
+    }
+
+    void append(ObjectId id, String eventId, ByteBuffer bson) throws IOException {
+        if (blockCount == 0) {
+            blockMinMillis = id.getDate().getTime();
+            blockEventIds = BloomFilter.forCapacity(blockEvents);
+        }
+        if (firstId == null) {
+            firstId = id;
+        }
+        lastId = id;
+
+        int length = bson.remaining();
+        if (blockLength + length > block.length) {
+            block = Arrays.copyOf(block, Math.max(block.length * 2, blockLength + length));
+        }
+        bson.get(block, blockLength, length);
+        blockLength += length;
+        blockMaxMillis = Math.max(blockMaxMillis, id.getDate().getTime());
+        if (eventId != null) {
+            blockEventIds.add(eventId);
+        }
+        if (++blockCount == blockEvents) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Bytes written so far, including the open block before compression.
+     */
+    long size() {
+        return position + blockLength;
+    }
+
+    boolean isEmpty() {
+        return firstId == null;
+    }
+
+    Segment seal() throws IOException {
+        try {
+            flushBlock();
+            channel.force(true);
+        } finally {
+            channel.close();
+            deflater.end();
+        }
+        Segment.writeIndex(indexFile, firstId, lastId, blocks);
+        return Segment.open(dataFile, indexFile);
+    }
+
+    void abort() throws IOException {
+        channel.close();
+        deflater.end();
+        Files.deleteIfExists(dataFile);
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockCount == 0) {
+            return;
+        }
+
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        // Frame header duplicates the index entry, so a segment could be re-indexed from the data file alone
+        ByteBuffer frameHeader = ByteBuffer.allocate(8).putInt(blockLength).putInt(compressedLength).flip();
+        write(frameHeader);
+        blocks.add(new Segment.Block(position, compressedLength, blockLength, blockCount, blockMinMillis, blockMaxMillis, blockEventIds));
+        write(ByteBuffer.wrap(compressed, 0, compressedLength));
+
+        blockLength = 0;
+        blockCount = 0;
+        blockMaxMillis = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+}
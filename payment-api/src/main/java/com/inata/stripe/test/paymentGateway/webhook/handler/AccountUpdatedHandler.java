@@ -0,0 +1,28 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.inata.stripe.test.paymentGateway.transactions.service.ExternalAccountService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.springframework.stereotype.Component;
+
+@Component
+public class AccountUpdatedHandler implements EventHandler {
+
+    private final ExternalAccountService externalAccountService;
+
+    public AccountUpdatedHandler(ExternalAccountService externalAccountService) {
+        this.externalAccountService = externalAccountService;
+    }
+
+    @Override
+    public String eventType() {
+        return "account.updated";
+    }
+
+    /**
+     * A connected account changed, possibly its external accounts: drops the cached ones.
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        externalAccountService.externalAccountsChanged(event.account(), event.object(), event.created());
+    }
+}
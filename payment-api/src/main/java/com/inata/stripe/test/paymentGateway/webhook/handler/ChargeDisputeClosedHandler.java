@@ -0,0 +1,27 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ChargeDisputeClosedHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ChargeDisputeClosedHandler.class);
+
+    @Override
+    public String eventType() {
+        return "charge.dispute.closed";
+    }
+
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode disputeData = event.object();
+        String disputeId = disputeData.get("id").asText();
+        String chargeId = disputeData.get("charge").asText();
+        String status = disputeData.get("status").asText();
+        log.info("Charge dispute closed: Dispute ID = {}, Charge ID = {}, Status = {}", disputeId, chargeId, status);
+    }
+}
@@ -0,0 +1,26 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ChargeDisputeCreatedHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ChargeDisputeCreatedHandler.class);
+
+    @Override
+    public String eventType() {
+        return "charge.dispute.created";
+    }
+
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode disputeData = event.object();
+        String disputeId = disputeData.get("id").asText();
+        String chargeId = disputeData.get("charge").asText();
+        log.warn("Charge dispute created: Dispute ID = {}, Charge ID = {}", disputeId, chargeId);
+    }
+}
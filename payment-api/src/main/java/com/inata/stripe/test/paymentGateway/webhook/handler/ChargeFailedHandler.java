@@ -0,0 +1,29 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ChargeFailedHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ChargeFailedHandler.class);
+
+    @Override
+    public String eventType() {
+        return "charge.failed";
+    }
+
+    /**
+     * Handles failed charges
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode chargeData = event.object();
+        String chargeId = chargeData.get("id").asText();
+        String failureReason = chargeData.has("failure_message") ? chargeData.get("failure_message").asText() : "No reason provided";
+        log.error("Charge failed: Charge ID = {}, Reason = {}", chargeId, failureReason);
+    }
+}
@@ -0,0 +1,28 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ChargeRefundedHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ChargeRefundedHandler.class);
+
+    @Override
+    public String eventType() {
+        return "charge.refunded";
+    }
+
+    /**
+     * Handles charge refunds
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode chargeData = event.object();
+        String chargeId = chargeData.get("id").asText();
+        log.info("Charge refunded: Charge ID = {}", chargeId);
+    }
+}
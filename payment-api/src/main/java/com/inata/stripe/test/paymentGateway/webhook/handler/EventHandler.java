@@ -0,0 +1,14 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+
+/**
+ * Handles one Stripe event type. Every Spring bean implementing this interface is picked up by
+ * {@link com.inata.stripe.test.paymentGateway.webhook.EventHandlerRegistry}, so new event types only need a new handler.
+ */
+public interface EventHandler {
+
+    String eventType();
+
+    void handle(StripeEvent event) throws Exception;
+}
@@ -0,0 +1,28 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.inata.stripe.test.paymentGateway.transactions.service.ExternalAccountService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ExternalAccountDeletedHandler implements EventHandler {
+
+    private final ExternalAccountService externalAccountService;
+
+    public ExternalAccountDeletedHandler(ExternalAccountService externalAccountService) {
+        this.externalAccountService = externalAccountService;
+    }
+
+    @Override
+    public String eventType() {
+        return "account.external_account.deleted";
+    }
+
+    /**
+     * A bank account was removed from a connected account: drops the cached external accounts.
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        externalAccountService.externalAccountsChanged(event.account(), event.object(), event.created());
+    }
+}
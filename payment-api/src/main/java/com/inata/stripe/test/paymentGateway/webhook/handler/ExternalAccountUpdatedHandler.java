@@ -0,0 +1,28 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.inata.stripe.test.paymentGateway.transactions.service.ExternalAccountService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ExternalAccountUpdatedHandler implements EventHandler {
+
+    private final ExternalAccountService externalAccountService;
+
+    public ExternalAccountUpdatedHandler(ExternalAccountService externalAccountService) {
+        this.externalAccountService = externalAccountService;
+    }
+
+    @Override
+    public String eventType() {
+        return "account.external_account.updated";
+    }
+
+    /**
+     * A connected account's bank account changed (default for payouts, status, ...): drops the cached external accounts.
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        externalAccountService.externalAccountsChanged(event.account(), event.object(), event.created());
+    }
+}
@@ -0,0 +1,37 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PaymentIntentCanceledHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentIntentCanceledHandler.class);
+
+    private final TransactionService transactionService;
+
+    public PaymentIntentCanceledHandler(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    @Override
+    public String eventType() {
+        return "payment_intent.canceled";
+    }
+
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode intentData = event.object();
+        String paymentIntentId = intentData.get("id").asText();
+        log.info("ACH Debit canceled: PaymentIntent ID = {}", paymentIntentId);
+
+        if (!transactionService.transitionStatus(paymentIntentId, TransactionStatus.CANCELED, "Deposit Canceled")) {
+            log.warn("No pending transaction found for PaymentIntent ID = {}", paymentIntentId);
+        }
+    }
+}
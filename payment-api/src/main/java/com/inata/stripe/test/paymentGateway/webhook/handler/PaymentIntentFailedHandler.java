@@ -0,0 +1,58 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PaymentIntentFailedHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentIntentFailedHandler.class);
+
+    private final TransactionService transactionService;
+
+    public PaymentIntentFailedHandler(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    @Override
+    public String eventType() {
+        return "payment_intent.payment_failed";
+    }
+
+    /**
+     * Handles failed ACH Debit
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode intentData = event.object();
+
+        // Check for valid intent data
+        if (!intentData.has("id") || !intentData.has("status")) {
+            log.error("Invalid intent data: missing id or status in intent event ");
+            return;
+        }
+
+        // Extract the PaymentIntent ID
+        String intentId = intentData.get("id").asText();
+
+        // Log the event (for a failed payment intent, we log 'failed' status)
+        log.info("Processing PaymentIntent event: PaymentIntent ID = {}, Status = {}", intentId, "failed");
+
+        JsonNode lastPaymentError = intentData.path("last_payment_error");
+        String failureReason = lastPaymentError.has("message")
+                ? lastPaymentError.path("code").asText() + ":" + lastPaymentError.path("network_decline_code").asText() + ":" + lastPaymentError.path("message").asText()
+                : "No reason provided";
+
+        // Log the failure reason
+        log.error("PaymentIntent failed: PaymentIntent ID = {}, Reason = {}", intentId, failureReason);
+
+        if (!transactionService.transitionStatus(intentId, TransactionStatus.FAILED, failureReason)) {
+            log.warn("No pending transaction found for PaymentIntent ID = {}", intentId);
+        }
+    }
+}
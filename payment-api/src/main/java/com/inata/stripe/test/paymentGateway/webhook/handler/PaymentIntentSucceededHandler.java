@@ -0,0 +1,48 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PaymentIntentSucceededHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentIntentSucceededHandler.class);
+
+    private final TransactionService transactionService;
+
+    public PaymentIntentSucceededHandler(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    @Override
+    public String eventType() {
+        return "payment_intent.succeeded";
+    }
+
+    /*** Handle successful ACH Debit (funds pulled from the bank)*/
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode intentData = event.object();
+
+        if (!intentData.has("id") || !intentData.has("status")) {
+            log.error("Invalid intent data: missing id or status in intent event");
+            return;
+        }
+
+        String intentId = intentData.get("id").asText();
+        log.info("Processing intent event: Intent ID = {}, Status = {}", intentId, "succeeded");
+
+        // Only a pending deposit can become deposited; one conditional UPDATE, no read first
+        if (!transactionService.transitionStatus(intentId, TransactionStatus.DEPOSITED, "Deposit Completed")) {
+            log.warn("No pending transaction found for Intent ID = {}", intentId);
+            return;
+        }
+
+        log.info("ACH Debit successful: PaymentIntent ID = {} Status updated to = {}", intentId, "Successful");
+    }
+}
@@ -0,0 +1,37 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.service.WithdrawalService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PayoutCanceledHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PayoutCanceledHandler.class);
+
+    private final WithdrawalService withdrawalService;
+
+    public PayoutCanceledHandler(WithdrawalService withdrawalService) {
+        this.withdrawalService = withdrawalService;
+    }
+
+    @Override
+    public String eventType() {
+        return "payout.canceled";
+    }
+
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode payoutData = event.object();
+        String payoutId = payoutData.get("id").asText();
+        log.info("ACH Withdrawal canceled: Payout ID = {}", payoutId);
+
+        if (!withdrawalService.payoutSettled(payoutData, TransactionStatus.CANCELED, "Payout Canceled")) {
+            log.warn("No pending transaction found for Payout ID = {}", payoutId);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.service.WithdrawalService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PayoutFailedHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PayoutFailedHandler.class);
+
+    private final WithdrawalService withdrawalService;
+
+    public PayoutFailedHandler(WithdrawalService withdrawalService) {
+        this.withdrawalService = withdrawalService;
+    }
+
+    @Override
+    public String eventType() {
+        return "payout.failed";
+    }
+
+    /**
+     * Handles failed ACH Withdrawal
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode payoutData = event.object();
+        String payoutId = payoutData.get("id").asText();
+        String failureCode = payoutData.has("failure_code") ? payoutData.get("failure_code").asText() : "No code provided";
+        log.error("ACH Withdrawal failed: Payout ID = {}, Reason = {}", payoutId, failureCode);
+
+        if (!withdrawalService.payoutSettled(payoutData, TransactionStatus.FAILED, failureCode)) {
+            log.warn("No pending transaction found for Payout ID = {}", payoutId);
+        }
+    }
+}
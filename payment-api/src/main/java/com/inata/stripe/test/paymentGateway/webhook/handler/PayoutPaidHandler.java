@@ -0,0 +1,54 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.service.WithdrawalService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PayoutPaidHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PayoutPaidHandler.class);
+
+    private final WithdrawalService withdrawalService;
+
+    public PayoutPaidHandler(WithdrawalService withdrawalService) {
+        this.withdrawalService = withdrawalService;
+    }
+
+    @Override
+    public String eventType() {
+        return "payout.paid";
+    }
+
+    /**
+     * Handles successful payouts (withdrawals to the user's bank)
+     */
+    @Override
+    public void handle(StripeEvent event) {
+        JsonNode payoutData = event.object();
+
+        // Check if the payout data contains the necessary fields
+        if (!payoutData.has("id") || !payoutData.has("status")) {
+            log.error("Invalid payout data: missing id or status in payout event");
+            return;
+        }
+
+        // Extract the payout ID and status
+        String payoutId = payoutData.get("id").asText();
+        String payoutStatus = payoutData.get("status").asText();
+
+        // Log the payout event (before updating the transaction)
+        log.info("Processing payout event: Payout ID = {}, Status = {}", payoutId, payoutStatus);
+
+        if (!withdrawalService.payoutSettled(payoutData, TransactionStatus.PAID, "Payout Completed")) {
+            log.warn("No pending transaction found for Payout ID = {}", payoutId);
+            return;
+        }
+
+        log.info("ACH Withdrawal successful: Payout ID = {}, Status updated to = {}", payoutId, TransactionStatus.PAID.getValue());
+    }
+}
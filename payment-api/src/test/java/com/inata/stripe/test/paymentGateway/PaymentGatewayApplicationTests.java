@@ -1,13 +1,38 @@
 package com.inata.stripe.test.paymentGateway;
 
+import com.inata.stripe.test.paymentGateway.outbox.OutboxDispatcher;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxRepository;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
 
-@SpringBootTest
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Boots the whole application, so a bean that cannot be wired fails the build. Postgres is replaced by an
+ * in-memory H2 and Mongo points at a port nothing listens on: nothing is called at startup that needs either.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:gateway;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "spring.data.mongodb.uri=mongodb://localhost:1/stripe_events?serverSelectionTimeoutMS=200&connectTimeoutMS=200",
+        "stripe.api.key=sk_test_context",
+        "stripe.outbox.poll-interval-ms=3600000"})
 class PaymentGatewayApplicationTests {
 
+	@Autowired
+	private ApplicationContext context;
+
 	@Test
 	void contextLoads() {
+		assertNotNull(context.getBean(OutboxRepository.class));
+		assertNotNull(context.getBean(OutboxDispatcher.class));
 	}
 
 }
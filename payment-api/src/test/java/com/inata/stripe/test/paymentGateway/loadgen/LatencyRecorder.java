@@ -0,0 +1,47 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size latency log; percentiles are computed once at the end of the run by sorting.
+ * Samples past the capacity are counted but not kept.
+ */
+class LatencyRecorder {
+
+    private final long[] samplesMicros;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    LatencyRecorder(int capacity) {
+        this.samplesMicros = new long[capacity];
+    }
+
+    void record(long nanos) {
+        int index = count.getAndIncrement();
+        if (index < samplesMicros.length) {
+            samplesMicros[index] = nanos / 1000;
+        }
+    }
+
+    int count() {
+        return count.get();
+    }
+
+    /**
+     * @return {p50, p90, p99, p99.9, max} in microseconds
+     */
+    long[] percentiles() {
+        int size = Math.min(count.get(), samplesMicros.length);
+        if (size == 0) {
+            return new long[5];
+        }
+        long[] sorted = Arrays.copyOf(samplesMicros, size);
+        Arrays.sort(sorted);
+        return new long[]{at(sorted, 0.50), at(sorted, 0.90), at(sorted, 0.99), at(sorted, 0.999), sorted[size - 1]};
+    }
+
+    private static long at(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,221 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection hold time and throughput of a Stripe-calling operation under injected Stripe latency, with the
+ * call made inside the database transaction (the old {@code @Transactional createAchDebit}) versus the
+ * outbox shape (insert entry; call with no connection held; insert result and mark the entry done).
+ * <p>
+ * {@code concurrency} clients run the operation in a closed loop over a Hikari pool of {@code pool-size}
+ * connections, while a probe issues a history-style read every 10 ms to show what happens to unrelated
+ * requests. The "Stripe call" is a sleep of {@code stripe-latency-ms} (±20%). Same SQL shape as the service,
+ * in throwaway {@code outbox_bench_*} tables of a local Postgres:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.OutboxConnectionHoldBenchmark \
+ *     -Dbench.stripe-latency-ms=500 -Dbench.concurrency=100 -Dbench.pool-size=10
+ * </pre>
+ */
+public class OutboxConnectionHoldBenchmark {
+
+    private static final String HISTORY_QUERY = "SELECT trans_id, amount, status, created_at FROM outbox_bench_transactions "
+            + "WHERE user_id = ? ORDER BY created_at DESC LIMIT 50";
+
+    private final HikariDataSource dataSource;
+
+    private final int concurrency;
+
+    private final long stripeLatencyMillis;
+
+    private final Duration duration;
+
+    private OutboxConnectionHoldBenchmark(HikariDataSource dataSource, int concurrency, long stripeLatencyMillis, Duration duration) {
+        this.dataSource = dataSource;
+        this.concurrency = concurrency;
+        this.stripeLatencyMillis = stripeLatencyMillis;
+        this.duration = duration;
+    }
+
+    public static void main(String[] args) throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(System.getProperty("bench.jdbc-url", "jdbc:postgresql://localhost:5432/postgres"));
+        config.setUsername(System.getProperty("bench.jdbc-user", "postgres"));
+        config.setPassword(System.getProperty("bench.jdbc-password", "postgres"));
+        config.setMaximumPoolSize(Integer.getInteger("bench.pool-size", 10));
+        // Hikari's default; requests waiting longer than this fail, as they would in the service
+        config.setConnectionTimeout(30_000);
+
+        try (HikariDataSource dataSource = new HikariDataSource(config)) {
+            createTables(dataSource);
+            OutboxConnectionHoldBenchmark benchmark = new OutboxConnectionHoldBenchmark(dataSource,
+                    Integer.getInteger("bench.concurrency", 100),
+                    Long.getLong("bench.stripe-latency-ms", 500),
+                    Duration.ofSeconds(Integer.getInteger("bench.duration", 30)));
+            System.out.printf("%d clients, pool of %d, Stripe latency %d ms, %ds per mode%n", benchmark.concurrency,
+                    config.getMaximumPoolSize(), benchmark.stripeLatencyMillis, benchmark.duration.toSeconds());
+            benchmark.run("in-transaction", benchmark::callInsideTransaction);
+            benchmark.run("outbox", benchmark::callThroughOutbox);
+        }
+    }
+
+    private interface Operation {
+        void run(int userId, LatencyRecorder holdTimes) throws SQLException, InterruptedException;
+    }
+
+    private void run(String mode, Operation operation) throws InterruptedException {
+        LatencyRecorder holdTimes = new LatencyRecorder(10_000_000);
+        LatencyRecorder operationTimes = new LatencyRecorder(10_000_000);
+        LatencyRecorder probeTimes = new LatencyRecorder(1_000_000);
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < concurrency; client++) {
+                int userId = client;
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long started = System.nanoTime();
+                        try {
+                            operation.run(userId, holdTimes);
+                            operationTimes.record(System.nanoTime() - started);
+                        } catch (SQLException e) {
+                            errors.increment();
+                        }
+                    }
+                    return null;
+                });
+            }
+            executor.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    long started = System.nanoTime();
+                    try (Connection connection = dataSource.getConnection();
+                         PreparedStatement statement = connection.prepareStatement(HISTORY_QUERY)) {
+                        statement.setInt(1, ThreadLocalRandom.current().nextInt(concurrency));
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                resultSet.getString(1);
+                            }
+                        }
+                        probeTimes.record(System.nanoTime() - started);
+                    } catch (SQLException e) {
+                        errors.increment();
+                    }
+                    Thread.sleep(10);
+                }
+                return null;
+            });
+        }
+
+        System.out.println();
+        System.out.printf("%s: %d operations, %.1f ops/s, %d errors (pool timeouts)%n", mode, operationTimes.count(),
+                operationTimes.count() / (double) duration.toSeconds(), errors.sum());
+        print("  operation latency", operationTimes);
+        print("  connection hold  ", holdTimes);
+        print("  history read     ", probeTimes);
+    }
+
+    private void callInsideTransaction(int userId, LatencyRecorder holdTimes) throws SQLException, InterruptedException {
+        try (Connection connection = dataSource.getConnection()) {
+            long acquired = System.nanoTime();
+            connection.setAutoCommit(false);
+            readUser(connection, userId);
+            String transactionId = callStripe();
+            insertTransaction(connection, transactionId, userId);
+            connection.commit();
+            holdTimes.record(System.nanoTime() - acquired);
+        }
+    }
+
+    private void callThroughOutbox(int userId, LatencyRecorder holdTimes) throws SQLException, InterruptedException {
+        String entryId = UUID.randomUUID().toString();
+        try (Connection connection = dataSource.getConnection()) {
+            long acquired = System.nanoTime();
+            readUser(connection, userId);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO outbox_bench_entries "
+                    + "(id, user_id, amount, status, attempts, created_at, updated_at) VALUES (?, ?, 1000, 'SENDING', 1, ?, ?)")) {
+                Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+                statement.setString(1, entryId);
+                statement.setInt(2, userId);
+                statement.setTimestamp(3, now);
+                statement.setTimestamp(4, now);
+                statement.executeUpdate();
+            }
+            holdTimes.record(System.nanoTime() - acquired);
+        }
+
+        String transactionId = callStripe();
+
+        try (Connection connection = dataSource.getConnection()) {
+            long acquired = System.nanoTime();
+            connection.setAutoCommit(false);
+            insertTransaction(connection, transactionId, userId);
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE outbox_bench_entries "
+                    + "SET status = 'DONE', result_id = ?, updated_at = ? WHERE id = ? AND attempts = 1 AND status = 'SENDING'")) {
+                statement.setString(1, transactionId);
+                statement.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+                statement.setString(3, entryId);
+                statement.executeUpdate();
+            }
+            connection.commit();
+            holdTimes.record(System.nanoTime() - acquired);
+        }
+    }
+
+    private String callStripe() throws InterruptedException {
+        long jitter = stripeLatencyMillis / 5;
+        Thread.sleep(stripeLatencyMillis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+        return "pi_bench_" + UUID.randomUUID();
+    }
+
+    private static void readUser(Connection connection, int userId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT count(*) FROM outbox_bench_transactions WHERE user_id = ?")) {
+            statement.setInt(1, userId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+            }
+        }
+    }
+
+    private static void insertTransaction(Connection connection, String transactionId, int userId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO outbox_bench_transactions "
+                + "(trans_id, user_id, amount, status, created_at) VALUES (?, ?, 10.00, 'pending', ?)")) {
+            statement.setString(1, transactionId);
+            statement.setInt(2, userId);
+            statement.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+            statement.executeUpdate();
+        }
+    }
+
+    private static void createTables(HikariDataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS outbox_bench_entries");
+            statement.execute("DROP TABLE IF EXISTS outbox_bench_transactions");
+            statement.execute("CREATE TABLE outbox_bench_entries (id varchar(36) PRIMARY KEY, user_id integer NOT NULL, "
+                    + "amount bigint, status varchar(16) NOT NULL, attempts integer NOT NULL, result_id varchar(255), "
+                    + "created_at timestamp(6) NOT NULL, updated_at timestamp(6) NOT NULL)");
+            statement.execute("CREATE TABLE outbox_bench_transactions (trans_id varchar(255) PRIMARY KEY, user_id integer NOT NULL, "
+                    + "amount numeric(10,2) NOT NULL, status varchar(255) NOT NULL, created_at timestamp(6) NOT NULL)");
+            statement.execute("CREATE INDEX idx_outbox_bench_history ON outbox_bench_transactions (user_id, created_at DESC)");
+        }
+    }
+
+    private static void print(String label, LatencyRecorder recorder) {
+        long[] p = recorder.percentiles();
+        System.out.printf("%s (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f%n", label, p[0] / 1000.0, p[1] / 1000.0, p[2] / 1000.0, p[4] / 1000.0);
+    }
+}
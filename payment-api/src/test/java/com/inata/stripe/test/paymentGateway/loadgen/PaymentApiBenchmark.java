@@ -0,0 +1,316 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inata.stripe.test.paymentGateway.PaymentGatewayApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end benchmark of the REST API against the {@link StripeStandIn}: onboarding, deposits, withdrawals,
+ * checkout and the read endpoints, with Stripe's latency, rate limit and errors under control.
+ * <p>
+ * The stand-in is started in-process (options {@code -Dstandin.*}, see {@link StripeStandIn}) and settles payment
+ * intents and payouts with signed webhooks to the app. The app is started in-process as well, pointed at the
+ * stand-in, unless {@code bench.url} names one already running: then start it with
+ * {@code --stripe.client.api-base=http://localhost:<standin.port> --stripe.client.http-version=HTTP_1_1
+ * --stripe.webhook.secret=<bench.webhook-secret>}. Either way it needs its local Postgres and Mongo.
+ * <p>
+ * First {@code users} users are onboarded as the frontend does it (connected account, onboarding details,
+ * customer, financial connections session, payment method, payout account), {@code concurrency} at a time. Then
+ * each of {@code scenarios} runs for {@code duration} seconds: {@code concurrency} clients in a closed loop,
+ * each call for a random onboarded user. Every step and scenario reports its latency, HTTP statuses and the
+ * Stripe calls it caused:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.PaymentApiBenchmark \
+ *     -Dbench.users=200 -Dbench.concurrency=32 -Dstandin.latency=80/400 -Dstandin.latency.payment_intents=300/1500 \
+ *     -Dstandin.rate-limit=100 -Dstandin.error-rate=0.01
+ * </pre>
+ */
+public class PaymentApiBenchmark {
+
+    static final List<String> SCENARIOS = List.of("deposit", "data", "payout-acc", "balance", "trans-history", "checkout", "withdraw");
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final URI app;
+
+    private final StripeStandIn stripe;
+
+    private final int concurrency;
+
+    private final Duration duration;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    private final List<User> users = Collections.synchronizedList(new ArrayList<>());
+
+    private record User(int id, String accountId, String customerId) {
+    }
+
+    /**
+     * Latency and HTTP statuses of one onboarding step or scenario.
+     */
+    private static final class Results {
+
+        private final LatencyRecorder latencies = new LatencyRecorder(1_000_000);
+
+        private final Map<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+
+        private final LongAdder errors = new LongAdder();
+
+        private HttpResponse<String> record(long started, HttpResponse<String> response) {
+            latencies.record(System.nanoTime() - started);
+            statuses.computeIfAbsent(response.statusCode(), status -> new LongAdder()).increment();
+            return response;
+        }
+
+        private void print(String name, Duration elapsed) {
+            long[] p = latencies.percentiles();
+            StringBuilder statusCounts = new StringBuilder();
+            statuses.forEach((status, count) -> statusCounts.append(' ').append(status).append('=').append(count.sum()));
+            System.out.printf("%-30s %6d calls %7.1f/s, %d errors, HTTP%s; latency (ms) p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                    name + ":", latencies.count(), latencies.count() / (elapsed.toNanos() / 1e9), errors.sum(), statusCounts,
+                    p[0] / 1000.0, p[1] / 1000.0, p[2] / 1000.0, p[4] / 1000.0);
+        }
+    }
+
+    private PaymentApiBenchmark(URI app, StripeStandIn stripe, int concurrency, Duration duration) {
+        this.app = app;
+        this.stripe = stripe;
+        this.concurrency = concurrency;
+        this.duration = duration;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("bench.url");
+        String webhookSecret = System.getProperty("bench.webhook-secret", "whsec_standin");
+        URI app = URI.create(url != null ? url : "http://localhost:" + freePort());
+        StripeStandIn.Options options = StripeStandIn.Options.fromSystemProperties()
+                .withWebhooks(app.resolve("/stripe/webhook"), webhookSecret);
+
+        ConfigurableApplicationContext context = null;
+        try (StripeStandIn stripe = StripeStandIn.start(options)) {
+            System.out.printf("Stripe stand-in on %s: latency %s %s, rate limit %s, %.1f%% 429, %.1f%% 500, webhooks after %d ms%n",
+                    stripe.apiBase(), options.latency(), options.latencies(), options.rateLimit() > 0 ? options.rateLimit() + "/s" : "none",
+                    options.rateLimited() * 100, options.errorRate() * 100, options.webhookDelay().toMillis());
+            if (url == null) {
+                // Arguments, so they win over application.properties
+                context = new SpringApplicationBuilder(PaymentGatewayApplication.class).run(
+                        "--server.port=" + app.getPort(),
+                        "--stripe.api.key=sk_test_standin",
+                        "--stripe.client.api-base=" + stripe.apiBase(),
+                        "--stripe.client.http-version=HTTP_1_1",
+                        "--stripe.webhook.secret=" + webhookSecret,
+                        "--spring.jpa.show-sql=false");
+            }
+
+            PaymentApiBenchmark benchmark = new PaymentApiBenchmark(app, stripe, Integer.getInteger("bench.concurrency", 32),
+                    Duration.ofSeconds(Integer.getInteger("bench.duration", 30)));
+            benchmark.onboard(Integer.getInteger("bench.users", 200),
+                    Integer.getInteger("bench.first-user", 10_000_000 + ThreadLocalRandom.current().nextInt(1_000) * 10_000));
+            List<String> scenarios = Arrays.asList(System.getProperty("bench.scenarios", String.join(",", SCENARIOS)).split(","));
+            for (String scenario : scenarios) {
+                if (scenario.equals("withdraw")) {
+                    // Deposits are only available once their payment_intent.succeeded webhook is in
+                    Thread.sleep(options.webhookDelay().plusSeconds(2).toMillis());
+                }
+                benchmark.run(scenario.trim());
+            }
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Onboards users as the frontend does, timing each step.
+     */
+    private void onboard(int count, int firstUser) throws InterruptedException {
+        List<String> steps = List.of("create", "onboarding", "createCustomer", "addPaymentMethod", "attachPaymentMethod", "addPayoutAccount");
+        Map<String, Results> results = new ConcurrentSkipListMap<>();
+        steps.forEach(step -> results.put(step, new Results()));
+        AtomicInteger next = new AtomicInteger();
+        LongAdder failed = new LongAdder();
+
+        long started = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < concurrency; client++) {
+                executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                        try {
+                            users.add(onboard(firstUser + i, results));
+                        } catch (IOException | IllegalStateException e) {
+                            failed.increment();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+
+        System.out.printf("Onboarded %d users (%d failed) in %.1fs%n", users.size(), failed.sum(), elapsed.toNanos() / 1e9);
+        steps.forEach(step -> results.get(step).print("  " + step, elapsed));
+        System.out.print(stripe.report());
+        if (users.isEmpty()) {
+            throw new IllegalStateException("No user could be onboarded");
+        }
+    }
+
+    private User onboard(int userId, Map<String, Results> results) throws IOException, InterruptedException {
+        String accountId = outcome(call(results.get("create"), post("/stripe/create?userId=" + userId, null)), "accountId");
+        expectOk(call(results.get("onboarding"), post("/stripe/onboarding", Map.ofEntries(
+                Map.entry("accountId", accountId), Map.entry("ip", "127.0.0.1"), Map.entry("firstName", "Bench"),
+                Map.entry("lastName", "User" + userId), Map.entry("email", "bench" + userId + "@example.com"),
+                Map.entry("phone", "+15555550100"), Map.entry("addressLine1", "510 Townsend St"), Map.entry("city", "San Francisco"),
+                Map.entry("state", "CA"), Map.entry("postalCode", "94103"), Map.entry("country", "US"),
+                Map.entry("ssnLast4", "0000"), Map.entry("dob", "1990-01-01")))));
+        String customerId = outcome(call(results.get("createCustomer"),
+                post("/stripe/createCustomer?userId=" + userId + "&connectAccountId=" + accountId, null)), "customer_id");
+        expectOk(call(results.get("addPaymentMethod"), post("/stripe/addPaymentMethod?customerId=" + customerId, null)));
+        expectOk(call(results.get("attachPaymentMethod"), post("/stripe/attachPaymentMethodToCustomer",
+                Map.of("customerId", customerId, "financialConnectionsAccountId", "fca_standin" + userId))));
+        expectOk(call(results.get("addPayoutAccount"), post("/stripe/addPayoutAccount",
+                Map.of("accountId", accountId, "token", "btok_us_verified"))));
+        return new User(userId, accountId, customerId);
+    }
+
+    private void run(String scenario) throws InterruptedException {
+        Results results = new Results();
+        long deadline = System.nanoTime() + duration.toNanos();
+        stripe.report();
+        long started = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < concurrency; client++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        User user = users.get(ThreadLocalRandom.current().nextInt(users.size()));
+                        try {
+                            call(results, request(scenario, user));
+                        } catch (IOException e) {
+                            results.errors.increment();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        results.print(scenario, Duration.ofNanos(System.nanoTime() - started));
+        System.out.print(stripe.report());
+    }
+
+    private HttpRequest request(String scenario, User user) throws IOException {
+        int userId = user.id();
+        return switch (scenario) {
+            case "deposit" -> post("/api/transactions/deposit?userId=" + userId + "&amount=" + amount(), null, UUID.randomUUID().toString());
+            case "withdraw" -> post("/api/transactions/withdraw?userId=" + userId + "&amount=" + amount() / 100, null,
+                    UUID.randomUUID().toString());
+            case "data" -> get("/api/transactions/data?userId=" + userId);
+            case "payout-acc" -> get("/api/transactions/payout-acc?userId=" + userId);
+            case "balance" -> get("/api/transactions/balance?userId=" + userId);
+            case "trans-history" -> get("/api/transactions/trans-history?userId=" + userId + "&limit=20");
+            case "checkout" -> post("/payment/create-checkout-session", Map.of("amount", amount() / 100, "currency", "usd",
+                    "orderId", UUID.randomUUID().toString(), "userId", Integer.toString(userId), "email", "bench" + userId + "@example.com"));
+            default -> throw new IllegalArgumentException("Unknown scenario " + scenario + "; one of " + SCENARIOS);
+        };
+    }
+
+    private HttpResponse<String> call(Results results, HttpRequest request) throws IOException {
+        long started = System.nanoTime();
+        try {
+            return results.record(started, httpClient.send(request, HttpResponse.BodyHandlers.ofString()));
+        } catch (IOException e) {
+            results.errors.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The field of a 200 answer, or of the operation a 202 answer started, once it is done.
+     */
+    private String outcome(HttpResponse<String> response, String field) throws IOException, InterruptedException {
+        if (response.statusCode() == 202) {
+            String operation = response.headers().firstValue("Location").orElseThrow();
+            for (int attempt = 0; attempt < 100; attempt++) {
+                Thread.sleep(200);
+                JsonNode entry = JSON.readTree(httpClient.send(get(operation), HttpResponse.BodyHandlers.ofString()).body());
+                switch (entry.path("status").asText()) {
+                    case "DONE" -> {
+                        return entry.get("resultId").asText();
+                    }
+                    case "FAILED" -> throw new IllegalStateException(operation + " failed: " + entry.path("lastError").asText());
+                    default -> {
+                    }
+                }
+            }
+            throw new IllegalStateException(operation + " still pending");
+        }
+        expectOk(response);
+        return JSON.readTree(response.body()).get(field).asText();
+    }
+
+    private static void expectOk(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(response.request().uri().getPath() + " answered " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(app.resolve(path)).timeout(Duration.ofSeconds(60)).GET().build();
+    }
+
+    private HttpRequest post(String path, Object body) throws IOException {
+        return post(path, body, null);
+    }
+
+    private HttpRequest post(String path, Object body, String idempotencyKey) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(app.resolve(path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(body != null ? HttpRequest.BodyPublishers.ofString(JSON.writeValueAsString(body)) : HttpRequest.BodyPublishers.noBody());
+        if (idempotencyKey != null) {
+            builder.header("Idempotency-Key", idempotencyKey);
+        }
+        return builder.build();
+    }
+
+    private static long amount() {
+        return ThreadLocalRandom.current().nextLong(1_000, 100_000);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
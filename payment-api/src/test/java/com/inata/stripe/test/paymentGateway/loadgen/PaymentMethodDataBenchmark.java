@@ -0,0 +1,187 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeClientConfig;
+import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
+import com.inata.stripe.test.paymentGateway.transactions.service.PaymentMethodDataService;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.financialconnections.Account;
+import com.stripe.param.financialconnections.AccountRefreshParams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency of {@code GET /api/transactions/data} against an in-process Stripe stand-in with injected latency:
+ * the former serial retrieve + refresh + payment method retrieve, versus {@link PaymentMethodDataService}
+ * (cached bank details, balance refresh alongside, latency budget with stale fallback).
+ * <p>
+ * The stand-in answers {@code GET /v1/financial_connections/accounts/{id}},
+ * {@code POST /v1/financial_connections/accounts/{id}/refresh} and {@code GET /v1/payment_methods/{id}} after
+ * {@code <call>-ms} (±20%), and a {@code tail} fraction of calls take ten times as long. {@code concurrency}
+ * clients ask for random users out of {@code users} in a closed loop, pausing {@code think-ms} between requests:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.PaymentMethodDataBenchmark \
+ *     -Dbench.retrieve-ms=150 -Dbench.refresh-ms=400 -Dbench.payment-method-ms=150 -Dbench.tail=0.02
+ * </pre>
+ */
+public class PaymentMethodDataBenchmark {
+
+    private static final AccountRefreshParams REFRESH_BALANCE = AccountRefreshParams.builder()
+            .addFeature(AccountRefreshParams.Feature.BALANCE)
+            .build();
+
+    private final int users;
+
+    private final int concurrency;
+
+    private final Duration duration;
+
+    private final long thinkMillis;
+
+    private PaymentMethodDataBenchmark(int users, int concurrency, Duration duration, long thinkMillis) {
+        this.users = users;
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.thinkMillis = thinkMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long retrieveMillis = Long.getLong("bench.retrieve-ms", 150);
+        long refreshMillis = Long.getLong("bench.refresh-ms", 400);
+        long paymentMethodMillis = Long.getLong("bench.payment-method-ms", 150);
+        double tail = Double.parseDouble(System.getProperty("bench.tail", "0.02"));
+        Duration budget = Duration.ofMillis(Long.getLong("bench.budget-ms", 300));
+
+        HttpServer stripe = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stripe.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stripe.createContext("/v1/financial_connections/accounts/", exchange -> {
+            String id = exchange.getRequestURI().getPath().split("/")[4];
+            boolean refresh = exchange.getRequestURI().getPath().endsWith("/refresh");
+            sleep(refresh ? refreshMillis : retrieveMillis, tail);
+            respond(exchange, """
+                    {"id": "%s", "object": "financial_connections.account", "status": "active",
+                     "balance": {"as_of": %d, "type": "cash", "cash": {"available": {"usd": %d}}}}"""
+                    .formatted(id, System.currentTimeMillis() / 1000, ThreadLocalRandom.current().nextLong(1_000_000)));
+        });
+        stripe.createContext("/v1/payment_methods/", exchange -> {
+            String id = exchange.getRequestURI().getPath().split("/")[3];
+            sleep(paymentMethodMillis, tail);
+            respond(exchange, """
+                    {"id": "%s", "object": "payment_method", "type": "us_bank_account",
+                     "us_bank_account": {"bank_name": "STRIPE TEST BANK", "last4": "6789",
+                                         "account_type": "checking", "routing_number": "110000000"}}""".formatted(id));
+        });
+        stripe.start();
+        StripeClient client = new StripeClientConfig().stripeClient("sk_test_bench", "http://localhost:" + stripe.getAddress().getPort(),
+                Duration.ofSeconds(5), Duration.ofSeconds(30), 0, Duration.ofMinutes(5), 64, HttpClient.Version.HTTP_1_1,
+                Duration.ofMillis(500), Duration.ofSeconds(5), Duration.ZERO, 10_000, StripeClientBenchmark.unlimited(),
+                StripeClientBenchmark.neverOpen(), new SimpleMeterRegistry());
+
+        try {
+            PaymentMethodDataBenchmark benchmark = new PaymentMethodDataBenchmark(Integer.getInteger("bench.users", 100),
+                    Integer.getInteger("bench.concurrency", 20), Duration.ofSeconds(Integer.getInteger("bench.duration", 20)),
+                    Long.getLong("bench.think-ms", 100));
+            System.out.printf("%d clients over %d users, Stripe latency retrieve %d ms, refresh %d ms, payment method %d ms, "
+                            + "%.0f%% of calls x10, budget %d ms, %ds per mode%n", benchmark.concurrency, benchmark.users,
+                    retrieveMillis, refreshMillis, paymentMethodMillis, tail * 100, budget.toMillis(), benchmark.duration.toSeconds());
+
+            benchmark.run("serial (before)", user -> serial(client, user));
+            PaymentMethodDataService everyRequest = new PaymentMethodDataService(null, client, new SimpleMeterRegistry(),
+                    budget, Duration.ZERO, Duration.ofMinutes(10), 100_000);
+            benchmark.run("concurrent, refresh on every request", everyRequest::getPaymentMethodData);
+            PaymentMethodDataService freshFor = new PaymentMethodDataService(null, client, new SimpleMeterRegistry(),
+                    budget, Duration.ofSeconds(10), Duration.ofMinutes(10), 100_000);
+            benchmark.run("concurrent, fresh-for 10s", freshFor::getPaymentMethodData);
+        } finally {
+            stripe.stop(0);
+        }
+    }
+
+    private interface Operation {
+        Object run(StripeUser user) throws StripeException;
+    }
+
+    private void run(String mode, Operation operation) throws InterruptedException {
+        LatencyRecorder latencies = new LatencyRecorder(1_000_000);
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < concurrency; client++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        StripeUser user = user(ThreadLocalRandom.current().nextInt(users));
+                        long started = System.nanoTime();
+                        try {
+                            operation.run(user);
+                            latencies.record(System.nanoTime() - started);
+                        } catch (StripeException | RuntimeException e) {
+                            errors.increment();
+                        }
+                        Thread.sleep(thinkMillis);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        long[] p = latencies.percentiles();
+        System.out.printf("%-38s %6d requests, %d errors, latency (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f%n", mode + ":",
+                latencies.count(), errors.sum(), p[0] / 1000.0, p[1] / 1000.0, p[2] / 1000.0, p[4] / 1000.0);
+    }
+
+    /**
+     * What {@code getPaymentMethodData} did before: three calls one after the other, and the whole payment
+     * method serialized for the log.
+     */
+    private static Object serial(StripeClient client, StripeUser user) throws StripeException {
+        client.financialConnections().accounts().retrieve(user.getFinancialConnectionId());
+        Account account = client.financialConnections().accounts().refresh(user.getFinancialConnectionId(), REFRESH_BALANCE);
+        PaymentMethod paymentMethod = client.paymentMethods().retrieve(user.getPaymentMethodId());
+        return paymentMethod.toJson().length() + account.getBalance().getCash().getAvailable().get("usd");
+    }
+
+    private static StripeUser user(int index) {
+        StripeUser user = new StripeUser();
+        user.setId(index);
+        user.setFinancialConnectionId("fca_bench_" + index);
+        user.setPaymentMethodId("pm_bench_" + index);
+        return user;
+    }
+
+    private static void sleep(long millis, double tail) {
+        long jitter = millis / 5;
+        long latency = millis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+        if (ThreadLocalRandom.current().nextDouble() < tail) {
+            latency *= 10;
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeCircuitBreaker;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeClientConfig;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeRateLimiter;
+import com.stripe.Stripe;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentMethod;
+import com.stripe.param.PaymentIntentCreateParams;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stripe calls through the former static setup ({@code Stripe.apiKey} and the resource methods, on stripe-java's
+ * {@code HttpURLConnection} client) versus the {@link StripeClient} bean of {@link StripeClientConfig}, against
+ * an in-process HTTPS Stripe stand-in.
+ * <p>
+ * The stand-in answers {@code GET /v1/payment_methods/{id}} and {@code POST /v1/payment_intents} after
+ * {@code latency-ms} (±20%) and counts the TLS connections it accepts. {@code concurrency} clients alternate the
+ * two calls in a closed loop, pausing up to {@code think-ms} (uniform) between calls so that connections go idle
+ * together, as they do under bursty traffic. Each mode is warmed up for {@code warmup} seconds, then reports
+ * throughput, latency and how many connections it opened. The stand-in's self-signed certificate is made with
+ * {@code keytool} and trusted for the run:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.StripeClientBenchmark \
+ *     -Dbench.concurrency=50 -Dbench.latency-ms=20 -Dbench.think-ms=100
+ * </pre>
+ */
+public class StripeClientBenchmark {
+
+    private final int concurrency;
+
+    private final Duration duration;
+
+    private final Duration warmup;
+
+    private final long thinkMillis;
+
+    private final LongAdder connections;
+
+    private StripeClientBenchmark(int concurrency, Duration duration, Duration warmup, long thinkMillis, LongAdder connections) {
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.warmup = warmup;
+        this.thinkMillis = thinkMillis;
+        this.connections = connections;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long latencyMillis = Long.getLong("bench.latency-ms", 20);
+        SSLContext sslContext = selfSignedContext();
+        // Both clients use the default context, so both trust the stand-in
+        SSLContext.setDefault(sslContext);
+
+        LongAdder connections = new LongAdder();
+        SSLServerSocket stripe = (SSLServerSocket) sslContext.getServerSocketFactory()
+                .createServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(() -> serve(stripe, connections, latencyMillis));
+        String apiBase = "https://localhost:" + stripe.getLocalPort();
+
+        try {
+            StripeClientBenchmark benchmark = new StripeClientBenchmark(Integer.getInteger("bench.concurrency", 50),
+                    Duration.ofSeconds(Integer.getInteger("bench.duration", 20)), Duration.ofSeconds(Integer.getInteger("bench.warmup", 5)),
+                    Long.getLong("bench.think-ms", 100), connections);
+            System.out.printf("%d clients, Stripe latency %d ms, think time up to %d ms, %ds per mode%n", benchmark.concurrency,
+                    latencyMillis, benchmark.thinkMillis, benchmark.duration.toSeconds());
+
+            Stripe.apiKey = "sk_test_bench";
+            Stripe.overrideApiBase(apiBase);
+            benchmark.run("static Stripe.apiKey", StripeClientBenchmark::staticCall);
+
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            StripeClient client = new StripeClientConfig().stripeClient("sk_test_bench", apiBase, Duration.ofSeconds(5),
+                    Duration.ofSeconds(30), 0, Duration.ofMinutes(5), 64,
+                    HttpClient.Version.valueOf(System.getProperty("bench.http-version", "HTTP_2")), Duration.ofMillis(500),
+                    Duration.ofSeconds(5), Duration.ZERO, 10_000, unlimited(), neverOpen(), meterRegistry);
+            benchmark.run("pooled StripeClient", call -> clientCall(client, call));
+            System.out.println("Per-endpoint timers of the pooled client (warm-up included):");
+            for (Timer timer : meterRegistry.find("stripe.api.requests").timers()) {
+                System.out.printf("  stripe.api.requests %s %s %s: %d calls, mean %.1f ms%n", timer.getId().getTag("method"),
+                        timer.getId().getTag("endpoint"), timer.getId().getTag("status"), timer.count(),
+                        timer.mean(TimeUnit.MILLISECONDS));
+            }
+        } finally {
+            stripe.close();
+        }
+    }
+
+    /**
+     * A limiter that never makes a call wait, for harnesses measuring something else.
+     */
+    static StripeRateLimiter unlimited() {
+        return new StripeRateLimiter(new SimpleMeterRegistry(), 1e9, 1_000_000, 1e9, 1_000_000, Duration.ZERO, 1);
+    }
+
+    /**
+     * A circuit breaker that never opens.
+     */
+    static StripeCircuitBreaker neverOpen() {
+        return new StripeCircuitBreaker(new SimpleMeterRegistry(), 1, Integer.MAX_VALUE, 1, Duration.ZERO, 1);
+    }
+
+    private interface Operation {
+        Object run(long call) throws StripeException;
+    }
+
+    private void run(String mode, Operation operation) throws InterruptedException {
+        measure(warmup, operation);
+        long connectionsBefore = connections.sum();
+        long started = System.nanoTime();
+        LatencyRecorder latencies = new LatencyRecorder(1_000_000);
+        long errors = measure(duration, operation, latencies);
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long[] p = latencies.percentiles();
+        System.out.printf("%-22s %7d calls (%.0f/s), %d errors, %d connections opened, latency (ms): p50=%.1f p99=%.1f max=%.1f%n",
+                mode + ":", latencies.count(), latencies.count() / seconds, errors, connections.sum() - connectionsBefore,
+                p[0] / 1000.0, p[2] / 1000.0, p[4] / 1000.0);
+    }
+
+    private void measure(Duration duration, Operation operation) throws InterruptedException {
+        measure(duration, operation, new LatencyRecorder(1_000_000));
+    }
+
+    /**
+     * @return how many calls failed
+     */
+    private long measure(Duration duration, Operation operation, LatencyRecorder latencies) throws InterruptedException {
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < concurrency; client++) {
+                executor.submit(() -> {
+                    for (long call = 0; System.nanoTime() < deadline; call++) {
+                        long callStarted = System.nanoTime();
+                        try {
+                            operation.run(call);
+                            latencies.record(System.nanoTime() - callStarted);
+                        } catch (StripeException | RuntimeException e) {
+                            errors.increment();
+                        }
+                        Thread.sleep(ThreadLocalRandom.current().nextLong(thinkMillis + 1));
+                    }
+                    return null;
+                });
+            }
+        }
+        return errors.sum();
+    }
+
+    private static Object staticCall(long call) throws StripeException {
+        if (call % 2 == 0) {
+            return PaymentMethod.retrieve("pm_bench_" + call);
+        }
+        return PaymentIntent.create(paymentIntent(call));
+    }
+
+    private static Object clientCall(StripeClient client, long call) throws StripeException {
+        if (call % 2 == 0) {
+            return client.paymentMethods().retrieve("pm_bench_" + call);
+        }
+        return client.paymentIntents().create(paymentIntent(call));
+    }
+
+    private static PaymentIntentCreateParams paymentIntent(long call) {
+        return PaymentIntentCreateParams.builder()
+                .setAmount(1000L)
+                .setCurrency("usd")
+                .setCustomer("cus_bench")
+                .addPaymentMethodType("us_bank_account")
+                .setPaymentMethod("pm_bench_" + call)
+                .setConfirm(true)
+                .build();
+    }
+
+    private static SSLContext selfSignedContext() throws Exception {
+        Path keystore = Files.createTempFile("stripe-stand-in", ".p12");
+        Files.delete(keystore);
+        char[] password = "changeit".toCharArray();
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "stand-in", "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-storetype", "PKCS12",
+                "-keystore", keystore.toString(), "-storepass", new String(password))
+                .inheritIO()
+                .start();
+        if (keytool.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed with exit code " + keytool.exitValue());
+        }
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keystore.toFile())) {
+            keyStore.load(in, password);
+        } finally {
+            Files.deleteIfExists(keystore);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static void sleep(long millis) {
+        long jitter = millis / 5;
+        try {
+            Thread.sleep(millis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accepts TLS connections and answers HTTP/1.1 requests on each until the client closes it.
+     */
+    private static void serve(SSLServerSocket server, LongAdder connections, long latencyMillis) {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.increment();
+            Thread.ofVirtual().start(() -> {
+                try (socket) {
+                    BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    String requestLine;
+                    while ((requestLine = readLine(in)) != null) {
+                        int contentLength = 0;
+                        for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+                            if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                                contentLength = Integer.parseInt(header.substring(15).trim());
+                            }
+                        }
+                        in.readNBytes(contentLength);
+                        sleep(latencyMillis);
+                        byte[] body = respond(requestLine.split(" ")[1]).getBytes(StandardCharsets.UTF_8);
+                        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length
+                                + "\r\nRequest-Id: req_bench\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                        // One write, so the response is not held back by Nagle's algorithm
+                        byte[] response = Arrays.copyOf(head, head.length + body.length);
+                        System.arraycopy(body, 0, response, head.length, body.length);
+                        out.write(response);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // The client went away
+                }
+            });
+        }
+    }
+
+    private static String respond(String path) {
+        if (path.startsWith("/v1/payment_methods/")) {
+            return """
+                    {"id": "%s", "object": "payment_method", "type": "us_bank_account",
+                     "us_bank_account": {"bank_name": "STRIPE TEST BANK", "last4": "6789"}}""".formatted(path.substring(20));
+        }
+        return """
+                {"id": "pi_%s", "object": "payment_intent", "amount": 1000, "currency": "usd", "status": "processing"}"""
+                .formatted(UUID.randomUUID().toString().replace("-", ""));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c == -1) {
+                return null;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}
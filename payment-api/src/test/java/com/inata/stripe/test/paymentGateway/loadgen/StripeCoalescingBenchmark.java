@@ -0,0 +1,160 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeClientConfig;
+import com.stripe.Stripe;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Account;
+import com.stripe.model.PaymentMethod;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outbound Stripe calls for concurrent reads of the same users' account and payment method: the former static
+ * {@code Account.retrieve} / {@code PaymentMethod.retrieve}, versus the {@link StripeClient} bean, which coalesces
+ * identical reads in flight, without and with a {@code coalesce.ttl}.
+ * <p>
+ * The stand-in answers {@code GET /v1/accounts/{id}} and {@code GET /v1/payment_methods/{id}} after
+ * {@code latency-ms} (±20%) and counts what it receives. {@code concurrency} clients each read the account, then
+ * the payment method, of a random user out of {@code users}, in a closed loop pausing {@code think-ms}:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.StripeCoalescingBenchmark \
+ *     -Dbench.users=20 -Dbench.concurrency=100 -Dbench.ttl-ms=1000
+ * </pre>
+ */
+public class StripeCoalescingBenchmark {
+
+    private final LongAdder received;
+
+    private final int users;
+
+    private final int concurrency;
+
+    private final Duration duration;
+
+    private final long thinkMillis;
+
+    private StripeCoalescingBenchmark(LongAdder received, int users, int concurrency, Duration duration, long thinkMillis) {
+        this.received = received;
+        this.users = users;
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.thinkMillis = thinkMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long latencyMillis = Long.getLong("bench.latency-ms", 150);
+        LongAdder received = new LongAdder();
+        HttpServer stripe = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        stripe.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stripe.createContext("/v1/accounts/", exchange -> {
+            String id = exchange.getRequestURI().getPath().split("/")[3];
+            respond(exchange, received, latencyMillis, """
+                    {"id": "%s", "object": "account", "email": "bench@example.com", "charges_enabled": true}""".formatted(id));
+        });
+        stripe.createContext("/v1/payment_methods/", exchange -> {
+            String id = exchange.getRequestURI().getPath().split("/")[3];
+            respond(exchange, received, latencyMillis, """
+                    {"id": "%s", "object": "payment_method", "type": "us_bank_account",
+                     "us_bank_account": {"bank_name": "STRIPE TEST BANK", "last4": "6789",
+                                         "account_type": "checking", "routing_number": "110000000"}}""".formatted(id));
+        });
+        stripe.start();
+        String apiBase = "http://localhost:" + stripe.getAddress().getPort();
+
+        try {
+            StripeCoalescingBenchmark benchmark = new StripeCoalescingBenchmark(received, Integer.getInteger("bench.users", 20),
+                    Integer.getInteger("bench.concurrency", 100), Duration.ofSeconds(Integer.getInteger("bench.duration", 15)),
+                    Long.getLong("bench.think-ms", 50));
+            Duration ttl = Duration.ofMillis(Long.getLong("bench.ttl-ms", 1000));
+            System.out.printf("%d clients over %d users, Stripe latency %d ms, think %d ms, %ds per mode%n", benchmark.concurrency,
+                    benchmark.users, latencyMillis, benchmark.thinkMillis, benchmark.duration.toSeconds());
+
+            Stripe.apiKey = "sk_test_bench";
+            Stripe.overrideApiBase(apiBase);
+            benchmark.run("static retrieve", user -> {
+                Account.retrieve("acct_bench_" + user);
+                return PaymentMethod.retrieve("pm_bench_" + user);
+            });
+
+            benchmark.run("StripeClient, in flight shared", bean(apiBase, Duration.ZERO));
+            benchmark.run("StripeClient, ttl " + ttl.toMillis() + " ms", bean(apiBase, ttl));
+        } finally {
+            stripe.stop(0);
+        }
+    }
+
+    private interface Read {
+        Object run(int user) throws StripeException;
+    }
+
+    private static Read bean(String apiBase, Duration ttl) {
+        StripeClient client = new StripeClientConfig().stripeClient("sk_test_bench", apiBase, Duration.ofSeconds(5),
+                Duration.ofSeconds(30), 0, Duration.ofMinutes(5), 64, HttpClient.Version.HTTP_1_1, Duration.ofMillis(500),
+                Duration.ofSeconds(5), ttl, 10_000, StripeClientBenchmark.unlimited(), StripeClientBenchmark.neverOpen(),
+                new SimpleMeterRegistry());
+        return user -> {
+            client.accounts().retrieve("acct_bench_" + user);
+            return client.paymentMethods().retrieve("pm_bench_" + user);
+        };
+    }
+
+    private void run(String mode, Read read) throws InterruptedException {
+        LatencyRecorder latencies = new LatencyRecorder(1_000_000);
+        LongAdder errors = new LongAdder();
+        received.reset();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < concurrency; client++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long started = System.nanoTime();
+                        try {
+                            read.run(ThreadLocalRandom.current().nextInt(users));
+                            latencies.record(System.nanoTime() - started);
+                        } catch (StripeException | RuntimeException e) {
+                            errors.increment();
+                        }
+                        Thread.sleep(thinkMillis);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        long reads = 2 * (latencies.count() + errors.sum());
+        long[] p = latencies.percentiles();
+        System.out.printf("%-34s %6d reads, %6d sent to Stripe (%.2f per read), %d errors; latency (ms) p50=%.0f p99=%.0f%n",
+                mode + ":", reads, received.sum(), (double) received.sum() / reads, errors.sum(), p[0] / 1000.0, p[2] / 1000.0);
+    }
+
+    private static void respond(HttpExchange exchange, LongAdder received, long latencyMillis, String json) throws IOException {
+        received.increment();
+        exchange.getRequestBody().readAllBytes();
+        long jitter = latencyMillis / 5;
+        try {
+            Thread.sleep(latencyMillis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeCircuitBreaker;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeClientConfig;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeRateLimiter;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeUnavailableException;
+import com.stripe.Stripe;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What users see of Stripe's rate limit and of a Stripe outage, with the former static setup (stripe-java's own
+ * retries) versus the {@link StripeClient} bean (rate limiter, jittered retries, circuit breaker), against an
+ * in-process Stripe stand-in.
+ * <p>
+ * The stand-in creates PaymentIntents ({@code POST /v1/payment_intents}) after {@code latency-ms} (±20%). Like
+ * Stripe, it answers 429 beyond {@code stripe-limit} requests per second (bucket of {@code stripe-burst}), and
+ * replays the first answer for an {@code Idempotency-Key} it has seen. From {@code outage-at} seconds and for
+ * {@code outage-for} seconds it answers 503. Every {@code period-ms} a burst of {@code burst} deposits arrives at
+ * once (open loop), each with its own idempotency key as {@code TransactionService} sends them:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.StripeResilienceBenchmark \
+ *     -Dbench.burst=80 -Dbench.stripe-limit=100 -Dbench.stripe-burst=25
+ * </pre>
+ */
+public class StripeResilienceBenchmark {
+
+    private final StandIn stripe;
+
+    private final int burst;
+
+    private final Duration period;
+
+    private final Duration duration;
+
+    private StripeResilienceBenchmark(StandIn stripe, int burst, Duration period, Duration duration) {
+        this.stripe = stripe;
+        this.burst = burst;
+        this.period = period;
+        this.duration = duration;
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandIn stripe = new StandIn(Long.getLong("bench.latency-ms", 50), Integer.getInteger("bench.stripe-limit", 100),
+                Integer.getInteger("bench.stripe-burst", 25), Duration.ofSeconds(Integer.getInteger("bench.outage-at", 10)),
+                Duration.ofSeconds(Integer.getInteger("bench.outage-for", 5)));
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/v1/payment_intents", stripe::handle);
+        server.start();
+        String apiBase = "http://localhost:" + server.getAddress().getPort();
+
+        try {
+            StripeResilienceBenchmark benchmark = new StripeResilienceBenchmark(stripe, Integer.getInteger("bench.burst", 80),
+                    Duration.ofMillis(Long.getLong("bench.period-ms", 1000)), Duration.ofSeconds(Integer.getInteger("bench.duration", 25)));
+            System.out.printf("Bursts of %d deposits every %d ms for %ds; Stripe stand-in: %d ms, %d/s (burst %d), 503 from %ds for %ds%n",
+                    benchmark.burst, benchmark.period.toMillis(), benchmark.duration.toSeconds(), stripe.latencyMillis,
+                    stripe.perSecond, stripe.burst, stripe.outageAt.toSeconds(), stripe.outageFor.toSeconds());
+
+            Stripe.apiKey = "sk_test_bench";
+            Stripe.overrideApiBase(apiBase);
+            Stripe.setMaxNetworkRetries(2);
+            benchmark.run("static, stripe-java retries", key ->
+                    PaymentIntent.create(paymentIntent(), RequestOptions.builder().setIdempotencyKey(key).build()));
+
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            StripeRateLimiter rateLimiter = new StripeRateLimiter(meterRegistry, Integer.getInteger("bench.limit", 80),
+                    Integer.getInteger("bench.limit-burst", 20), 20, 10, Duration.ofSeconds(2), 10_000);
+            StripeCircuitBreaker circuitBreaker = new StripeCircuitBreaker(meterRegistry, 50, 20, 0.5, Duration.ofSeconds(2), 3);
+            StripeClient client = new StripeClientConfig().stripeClient("sk_test_bench", apiBase, Duration.ofSeconds(5),
+                    Duration.ofSeconds(30), 2, Duration.ofMinutes(5), 64, HttpClient.Version.HTTP_1_1, Duration.ofMillis(500),
+                    Duration.ofSeconds(5), Duration.ZERO, 10_000, rateLimiter, circuitBreaker, meterRegistry);
+            benchmark.run("StripeClient bean", key ->
+                    client.paymentIntents().create(paymentIntent(), RequestOptions.builder().setIdempotencyKey(key).build()));
+
+            Timer wait = meterRegistry.get("stripe.rate_limiter.wait").tag("scope", "global").timer();
+            System.out.printf("  limiter wait: mean %.0f ms, max %.0f ms; retries %s; breaker opened %.0f times, %.0f calls refused%n",
+                    wait.mean(TimeUnit.MILLISECONDS), wait.max(TimeUnit.MILLISECONDS),
+                    meterRegistry.find("stripe.api.retries").counters().stream()
+                            .map(counter -> counter.getId().getTag("reason") + "=" + (long) counter.count()).toList(),
+                    meterRegistry.counter("stripe.circuit_breaker.transitions", "state", "open").count(),
+                    meterRegistry.counter("stripe.circuit_breaker.rejected").count());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private interface Deposit {
+        Object create(String idempotencyKey) throws StripeException;
+    }
+
+    private void run(String mode, Deposit deposit) throws InterruptedException {
+        LatencyRecorder latencies = new LatencyRecorder(1_000_000);
+        LongAdder succeeded = new LongAdder();
+        LongAdder rateLimited = new LongAdder();
+        LongAdder refused = new LongAdder();
+        LongAdder failed = new LongAdder();
+        stripe.reset();
+
+        long started = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long at = started; at < started + duration.toNanos(); at += period.toNanos()) {
+                TimeUnit.NANOSECONDS.sleep(at - System.nanoTime());
+                for (int i = 0; i < burst; i++) {
+                    executor.submit(() -> {
+                        long callStarted = System.nanoTime();
+                        try {
+                            deposit.create(UUID.randomUUID().toString());
+                            succeeded.increment();
+                        } catch (StripeUnavailableException e) {
+                            refused.increment();
+                        } catch (StripeException e) {
+                            (Integer.valueOf(429).equals(e.getStatusCode()) ? rateLimited : failed).increment();
+                        }
+                        latencies.record(System.nanoTime() - callStarted);
+                    });
+                }
+            }
+        }
+
+        long[] p = latencies.percentiles();
+        System.out.printf("%-28s %5d ok, %5d 429 to the user, %5d refused (503), %5d failed; latency (ms) p50=%.0f p99=%.0f max=%.0f%n"
+                        + "%-28s Stripe got %d requests: %d answered 429, %d during the outage, %d idempotent replays%n",
+                mode + ":", succeeded.sum(), rateLimited.sum(), refused.sum(), failed.sum(), p[0] / 1000.0, p[2] / 1000.0,
+                p[4] / 1000.0, "", stripe.requests.sum(), stripe.rateLimited.sum(), stripe.duringOutage.sum(), stripe.replays.sum());
+    }
+
+    private static PaymentIntentCreateParams paymentIntent() {
+        return PaymentIntentCreateParams.builder()
+                .setAmount(1000L)
+                .setCurrency("usd")
+                .setCustomer("cus_bench")
+                .addPaymentMethodType("us_bank_account")
+                .setPaymentMethod("pm_bench")
+                .setConfirm(true)
+                .build();
+    }
+
+    /**
+     * The Stripe stand-in: a token bucket, an outage window and idempotency keys, restarted for each mode.
+     */
+    private static final class StandIn {
+
+        private final long latencyMillis;
+
+        private final int perSecond;
+
+        private final int burst;
+
+        private final Duration outageAt;
+
+        private final Duration outageFor;
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder rateLimited = new LongAdder();
+
+        private final LongAdder duringOutage = new LongAdder();
+
+        private final LongAdder replays = new LongAdder();
+
+        private final Map<String, String> responses = new ConcurrentHashMap<>();
+
+        private volatile long startedAt;
+
+        private double tokens;
+
+        private long refilledAt;
+
+        private StandIn(long latencyMillis, int perSecond, int burst, Duration outageAt, Duration outageFor) {
+            this.latencyMillis = latencyMillis;
+            this.perSecond = perSecond;
+            this.burst = burst;
+            this.outageAt = outageAt;
+            this.outageFor = outageFor;
+        }
+
+        private synchronized void reset() {
+            requests.reset();
+            rateLimited.reset();
+            duringOutage.reset();
+            replays.reset();
+            responses.clear();
+            startedAt = System.nanoTime();
+            tokens = burst;
+            refilledAt = startedAt;
+        }
+
+        private synchronized boolean takeToken() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * perSecond / 1e9);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            exchange.getRequestBody().readAllBytes();
+            requests.increment();
+            if (!takeToken()) {
+                rateLimited.increment();
+                respond(exchange, 429, """
+                        {"error": {"type": "invalid_request_error", "code": "rate_limit",
+                                   "message": "Too many requests hit the API too quickly."}}""");
+                return;
+            }
+
+            long jitter = latencyMillis / 5;
+            try {
+                Thread.sleep(latencyMillis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long sinceStart = System.nanoTime() - startedAt;
+            if (sinceStart >= outageAt.toNanos() && sinceStart < outageAt.plus(outageFor).toNanos()) {
+                duringOutage.increment();
+                respond(exchange, 503, """
+                        {"error": {"type": "api_error", "message": "Stripe is temporarily unavailable."}}""");
+                return;
+            }
+
+            String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            String fresh = """
+                    {"id": "pi_%s", "object": "payment_intent", "amount": 1000, "currency": "usd", "status": "processing"}"""
+                    .formatted(UUID.randomUUID().toString().replace("-", ""));
+            String response = key != null ? responses.putIfAbsent(key, fresh) : null;
+            if (response != null) {
+                replays.increment();
+            }
+            respond(exchange, 200, response != null ? response : fresh);
+        }
+
+        private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.stripe.net.Webhook;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory Stripe API for load tests, so the service can be exercised end to end without live Stripe. Point
+ * the app at it with {@code stripe.client.api-base} (and {@code stripe.client.http-version=HTTP_1_1}: it is plain
+ * HTTP).
+ * <p>
+ * It implements the endpoints this service calls: accounts (create, retrieve, update, external accounts),
+ * customers, payment methods (create, retrieve, list by customer), setup intents, payment intents, transfers and
+ * their reversals, payouts, financial connections sessions and accounts (retrieve, refresh) and checkout
+ * sessions. Objects are kept in memory, so what was created can be read back; {@code Idempotency-Key}s are
+ * honoured like Stripe does (same key, same answer). Form parameters are echoed into the objects, untyped.
+ * <p>
+ * Each call waits a latency drawn from a log-normal distribution given by its median and p99, per resource type
+ * ({@code standin.latency.payment_intents=200/900}, default {@code standin.latency}). Beyond
+ * {@code standin.rate-limit} calls per second (0: no limit) it answers 429 like Stripe; on top of that a
+ * {@code standin.rate-limited} fraction of calls gets a 429 and an {@code standin.error-rate} fraction a 500.
+ * <p>
+ * With a {@code standin.webhook-url}, payment intents and payouts are settled after {@code standin.webhook-delay}:
+ * {@code payment_intent.succeeded} / {@code payout.paid}, or with {@code standin.failure-rate} the failed
+ * variants, posted there signed with {@code standin.webhook-secret} exactly like Stripe. Account updates and
+ * added external accounts send {@code account.updated} / {@code account.external_account.created}.
+ * <p>
+ * Embedded: {@code StripeStandIn.start(Options.fromSystemProperties())}. Standalone:
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.StripeStandIn \
+ *     -Dstandin.port=12111 -Dstandin.latency=80/400 -Dstandin.webhook-url=http://localhost:8080/stripe/webhook
+ * </pre>
+ */
+public class StripeStandIn implements AutoCloseable {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final Pattern KEY_PART = Pattern.compile("([^\\[\\]]+)|\\[([^\\]]*)]");
+
+    /**
+     * Form parameters answered as numbers (everything else stays a string, as sent).
+     */
+    private static final Set<String> NUMERIC = Set.of("amount", "unit_amount", "quantity", "day", "month", "year", "date");
+
+    private static final String API_VERSION = "2025-04-30.basil";
+
+    /**
+     * Median and p99 of a log-normal latency.
+     */
+    public record Latency(Duration median, Duration p99) {
+
+        /**
+         * {@code 80/400}: median and p99 in milliseconds; {@code 80}: constant.
+         */
+        public static Latency parse(String millis) {
+            String[] parts = millis.split("/");
+            Duration median = Duration.ofMillis(Long.parseLong(parts[0].trim()));
+            return new Latency(median, parts.length > 1 ? Duration.ofMillis(Long.parseLong(parts[1].trim())) : median);
+        }
+
+        long sampleNanos() {
+            if (median.isZero() || !p99.minus(median).isPositive()) {
+                return median.toNanos();
+            }
+            // p99 of a standard normal
+            double sigma = Math.log((double) p99.toNanos() / median.toNanos()) / 2.3263;
+            return (long) (median.toNanos() * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+
+        @Override
+        public String toString() {
+            return median.toMillis() + "/" + p99.toMillis() + " ms";
+        }
+    }
+
+    public record Options(int port, Latency latency, Map<String, Latency> latencies, int rateLimit, double rateLimited,
+                          double errorRate, URI webhookUrl, String webhookSecret, Duration webhookDelay, double failureRate) {
+
+        public static Options fromSystemProperties() {
+            Map<String, Latency> latencies = new HashMap<>();
+            System.getProperties().stringPropertyNames().stream()
+                    .filter(name -> name.startsWith("standin.latency."))
+                    .forEach(name -> latencies.put(name.substring("standin.latency.".length()), Latency.parse(System.getProperty(name))));
+            String webhookUrl = System.getProperty("standin.webhook-url");
+            return new Options(Integer.getInteger("standin.port", 0),
+                    Latency.parse(System.getProperty("standin.latency", "80/400")), latencies,
+                    Integer.getInteger("standin.rate-limit", 0),
+                    Double.parseDouble(System.getProperty("standin.rate-limited", "0")),
+                    Double.parseDouble(System.getProperty("standin.error-rate", "0")),
+                    webhookUrl != null ? URI.create(webhookUrl) : null,
+                    System.getProperty("standin.webhook-secret", "whsec_standin"),
+                    Duration.ofMillis(Long.getLong("standin.webhook-delay-ms", 500)),
+                    Double.parseDouble(System.getProperty("standin.failure-rate", "0")));
+        }
+
+        public Options withPort(int port) {
+            return new Options(port, latency, latencies, rateLimit, rateLimited, errorRate, webhookUrl, webhookSecret, webhookDelay, failureRate);
+        }
+
+        public Options withWebhooks(URI url, String secret) {
+            return new Options(port, latency, latencies, rateLimit, rateLimited, errorRate, url, secret, webhookDelay, failureRate);
+        }
+
+        Latency latencyOf(String resource) {
+            return latencies.getOrDefault(resource, latency);
+        }
+    }
+
+    private record Answer(int status, String body) {
+    }
+
+    private final Options options;
+
+    private final HttpServer server;
+
+    private final HttpClient webhookClient;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+
+    private final Map<String, ObjectNode> objects = new ConcurrentHashMap<>();
+
+    private final Map<String, Answer> idempotentAnswers = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, LongAdder> calls = new ConcurrentSkipListMap<>();
+
+    private final LongAdder rateLimitedCalls = new LongAdder();
+
+    private final LongAdder failedCalls = new LongAdder();
+
+    private final LongAdder webhooksDelivered = new LongAdder();
+
+    private final LongAdder webhooksFailed = new LongAdder();
+
+    private final ReentrantLock bucketLock = new ReentrantLock();
+
+    /**
+     * Held while objects are read or changed, and answers serialized; never during the latency.
+     */
+    private final ReentrantLock objectsLock = new ReentrantLock();
+
+    private double tokens;
+
+    private long refilledAt = System.nanoTime();
+
+    private StripeStandIn(Options options) throws IOException {
+        this.options = options;
+        this.tokens = options.rateLimit();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", options.port()), 1024);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/v1/", this::handle);
+        this.webhookClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static StripeStandIn start(Options options) throws IOException {
+        StripeStandIn standIn = new StripeStandIn(options);
+        standIn.server.start();
+        return standIn;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.fromSystemProperties();
+        StripeStandIn standIn = start(options.port() == 0 ? options.withPort(12111) : options);
+        System.out.printf("Stripe stand-in on %s: latency %s %s, rate limit %s, %.1f%% 429, %.1f%% 500, webhooks to %s%n",
+                standIn.apiBase(), options.latency(), options.latencies(), options.rateLimit() > 0 ? options.rateLimit() + "/s" : "none",
+                options.rateLimited() * 100, options.errorRate() * 100, options.webhookUrl());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(standIn.report())));
+        Thread.currentThread().join();
+    }
+
+    public String apiBase() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long calls() {
+        return calls.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long webhooksDelivered() {
+        return webhooksDelivered.sum();
+    }
+
+    /**
+     * Calls per endpoint, throttled and failed calls, webhooks; then starts counting again.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("  Stripe stand-in: %d calls, %d answered 429, %d answered 500; %d webhooks delivered, %d failed%n",
+                calls(), rateLimitedCalls.sumThenReset(), failedCalls.sumThenReset(), webhooksDelivered.sumThenReset(),
+                webhooksFailed.sumThenReset()));
+        calls.forEach((endpoint, count) -> report.append(String.format("    %-48s %d%n", endpoint, count.sumThenReset())));
+        return report.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        URI uri = exchange.getRequestURI();
+        String[] path = uri.getPath().substring("/v1/".length()).split("/");
+        ObjectNode params = parseForm(method.equals("GET") ? uri.getRawQuery()
+                : new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        String stripeAccount = exchange.getRequestHeaders().getFirst("Stripe-Account");
+        calls.computeIfAbsent(method + " " + endpoint(path), endpoint -> new LongAdder()).increment();
+
+        try {
+            if (!takeToken() || ThreadLocalRandom.current().nextDouble() < options.rateLimited()) {
+                rateLimitedCalls.increment();
+                respond(exchange, error(429, "rate_limit_error", "Too many requests hit the API too quickly."));
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(options.latencyOf(path[0]).sampleNanos());
+            if (ThreadLocalRandom.current().nextDouble() < options.errorRate()) {
+                failedCalls.increment();
+                respond(exchange, error(500, "api_error", "An unknown error occurred (injected)."));
+                return;
+            }
+
+            String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            if (method.equals("POST") && idempotencyKey != null) {
+                String scope = stripeAccount + ":" + idempotencyKey;
+                Answer answer = idempotentAnswers.get(scope);
+                if (answer == null) {
+                    answer = routeLocked(method, path, params, stripeAccount);
+                    Answer first = idempotentAnswers.putIfAbsent(scope, answer);
+                    answer = first != null ? first : answer;
+                }
+                respond(exchange, answer);
+            } else {
+                respond(exchange, routeLocked(method, path, params, stripeAccount));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            respond(exchange, error(500, "api_error", "Stand-in failure: " + e));
+        }
+    }
+
+    private Answer routeLocked(String method, String[] path, ObjectNode params, String stripeAccount) {
+        objectsLock.lock();
+        try {
+            return route(method, path, params, stripeAccount);
+        } finally {
+            objectsLock.unlock();
+        }
+    }
+
+    private Answer route(String method, String[] path, ObjectNode params, String stripeAccount) {
+        boolean post = method.equals("POST");
+        String resource = path[0];
+        String id = path.length > 1 ? path[1] : null;
+        return switch (resource) {
+            case "accounts" -> {
+                if (id == null) {
+                    yield post ? ok(account(params)) : notFound(resource);
+                }
+                if (path.length > 2 && path[2].equals("external_accounts")) {
+                    yield list(find(id).map(account -> account.get("external_accounts").get("data")).orElse(null), "/v1/accounts/" + id + "/external_accounts");
+                }
+                yield post ? updateAccount(id, params) : retrieve(id);
+            }
+            case "customers" -> id == null && post ? ok(create("cus", "customer", params)) : retrieve(id);
+            case "payment_methods" -> {
+                if (id == null) {
+                    yield post ? ok(paymentMethod(params)) : paymentMethods(params.path("customer").asText(null));
+                }
+                yield retrieve(id);
+            }
+            case "setup_intents" -> ok(setupIntent(params));
+            case "payment_intents" -> {
+                ObjectNode intent = create("pi", "payment_intent", params);
+                intent.put("status", "processing").put("client_secret", intent.get("id").asText() + "_secret_standin");
+                settle(intent, stripeAccount, "payment_intent.succeeded", "payment_intent.payment_failed", "requires_payment_method");
+                yield ok(intent);
+            }
+            case "transfers" -> {
+                if (id != null && path.length > 2 && path[2].equals("reversals")) {
+                    ObjectNode reversal = create("trr", "transfer_reversal", params);
+                    reversal.put("transfer", id);
+                    yield ok(reversal);
+                }
+                yield post && id == null ? ok(create("tr", "transfer", params).put("reversed", false)) : retrieve(id);
+            }
+            case "payouts" -> {
+                ObjectNode payout = create("po", "payout", params);
+                payout.put("status", "pending").put("type", "bank_account")
+                        .put("arrival_date", System.currentTimeMillis() / 1000 + 86_400);
+                settle(payout, stripeAccount, "payout.paid", "payout.failed", "failed");
+                yield ok(payout);
+            }
+            case "financial_connections" -> id.equals("sessions")
+                    ? ok(create("fcsess", "financial_connections.session", params)
+                    .put("client_secret", "fcsess_client_secret_" + sequence.incrementAndGet()))
+                    : financialConnectionsAccount(path[2]);
+            case "checkout" -> {
+                ObjectNode session = create("cs_test", "checkout.session", params);
+                // Stripe only returns line_items when expanded, and then as a list object
+                session.remove("line_items");
+                session.put("url", "https://checkout.stripe.com/c/pay/" + session.get("id").asText())
+                        .put("status", "open").put("payment_status", "unpaid");
+                yield ok(session);
+            }
+            default -> notFound(resource);
+        };
+    }
+
+    private ObjectNode account(ObjectNode params) {
+        ObjectNode account = create("acct", "account", params);
+        // Requested as {"transfers": {"requested": true}}, answered with each capability's status
+        if (params.get("capabilities") instanceof ObjectNode requested) {
+            ObjectNode capabilities = account.putObject("capabilities");
+            requested.fieldNames().forEachRemaining(capability -> capabilities.put(capability, "active"));
+        }
+        account.put("charges_enabled", false).put("payouts_enabled", false).put("details_submitted", false);
+        ObjectNode requirements = account.putObject("requirements");
+        requirements.putNull("current_deadline");
+        requirements.putArray("currently_due").add("individual.first_name").add("individual.last_name").add("tos_acceptance.date");
+        requirements.putArray("eventually_due");
+        requirements.putArray("past_due");
+        account.putObject("external_accounts").put("object", "list").putArray("data");
+        return account;
+    }
+
+    private Answer updateAccount(String id, ObjectNode params) {
+        ObjectNode account = objects.get(id);
+        if (account == null) {
+            return notFound(id);
+        }
+        String bankToken = params.path("external_account").asText(null);
+        params.remove("external_account");
+        merge(account, params);
+        if (params.has("individual")) {
+            account.put("charges_enabled", true).put("payouts_enabled", true).put("details_submitted", true);
+            ((ArrayNode) account.get("requirements").get("currently_due")).removeAll();
+        }
+        emit("account.updated", account, id);
+        if (bankToken != null) {
+            ObjectNode bankAccount = bankAccount(id);
+            ((ArrayNode) account.get("external_accounts").get("data")).add(bankAccount);
+            emit("account.external_account.created", bankAccount, id);
+        }
+        return ok(account);
+    }
+
+    private ObjectNode bankAccount(String accountId) {
+        ObjectNode bankAccount = JSON.createObjectNode();
+        bankAccount.put("id", "ba_standin" + sequence.incrementAndGet()).put("object", "bank_account").put("account", accountId)
+                .put("bank_name", "STRIPE TEST BANK").put("last4", "6789").put("routing_number", "110000000")
+                .put("country", "US").put("currency", "usd").put("status", "new").put("default_for_currency", true);
+        return bankAccount;
+    }
+
+    private ObjectNode paymentMethod(ObjectNode params) {
+        ObjectNode paymentMethod = create("pm", "payment_method", params);
+        paymentMethod.put("type", "us_bank_account").putNull("customer");
+        paymentMethod.putObject("us_bank_account").put("bank_name", "STRIPE TEST BANK").put("last4", "6789")
+                .put("account_type", "checking").put("account_holder_type", "individual").put("routing_number", "110000000")
+                .put("financial_connections_account", params.path("us_bank_account").path("financial_connections_account").asText(null));
+        return paymentMethod;
+    }
+
+    private ObjectNode setupIntent(ObjectNode params) {
+        ObjectNode setupIntent = create("seti", "setup_intent", params);
+        setupIntent.put("status", "succeeded").put("client_secret", setupIntent.get("id").asText() + "_secret_standin");
+        ObjectNode paymentMethod = objects.get(params.path("payment_method").asText(""));
+        if (paymentMethod != null) {
+            paymentMethod.put("customer", params.path("customer").asText(null));
+        }
+        return setupIntent;
+    }
+
+    private Answer paymentMethods(String customer) {
+        ArrayNode data = JSON.createArrayNode();
+        objects.values().stream()
+                .filter(object -> object.get("object").asText().equals("payment_method"))
+                .filter(paymentMethod -> customer == null || customer.equals(paymentMethod.path("customer").asText(null)))
+                .forEach(data::add);
+        return list(data, "/v1/payment_methods");
+    }
+
+    private Answer financialConnectionsAccount(String id) {
+        ObjectNode account = objects.computeIfAbsent(id, key -> {
+            ObjectNode created = JSON.createObjectNode();
+            created.put("id", key).put("object", "financial_connections.account").put("status", "active")
+                    .put("category", "cash").put("subcategory", "checking").put("institution_name", "StripeBank").put("last4", "6789");
+            return created;
+        });
+        ObjectNode balance = JSON.createObjectNode();
+        balance.put("as_of", System.currentTimeMillis() / 1000).put("type", "cash");
+        balance.putObject("cash").putObject("available").put("usd", ThreadLocalRandom.current().nextLong(100_000, 10_000_000));
+        account.set("balance", balance);
+        account.putObject("balance_refresh").put("status", "succeeded").put("last_attempted_at", System.currentTimeMillis() / 1000);
+        return ok(account);
+    }
+
+    /**
+     * Sends the outcome of a payment intent or payout, as Stripe does once the bank answers.
+     */
+    private void settle(ObjectNode object, String stripeAccount, String succeeded, String failed, String failedStatus) {
+        if (options.webhookUrl() == null) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            boolean failure = ThreadLocalRandom.current().nextDouble() < options.failureRate();
+            objectsLock.lock();
+            try {
+                object.put("status", failure ? failedStatus : succeeded.endsWith("paid") ? "paid" : "succeeded");
+                emit(failure ? failed : succeeded, object, stripeAccount);
+            } finally {
+                objectsLock.unlock();
+            }
+        }, options.webhookDelay().toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Called with {@link #objectsLock} held: the object is serialized here, the event is sent in the background.
+     */
+    private void emit(String type, ObjectNode object, String stripeAccount) {
+        if (options.webhookUrl() == null) {
+            return;
+        }
+        ObjectNode event = JSON.createObjectNode();
+        event.put("id", "evt_standin" + sequence.incrementAndGet()).put("object", "event").put("api_version", API_VERSION)
+                .put("created", System.currentTimeMillis() / 1000);
+        if (stripeAccount != null) {
+            event.put("account", stripeAccount);
+        }
+        event.putObject("data").set("object", object.deepCopy());
+        event.put("livemode", false).put("pending_webhooks", 1).put("type", type);
+        event.putObject("request").putNull("id").putNull("idempotency_key");
+        String payload = event.toString();
+
+        Thread.ofVirtual().start(() -> {
+            try {
+                long timestamp = Webhook.Util.getTimeNow();
+                String signature = Webhook.Util.computeHmacSha256(options.webhookSecret(), timestamp + "." + payload);
+                HttpRequest request = HttpRequest.newBuilder(options.webhookUrl())
+                        .timeout(Duration.ofSeconds(30))
+                        .header("Content-Type", "application/json; charset=utf-8")
+                        .header("Stripe-Signature", "t=" + timestamp + ",v1=" + signature)
+                        .POST(HttpRequest.BodyPublishers.ofString(payload))
+                        .build();
+                int status = webhookClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                (status / 100 == 2 ? webhooksDelivered : webhooksFailed).increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                webhooksFailed.increment();
+            }
+        });
+    }
+
+    private boolean takeToken() {
+        if (options.rateLimit() <= 0) {
+            return true;
+        }
+        bucketLock.lock();
+        try {
+            long now = System.nanoTime();
+            tokens = Math.min(options.rateLimit(), tokens + (now - refilledAt) * options.rateLimit() / 1e9);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        } finally {
+            bucketLock.unlock();
+        }
+    }
+
+    private ObjectNode create(String prefix, String type, ObjectNode params) {
+        ObjectNode object = JSON.createObjectNode();
+        object.put("id", prefix + "_standin" + sequence.incrementAndGet()).put("object", type)
+                .put("created", System.currentTimeMillis() / 1000).put("livemode", false);
+        merge(object, params);
+        if (!object.has("metadata")) {
+            object.putObject("metadata");
+        }
+        objects.put(object.get("id").asText(), object);
+        return object;
+    }
+
+    private Optional<ObjectNode> find(String id) {
+        return Optional.ofNullable(id != null ? objects.get(id) : null);
+    }
+
+    private Answer retrieve(String id) {
+        return find(id).map(StripeStandIn::ok).orElseGet(() -> notFound(String.valueOf(id)));
+    }
+
+    private static void merge(ObjectNode target, ObjectNode params) {
+        params.fields().forEachRemaining(field -> {
+            if (field.getKey().equals("expand")) {
+                return;
+            }
+            JsonNode existing = target.get(field.getKey());
+            if (existing instanceof ObjectNode existingObject && field.getValue() instanceof ObjectNode update) {
+                merge(existingObject, update);
+            } else {
+                target.set(field.getKey(), field.getValue());
+            }
+        });
+    }
+
+    /**
+     * stripe-java's form encoding: {@code individual[address][city]=X}, {@code payment_method_types[0]=Y}.
+     */
+    static ObjectNode parseForm(String form) {
+        ObjectNode params = JSON.createObjectNode();
+        if (form == null || form.isEmpty()) {
+            return params;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+
+            Matcher matcher = KEY_PART.matcher(key);
+            List<String> parts = new ArrayList<>();
+            while (matcher.find()) {
+                parts.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+            }
+            JsonNode node = params;
+            for (int i = 0; i < parts.size() - 1; i++) {
+                JsonNode child = child(node, parts.get(i));
+                if (child == null) {
+                    child = parts.get(i + 1).matches("\\d*") ? JSON.createArrayNode() : JSON.createObjectNode();
+                    add(node, parts.get(i), child);
+                }
+                node = child;
+            }
+            add(node, parts.getLast(), value(parts.getLast(), value));
+        }
+        return params;
+    }
+
+    private static JsonNode child(JsonNode node, String part) {
+        return node.isArray() ? (part.isEmpty() ? null : node.get(Integer.parseInt(part))) : node.get(part);
+    }
+
+    /**
+     * stripe-java sends list items in order, so an index is the next position.
+     */
+    private static void add(JsonNode node, String part, JsonNode child) {
+        if (node instanceof ArrayNode array) {
+            array.add(child);
+        } else {
+            ((ObjectNode) node).set(part, child);
+        }
+    }
+
+    private static JsonNode value(String key, String value) {
+        if (NUMERIC.contains(key) && value.matches("-?\\d{1,18}")) {
+            return JsonNodeFactory.instance.numberNode(Long.parseLong(value));
+        }
+        if (value.equals("true") || value.equals("false")) {
+            return JsonNodeFactory.instance.booleanNode(Boolean.parseBoolean(value));
+        }
+        return JsonNodeFactory.instance.textNode(value);
+    }
+
+    /**
+     * {@code accounts/acct_1/external_accounts} becomes {@code /v1/accounts/{id}/external_accounts}.
+     */
+    private static String endpoint(String[] path) {
+        StringBuilder endpoint = new StringBuilder("/v1");
+        for (String segment : path) {
+            endpoint.append('/').append(segment.indexOf('_') > 0 && segment.chars().anyMatch(Character::isDigit) ? "{id}" : segment);
+        }
+        return endpoint.toString();
+    }
+
+    private static Answer ok(JsonNode object) {
+        return new Answer(200, object.toString());
+    }
+
+    private static Answer list(JsonNode data, String url) {
+        if (data == null) {
+            return notFound(url);
+        }
+        ObjectNode list = JSON.createObjectNode();
+        list.put("object", "list").put("url", url).put("has_more", false).set("data", data);
+        return ok(list);
+    }
+
+    private static Answer notFound(String id) {
+        return error(404, "invalid_request_error", "No such object: '" + id + "'");
+    }
+
+    private static Answer error(int status, String type, String message) {
+        ObjectNode error = JSON.createObjectNode();
+        error.putObject("error").put("type", type).put("message", message)
+                .put("request_log_url", "https://dashboard.stripe.com/test/logs/req_" + UUID.randomUUID().toString().substring(0, 8));
+        return new Answer(status, error.toString());
+    }
+
+    private static void respond(HttpExchange exchange, Answer answer) throws IOException {
+        byte[] body = answer.body().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Request-Id", "req_standin" + ThreadLocalRandom.current().nextInt(1 << 30));
+        exchange.sendResponseHeaders(answer.status(), body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
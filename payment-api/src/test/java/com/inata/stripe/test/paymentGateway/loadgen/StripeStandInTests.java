@@ -0,0 +1,155 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeClientConfig;
+import com.stripe.StripeClient;
+import com.stripe.exception.RateLimitException;
+import com.stripe.model.Account;
+import com.stripe.model.Event;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentMethod;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.Webhook;
+import com.stripe.param.AccountCreateParams;
+import com.stripe.param.AccountUpdateParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentMethodCreateParams;
+import com.stripe.param.PaymentMethodListParams;
+import com.stripe.param.SetupIntentCreateParams;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StripeStandInTests {
+
+    private static final StripeStandIn.Latency NONE = StripeStandIn.Latency.parse("0");
+
+    private StripeStandIn standIn;
+
+    private HttpServer webhooks;
+
+    @AfterEach
+    void stop() {
+        if (standIn != null) {
+            standIn.close();
+        }
+        if (webhooks != null) {
+            webhooks.stop(0);
+        }
+    }
+
+    @Test
+    void answersWhatWasCreated() throws Exception {
+        standIn = StripeStandIn.start(options(0, null, null));
+        StripeClient client = client();
+
+        Account account = client.accounts().create(AccountCreateParams.builder()
+                .setCountry("US")
+                .setType(AccountCreateParams.Type.CUSTOM)
+                .build());
+        client.accounts().update(account.getId(), AccountUpdateParams.builder()
+                .setIndividual(AccountUpdateParams.Individual.builder().setFirstName("Ada").setLastName("Lovelace").build())
+                .build());
+        Account retrieved = client.accounts().retrieve(account.getId());
+        assertEquals("Ada", retrieved.getIndividual().getFirstName());
+        assertEquals(List.of(), retrieved.getRequirements().getCurrentlyDue());
+
+        PaymentMethod paymentMethod = client.paymentMethods().create(PaymentMethodCreateParams.builder()
+                .setType(PaymentMethodCreateParams.Type.US_BANK_ACCOUNT)
+                .setUsBankAccount(PaymentMethodCreateParams.UsBankAccount.builder().setFinancialConnectionsAccount("fca_1").build())
+                .build());
+        client.setupIntents().create(SetupIntentCreateParams.builder()
+                .setCustomer("cus_1")
+                .setPaymentMethod(paymentMethod.getId())
+                .build());
+        List<PaymentMethod> methods = client.paymentMethods().list(PaymentMethodListParams.builder()
+                .setCustomer("cus_1")
+                .setType(PaymentMethodListParams.Type.US_BANK_ACCOUNT)
+                .build()).getData();
+        assertEquals(List.of(paymentMethod.getId()), methods.stream().map(PaymentMethod::getId).toList());
+        assertEquals("6789", methods.getFirst().getUsBankAccount().getLast4());
+    }
+
+    @Test
+    void answersAnIdempotencyKeyOnce() throws Exception {
+        standIn = StripeStandIn.start(options(0, null, null));
+        StripeClient client = client();
+        RequestOptions options = RequestOptions.builder().setIdempotencyKey("deposit-1").build();
+
+        PaymentIntent first = client.paymentIntents().create(paymentIntent(), options);
+        PaymentIntent again = client.paymentIntents().create(paymentIntent(), options);
+
+        assertEquals(first.getId(), again.getId());
+        assertEquals(1000L, again.getAmount());
+    }
+
+    @Test
+    void injectsRateLimits() throws Exception {
+        standIn = StripeStandIn.start(options(1, null, null));
+
+        assertThrows(RateLimitException.class, () -> client().paymentIntents().create(paymentIntent()));
+    }
+
+    @Test
+    void settlesPaymentIntentsWithSignedWebhooks() throws Exception {
+        BlockingQueue<Map.Entry<String, String>> received = new ArrayBlockingQueue<>(10);
+        webhooks = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        webhooks.createContext("/stripe/webhook", exchange -> {
+            received.add(Map.entry(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8),
+                    exchange.getRequestHeaders().getFirst("Stripe-Signature")));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        webhooks.start();
+        standIn = StripeStandIn.start(options(0,
+                URI.create("http://localhost:" + webhooks.getAddress().getPort() + "/stripe/webhook"), "whsec_tests"));
+
+        PaymentIntent intent = client().paymentIntents().create(paymentIntent());
+        Map.Entry<String, String> webhook = received.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(webhook);
+        Event event = Webhook.constructEvent(webhook.getKey(), webhook.getValue(), "whsec_tests");
+        assertEquals("payment_intent.succeeded", event.getType());
+        PaymentIntent settled = (PaymentIntent) event.getDataObjectDeserializer().deserializeUnsafe();
+        assertEquals(intent.getId(), settled.getId());
+        assertEquals("succeeded", settled.getStatus());
+    }
+
+    private static StripeStandIn.Options options(double rateLimited, URI webhookUrl, String webhookSecret) {
+        return new StripeStandIn.Options(0, NONE, Map.of(), 0, rateLimited, 0, webhookUrl, webhookSecret,
+                Duration.ofMillis(10), 0);
+    }
+
+    private StripeClient client() {
+        return new StripeClientConfig().stripeClient("sk_test_standin", standIn.apiBase(), Duration.ofSeconds(5),
+                Duration.ofSeconds(30), 0, Duration.ofMinutes(5), 64, HttpClient.Version.HTTP_1_1, Duration.ofMillis(500),
+                Duration.ofSeconds(5), Duration.ZERO, 10_000, StripeClientBenchmark.unlimited(), StripeClientBenchmark.neverOpen(),
+                new SimpleMeterRegistry());
+    }
+
+    private static PaymentIntentCreateParams paymentIntent() {
+        return PaymentIntentCreateParams.builder()
+                .setAmount(1000L)
+                .setCurrency("usd")
+                .setCustomer("cus_1")
+                .addPaymentMethodType("us_bank_account")
+                .setPaymentMethod("pm_1")
+                .setConfirm(true)
+                .build();
+    }
+}
@@ -0,0 +1,193 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.inata.stripe.test.paymentGateway.StripePaymentController;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeCircuitBreaker;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeClientConfig;
+import com.inata.stripe.test.paymentGateway.stripeclient.StripeRateLimiter;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Platform versus virtual request threads ({@code spring.threads.virtual.enabled}) at rising concurrency, against
+ * the {@link StripeStandIn} with injected latency.
+ * <p>
+ * Each mode boots the web layer with {@link StripePaymentController} and the {@code StripeClient} bean (no database,
+ * so it runs anywhere) and sends {@code POST /payment/create-checkout-session}, one Stripe round trip per request,
+ * from {@code level} clients in a closed loop for {@code duration} seconds after {@code warmup} seconds, for every
+ * level of {@code levels}. Platform threads cap throughput at about {@code 200 / latency}; virtual threads should
+ * keep it growing with concurrency until the CPU is the limit.
+ * <p>
+ * Pinned virtual threads ({@code jdk.VirtualThreadPinned}, blocked over 5 ms inside {@code synchronized} or
+ * native code) are recorded with JFR and reported with the frame that pinned them. High levels need about four file
+ * descriptors per client in this one process ({@code ulimit -n}):
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.main=com.inata.stripe.test.paymentGateway.loadgen.VirtualThreadBenchmark \
+ *     -Dbench.levels=100,1000,10000 -Dstandin.latency=500/1500
+ * </pre>
+ */
+public class VirtualThreadBenchmark {
+
+    private final StripeStandIn stripe;
+
+    private final Duration warmup;
+
+    private final Duration duration;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    private record Measured(LatencyRecorder latencies, Map<Integer, LongAdder> statuses, LongAdder errors) {
+    }
+
+    /**
+     * Deliberately not a {@code @Configuration}: the application's component scan would pick it up, and its
+     * exclusions with it, whenever the test classes are on the classpath.
+     */
+    @EnableAutoConfiguration(exclude = {DataSourceAutoConfiguration.class, DataSourceTransactionManagerAutoConfiguration.class,
+            HibernateJpaAutoConfiguration.class, MongoAutoConfiguration.class, MongoDataAutoConfiguration.class,
+            MongoRepositoriesAutoConfiguration.class})
+    @Import({StripePaymentController.class, StripeClientConfig.class, StripeRateLimiter.class, StripeCircuitBreaker.class})
+    static class CheckoutApplication {
+    }
+
+    private VirtualThreadBenchmark(StripeStandIn stripe, Duration warmup, Duration duration) {
+        this.stripe = stripe;
+        this.warmup = warmup;
+        this.duration = duration;
+    }
+
+    public static void main(String[] args) throws Exception {
+        StripeStandIn.Options options = StripeStandIn.Options.fromSystemProperties();
+        if (System.getProperty("standin.latency") == null) {
+            options = new StripeStandIn.Options(options.port(), StripeStandIn.Latency.parse("500/1500"), options.latencies(),
+                    options.rateLimit(), options.rateLimited(), options.errorRate(), null, null, options.webhookDelay(), 0);
+        }
+        List<Integer> levels = Arrays.stream(System.getProperty("bench.levels", "100,1000,10000").split(","))
+                .map(String::trim).map(Integer::valueOf).toList();
+
+        try (StripeStandIn stripe = StripeStandIn.start(options)) {
+            VirtualThreadBenchmark benchmark = new VirtualThreadBenchmark(stripe,
+                    Duration.ofSeconds(Integer.getInteger("bench.warmup", 5)), Duration.ofSeconds(Integer.getInteger("bench.duration", 20)));
+            System.out.printf("Checkout sessions at %s concurrent requests, Stripe latency %s, %ds per level after %ds warm-up%n",
+                    levels, options.latency(), benchmark.duration.toSeconds(), benchmark.warmup.toSeconds());
+            for (boolean virtual : new boolean[]{false, true}) {
+                benchmark.run(virtual, levels);
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run(boolean virtual, List<Integer> levels) throws Exception {
+        int port = freePort();
+        // Arguments, so they win over application.properties
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CheckoutApplication.class).run(
+                "--server.port=" + port,
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--stripe.api.key=sk_test_standin",
+                "--stripe.client.api-base=" + stripe.apiBase(),
+                "--stripe.client.http-version=HTTP_1_1",
+                // Measure the request threads, not the client-side rate limit
+                "--stripe.client.rate-limit.global-per-second=1000000",
+                "--stripe.client.rate-limit.global-burst=1000000",
+                "--logging.level.root=WARN");
+        Map<String, LongAdder> pinned = new ConcurrentHashMap<>();
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(5)).withStackTrace();
+            recording.onEvent("jdk.VirtualThreadPinned", event -> {
+                List<RecordedFrame> frames = event.getStackTrace() != null ? event.getStackTrace().getFrames() : List.of();
+                String frame = frames.stream()
+                        .filter(candidate -> !candidate.getMethod().getType().getName().matches("(java|jdk|sun)\\..*"))
+                        .findFirst()
+                        .map(candidate -> candidate.getMethod().getType().getName() + "." + candidate.getMethod().getName())
+                        .orElse("(unknown)");
+                pinned.computeIfAbsent(frame, key -> new LongAdder()).increment();
+            });
+            recording.startAsync();
+
+            URI url = URI.create("http://localhost:" + port + "/payment/create-checkout-session");
+            for (int level : levels) {
+                load(url, level, warmup, null);
+                Measured measured = new Measured(new LatencyRecorder(2_000_000), new ConcurrentHashMap<>(), new LongAdder());
+                load(url, level, duration, measured);
+
+                long[] p = measured.latencies().percentiles();
+                System.out.printf("%-8s %6d concurrent: %7.0f req/s, HTTP %s, %d errors; latency (ms) p50=%.0f p99=%.0f max=%.0f%n",
+                        virtual ? "virtual" : "platform", level, measured.latencies().count() / (double) duration.toSeconds(),
+                        measured.statuses(), measured.errors().sum(), p[0] / 1000.0, p[2] / 1000.0, p[4] / 1000.0);
+            }
+            recording.stop();
+        } finally {
+            context.close();
+        }
+        System.out.printf("  pinned virtual threads (> 5 ms): %s%n", pinned.isEmpty() ? "none" : pinned);
+    }
+
+    /**
+     * {@code level} clients sending checkout requests back to back for {@code length}; measured unless
+     * {@code measured} is null (warm-up).
+     */
+    private void load(URI url, int level, Duration length, Measured measured) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(url)
+                .timeout(Duration.ofSeconds(120))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("""
+                        {"amount": 25, "currency": "usd", "orderId": "bench", "userId": "1", "email": "bench@example.com"}"""))
+                .build();
+        long deadline = System.nanoTime() + length.toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < level; client++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long started = System.nanoTime();
+                        try {
+                            int status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            if (measured != null && System.nanoTime() < deadline) {
+                                measured.latencies().record(System.nanoTime() - started);
+                                measured.statuses().computeIfAbsent(status, key -> new LongAdder()).increment();
+                            }
+                        } catch (IOException e) {
+                            if (measured != null) {
+                                measured.errors().increment();
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds Stripe-shaped {@code payment_intent.*}, {@code charge.*} and {@code payout.*} events.
+ * Object ids are drawn from a fixed pool so several events hit the same PaymentIntent or Payout,
+ * which exercises per-object ordering and the status state machine.
+ */
+public class WebhookEventFactory {
+
+    record Weighted(String type, int weight) {
+    }
+
+    static final List<Weighted> DEFAULT_MIX = List.of(
+            new Weighted("payment_intent.succeeded", 30),
+            new Weighted("payment_intent.payment_failed", 5),
+            new Weighted("payment_intent.canceled", 2),
+            new Weighted("charge.succeeded", 30),
+            new Weighted("charge.failed", 3),
+            new Weighted("charge.refunded", 2),
+            new Weighted("payout.paid", 20),
+            new Weighted("payout.failed", 5),
+            new Weighted("payout.canceled", 3));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final List<Weighted> mix;
+
+    private final int totalWeight;
+
+    private final int objectPoolSize;
+
+    private final String runId;
+
+    public WebhookEventFactory(List<Weighted> mix, int objectPoolSize, String runId) {
+        this.mix = mix;
+        this.totalWeight = mix.stream().mapToInt(Weighted::weight).sum();
+        this.objectPoolSize = objectPoolSize;
+        this.runId = runId;
+    }
+
+    /**
+     * Id of the PaymentIntent ({@code pi_}) or Payout ({@code po_}) with the given pool index.
+     */
+    public String objectId(String prefix, int index) {
+        return prefix + "_lg" + runId + "x" + index;
+    }
+
+    public int objectPoolSize() {
+        return objectPoolSize;
+    }
+
+    public String nextEvent() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String type = pickType(random.nextInt(totalWeight));
+        int index = random.nextInt(objectPoolSize);
+        long created = System.currentTimeMillis() / 1000;
+
+        ObjectNode object = switch (type.substring(0, type.indexOf('.'))) {
+            case "payment_intent" -> paymentIntent(type, objectId("pi", index), created);
+            case "charge" -> charge(type, objectId("pi", index), created);
+            default -> payout(type, objectId("po", index), created);
+        };
+
+        ObjectNode event = objectMapper.createObjectNode();
+        event.put("id", "evt_lg" + runId + "x" + sequence.incrementAndGet());
+        event.put("object", "event");
+        event.put("api_version", "2025-04-30.basil");
+        event.put("created", created);
+        event.putObject("data").set("object", object);
+        event.put("livemode", false);
+        event.put("pending_webhooks", 1);
+        event.putObject("request").putNull("id").putNull("idempotency_key");
+        event.put("type", type);
+        return event.toPrettyString();
+    }
+
+    private String pickType(int roll) {
+        for (Weighted weighted : mix) {
+            roll -= weighted.weight();
+            if (roll < 0) {
+                return weighted.type();
+            }
+        }
+        return mix.getLast().type();
+    }
+
+    private ObjectNode paymentIntent(String type, String id, long created) {
+        ObjectNode intent = objectMapper.createObjectNode();
+        intent.put("id", id);
+        intent.put("object", "payment_intent");
+        intent.put("amount", amount());
+        intent.put("currency", "usd");
+        intent.put("customer", "cus_loadgen");
+        intent.put("created", created);
+        intent.put("payment_method", "pm_loadgen");
+        intent.putArray("payment_method_types").add("us_bank_account");
+        intent.putObject("metadata");
+        switch (type) {
+            case "payment_intent.succeeded" -> intent.put("status", "succeeded");
+            case "payment_intent.canceled" -> intent.put("status", "canceled").put("cancellation_reason", "requested_by_customer");
+            default -> {
+                intent.put("status", "requires_payment_method");
+                intent.putObject("last_payment_error")
+                        .put("code", "payment_method_microdeposit_verification_attempts_exceeded")
+                        .putNull("network_decline_code")
+                        .put("message", "The bank account could not be debited.");
+            }
+        }
+        return intent;
+    }
+
+    private ObjectNode charge(String type, String paymentIntentId, long created) {
+        ObjectNode charge = objectMapper.createObjectNode();
+        charge.put("id", "py_lg" + runId + "x" + sequence.incrementAndGet());
+        charge.put("object", "charge");
+        charge.put("amount", amount());
+        charge.put("currency", "usd");
+        charge.put("created", created);
+        charge.put("payment_intent", paymentIntentId);
+        charge.put("paid", !type.equals("charge.failed"));
+        charge.put("refunded", type.equals("charge.refunded"));
+        charge.put("status", type.equals("charge.failed") ? "failed" : "succeeded");
+        if (type.equals("charge.failed")) {
+            charge.put("failure_code", "insufficient_funds");
+            charge.put("failure_message", "The account has insufficient funds to cover this payment.");
+        }
+        return charge;
+    }
+
+    private ObjectNode payout(String type, String id, long created) {
+        ObjectNode payout = objectMapper.createObjectNode();
+        payout.put("id", id);
+        payout.put("object", "payout");
+        payout.put("amount", amount());
+        payout.put("currency", "usd");
+        payout.put("created", created);
+        payout.put("arrival_date", created + 86400);
+        payout.put("destination", "ba_loadgen");
+        payout.put("method", "instant");
+        payout.put("type", "bank_account");
+        switch (type) {
+            case "payout.paid" -> payout.put("status", "paid");
+            case "payout.canceled" -> payout.put("status", "canceled");
+            default -> payout.put("status", "failed").put("failure_code", "account_closed");
+        }
+        return payout;
+    }
+
+    private static long amount() {
+        return ThreadLocalRandom.current().nextLong(100, 500_000);
+    }
+}
@@ -0,0 +1,254 @@
+package com.inata.stripe.test.paymentGateway.loadgen;
+
+import com.stripe.net.Webhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for {@code POST /stripe/webhook}.
+ * <p>
+ * Sends synthetic events at a fixed rate, signed exactly like Stripe ({@code t=<ts>,v1=HMAC-SHA256(secret, "<ts>.<body>")})
+ * with {@code stripe.webhook.secret} from {@code application.properties} unless overridden. Latency is measured from
+ * the moment a request was scheduled, so a saturated server shows up in the percentiles instead of silently lowering
+ * the send rate. Everything runs locally: point it at the app running against local Postgres/Mongo.
+ * <pre>
+ * ./mvnw -Ploadgen test-compile exec:java -Dloadgen.rate=1000 -Dloadgen.concurrency=256 -Dloadgen.duration=60
+ * </pre>
+ * Options ({@code -Dloadgen.*}): {@code url}, {@code secret}, {@code rate} (events/s), {@code concurrency} (max in flight),
+ * {@code duration} (s, measured), {@code warmup} (s, sent but not measured), {@code objects} (distinct PaymentIntents/Payouts), {@code duplicates} (fraction re-sent as
+ * Stripe retries), and {@code jdbc-url}/{@code jdbc-user}/{@code jdbc-password} to seed pending transactions for
+ * the generated objects so status transitions really hit Postgres.
+ */
+public class WebhookLoadGenerator {
+
+    private final URI url;
+
+    private final String secret;
+
+    private final int rate;
+
+    private final int concurrency;
+
+    private final Duration duration;
+
+    private final Duration warmup;
+
+    private final double duplicates;
+
+    private final WebhookEventFactory eventFactory;
+
+    private final HttpClient httpClient;
+
+    private final LatencyRecorder latencies;
+
+    private final Map<Integer, LongAdder> statusCounts = new ConcurrentSkipListMap<>();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final AtomicReference<String> lastEvent = new AtomicReference<>();
+
+    public WebhookLoadGenerator(URI url, String secret, int rate, int concurrency, Duration duration,
+                                Duration warmup, double duplicates, WebhookEventFactory eventFactory) {
+        this.url = url;
+        this.secret = secret;
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.warmup = warmup;
+        this.duplicates = duplicates;
+        this.eventFactory = eventFactory;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.latencies = new LatencyRecorder((int) Math.min(Integer.MAX_VALUE - 8, (long) rate * duration.toSeconds() + 1));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String runId = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36);
+        WebhookEventFactory eventFactory = new WebhookEventFactory(
+                WebhookEventFactory.DEFAULT_MIX, Integer.getInteger("loadgen.objects", 10_000), runId);
+
+        String jdbcUrl = System.getProperty("loadgen.jdbc-url");
+        if (jdbcUrl != null) {
+            seedPendingTransactions(eventFactory, jdbcUrl,
+                    System.getProperty("loadgen.jdbc-user", "postgres"), System.getProperty("loadgen.jdbc-password", "postgres"));
+        }
+
+        WebhookLoadGenerator generator = new WebhookLoadGenerator(
+                URI.create(System.getProperty("loadgen.url", "http://localhost:8080/stripe/webhook")),
+                System.getProperty("loadgen.secret", configuredSecret()),
+                Integer.getInteger("loadgen.rate", 200),
+                Integer.getInteger("loadgen.concurrency", 64),
+                Duration.ofSeconds(Integer.getInteger("loadgen.duration", 60)),
+                Duration.ofSeconds(Integer.getInteger("loadgen.warmup", 5)),
+                Double.parseDouble(System.getProperty("loadgen.duplicates", "0.0")),
+                eventFactory);
+        generator.run();
+        System.exit(0);
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("Sending %d events/s to %s for %ds after %ds of warm-up (max %d in flight)%n",
+                rate, url, duration.toSeconds(), warmup.toSeconds(), concurrency);
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long warmupNanos = warmup.toNanos();
+        long durationNanos = warmupNanos + duration.toNanos();
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicLong sent = new AtomicLong();
+
+        Thread progress = Thread.ofVirtual().start(() -> reportProgress(sent));
+        long start = System.nanoTime();
+        long measuredFrom = start + warmupNanos;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long scheduledAt = start + i * intervalNanos;
+                if (scheduledAt - start >= durationNanos) {
+                    break;
+                }
+                long wait = scheduledAt - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                inFlight.acquire();
+                sent.incrementAndGet();
+                executor.submit(() -> {
+                    try {
+                        send(scheduledAt, scheduledAt - measuredFrom >= 0);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        long elapsedNanos = System.nanoTime() - measuredFrom;
+        progress.interrupt();
+
+        report(elapsedNanos);
+    }
+
+    private void send(long scheduledAt, boolean measured) {
+        String previous = lastEvent.get();
+        String payload = previous != null && ThreadLocalRandom.current().nextDouble() < duplicates
+                ? previous
+                : eventFactory.nextEvent();
+        lastEvent.set(payload);
+
+        try {
+            long timestamp = Webhook.Util.getTimeNow();
+            String signature = Webhook.Util.computeHmacSha256(secret, timestamp + "." + payload);
+            HttpRequest request = HttpRequest.newBuilder(url)
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .header("Stripe-Signature", "t=" + timestamp + ",v1=" + signature)
+                    .POST(HttpRequest.BodyPublishers.ofString(payload))
+                    .build();
+
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            if (!measured) {
+                return;
+            }
+            latencies.record(System.nanoTime() - scheduledAt);
+            statusCounts.computeIfAbsent(response.statusCode(), code -> new LongAdder()).increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (measured) {
+                errors.increment();
+            }
+        }
+    }
+
+    private void reportProgress(AtomicLong sent) {
+        long previous = 0;
+        while (true) {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long current = latencies.count();
+            System.out.printf("  sent=%d completed=%d (%d/s) errors=%d%n", sent.get(), current, (current - previous) / 5, errors.sum());
+            previous = current;
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        long[] p = latencies.percentiles();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("Completed %d requests in %.1fs: %.0f req/s (target %d/s), %d transport errors%n",
+                latencies.count(), seconds, latencies.count() / seconds, rate, errors.sum());
+        statusCounts.forEach((status, count) -> System.out.printf("  HTTP %d: %d%n", status, count.sum()));
+        System.out.printf("Latency (ms): p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                p[0] / 1000.0, p[1] / 1000.0, p[2] / 1000.0, p[3] / 1000.0, p[4] / 1000.0);
+    }
+
+    /**
+     * Inserts a pending deposit for every PaymentIntent id and a pending withdrawal for every Payout id in the pool.
+     */
+    private static void seedPendingTransactions(WebhookEventFactory eventFactory, String jdbcUrl, String user, String password) throws Exception {
+        String sql = "INSERT INTO stripe_transactions (trans_id, user_id, payment_method_id, transaction_type, amount, status, "
+                + "created_at, updated_at, version) VALUES (?, ?, ?, ?, ?, 'pending', ?, ?, 0) ON CONFLICT (trans_id) DO NOTHING";
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, user, password);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            connection.setAutoCommit(false);
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            for (int i = 0; i < eventFactory.objectPoolSize(); i++) {
+                for (String prefix : new String[]{"pi", "po"}) {
+                    statement.setString(1, eventFactory.objectId(prefix, i));
+                    statement.setInt(2, 1_000_000 + i % 1000);
+                    statement.setString(3, prefix.equals("pi") ? "pm_loadgen" : "ba_loadgen");
+                    statement.setString(4, prefix.equals("pi") ? "deposit" : "withdraw");
+                    statement.setBigDecimal(5, BigDecimal.valueOf(100, 2));
+                    statement.setTimestamp(6, now);
+                    statement.setTimestamp(7, now);
+                    statement.addBatch();
+                }
+                if (i % 500 == 499) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+        System.out.printf("Seeded %d pending transactions%n", eventFactory.objectPoolSize() * 2);
+    }
+
+    private static String configuredSecret() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = WebhookLoadGenerator.class.getResourceAsStream("/application.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        }
+        return properties.getProperty("stripe.webhook.secret", "whsec_test");
+    }
+}
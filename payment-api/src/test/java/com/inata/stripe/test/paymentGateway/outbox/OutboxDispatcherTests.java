@@ -0,0 +1,119 @@
+package com.inata.stripe.test.paymentGateway.outbox;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.InvalidRequestException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboxDispatcherTests {
+
+    private final OutboxRepository repository = mock(OutboxRepository.class);
+
+    private final List<String> compensated = new ArrayList<>();
+
+    private OutboxDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(repository.finish(anyString(), anyInt(), any(), any(), any(), any(), any(), any())).thenReturn(1);
+
+        dispatcher = new OutboxDispatcher(repository, transactionManager, new SimpleMeterRegistry(), 1);
+        ReflectionTestUtils.setField(dispatcher, "lease", Duration.ofMinutes(2));
+        // The first attempt is the last one
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 1);
+    }
+
+    @Test
+    void compensatesWhatStripeRefused() {
+        register(entry -> {
+            throw new InvalidRequestException("Insufficient funds", null, "req_1", "balance_insufficient", 400, null);
+        });
+        OutboxEntry entry = new OutboxEntry(OutboxType.WITHDRAWAL_TRANSFER, 1);
+
+        assertThrows(InvalidRequestException.class, () -> dispatcher.execute(entry));
+
+        assertEquals(OutboxStatus.FAILED, entry.getStatus());
+        assertEquals(1, compensated.size());
+    }
+
+    @Test
+    void parksAnUnknownOutcomeOutOfAttemptsWithoutCompensating() {
+        register(entry -> {
+            throw new ApiConnectionException("Read timed out");
+        });
+        OutboxEntry entry = new OutboxEntry(OutboxType.WITHDRAWAL_PAYOUT, 1);
+
+        assertThrows(OutboxPendingException.class, () -> dispatcher.execute(entry));
+
+        assertEquals(OutboxStatus.PARKED, entry.getStatus());
+        assertEquals(List.of(), compensated);
+        verify(repository).finish(eq(entry.getId()), eq(1), eq(OutboxStatus.SENDING), eq(OutboxStatus.PARKED), isNull(),
+                eq("Read timed out"), any(), any());
+    }
+
+    @Test
+    void parksWhatFailedAfterTheCallWithoutCompensating() {
+        register(entry -> {
+            // e.g. Stripe's answer could not be read
+            throw new IllegalStateException("Expected BEGIN_OBJECT but was BEGIN_ARRAY");
+        });
+        OutboxEntry entry = new OutboxEntry(OutboxType.WITHDRAWAL_PAYOUT, 1);
+
+        assertThrows(IllegalStateException.class, () -> dispatcher.execute(entry));
+
+        assertEquals(OutboxStatus.PARKED, entry.getStatus());
+        assertEquals(List.of(), compensated);
+    }
+
+    @Test
+    void leavesAParkedEntryToBeCheckedOnAClientRetry() {
+        List<OutboxEntry> sent = new ArrayList<>();
+        register(entry -> {
+            sent.add(entry);
+            return "tr_1";
+        });
+        OutboxEntry parked = new OutboxEntry(OutboxType.WITHDRAWAL_TRANSFER, 1);
+        parked.setId("op_1");
+        parked.setRequestKey("withdraw:key-1");
+        parked.setStatus(OutboxStatus.PARKED);
+        when(repository.findByRequestKey("withdraw:key-1")).thenReturn(Optional.of(parked));
+        OutboxEntry retry = new OutboxEntry(OutboxType.WITHDRAWAL_TRANSFER, 1);
+        retry.setRequestKey("withdraw:key-1");
+
+        OutboxPendingException pending = assertThrows(OutboxPendingException.class, () -> dispatcher.execute(retry));
+
+        assertEquals("op_1", pending.getOperationId());
+        assertEquals(List.of(), sent);
+        verify(repository, never()).claim(any(), any(), any(), any(), any());
+    }
+
+    private void register(OutboxHandler.Sender<Object> sender) {
+        OutboxHandler<Object> handler = OutboxHandler.of(sender, (entry, result) -> "tr_1",
+                (entry, error) -> compensated.add(error));
+        dispatcher.register(OutboxType.WITHDRAWAL_TRANSFER, handler);
+        dispatcher.register(OutboxType.WITHDRAWAL_PAYOUT, handler);
+    }
+}
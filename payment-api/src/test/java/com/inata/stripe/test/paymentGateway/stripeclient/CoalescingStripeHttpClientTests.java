@@ -0,0 +1,127 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.ApiMode;
+import com.stripe.net.ApiResource;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CoalescingStripeHttpClientTests {
+
+    private final HttpClient delegate = mock(HttpClient.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void givesConcurrentIdenticalReadsTheResponseOfOneCall() throws Exception {
+        CoalescingStripeHttpClient client = new CoalescingStripeHttpClient(delegate, Duration.ZERO, 100, meterRegistry);
+        StripeResponse response = new StripeResponse(200, HttpHeaders.of(Map.of()), "{\"id\": \"acct_1\"}");
+        when(delegate.requestWithRetries(any())).thenAnswer(call -> {
+            release.await(5, TimeUnit.SECONDS);
+            return response;
+        });
+
+        CompletableFuture<StripeResponse> first = read(client, "acct_1");
+        CompletableFuture<StripeResponse> joined = read(client, "acct_1");
+        awaitJoined();
+        release.countDown();
+
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+        assertSame(response, joined.get(5, TimeUnit.SECONDS));
+        verify(delegate, times(1)).requestWithRetries(any());
+    }
+
+    @Test
+    void givesConcurrentIdenticalReadsTheExceptionOfOneCall() throws Exception {
+        CoalescingStripeHttpClient client = new CoalescingStripeHttpClient(delegate, Duration.ZERO, 100, meterRegistry);
+        ApiConnectionException failure = new ApiConnectionException("Read timed out");
+        when(delegate.requestWithRetries(any())).thenAnswer(call -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw failure;
+        });
+
+        CompletableFuture<StripeResponse> first = read(client, "acct_1");
+        CompletableFuture<StripeResponse> joined = read(client, "acct_1");
+        awaitJoined();
+        release.countDown();
+
+        assertSame(failure, assertThrows(CompletionException.class, first::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, joined::join).getCause());
+        verify(delegate, times(1)).requestWithRetries(any());
+    }
+
+    @Test
+    void keepsReadsOfDifferentResourcesApart() throws Exception {
+        CoalescingStripeHttpClient client = new CoalescingStripeHttpClient(delegate, Duration.ZERO, 100, meterRegistry);
+        when(delegate.requestWithRetries(any())).thenReturn(new StripeResponse(200, HttpHeaders.of(Map.of()), "{}"));
+
+        client.requestWithRetries(get("acct_1"));
+        client.requestWithRetries(get("acct_2"));
+
+        verify(delegate, times(2)).requestWithRetries(any());
+    }
+
+    @Test
+    void dropsAKeptReadWhenTheResourceIsWritten() throws Exception {
+        CoalescingStripeHttpClient client = new CoalescingStripeHttpClient(delegate, Duration.ofMinutes(1), 100, meterRegistry);
+        when(delegate.requestWithRetries(any())).thenReturn(new StripeResponse(200, HttpHeaders.of(Map.of()), "{}"));
+
+        client.requestWithRetries(get("acct_1"));
+        client.requestWithRetries(get("acct_1"));
+        verify(delegate, times(1)).requestWithRetries(any());
+
+        client.requestWithRetries(StripeRequest.create(ApiResource.RequestMethod.POST,
+                "https://api.stripe.com/v1/accounts/acct_1/external_accounts", Map.of("external_account", "btok_1"), options(), ApiMode.V1));
+        client.requestWithRetries(get("acct_1"));
+        verify(delegate, times(3)).requestWithRetries(any());
+    }
+
+    private static CompletableFuture<StripeResponse> read(CoalescingStripeHttpClient client, String account) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.requestWithRetries(get(account));
+            } catch (StripeException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private void awaitJoined() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.find("stripe.api.reads").tag("outcome", "joined").counter() == null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static StripeRequest get(String account) throws StripeException {
+        return StripeRequest.create(ApiResource.RequestMethod.GET, "https://api.stripe.com/v1/accounts/" + account, Map.of(),
+                options(), ApiMode.V1);
+    }
+
+    private static RequestOptions options() {
+        return RequestOptions.builder().setApiKey("sk_test_1").build();
+    }
+}
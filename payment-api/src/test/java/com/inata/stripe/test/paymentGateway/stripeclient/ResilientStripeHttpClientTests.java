@@ -0,0 +1,145 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.ApiMode;
+import com.stripe.net.ApiResource;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResilientStripeHttpClientTests {
+
+    private final HttpClient delegate = mock(HttpClient.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final StripeCircuitBreaker circuitBreaker = new StripeCircuitBreaker(meterRegistry, 10, 10, 0.5, Duration.ofHours(1), 1);
+
+    private final ResilientStripeHttpClient client = new ResilientStripeHttpClient(delegate,
+            new StripeRateLimiter(meterRegistry, 1e9, 1_000_000, 1e9, 1_000_000, Duration.ZERO, 1), circuitBreaker,
+            Duration.ofMillis(1), Duration.ofMillis(10), meterRegistry);
+
+    @Test
+    void retriesAnIdempotentPostAfterAConnectionFailure() throws StripeException {
+        StripeRequest request = post("idem-1");
+        when(delegate.request(any())).thenThrow(new ApiConnectionException("Read timed out")).thenReturn(response(200));
+
+        assertEquals(200, client.requestWithRetries(request).code());
+
+        verify(delegate, times(2)).request(request);
+        assertEquals(1, meterRegistry.counter("stripe.api.retries", "reason", "connection").count());
+    }
+
+    @Test
+    void resendsAPostUnderTheKeyStripeJavaGaveIt() throws StripeException {
+        StripeRequest request = post(null);
+        when(delegate.request(any())).thenThrow(new ApiConnectionException("Read timed out")).thenReturn(response(200));
+
+        assertEquals(200, client.requestWithRetries(request).code());
+
+        assertTrue(request.headers().firstValue("Idempotency-Key").isPresent());
+        verify(delegate, times(2)).request(request);
+    }
+
+    @Test
+    void retriesAReadOnAServerError() throws StripeException {
+        StripeRequest request = get();
+        when(delegate.request(any())).thenReturn(response(503), response(200));
+
+        assertEquals(200, client.requestWithRetries(request).code());
+
+        verify(delegate, times(2)).request(request);
+    }
+
+    @Test
+    void returnsAClientErrorWithoutRetrying() throws StripeException {
+        StripeRequest request = post("idem-1");
+        when(delegate.request(any())).thenReturn(response(402));
+
+        assertEquals(402, client.requestWithRetries(request).code());
+
+        verify(delegate, times(1)).request(request);
+    }
+
+    @Test
+    void letsStripeVetoARetry() throws StripeException {
+        StripeRequest request = post("idem-1");
+        when(delegate.request(any())).thenReturn(response(500, "Stripe-Should-Retry", "false"));
+
+        assertEquals(500, client.requestWithRetries(request).code());
+
+        verify(delegate, times(1)).request(request);
+    }
+
+    @Test
+    void givesUpAfterMaxNetworkRetries() throws StripeException {
+        StripeRequest request = get();
+        when(delegate.request(any())).thenReturn(response(502));
+
+        assertEquals(502, client.requestWithRetries(request).code());
+
+        verify(delegate, times(3)).request(request);
+    }
+
+    @Test
+    void refusesCallsWithoutSendingThemWhileTheBreakerIsOpen() throws StripeException {
+        StripeRequest request = get();
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.record(circuitBreaker.acquire(), true);
+        }
+
+        assertThrows(StripeUnavailableException.class, () -> client.requestWithRetries(request));
+
+        verify(delegate, never()).request(any());
+    }
+
+    @Test
+    void refusesACallTheRateLimiterWouldHoldBeyondMaxWait() throws Exception {
+        // One call a second, no burst, no waiting
+        StripeRateLimiter rateLimiter = new StripeRateLimiter(meterRegistry, 1, 1, 1, 1, Duration.ZERO, 10);
+
+        rateLimiter.acquire(null);
+        assertThrows(StripeUnavailableException.class, () -> rateLimiter.acquire(null));
+        // A connected account's calls also need a platform token
+        assertThrows(StripeUnavailableException.class, () -> rateLimiter.acquire("acct_1"));
+        assertEquals(2, meterRegistry.counter("stripe.rate_limiter.rejected", "scope", "global").count());
+    }
+
+    private static StripeRequest get() throws StripeException {
+        return StripeRequest.create(ApiResource.RequestMethod.GET, "https://api.stripe.com/v1/accounts/acct_1", Map.of(),
+                options(null), ApiMode.V1);
+    }
+
+    private static StripeRequest post(String idempotencyKey) throws StripeException {
+        return StripeRequest.create(ApiResource.RequestMethod.POST, "https://api.stripe.com/v1/transfers", Map.of("amount", 100),
+                options(idempotencyKey), ApiMode.V1);
+    }
+
+    private static RequestOptions options(String idempotencyKey) {
+        return RequestOptions.builder().setApiKey("sk_test_1").setMaxNetworkRetries(2).setIdempotencyKey(idempotencyKey).build();
+    }
+
+    private static StripeResponse response(int code, String... headers) {
+        Map<String, List<String>> values = headers.length == 2 ? Map.of(headers[0], List.of(headers[1])) : Map.of();
+        return new StripeResponse(code, HttpHeaders.of(values), "{}");
+    }
+}
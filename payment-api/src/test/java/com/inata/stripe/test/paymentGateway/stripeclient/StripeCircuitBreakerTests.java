@@ -0,0 +1,123 @@
+package com.inata.stripe.test.paymentGateway.stripeclient;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripeCircuitBreakerTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void opensOnceEnoughOfTheLastCallsFailed() throws StripeUnavailableException {
+        StripeCircuitBreaker breaker = breaker(Duration.ofHours(1));
+
+        call(breaker, true);
+        call(breaker, true);
+        call(breaker, false);
+        // 2 of 3 failed, but fewer than min-calls are in
+        assertEquals(StripeCircuitBreaker.State.CLOSED, breaker.state());
+        call(breaker, false);
+
+        assertEquals(StripeCircuitBreaker.State.OPEN, breaker.state());
+        StripeUnavailableException refused = assertThrows(StripeUnavailableException.class, breaker::acquire);
+        assertTrue(refused.getRetryAfter().compareTo(Duration.ofMinutes(59)) > 0);
+        assertEquals(1, meterRegistry.counter("stripe.circuit_breaker.rejected").count());
+    }
+
+    @Test
+    void closesWhenEveryHalfOpenProbeSucceeds() throws StripeUnavailableException {
+        StripeCircuitBreaker breaker = breaker(Duration.ZERO);
+        trip(breaker);
+
+        long first = breaker.acquire();
+        assertEquals(StripeCircuitBreaker.State.HALF_OPEN, breaker.state());
+        long second = breaker.acquire();
+        // Both probes are out
+        assertThrows(StripeUnavailableException.class, breaker::acquire);
+
+        breaker.record(first, false);
+        assertEquals(StripeCircuitBreaker.State.HALF_OPEN, breaker.state());
+        breaker.record(second, false);
+        assertEquals(StripeCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void opensAgainWhenAProbeFails() throws StripeUnavailableException {
+        StripeCircuitBreaker breaker = breaker(Duration.ofMillis(20));
+        trip(breaker);
+        assertThrows(StripeUnavailableException.class, breaker::acquire);
+
+        awaitHalfOpen(breaker);
+        breaker.record(breaker.acquire(), true);
+
+        assertEquals(StripeCircuitBreaker.State.OPEN, breaker.state());
+        assertThrows(StripeUnavailableException.class, breaker::acquire);
+    }
+
+    @Test
+    void givesBackAProbeThatWasNotSent() throws StripeUnavailableException {
+        StripeCircuitBreaker breaker = breaker(Duration.ZERO);
+        trip(breaker);
+
+        long first = breaker.acquire();
+        breaker.acquire();
+        breaker.cancel(first);
+
+        breaker.acquire();
+        assertEquals(StripeCircuitBreaker.State.HALF_OPEN, breaker.state());
+    }
+
+    @Test
+    void ignoresOutcomesOfCallsLetThroughBeforeTheBreakerOpened() throws StripeUnavailableException {
+        StripeCircuitBreaker breaker = breaker(Duration.ZERO);
+        long late = breaker.acquire();
+        trip(breaker);
+
+        long probe = breaker.acquire();
+        breaker.record(late, true);
+        assertEquals(StripeCircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        breaker.record(probe, false);
+        breaker.record(breaker.acquire(), false);
+        assertEquals(StripeCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    /**
+     * Window of 10, opening at half of at least 4 calls failed, with 2 half-open probes.
+     */
+    private StripeCircuitBreaker breaker(Duration openFor) {
+        StripeCircuitBreaker breaker = new StripeCircuitBreaker(meterRegistry, 10, 4, 0.5, openFor, 2);
+        breaker.registerMetrics();
+        return breaker;
+    }
+
+    private static void trip(StripeCircuitBreaker breaker) throws StripeUnavailableException {
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true);
+        }
+        assertEquals(StripeCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private static void call(StripeCircuitBreaker breaker, boolean failure) throws StripeUnavailableException {
+        breaker.record(breaker.acquire(), failure);
+    }
+
+    private static void awaitHalfOpen(StripeCircuitBreaker breaker) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                breaker.cancel(breaker.acquire());
+                return;
+            } catch (StripeUnavailableException e) {
+                Thread.onSpinWait();
+            }
+        }
+        throw new AssertionError("The breaker never let a probe through");
+    }
+}
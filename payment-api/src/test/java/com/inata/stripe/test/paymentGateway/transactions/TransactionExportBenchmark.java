@@ -0,0 +1,63 @@
+package com.inata.stripe.test.paymentGateway.transactions;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionSummary;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionExportService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Formatting cost of {@link TransactionExportService}: rows per second written as NDJSON and CSV, without the
+ * database (rows are generated on the fly, output is discarded). The JDBC side is bounded by the fetch size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class TransactionExportBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    @Param({"NDJSON", "CSV"})
+    public TransactionExportService.Format format;
+
+    private TransactionExportService exportService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Serializes dates like Spring Boot's ObjectMapper
+        exportService = new TransactionExportService(null,
+                JsonMapper.builder().findAndAddModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build(), null);
+    }
+
+    /**
+     * Reported as operations per second; each operation writes 100k rows.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long export() throws IOException {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 0, 0);
+        return exportService.write(LongStream.range(0, ROWS).mapToObj(i -> new TransactionSummary(
+                "pi_3RA9xYHZ2xDkn2Gf" + i, (int) (i % 5000), i % 3 == 0 ? "withdraw" : "deposit",
+                BigDecimal.valueOf(125000 + i, 2), "deposited", "pm_1RA9xXHZ2xDkn2GfzWq3Lk1a",
+                "Deposit Completed", start.plusSeconds(i), start.plusSeconds(i + 90))), format, OutputStream.nullOutputStream());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TransactionExportBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,162 @@
+package com.inata.stripe.test.paymentGateway.transactions;
+
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionSummary;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction history for a user with 10k / 100k / 1M rows: the old load-everything-as-entities query versus
+ * one 50-row page, at the start and in the middle of the history, by keyset seek and (for comparison) by OFFSET.
+ * Uses the same SQL shape and index as {@code TransactionRepository.findHistory*} over plain JDBC. Needs a local
+ * Postgres ({@code -Dpg.url}, {@code -Dpg.user}, {@code -Dpg.password}); works in a throwaway
+ * {@code stripe_transactions_bench} table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class TransactionHistoryBenchmark {
+
+    private static final int USER_ID = 42;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String COLUMNS = "trans_id, user_id, transaction_type, amount, status, payment_method_id, comments, created_at, updated_at";
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private Connection connection;
+
+    private Timestamp middleCreatedAt;
+
+    private String middleTransactionId;
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        connection = DriverManager.getConnection(
+                System.getProperty("pg.url", "jdbc:postgresql://localhost:5432/postgres"),
+                System.getProperty("pg.user", "postgres"),
+                System.getProperty("pg.password", "postgres"));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS stripe_transactions_bench");
+            statement.execute("CREATE TABLE stripe_transactions_bench (trans_id varchar(255) PRIMARY KEY, user_id integer NOT NULL, "
+                    + "payment_method_id varchar(255), transaction_type varchar(255) NOT NULL, amount numeric(10,2) NOT NULL, "
+                    + "status varchar(255) NOT NULL, created_at timestamp(6) NOT NULL, updated_at timestamp(6), comments varchar(255), version bigint)");
+            statement.execute("CREATE INDEX idx_bench_user_history ON stripe_transactions_bench (user_id, created_at DESC, trans_id DESC)");
+            // The measured user, plus as many rows again for other users so the index is shared
+            statement.execute("INSERT INTO stripe_transactions_bench SELECT 'pi_bench_' || g, CASE WHEN g % 2 = 0 THEN " + USER_ID + " ELSE g END, "
+                    + "'pm_bench', CASE WHEN g % 3 = 0 THEN 'withdraw' ELSE 'deposit' END, (g % 100000) / 100.0, "
+                    + "CASE WHEN g % 10 = 0 THEN 'failed' ELSE 'deposited' END, "
+                    + "timestamp '2024-01-01' + g * interval '1 second', timestamp '2024-01-01' + g * interval '1 second', 'Deposit Completed', 1 "
+                    + "FROM generate_series(1, " + rows * 2L + ") g");
+            statement.execute("ANALYZE stripe_transactions_bench");
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("SELECT created_at, trans_id FROM stripe_transactions_bench "
+                + "WHERE user_id = ? ORDER BY created_at DESC, trans_id DESC OFFSET ? LIMIT 1")) {
+            statement.setInt(1, USER_ID);
+            statement.setInt(2, rows / 2);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                middleCreatedAt = resultSet.getTimestamp(1);
+                middleTransactionId = resultSet.getString(2);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void drop() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE stripe_transactions_bench");
+        }
+        connection.close();
+    }
+
+    /**
+     * What {@code findByUserId} did: every row, unordered, as full entities.
+     */
+    @Benchmark
+    public List<TransactionEntity> fullHistoryEntities() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM stripe_transactions_bench WHERE user_id = ?")) {
+            statement.setInt(1, USER_ID);
+            List<TransactionEntity> entities = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    entities.add(new TransactionEntity(resultSet.getString("trans_id"), resultSet.getInt("user_id"),
+                            resultSet.getString("payment_method_id"), resultSet.getString("transaction_type"),
+                            resultSet.getBigDecimal("amount"), resultSet.getString("status"),
+                            resultSet.getTimestamp("created_at").toLocalDateTime(), resultSet.getTimestamp("updated_at").toLocalDateTime(),
+                            resultSet.getString("comments"), resultSet.getLong("version")));
+                }
+            }
+            return entities;
+        }
+    }
+
+    @Benchmark
+    public List<TransactionSummary> firstPage() throws SQLException {
+        return page("SELECT " + COLUMNS + " FROM stripe_transactions_bench WHERE user_id = ? "
+                + "ORDER BY created_at DESC, trans_id DESC LIMIT " + (PAGE_SIZE + 1), false);
+    }
+
+    @Benchmark
+    public List<TransactionSummary> middlePageKeyset() throws SQLException {
+        return page("SELECT " + COLUMNS + " FROM stripe_transactions_bench WHERE user_id = ? "
+                + "AND created_at <= ? AND (created_at < ? OR trans_id < ?) "
+                + "ORDER BY created_at DESC, trans_id DESC LIMIT " + (PAGE_SIZE + 1), true);
+    }
+
+    @Benchmark
+    public List<TransactionSummary> middlePageOffset() throws SQLException {
+        return page("SELECT " + COLUMNS + " FROM stripe_transactions_bench WHERE user_id = ? "
+                + "ORDER BY created_at DESC, trans_id DESC OFFSET " + rows / 2 + " LIMIT " + (PAGE_SIZE + 1), false);
+    }
+
+    private List<TransactionSummary> page(String sql, boolean keyset) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, USER_ID);
+            if (keyset) {
+                statement.setTimestamp(2, middleCreatedAt);
+                statement.setTimestamp(3, middleCreatedAt);
+                statement.setString(4, middleTransactionId);
+            }
+            List<TransactionSummary> page = new ArrayList<>(PAGE_SIZE + 1);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    page.add(new TransactionSummary(resultSet.getString(1), resultSet.getInt(2), resultSet.getString(3),
+                            resultSet.getBigDecimal(4), resultSet.getString(5), resultSet.getString(6), resultSet.getString(7),
+                            toLocalDateTime(resultSet.getTimestamp(8)), toLocalDateTime(resultSet.getTimestamp(9))));
+                }
+            }
+            return page;
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TransactionHistoryBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,153 @@
+package com.inata.stripe.test.paymentGateway.transactions.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IdempotencyCacheTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    void runsConcurrentRequestsWithTheSameKeyOnce() throws Exception {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 100);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ResponseEntity<?>> first = CompletableFuture.supplyAsync(() -> cache.execute("deposit", "key-1", "1:100", () -> {
+            runs.incrementAndGet();
+            await(release);
+            return ResponseEntity.status(HttpStatus.CREATED).body("pi_1");
+        }));
+        CompletableFuture<ResponseEntity<?>> retry = CompletableFuture.supplyAsync(() -> cache.execute("deposit", "key-1", "1:100", this::created));
+
+        // The retry must be waiting on the first request before it is allowed to finish
+        while (meterRegistry.counter("stripe.idempotency", "result", "coalesced").count() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals(HttpStatus.CREATED, first.get(5, TimeUnit.SECONDS).getStatusCode());
+        ResponseEntity<?> coalesced = retry.get(5, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.CREATED, coalesced.getStatusCode());
+        assertEquals("pi_1", coalesced.getBody());
+        assertEquals("true", coalesced.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void replaysAKeptResponse() {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 100);
+
+        cache.execute("deposit", "key-1", "1:100", this::created);
+        ResponseEntity<?> replayed = cache.execute("deposit", "key-1", "1:100", this::created);
+
+        assertEquals(HttpStatus.CREATED, replayed.getStatusCode());
+        assertEquals("true", replayed.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void refusesAKeyReusedWithDifferentParameters() {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 100);
+
+        cache.execute("deposit", "key-1", "1:100", this::created);
+        ResponseEntity<?> reused = cache.execute("deposit", "key-1", "1:999", this::created);
+
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, reused.getStatusCode());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void runsAgainAfterAServerError() {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 100);
+
+        ResponseEntity<?> failed = cache.execute("deposit", "key-1", "1:100", () -> respond(HttpStatus.BAD_GATEWAY));
+        ResponseEntity<?> retried = cache.execute("deposit", "key-1", "1:100", this::created);
+
+        assertEquals(HttpStatus.BAD_GATEWAY, failed.getStatusCode());
+        assertEquals(HttpStatus.CREATED, retried.getStatusCode());
+        assertNull(retried.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void runsAgainAfterAPendingResponse() {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 100);
+
+        cache.execute("deposit", "key-1", "1:100", () -> respond(HttpStatus.ACCEPTED));
+        ResponseEntity<?> resolved = cache.execute("deposit", "key-1", "1:100", this::created);
+
+        assertEquals(HttpStatus.CREATED, resolved.getStatusCode());
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void evictsTheOldestKeyBeyondMaxEntries() {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 2);
+
+        cache.execute("deposit", "key-1", "1:100", this::created);
+        cache.execute("deposit", "key-2", "1:100", this::created);
+        cache.execute("deposit", "key-3", "1:100", this::created);
+        assertEquals(3, runs.get());
+
+        cache.execute("deposit", "key-3", "1:100", this::created);
+        assertEquals(3, runs.get());
+        cache.execute("deposit", "key-1", "1:100", this::created);
+        assertEquals(4, runs.get());
+    }
+
+    @Test
+    void forgetsAKeyAfterTheTtl() throws InterruptedException {
+        IdempotencyCache cache = cache(Duration.ofMillis(1), 100);
+
+        cache.execute("deposit", "key-1", "1:100", this::created);
+        Thread.sleep(10);
+        ResponseEntity<?> again = cache.execute("deposit", "key-1", "1:100", this::created);
+
+        assertNull(again.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void keepsScopesApart() {
+        IdempotencyCache cache = cache(Duration.ofHours(1), 100);
+
+        cache.execute("deposit", "key-1", "1:100", this::created);
+        cache.execute("withdraw", "key-1", "1:100", this::created);
+
+        assertEquals(2, runs.get());
+        assertEquals(0, meterRegistry.counter("stripe.idempotency", "result", "replayed").count());
+    }
+
+    private IdempotencyCache cache(Duration ttl, int maxEntries) {
+        return new IdempotencyCache(meterRegistry, ttl, maxEntries, 5000);
+    }
+
+    private ResponseEntity<?> created() {
+        return respond(HttpStatus.CREATED);
+    }
+
+    private ResponseEntity<?> respond(HttpStatus status) {
+        runs.incrementAndGet();
+        return ResponseEntity.status(status).body("pi_" + runs.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
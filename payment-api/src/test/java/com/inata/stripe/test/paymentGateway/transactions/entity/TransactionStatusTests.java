@@ -0,0 +1,29 @@
+package com.inata.stripe.test.paymentGateway.transactions.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TransactionStatusTests {
+
+    @Test
+    void reachesEveryFinalStateOnlyFromPending() {
+        for (TransactionStatus status : List.of(TransactionStatus.DEPOSITED, TransactionStatus.PAID,
+                TransactionStatus.FAILED, TransactionStatus.CANCELED)) {
+            assertEquals(List.of("pending"), status.allowedFrom(), status.name());
+        }
+    }
+
+    @Test
+    void neverGoesBackToPending() {
+        assertEquals(List.of(), TransactionStatus.PENDING.allowedFrom());
+    }
+
+    @Test
+    void keepsTheStoredValues() {
+        assertEquals(List.of("pending", "deposited", "paid", "failed", "canceled"),
+                List.of(TransactionStatus.values()).stream().map(TransactionStatus::getValue).toList());
+    }
+}
@@ -0,0 +1,179 @@
+package com.inata.stripe.test.paymentGateway.transactions.repository;
+
+import com.inata.stripe.test.paymentGateway.outbox.OutboxDispatcher;
+import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionTransition;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.entity.UserBalanceEntity;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionService;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionStatusStream;
+import com.inata.stripe.test.paymentGateway.transactions.service.UserBalanceService;
+import com.stripe.StripeClient;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The status transition and the balance upserts are Postgres-only native SQL (H2 has no {@code UPDATE ... RETURNING}),
+ * so these run against a real Postgres; skipped where Docker is not available.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({TransactionService.class, UserBalanceService.class})
+@Testcontainers(disabledWithoutDocker = true)
+class TransactionRepositoryTests {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @MockitoBean
+    private StripeClient stripeClient;
+
+    @MockitoBean
+    private ConnectAccountService connectAccountService;
+
+    @MockitoBean
+    private OutboxDispatcher outboxDispatcher;
+
+    @MockitoBean
+    private TransactionStatusStream transactionStatusStream;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private UserBalanceService userBalanceService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void appliesAnAllowedTransitionAndReturnsTheRow() {
+        save("pi_1", 1, "deposit", "25.00", TransactionStatus.PENDING);
+
+        Optional<TransactionTransition> applied = transactionRepository.transitionStatus("pi_1",
+                TransactionStatus.DEPOSITED.allowedFrom(), "deposited", "Payment succeeded", LocalDateTime.now());
+
+        assertTrue(applied.isPresent());
+        assertEquals("pi_1", applied.get().getTransactionId());
+        assertEquals(1, applied.get().getUserId());
+        assertEquals("deposit", applied.get().getTransactionType());
+        assertEquals(0, new BigDecimal("25.00").compareTo(applied.get().getAmount()));
+        TransactionEntity row = reload("pi_1");
+        assertEquals("deposited", row.getStatus());
+        assertEquals("Payment succeeded", row.getComments());
+        assertEquals(1L, row.getVersion());
+    }
+
+    @Test
+    void rejectsATransitionOutOfAFinalState() {
+        save("pi_1", 1, "deposit", "25.00", TransactionStatus.DEPOSITED);
+
+        // payment_failed arriving after succeeded
+        Optional<TransactionTransition> applied = transactionRepository.transitionStatus("pi_1",
+                TransactionStatus.FAILED.allowedFrom(), "failed", "Payment failed", LocalDateTime.now());
+
+        assertFalse(applied.isPresent());
+        TransactionEntity row = reload("pi_1");
+        assertEquals("deposited", row.getStatus());
+        assertEquals(0L, row.getVersion());
+    }
+
+    @Test
+    void leavesNoStaleEntityBehindAfterATransition() {
+        save("pi_1", 1, "deposit", "25.00", TransactionStatus.PENDING);
+        entityManager.clear();
+        TransactionEntity loaded = transactionRepository.findById("pi_1").orElseThrow();
+
+        assertTrue(transactionService.transitionStatus("pi_1", TransactionStatus.DEPOSITED, "Payment succeeded"));
+
+        assertFalse(entityManager.contains(loaded));
+        TransactionEntity current = transactionRepository.findById("pi_1").orElseThrow();
+        assertEquals("deposited", current.getStatus());
+        assertEquals(1L, current.getVersion());
+        // Saving what was read afterwards does not trip over the bumped version
+        current.setComments("Reviewed");
+        transactionRepository.saveAndFlush(current);
+    }
+
+    @Test
+    void keepsTheIncrementalBalanceEqualToARebuild() {
+        create("pi_1", "deposit", "100.00");
+        create("pi_2", "deposit", "40.00");
+        create("pi_3", "deposit", "15.50");
+        create("wd_1", "withdraw", "30.00");
+        create("wd_2", "withdraw", "20.00");
+        create("wd_3", "withdraw", "5.00");
+
+        assertTrue(transactionService.transitionStatus("pi_1", TransactionStatus.DEPOSITED, "Payment succeeded"));
+        assertTrue(transactionService.transitionStatus("pi_2", TransactionStatus.FAILED, "Payment failed"));
+        assertFalse(transactionService.transitionStatus("pi_1", TransactionStatus.FAILED, "Payment failed"));
+        assertTrue(transactionService.transitionStatus("wd_1", TransactionStatus.PAID, "Payout Completed"));
+        assertTrue(transactionService.transitionStatus("wd_2", TransactionStatus.PAID, "Payout Completed"));
+        // Returned by the bank after it was paid
+        assertTrue(transactionService.transitionStatus("wd_2", TransactionStatus.PAID, TransactionStatus.FAILED, "account_closed"));
+        assertTrue(transactionService.transitionStatus("wd_3", TransactionStatus.CANCELED, "Payout Canceled"));
+
+        List<Object> incremental = balanceOf(1);
+        userBalanceService.rebuild();
+
+        assertEquals(balanceOf(1), incremental);
+    }
+
+    private void create(String id, String type, String amount) {
+        userBalanceService.recordCreated(save(id, 1, type, amount, TransactionStatus.PENDING));
+    }
+
+    private TransactionEntity save(String id, Integer userId, String type, String amount, TransactionStatus status) {
+        TransactionEntity transaction = new TransactionEntity();
+        transaction.setTransactionId(id);
+        transaction.setUserId(userId);
+        transaction.setTransactionType(type);
+        transaction.setAmount(new BigDecimal(amount));
+        transaction.setStatus(status.getValue());
+        transaction.setCreatedAt(LocalDateTime.now());
+        transaction.setUpdatedAt(LocalDateTime.now());
+        return transactionRepository.saveAndFlush(transaction);
+    }
+
+    private TransactionEntity reload(String id) {
+        entityManager.clear();
+        return transactionRepository.findById(id).orElseThrow();
+    }
+
+    /**
+     * Every column but updated_at, amounts at the column's scale.
+     */
+    private List<Object> balanceOf(Integer userId) {
+        entityManager.clear();
+        UserBalanceEntity balance = userBalanceRepository.findById(userId).orElseThrow();
+        return List.of(balance.getDepositedAmount().setScale(2), balance.getPaidOutAmount().setScale(2),
+                balance.getPendingDepositAmount().setScale(2), balance.getPendingWithdrawalAmount().setScale(2),
+                balance.getDepositCount(), balance.getWithdrawalCount(), balance.getFailedCount());
+    }
+}
@@ -0,0 +1,89 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.inata.stripe.test.paymentGateway.outbox.OutboxEntry;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxPendingException;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxStatus;
+import com.inata.stripe.test.paymentGateway.stripeusers.entity.StripeUser;
+import com.inata.stripe.test.paymentGateway.stripeusers.repository.StripeUserRepository;
+import com.inata.stripe.test.paymentGateway.transactions.dto.BulkDepositItem;
+import com.inata.stripe.test.paymentGateway.transactions.dto.BulkDepositResponse;
+import com.stripe.exception.StripeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkDepositServiceTests {
+
+    private final TransactionService transactionService = mock(TransactionService.class);
+
+    private final StripeUserRepository stripeUserRepository = mock(StripeUserRepository.class);
+
+    private BulkDepositService service;
+
+    @BeforeEach
+    void setUp() throws StripeException {
+        StripeUser user = new StripeUser();
+        user.setId(1);
+        when(stripeUserRepository.findAllById(any())).thenReturn(List.of(user));
+        when(transactionService.resolvePaymentMethodId(user)).thenReturn("pm_1");
+
+        service = new BulkDepositService(transactionService, stripeUserRepository);
+        ReflectionTestUtils.setField(service, "concurrency", 4);
+    }
+
+    @Test
+    void runsEachItemThroughTheOutboxUnderItsOwnRequestKey() throws Exception {
+        when(transactionService.submitAchDebit(eq(1), eq("pm_1"), anyLong(), anyString()))
+                .thenReturn("pi_1").thenReturn("pi_2");
+
+        BulkDepositResponse response = service.createDeposits(
+                List.of(new BulkDepositItem(1, 1000L), new BulkDepositItem(1, 2000L)), "key-1");
+
+        assertEquals(2, response.created());
+        verify(transactionService).submitAchDebit(1, "pm_1", 1000L, "deposit:key-1:0");
+        verify(transactionService).submitAchDebit(1, "pm_1", 2000L, "deposit:key-1:1");
+    }
+
+    @Test
+    void reportsAnItemWhoseOutcomeIsNotKnownYetAsPending() throws Exception {
+        OutboxEntry entry = new OutboxEntry();
+        entry.setId("op_1");
+        entry.setStatus(OutboxStatus.PENDING);
+        when(transactionService.submitAchDebit(anyInt(), anyString(), anyLong(), isNull()))
+                .thenThrow(new OutboxPendingException(entry));
+
+        BulkDepositResponse response = service.createDeposits(List.of(new BulkDepositItem(1, 1000L)), null);
+
+        assertEquals(0, response.created());
+        assertEquals(1, response.pending());
+        assertEquals(0, response.failed());
+        assertEquals("op_1", response.items().getFirst().operationId());
+        assertNull(response.items().getFirst().transactionId());
+    }
+
+    @Test
+    void failsOnlyTheItemsThatCannotBeDebited() throws Exception {
+        when(transactionService.submitAchDebit(anyInt(), anyString(), anyLong(), isNull())).thenReturn("pi_1");
+
+        BulkDepositResponse response = service.createDeposits(
+                List.of(new BulkDepositItem(1, 1000L), new BulkDepositItem(2, 1000L), new BulkDepositItem(1, 0L)), null);
+
+        assertEquals(1, response.created());
+        assertEquals(2, response.failed());
+        assertEquals("No Stripe details found for user", response.items().get(1).error());
+    }
+}
@@ -0,0 +1,108 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import com.inata.stripe.test.paymentGateway.webhook.handler.ExternalAccountCreatedHandler;
+import com.inata.stripe.test.paymentGateway.webhook.handler.ExternalAccountDeletedHandler;
+import com.stripe.StripeClient;
+import com.stripe.exception.StripeException;
+import com.stripe.model.BankAccount;
+import com.stripe.model.ExternalAccount;
+import com.stripe.model.StripeCollection;
+import com.stripe.param.AccountExternalAccountListParams;
+import com.stripe.service.AccountExternalAccountService;
+import com.stripe.service.AccountService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExternalAccountServiceTests {
+
+    private final AccountExternalAccountService externalAccounts = mock(AccountExternalAccountService.class);
+
+    private ExternalAccountService service;
+
+    @BeforeEach
+    void setUp() throws StripeException {
+        StripeClient stripeClient = mock(StripeClient.class);
+        AccountService accounts = mock(AccountService.class);
+        when(stripeClient.accounts()).thenReturn(accounts);
+        when(accounts.externalAccounts()).thenReturn(externalAccounts);
+        when(externalAccounts.list(anyString(), any(AccountExternalAccountListParams.class))).thenAnswer(call -> page());
+
+        service = new ExternalAccountService(mock(ConnectAccountService.class), stripeClient, new SimpleMeterRegistry(),
+                Duration.ofHours(1), 100);
+        service.registerMetrics();
+    }
+
+    @Test
+    void answersRepeatedReadsFromTheCache() throws StripeException {
+        List<ExternalAccount> first = service.getExternalAccounts("acct_1");
+
+        assertSame(first, service.getExternalAccounts("acct_1"));
+        verify(externalAccounts, times(1)).list(eq("acct_1"), any(AccountExternalAccountListParams.class));
+    }
+
+    @Test
+    void fetchesAgainAfterAnExternalAccountWebhook() throws Exception {
+        service.getExternalAccounts("acct_1");
+
+        new ExternalAccountCreatedHandler(service).handle(event("account.external_account.created", "acct_1", "ba_2"));
+        service.getExternalAccounts("acct_1");
+
+        verify(externalAccounts, times(2)).list(eq("acct_1"), any(AccountExternalAccountListParams.class));
+    }
+
+    @Test
+    void keepsOtherAccountsCached() throws Exception {
+        service.getExternalAccounts("acct_1");
+        service.getExternalAccounts("acct_2");
+
+        new ExternalAccountDeletedHandler(service).handle(event("account.external_account.deleted", "acct_2", "ba_2"));
+        service.getExternalAccounts("acct_1");
+
+        verify(externalAccounts, times(1)).list(eq("acct_1"), any(AccountExternalAccountListParams.class));
+    }
+
+    @Test
+    void doesNotCacheAReadThatOverlappedAnInvalidation() throws StripeException {
+        when(externalAccounts.list(eq("acct_1"), any(AccountExternalAccountListParams.class))).thenAnswer(call -> {
+            // The webhook lands while the list is on its way back from Stripe
+            service.externalAccountsChanged("acct_1", new ObjectMapper().createObjectNode(), null);
+            return page();
+        });
+
+        assertEquals(1, service.getExternalAccounts("acct_1").size());
+        assertFalse(service.externalAccountsChanged("acct_1", new ObjectMapper().createObjectNode(), null));
+    }
+
+    private static StripeCollection<ExternalAccount> page() {
+        BankAccount bankAccount = new BankAccount();
+        bankAccount.setId("ba_1");
+        StripeCollection<ExternalAccount> page = new StripeCollection<>();
+        page.setData(List.of(bankAccount));
+        return page;
+    }
+
+    private static StripeEvent event(String type, String account, String bankAccountId) throws Exception {
+        return StripeEvent.from(new ObjectMapper().readTree("""
+                {"id": "evt_1", "type": "%s", "created": 1700000000, "account": "%s",
+                 "data": {"object": {"id": "%s", "object": "bank_account", "account": "%s"}}}
+                """.formatted(type, account, bankAccountId, account)));
+    }
+}
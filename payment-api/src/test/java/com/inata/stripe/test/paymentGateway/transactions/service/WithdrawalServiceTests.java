@@ -0,0 +1,164 @@
+package com.inata.stripe.test.paymentGateway.transactions.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxDispatcher;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxEntry;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxHandler;
+import com.inata.stripe.test.paymentGateway.outbox.OutboxType;
+import com.inata.stripe.test.paymentGateway.stripeusers.service.ConnectAccountService;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.entity.WithdrawalEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.WithdrawalStep;
+import com.inata.stripe.test.paymentGateway.transactions.repository.TransactionRepository;
+import com.inata.stripe.test.paymentGateway.transactions.repository.WithdrawalRepository;
+import com.stripe.StripeClient;
+import com.stripe.model.Payout;
+import com.stripe.model.Transfer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WithdrawalServiceTests {
+
+    private final WithdrawalRepository withdrawalRepository = mock(WithdrawalRepository.class);
+
+    private final TransactionService transactionService = mock(TransactionService.class);
+
+    private final OutboxDispatcher outboxDispatcher = mock(OutboxDispatcher.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final Map<OutboxType, OutboxHandler<Object>> handlers = new HashMap<>();
+
+    private final WithdrawalEntity withdrawal = new WithdrawalEntity();
+
+    private WithdrawalService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(transactionService.transitionStatus(anyString(), any(), anyString())).thenReturn(true);
+        when(transactionService.transitionStatus(anyString(), any(), any(), anyString())).thenReturn(true);
+
+        withdrawal.setId("wd_1");
+        withdrawal.setUserId(1);
+        withdrawal.setAmount(5000L);
+        withdrawal.setConnectAccountId("acct_1");
+        when(withdrawalRepository.findById("wd_1")).thenReturn(Optional.of(withdrawal));
+
+        service = new WithdrawalService(withdrawalRepository, mock(TransactionRepository.class), transactionService,
+                mock(UserBalanceService.class), mock(ConnectAccountService.class), outboxDispatcher, transactionManager,
+                meterRegistry, mock(StripeClient.class));
+        service.registerOutboxHandlers();
+        ArgumentCaptor<OutboxType> types = ArgumentCaptor.forClass(OutboxType.class);
+        ArgumentCaptor<OutboxHandler<?>> registered = ArgumentCaptor.forClass(OutboxHandler.class);
+        verify(outboxDispatcher, times(3)).register(types.capture(), registered.capture());
+        for (int i = 0; i < 3; i++) {
+            handlers.put(types.getAllValues().get(i), (OutboxHandler<Object>) registered.getAllValues().get(i));
+        }
+    }
+
+    @Test
+    void paysOutOnceTheTransferIsRecorded() {
+        withdrawal.setStep(WithdrawalStep.TRANSFER);
+        Transfer transfer = new Transfer();
+        transfer.setId("tr_1");
+
+        handlers.get(OutboxType.WITHDRAWAL_TRANSFER).record(step(OutboxType.WITHDRAWAL_TRANSFER), transfer);
+        // Recorded again after a retry: still one payout
+        handlers.get(OutboxType.WITHDRAWAL_TRANSFER).record(step(OutboxType.WITHDRAWAL_TRANSFER), transfer);
+
+        assertEquals(WithdrawalStep.PAYOUT, withdrawal.getStep());
+        assertEquals("tr_1", withdrawal.getTransferId());
+        assertEquals(List.of(OutboxType.WITHDRAWAL_PAYOUT), enqueued());
+    }
+
+    @Test
+    void reversesTheTransferWhenStripeRefusesThePayout() {
+        withdrawal.setStep(WithdrawalStep.PAYOUT);
+
+        handlers.get(OutboxType.WITHDRAWAL_PAYOUT).failed(step(OutboxType.WITHDRAWAL_PAYOUT), "Insufficient funds");
+
+        assertEquals(WithdrawalStep.REVERSING, withdrawal.getStep());
+        assertEquals(List.of(OutboxType.WITHDRAWAL_REVERSAL), enqueued());
+        verify(transactionService).transitionStatus("wd_1", TransactionStatus.PENDING, TransactionStatus.FAILED, "Payout failed");
+    }
+
+    @Test
+    void appliesAPayoutWebhookThatArrivesBeforeThePayoutIsRecorded() throws Exception {
+        withdrawal.setStep(WithdrawalStep.PAYOUT);
+
+        assertTrue(service.payoutSettled(payout(), TransactionStatus.PAID, "Payout Completed"));
+        Payout payout = new Payout();
+        payout.setId("po_1");
+        handlers.get(OutboxType.WITHDRAWAL_PAYOUT).record(step(OutboxType.WITHDRAWAL_PAYOUT), payout);
+
+        assertEquals(WithdrawalStep.PAID, withdrawal.getStep());
+        assertEquals("po_1", withdrawal.getPayoutId());
+        verify(transactionService).transitionStatus("wd_1", TransactionStatus.PAID, "Payout Completed");
+    }
+
+    @Test
+    void reversesAPayoutThatFailsAfterItWasPaid() throws Exception {
+        withdrawal.setStep(WithdrawalStep.PAID);
+
+        assertTrue(service.payoutSettled(payout(), TransactionStatus.FAILED, "account_closed"));
+        // Stripe delivers it again
+        assertFalse(service.payoutSettled(payout(), TransactionStatus.FAILED, "account_closed"));
+
+        assertEquals(WithdrawalStep.REVERSING, withdrawal.getStep());
+        assertEquals(List.of(OutboxType.WITHDRAWAL_REVERSAL), enqueued());
+        verify(transactionService).transitionStatus("wd_1", TransactionStatus.PAID, TransactionStatus.FAILED, "account_closed");
+        assertEquals(1, meterRegistry.counter("stripe.withdrawal.returned").count());
+    }
+
+    @Test
+    void ignoresARepeatedPaidWebhook() throws Exception {
+        withdrawal.setStep(WithdrawalStep.PAID);
+
+        assertFalse(service.payoutSettled(payout(), TransactionStatus.PAID, "Payout Completed"));
+
+        verify(transactionService, never()).transitionStatus(anyString(), any(), anyString());
+        verify(outboxDispatcher, never()).enqueue(any());
+    }
+
+    private static OutboxEntry step(OutboxType type) {
+        OutboxEntry entry = new OutboxEntry(type, 1);
+        entry.setId("op_1");
+        entry.setReferenceId("wd_1");
+        return entry;
+    }
+
+    private static JsonNode payout() throws Exception {
+        return new ObjectMapper().readTree("{\"id\": \"po_1\", \"metadata\": {\"withdrawal_id\": \"wd_1\"}}");
+    }
+
+    private List<OutboxType> enqueued() {
+        ArgumentCaptor<OutboxEntry> entries = ArgumentCaptor.forClass(OutboxEntry.class);
+        verify(outboxDispatcher, atLeast(0)).enqueue(entries.capture());
+        return entries.getAllValues().stream().map(OutboxEntry::getType).toList();
+    }
+}
@@ -0,0 +1,89 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class EventDeduplicatorTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final EventDeduplicator deduplicator = new EventDeduplicator(mock(MongoTemplate.class), meterRegistry, 2);
+
+    @Test
+    void answersARetryOfASettledEventFromMemory() {
+        deduplicator.accepted("evt_1");
+        assertFalse(deduplicator.isRecentDuplicate("evt_1"));
+
+        deduplicator.settled("evt_1");
+
+        assertTrue(deduplicator.isRecentDuplicate("evt_1"));
+        assertEquals(1, count("miss"));
+        assertEquals(1, count("memory_hit"));
+    }
+
+    @Test
+    void remembersADuplicateTheIndexCaught() {
+        deduplicator.rejectedByIndex("evt_1");
+
+        assertTrue(deduplicator.isRecentDuplicate("evt_1"));
+        assertEquals(1, count("index_hit"));
+    }
+
+    @Test
+    void remembersAReappliedEventOnlyOnceItIsSettled() {
+        deduplicator.reapplying("evt_1");
+        assertFalse(deduplicator.isRecentDuplicate("evt_1"));
+
+        deduplicator.settled("evt_1");
+
+        assertTrue(deduplicator.isRecentDuplicate("evt_1"));
+        assertEquals(1, count("reapplied"));
+        assertEquals(0, count("miss"));
+    }
+
+    @Test
+    void forgetsAnEventThatWasNotApplied() {
+        deduplicator.settled("evt_1");
+
+        deduplicator.forget("evt_1");
+
+        assertFalse(deduplicator.isRecentDuplicate("evt_1"));
+        assertEquals(0, deduplicator.cacheSize());
+    }
+
+    @Test
+    void dropsTheOldestEventBeyondCacheSize() {
+        deduplicator.settled("evt_1");
+        deduplicator.settled("evt_2");
+        deduplicator.settled("evt_3");
+
+        assertFalse(deduplicator.isRecentDuplicate("evt_1"));
+        assertTrue(deduplicator.isRecentDuplicate("evt_3"));
+        assertEquals(2, deduplicator.cacheSize());
+    }
+
+    @Test
+    void settlesOnlyAppliedOrQueuedEntries() {
+        assertTrue(EventDeduplicator.isSettled(entry(null)));
+        assertTrue(EventDeduplicator.isSettled(entry("processed")));
+        assertTrue(EventDeduplicator.isSettled(entry("queued")));
+        assertFalse(EventDeduplicator.isSettled(entry("received")));
+        assertFalse(EventDeduplicator.isSettled(entry("failed")));
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("stripe.webhook.dedup", "result", result).count();
+    }
+
+    private static EventEntity entry(String status) {
+        EventEntity entity = new EventEntity();
+        entity.setStatus(status);
+        return entity;
+    }
+}
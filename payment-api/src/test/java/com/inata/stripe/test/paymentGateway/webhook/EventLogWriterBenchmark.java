@@ -0,0 +1,83 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event log inserts from many concurrent webhook requests: one {@code insert} per event versus
+ * {@link EventLogWriter} group commit. Needs a local MongoDB ({@code -Dmongo.uri}, default localhost:27017);
+ * writes to a throwaway {@code stripe_events_bench} database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(64)
+@Fork(1)
+public class EventLogWriterBenchmark {
+
+    private MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+
+    private EventLogWriter groupCommitWriter;
+
+    private Document payload;
+
+    @Setup(Level.Trial)
+    public void connect() {
+        client = MongoClients.create(System.getProperty("mongo.uri", "mongodb://localhost:27017"));
+        mongoTemplate = new MongoTemplate(client, "stripe_events_bench");
+        mongoTemplate.dropCollection(EventEntity.class);
+        new EventDeduplicator(mongoTemplate, new SimpleMeterRegistry(), 1).ensureIndex();
+
+        groupCommitWriter = new EventLogWriter(mongoTemplate, new SimpleMeterRegistry(), true, 100, 5, "ACKNOWLEDGED");
+        groupCommitWriter.start();
+
+        payload = new Document("object", new Document("id", "pi_bench").append("object", "payment_intent")
+                .append("amount", 125000).append("status", "succeeded"));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws InterruptedException {
+        groupCommitWriter.stop();
+        client.close();
+    }
+
+    @Benchmark
+    public EventEntity perEventInsert() {
+        return mongoTemplate.insert(newEvent());
+    }
+
+    @Benchmark
+    public EventEntity groupCommit() {
+        return groupCommitWriter.insert(newEvent());
+    }
+
+    private EventEntity newEvent() {
+        EventEntity entity = new EventEntity();
+        entity.setEventId("evt_" + UUID.randomUUID());
+        entity.setType("payment_intent.succeeded");
+        entity.setObjectId("pi_bench");
+        entity.setPayload(payload);
+        entity.setReceivedAt(Instant.now());
+        return entity;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(EventLogWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,147 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EventLogWriterTests {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> logs = mock(MongoCollection.class);
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getConverter()).thenReturn(mock(MongoConverter.class));
+        when(mongoTemplate.getCollectionName(EventEntity.class)).thenReturn("logs");
+        when(mongoTemplate.getCollection("logs")).thenReturn(logs);
+        when(logs.withWriteConcern(any())).thenReturn(logs);
+    }
+
+    @Test
+    void writesDirectInsertsWithTheConfiguredWriteConcern() {
+        EventLogWriter writer = new EventLogWriter(mongoTemplate, new SimpleMeterRegistry(), false, 100, 5, "MAJORITY");
+
+        assertNotNull(writer.insert(new EventEntity()).getId());
+
+        verify(logs).withWriteConcern(WriteConcern.MAJORITY);
+        verify(logs).insertOne(any(Document.class));
+    }
+
+    @Test
+    void reportsADuplicateEventOnTheDirectPath() {
+        EventLogWriter writer = new EventLogWriter(mongoTemplate, new SimpleMeterRegistry(), false, 100, 5, "ACKNOWLEDGED");
+        doThrow(new MongoWriteException(new WriteError(11000, "E11000 duplicate key error", new BsonDocument()),
+                new ServerAddress(), Set.of())).when(logs).insertOne(any(Document.class));
+
+        assertThrows(DuplicateKeyException.class, () -> writer.insert(new EventEntity()));
+    }
+
+    @Test
+    void reportsAnUnconfirmedDirectInsertAsWritten() {
+        EventLogWriter writer = new EventLogWriter(mongoTemplate, meterRegistry, false, 100, 5, "MAJORITY");
+        doThrow(new MongoWriteConcernException(writeConcernError(), null, new ServerAddress(), Set.of()))
+                .when(logs).insertOne(any(Document.class));
+
+        assertNotNull(writer.insert(new EventEntity()).getId());
+        assertEquals(1, meterRegistry.counter("stripe.webhook.log.write_concern_errors").count());
+    }
+
+    @Test
+    void completesTheWrittenEventsOfABatchWithAWriteConcernError() throws Exception {
+        EventLogWriter writer = new EventLogWriter(mongoTemplate, meterRegistry, true, 3, 1000, "MAJORITY");
+        // The second document collided with the unique index; the other two were written but not confirmed
+        doThrow(new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                List.of(new BulkWriteError(11000, "E11000 duplicate key error", new BsonDocument(), 1)),
+                writeConcernError(), new ServerAddress(), Set.of()))
+                .when(logs).insertMany(anyList(), any(InsertManyOptions.class));
+        writer.start();
+
+        CompletableFuture<EventEntity> first = writer.submit(new EventEntity());
+        CompletableFuture<EventEntity> duplicate = writer.submit(new EventEntity());
+        CompletableFuture<EventEntity> third = writer.submit(new EventEntity());
+
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        assertNotNull(third.get(5, TimeUnit.SECONDS));
+        ExecutionException failed = assertThrows(ExecutionException.class, () -> duplicate.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DuplicateKeyException.class, failed.getCause());
+        assertEquals(2, meterRegistry.counter("stripe.webhook.log.write_concern_errors").count());
+        writer.stop();
+    }
+
+    @Test
+    void insertsDirectlyOnceStopped() throws InterruptedException {
+        EventLogWriter writer = new EventLogWriter(mongoTemplate, new SimpleMeterRegistry(), true, 100, 5, "ACKNOWLEDGED");
+        writer.start();
+        writer.stop();
+
+        // Used to wait forever for a batch no flusher would write
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> writer.insert(new EventEntity()));
+
+        verify(logs).insertOne(any(Document.class));
+    }
+
+    @Test
+    void marksAnEventProcessedWithTheConfiguredWriteConcern() {
+        EventLogWriter writer = new EventLogWriter(mongoTemplate, meterRegistry, false, 100, 5, "MAJORITY");
+        EventEntity entity = new EventEntity();
+        entity.setId(new ObjectId().toHexString());
+
+        writer.markStatus(entity, "processed");
+
+        ArgumentCaptor<Bson> update = ArgumentCaptor.forClass(Bson.class);
+        verify(logs).withWriteConcern(WriteConcern.MAJORITY);
+        verify(logs).updateOne(eq(Filters.eq("_id", new ObjectId(entity.getId()))), update.capture());
+        Document set = ((Document) update.getValue()).get("$set", Document.class);
+        assertEquals("processed", set.get("status"));
+        assertNotNull(set.get("processedAt"));
+        assertEquals("processed", entity.getStatus());
+    }
+
+    private static WriteConcernError writeConcernError() {
+        return new WriteConcernError(64, "WriteConcernFailed", "waiting for replication timed out", new BsonDocument());
+    }
+}
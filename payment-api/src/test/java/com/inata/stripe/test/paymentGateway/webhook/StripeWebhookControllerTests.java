@@ -0,0 +1,133 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.net.Webhook;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StripeWebhookControllerTests {
+
+    private static final String SECRET = "whsec_test_secret";
+
+    private static final String PAYLOAD = "{\"id\": \"evt_1\", \"type\": \"payout.paid\", \"data\": {\"object\": {\"id\": \"po_1\"}}}";
+
+    private final EventRepo eventRepo = mock(EventRepo.class);
+
+    private final EventLogWriter eventLogWriter = mock(EventLogWriter.class);
+
+    private final EventHandlerRegistry eventHandlerRegistry = mock(EventHandlerRegistry.class);
+
+    private final WebhookWorkerPool workerPool = mock(WebhookWorkerPool.class);
+
+    private final EventDeduplicator eventDeduplicator = new EventDeduplicator(mock(MongoTemplate.class), new SimpleMeterRegistry(), 100);
+
+    private StripeWebhookController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new StripeWebhookController(new ObjectMapper(), new WebhookBodyReader(4096, 1),
+                new WebhookSignatureVerifier(SECRET, Webhook.DEFAULT_TOLERANCE), eventRepo, eventLogWriter,
+                eventHandlerRegistry, workerPool, eventDeduplicator);
+    }
+
+    @Test
+    void marksAnEventProcessedOnlyAfterItWasApplied() throws Exception {
+        assertEquals(HttpStatus.OK, deliver().getStatusCode());
+
+        InOrder order = inOrder(eventLogWriter, eventHandlerRegistry);
+        order.verify(eventLogWriter).insert(any(EventEntity.class));
+        order.verify(eventHandlerRegistry).dispatch(any());
+        order.verify(eventLogWriter).markStatus(any(EventEntity.class), eq("processed"));
+
+        // The retry is acked from memory
+        assertEquals("Duplicate", deliver().getBody());
+        verify(eventHandlerRegistry, times(1)).dispatch(any());
+    }
+
+    @Test
+    void asksForARetryWhenApplyingFailsAndAppliesTheRetry() throws Exception {
+        doThrow(new IllegalStateException("Deadlock detected")).doNothing().when(eventHandlerRegistry).dispatch(any());
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, deliver().getStatusCode());
+        verify(eventLogWriter).markStatus(any(EventEntity.class), eq("failed"));
+
+        // The failed entry is still in the log: the retry hits the unique index and takes it over
+        when(eventLogWriter.insert(any())).thenThrow(new DuplicateKeyException("E11000"));
+        when(eventRepo.findFirstByEventId("evt_1")).thenReturn(Optional.of(logged("failed")));
+
+        assertEquals("Received", deliver().getBody());
+        verify(eventHandlerRegistry, times(2)).dispatch(any());
+        verify(eventLogWriter).markStatus(any(EventEntity.class), eq("processed"));
+    }
+
+    @Test
+    void appliesARedeliveryOfAnEventLeftReceived() throws Exception {
+        // Logged by a process that died before applying it, or by a request that is still applying it
+        when(eventLogWriter.insert(any())).thenThrow(new DuplicateKeyException("E11000"));
+        when(eventRepo.findFirstByEventId("evt_1")).thenReturn(Optional.of(logged("received")));
+
+        assertEquals("Received", deliver().getBody());
+
+        verify(eventHandlerRegistry).dispatch(any());
+        verify(eventLogWriter).markStatus(any(EventEntity.class), eq("processed"));
+    }
+
+    @Test
+    void acksARedeliveryOfAProcessedEvent() throws Exception {
+        when(eventLogWriter.insert(any())).thenThrow(new DuplicateKeyException("E11000"));
+        when(eventRepo.findFirstByEventId("evt_1")).thenReturn(Optional.of(logged("processed")));
+
+        assertEquals("Duplicate", deliver().getBody());
+
+        verify(eventHandlerRegistry, never()).dispatch(any());
+        assertEquals(1, eventDeduplicator.cacheSize());
+    }
+
+    @Test
+    void leavesAnEventTheQueueRefusedForStripesRetry() throws Exception {
+        when(workerPool.isEnabled()).thenReturn(true);
+        when(workerPool.priorityOf(any())).thenReturn(EventPriority.NORMAL);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, deliver().getStatusCode());
+
+        verify(eventLogWriter).markStatus(any(EventEntity.class), eq("received"));
+        assertEquals(0, eventDeduplicator.cacheSize());
+    }
+
+    private ResponseEntity<String> deliver() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/stripe/webhook");
+        request.setContent(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        long now = Webhook.Util.getTimeNow();
+        request.addHeader("Stripe-Signature", "t=" + now + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, now + "." + PAYLOAD));
+        return controller.handleWebhook(request);
+    }
+
+    private static EventEntity logged(String status) {
+        EventEntity entity = new EventEntity();
+        entity.setId("6650c0ffee0000000000abcd");
+        entity.setEventId("evt_1");
+        entity.setStatus(status);
+        return entity;
+    }
+}
@@ -0,0 +1,83 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.net.Webhook;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Allocation per webhook request for reading, verifying and parsing the body: the original
+ * {@code BufferedReader.lines()} join versus {@link WebhookBodyReader} + {@link WebhookSignatureVerifier}
+ * on pooled bytes. Several threads hit both paths concurrently to mimic a burst of deliveries.
+ * Run with {@code main} (adds the GC profiler).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class WebhookBodyBenchmark {
+
+    private static final String SECRET = "whsec_benchmark";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final WebhookBodyReader bodyReader = new WebhookBodyReader(512 * 1024, 64);
+
+    private final WebhookSignatureVerifier signatureVerifier = new WebhookSignatureVerifier(SECRET, Webhook.DEFAULT_TOLERANCE);
+
+    private byte[] body;
+
+    private String sigHeader;
+
+    @Setup(Level.Trial)
+    public void loadPayload() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/webhook/payment_intent.succeeded.json")) {
+            // No trailing newline, otherwise the line-joined copy would no longer match the signature
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8).strip().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void sign() throws Exception {
+        long timestamp = Webhook.Util.getTimeNow();
+        sigHeader = "t=" + timestamp + ",v1="
+                + Webhook.Util.computeHmacSha256(SECRET, timestamp + "." + new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public JsonNode joinedLines() throws Exception {
+        String payload = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))
+                .lines().collect(Collectors.joining("\n"));
+        Webhook.Signature.verifyHeader(payload, sigHeader, SECRET, Webhook.DEFAULT_TOLERANCE);
+        return objectMapper.readTree(payload);
+    }
+
+    @Benchmark
+    public JsonNode pooledBytes() throws Exception {
+        try (WebhookBodyReader.Body request = bodyReader.read(new ByteArrayInputStream(body), body.length)) {
+            signatureVerifier.verify(request.bytes(), request.length(), sigHeader);
+            return objectMapper.readTree(request.bytes(), 0, request.length());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(WebhookBodyBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,74 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.model.Event;
+import com.stripe.net.Webhook;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event CPU and allocation of the webhook parse path: the original
+ * constructEvent / toJson / Document.parse / readTree-per-handler sequence versus a single Jackson parse.
+ * Run with {@code main} (adds the GC profiler for bytes allocated per event).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookParsingBenchmark {
+
+    private static final String SECRET = "whsec_benchmark";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String payload;
+
+    private String sigHeader;
+
+    @Setup(Level.Trial)
+    public void loadPayload() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/webhook/payment_intent.succeeded.json")) {
+            payload = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Re-signed every iteration so the timestamp stays inside Stripe's tolerance window
+    @Setup(Level.Iteration)
+    public void sign() throws Exception {
+        long timestamp = Webhook.Util.getTimeNow();
+        sigHeader = "t=" + timestamp + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, timestamp + "." + payload);
+    }
+
+    @Benchmark
+    public String constructEventAndReparse() throws Exception {
+        Event event = Webhook.constructEvent(payload, sigHeader, SECRET);
+        Document logPayload = Document.parse(event.getData().toJson());
+        JsonNode intentData = objectMapper.readTree(event.toJson()).get("data").get("object");
+        return logPayload.size() + intentData.get("id").asText();
+    }
+
+    @Benchmark
+    public String singleParse() throws Exception {
+        Webhook.Signature.verifyHeader(payload, sigHeader, SECRET, Webhook.DEFAULT_TOLERANCE);
+        StripeEvent event = StripeEvent.from(objectMapper.readTree(payload));
+        Document logPayload = objectMapper.convertValue(event.data(), Document.class);
+        return logPayload.size() + event.object().get("id").asText();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(WebhookParsingBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
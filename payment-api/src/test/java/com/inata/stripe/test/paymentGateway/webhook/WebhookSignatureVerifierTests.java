@@ -0,0 +1,65 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.net.Webhook;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WebhookSignatureVerifierTests {
+
+    private static final String SECRET = "whsec_test_secret";
+
+    private static final String PAYLOAD = "{\"id\":\"evt_1\",\"type\":\"payout.paid\",\r\n\"data\":{\"object\":{\"id\":\"po_1\"}}}";
+
+    private final WebhookSignatureVerifier verifier = new WebhookSignatureVerifier(SECRET, Webhook.DEFAULT_TOLERANCE);
+
+    @Test
+    void acceptsStripeSignatureOverRawBytes() throws Exception {
+        byte[] body = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+        // Trailing spare capacity, as in a pooled buffer
+        byte[] buffer = new byte[body.length + 32];
+        System.arraycopy(body, 0, buffer, 0, body.length);
+
+        assertDoesNotThrow(() -> verifier.verify(buffer, body.length, header(Webhook.Util.getTimeNow(), PAYLOAD)));
+    }
+
+    @Test
+    void acceptsAnyMatchingSignatureDuringSecretRotation() throws Exception {
+        long now = Webhook.Util.getTimeNow();
+        String header = "t=" + now + ",v1=" + "00".repeat(32) + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, now + "." + PAYLOAD);
+
+        assertDoesNotThrow(() -> verifier.verify(PAYLOAD.getBytes(StandardCharsets.UTF_8), PAYLOAD.length(), header));
+    }
+
+    @Test
+    void rejectsModifiedPayload() throws Exception {
+        String header = header(Webhook.Util.getTimeNow(), PAYLOAD);
+        byte[] normalised = PAYLOAD.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(SignatureVerificationException.class, () -> verifier.verify(normalised, normalised.length, header));
+    }
+
+    @Test
+    void rejectsTimestampOutsideTolerance() throws Exception {
+        String header = header(Webhook.Util.getTimeNow() - Webhook.DEFAULT_TOLERANCE - 60, PAYLOAD);
+        byte[] body = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(SignatureVerificationException.class, () -> verifier.verify(body, body.length, header));
+    }
+
+    @Test
+    void rejectsMissingOrMalformedHeader() {
+        byte[] body = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(SignatureVerificationException.class, () -> verifier.verify(body, body.length, null));
+        assertThrows(SignatureVerificationException.class, () -> verifier.verify(body, body.length, "v1=abc"));
+    }
+
+    private static String header(long timestamp, String payload) throws Exception {
+        return "t=" + timestamp + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, timestamp + "." + payload);
+    }
+}
@@ -0,0 +1,121 @@
+package com.inata.stripe.test.paymentGateway.webhook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebhookWorkerPoolTests {
+
+    private final EventHandlerRegistry registry = mock(EventHandlerRegistry.class);
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+    private final EventDeduplicator eventDeduplicator = mock(EventDeduplicator.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private WebhookWorkerPool pool;
+
+    @BeforeEach
+    void setUp() {
+        pool = new WebhookWorkerPool(registry, mongoTemplate, eventDeduplicator, meterRegistry, new ObjectMapper());
+        ReflectionTestUtils.setField(pool, "enabled", true);
+        ReflectionTestUtils.setField(pool, "partitions", 1);
+        ReflectionTestUtils.setField(pool, "queueCapacity", 10);
+        ReflectionTestUtils.setField(pool, "offerTimeoutMs", 50L);
+        ReflectionTestUtils.setField(pool, "maxAttempts", 3);
+        ReflectionTestUtils.setField(pool, "retryBackoffMs", 1L);
+        ReflectionTestUtils.setField(pool, "recoveryBatchSize", 2);
+        ReflectionTestUtils.setField(pool, "highPriorityTypes", Set.of());
+        ReflectionTestUtils.setField(pool, "lowPriorityTypes", Set.of());
+        ReflectionTestUtils.setField(pool, "shedLowAbove", 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.stop();
+    }
+
+    @Test
+    void retriesAFailingEventUntilItIsApplied() throws Exception {
+        pool.start();
+        EventEntity entity = queued("evt_1");
+        StripeEvent event = StripeEvent.fromLog(entity, new ObjectMapper());
+        doThrow(new IllegalStateException("Deadlock detected")).doNothing().when(registry).dispatch(event);
+
+        assertTrue(pool.submit(entity, event));
+
+        verify(mongoTemplate, timeout(2000)).updateFirst(any(Query.class), argThat(status("processed")), eq(EventEntity.class));
+        verify(registry, times(2)).dispatch(event);
+        assertEquals(1, meterRegistry.counter("stripe.webhook.retried").count());
+        assertEquals(0, meterRegistry.counter("stripe.webhook.failed").count());
+    }
+
+    @Test
+    void marksAnEventFailedAfterItsLastAttempt() throws Exception {
+        pool.start();
+        EventEntity entity = queued("evt_1");
+        StripeEvent event = StripeEvent.fromLog(entity, new ObjectMapper());
+        doThrow(new IllegalStateException("Deadlock detected")).when(registry).dispatch(event);
+
+        assertTrue(pool.submit(entity, event));
+
+        verify(mongoTemplate, timeout(2000)).updateFirst(any(Query.class), argThat(status("failed")), eq(EventEntity.class));
+        verify(registry, times(3)).dispatch(event);
+        assertEquals(1, meterRegistry.counter("stripe.webhook.failed").count());
+        verify(eventDeduplicator, timeout(2000)).forget("evt_1");
+    }
+
+    @Test
+    void recoversQueuedEventsAPageAtATime() throws Exception {
+        EventEntity first = queued("evt_1");
+        EventEntity second = queued("evt_2");
+        EventEntity third = queued("evt_3");
+        when(mongoTemplate.find(any(Query.class), eq(EventEntity.class))).thenReturn(List.of(first, second)).thenReturn(List.of(third));
+        doNothing().when(registry).dispatch(any());
+
+        pool.start();
+
+        ArgumentCaptor<Query> pages = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(pages.capture(), eq(EventEntity.class));
+        assertEquals(2, pages.getValue().getLimit());
+        assertEquals(new Document("$gt", new ObjectId(second.getId())), pages.getValue().getQueryObject().get("_id"));
+        verify(mongoTemplate, timeout(2000).times(3)).updateFirst(any(Query.class), argThat(status("processed")), eq(EventEntity.class));
+    }
+
+    private static EventEntity queued(String eventId) {
+        return new EventEntity(new ObjectId().toHexString(), eventId, "payout.paid",
+                new Document("object", new Document("id", "po_1")), "po_1", Instant.now(), "queued", null);
+    }
+
+    private static ArgumentMatcher<Update> status(String status) {
+        return update -> status.equals(update.getUpdateObject().get("$set", Document.class).get("status"));
+    }
+}
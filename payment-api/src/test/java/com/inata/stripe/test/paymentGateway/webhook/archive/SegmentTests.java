@@ -0,0 +1,67 @@
+package com.inata.stripe.test.paymentGateway.webhook.archive;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentTests {
+
+    private static final Codec<Document> CODEC = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sealedSegmentReadsBackEveryDocumentInOrder() throws Exception {
+        List<ObjectId> ids = new ArrayList<>();
+        SegmentWriter writer = new SegmentWriter(directory, "events-test", 16, 6);
+        for (int i = 0; i < 100; i++) {
+            ObjectId id = new ObjectId(new Date(1_700_000_000_000L + i * 1000L));
+            ids.add(id);
+            Document document = new Document("_id", id).append("eventId", "evt_" + i).append("type", "payout.paid")
+                    .append("payload", new Document("object", new Document("id", "po_" + i)));
+            writer.append(id, "evt_" + i, new RawBsonDocument(document, CODEC).getByteBuffer().asNIO());
+        }
+
+        try (Segment segment = writer.seal()) {
+            assertEquals(7, segment.blocks().size());
+            assertEquals(100, segment.events());
+            assertEquals(ids.getFirst(), segment.firstId());
+            assertEquals(ids.getLast(), segment.lastId());
+
+            List<ObjectId> read = new ArrayList<>();
+            for (Segment.Block block : segment.blocks()) {
+                assertTrue(block.eventIds().mightContain("evt_" + read.size()));
+                segment.read(block).forEach(document -> read.add(document.getObjectId("_id").getValue()));
+            }
+            assertEquals(ids, read);
+            assertEquals("po_42", segment.read(segment.blocks().get(2)).get(10).decode(CODEC)
+                    .get("payload", Document.class).get("object", Document.class).getString("id"));
+        }
+    }
+
+    @Test
+    void segmentWithoutIndexIsNotVisible() throws Exception {
+        SegmentWriter writer = new SegmentWriter(directory, "events-test", 16, 6);
+        ObjectId id = new ObjectId();
+        writer.append(id, "evt_1", new RawBsonDocument(new Document("_id", id), CODEC).getByteBuffer().asNIO());
+        writer.abort();
+
+        assertFalse(Files.exists(directory.resolve("events-test" + Segment.DATA_SUFFIX)));
+        assertFalse(Files.exists(directory.resolve("events-test" + Segment.INDEX_SUFFIX)));
+    }
+}
@@ -0,0 +1,123 @@
+package com.inata.stripe.test.paymentGateway.webhook.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inata.stripe.test.paymentGateway.transactions.dto.TransactionTransition;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionEntity;
+import com.inata.stripe.test.paymentGateway.transactions.entity.TransactionStatus;
+import com.inata.stripe.test.paymentGateway.transactions.repository.TransactionRepository;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionService;
+import com.inata.stripe.test.paymentGateway.transactions.service.TransactionStatusStream;
+import com.inata.stripe.test.paymentGateway.transactions.service.UserBalanceService;
+import com.inata.stripe.test.paymentGateway.webhook.StripeEvent;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the handlers against the real {@link TransactionService}, with a repository that applies a transition the
+ * way the conditional UPDATE does: only from one of the allowed statuses.
+ */
+class PaymentIntentHandlersTests {
+
+    private final Map<String, String> statuses = new HashMap<>();
+
+    private final UserBalanceService userBalanceService = mock(UserBalanceService.class);
+
+    private final TransactionStatusStream transactionStatusStream = mock(TransactionStatusStream.class);
+
+    private final EntityManager entityManager = mock(EntityManager.class);
+
+    private PaymentIntentSucceededHandler succeededHandler;
+
+    private PaymentIntentFailedHandler failedHandler;
+
+    private PaymentIntentCanceledHandler canceledHandler;
+
+    @BeforeEach
+    void setUp() {
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.transitionStatus(anyString(), anyCollection(), anyString(), any(), any())).thenAnswer(call -> {
+            String id = call.getArgument(0);
+            Collection<String> allowed = call.getArgument(1);
+            if (!statuses.containsKey(id) || !allowed.contains(statuses.get(id))) {
+                return Optional.empty();
+            }
+            statuses.put(id, call.getArgument(2));
+            return Optional.of(mock(TransactionTransition.class));
+        });
+        when(entityManager.getReference(eq(TransactionEntity.class), any())).thenReturn(new TransactionEntity());
+
+        TransactionService transactionService = new TransactionService();
+        ReflectionTestUtils.setField(transactionService, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(transactionService, "userBalanceService", userBalanceService);
+        ReflectionTestUtils.setField(transactionService, "transactionStatusStream", transactionStatusStream);
+        ReflectionTestUtils.setField(transactionService, "entityManager", entityManager);
+
+        succeededHandler = new PaymentIntentSucceededHandler(transactionService);
+        failedHandler = new PaymentIntentFailedHandler(transactionService);
+        canceledHandler = new PaymentIntentCanceledHandler(transactionService);
+    }
+
+    @Test
+    void settlesAPendingDeposit() throws Exception {
+        statuses.put("pi_1", "pending");
+
+        succeededHandler.handle(event("payment_intent.succeeded", "pi_1"));
+
+        assertEquals("deposited", statuses.get("pi_1"));
+        verify(userBalanceService).recordTransition(any(), eq(TransactionStatus.DEPOSITED));
+        verify(transactionStatusStream).publish(any(), eq(TransactionStatus.DEPOSITED), eq("Deposit Completed"));
+    }
+
+    @Test
+    void ignoresAPaymentFailedThatArrivesAfterSucceeded() throws Exception {
+        statuses.put("pi_1", "pending");
+
+        succeededHandler.handle(event("payment_intent.succeeded", "pi_1"));
+        failedHandler.handle(event("payment_intent.payment_failed", "pi_1"));
+
+        assertEquals("deposited", statuses.get("pi_1"));
+        verify(userBalanceService, times(1)).recordTransition(any(), any());
+        verify(transactionStatusStream, never()).publish(any(), eq(TransactionStatus.FAILED), anyString());
+    }
+
+    @Test
+    void leavesARejectedTransitionWithoutSideEffects() throws Exception {
+        statuses.put("pi_1", "canceled");
+
+        // A redelivery, or an intent this instance never created: handled, nothing to retry
+        succeededHandler.handle(event("payment_intent.succeeded", "pi_1"));
+        failedHandler.handle(event("payment_intent.payment_failed", "pi_1"));
+        canceledHandler.handle(event("payment_intent.canceled", "pi_1"));
+        succeededHandler.handle(event("payment_intent.succeeded", "pi_unknown"));
+
+        assertEquals("canceled", statuses.get("pi_1"));
+        verify(userBalanceService, never()).recordTransition(any(), any());
+        verify(transactionStatusStream, never()).publish(any(), any(), anyString());
+        verify(entityManager, never()).detach(any());
+    }
+
+    private static StripeEvent event(String type, String intentId) throws Exception {
+        return StripeEvent.from(new ObjectMapper().readTree("""
+                {"id": "evt_1", "type": "%s", "data": {"object": {"id": "%s", "status": "requires_payment_method",
+                 "last_payment_error": {"code": "insufficient_funds", "message": "Insufficient funds"}}}}
+                """.formatted(type, intentId)));
+    }
+}
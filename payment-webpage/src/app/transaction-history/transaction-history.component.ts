@@ -12,13 +12,36 @@ import { CommonModule } from '@angular/common';
 export class TransactionHistoryComponent {
   transactions: any[] = []; // Initialize as an empty array
   userId: number = 0;
+  nextCursor: string | null = null; // Null on the last page
+  loading: boolean = false;
 
   constructor() {}
 
   async ngOnInit() {
     this.userId = Number(sessionStorage.getItem('userId'));
-    const response = await axios.get(`http://localhost:8080/api/transactions/trans-history?userId=${this.userId}`);
-    this.transactions = response.data; // Assign the response data to the transactions array
+    await this.loadPage();
+  }
+
+  // Pages come newest first as {items, nextCursor}; "Load more" appends the next, older page
+  async loadMore() {
+    if (this.nextCursor) {
+      await this.loadPage(this.nextCursor);
+    }
+  }
+
+  private async loadPage(cursor?: string) {
+    this.loading = true;
+    try {
+      const params: any = { userId: this.userId };
+      if (cursor) {
+        params.cursor = cursor;
+      }
+      const response = await axios.get('http://localhost:8080/api/transactions/trans-history', { params });
+      this.transactions = [...this.transactions, ...response.data.items];
+      this.nextCursor = response.data.nextCursor;
+    } finally {
+      this.loading = false;
+    }
   }
 
 